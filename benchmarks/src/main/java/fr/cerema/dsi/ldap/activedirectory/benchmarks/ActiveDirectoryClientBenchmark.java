@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.benchmarks;
+
+import fr.cerema.dsi.ldap.activedirectory.client.ActiveDirectoryClientImpl;
+import fr.cerema.dsi.ldap.activedirectory.client.LdapConnectionConfigurer;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientException;
+import fr.cerema.dsi.ldap.activedirectory.client.model.AbstractAdObject;
+import fr.cerema.dsi.ldap.activedirectory.client.model.AdGroup;
+import fr.cerema.dsi.ldap.activedirectory.client.model.OrganizationalUnit;
+import org.apache.directory.api.ldap.codec.api.DefaultConfigurableBinaryAttributeDetector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the main operations of {@link ActiveDirectoryClientImpl} against a {@link SyntheticDirectory}
+ * <p>
+ * Each benchmark is measured in throughput and in sample time mode, the latter reporting the latency percentiles.
+ * The size of the connection pool is a parameter, the number of threads is given on the command line
+ * (-t) or by {@link BenchmarkRunner}. The objects requested are drawn at random in each invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class ActiveDirectoryClientBenchmark {
+
+    /**
+     * Number of objectSids resolved by one call to getObjectsBySid
+     */
+    private static final int SIDS_PER_LOOKUP = 50;
+
+    @Param({"2", "8", "32"})
+    public int poolSize;
+
+    @Param({"5000"})
+    public int userCount;
+
+    private SyntheticDirectory directory;
+    private ActiveDirectoryClientImpl client;
+    private List<String> userDns;
+    private List<String> sAMAccountNames;
+    private List<String> objectSids;
+    private List<String> rootGroupDns;
+    private List<String> departmentPaths;
+
+    @Setup
+    public void setUp() throws Exception {
+        directory = new SyntheticDirectory(userCount, 4, 3, 3, 4);
+        userDns = directory.getUserDns();
+        sAMAccountNames = directory.getUserSAMAccountNames();
+        objectSids = directory.getObjectSids();
+        rootGroupDns = directory.getRootGroupDns();
+        departmentPaths = directory.getDepartmentPaths();
+
+        LdapConnectionConfigurer configurer = new LdapConnectionConfigurer()
+                .configureLdapHost("localhost")
+                .configureLdapPort(directory.getPort())
+                .configureDn(SyntheticDirectory.BIND_DN)
+                .configureCredentials(SyntheticDirectory.BIND_PASSWORD)
+                .configureMaxActive(poolSize)
+                .configureMaxIdle(poolSize);
+        // the embedded server has no schema : the client must be told which attributes are binary
+        DefaultConfigurableBinaryAttributeDetector binaryAttributeDetector = new DefaultConfigurableBinaryAttributeDetector();
+        binaryAttributeDetector.addBinaryAttribute("objectSid", "objectGUID");
+        configurer.getLdapConnectionConfig().setBinaryAttributeDetector(binaryAttributeDetector);
+        client = new ActiveDirectoryClientImpl(configurer);
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+        directory.close();
+    }
+
+    @Benchmark
+    public AbstractAdObject getByDn() throws ActiveDirectoryClientException {
+        return client.getByDn(pick(userDns));
+    }
+
+    @Benchmark
+    public AbstractAdObject getBySAMAccountName() throws ActiveDirectoryClientException {
+        return client.getBySAMAccountName(pick(sAMAccountNames), SyntheticDirectory.DOMAIN_DN);
+    }
+
+    @Benchmark
+    public Set<AbstractAdObject> getObjectsBySid() throws ActiveDirectoryClientException {
+        List<String> sids = new ArrayList<>(SIDS_PER_LOOKUP);
+        for (int i = 0; i < SIDS_PER_LOOKUP; i++) {
+            sids.add(pick(objectSids));
+        }
+        return client.getObjectsBySid(sids, SyntheticDirectory.DOMAIN_DN);
+    }
+
+    @Benchmark
+    public Set<AbstractAdObject> getMembersForDNRecursive() throws ActiveDirectoryClientException {
+        return client.getMembersForDN(pick(rootGroupDns), true);
+    }
+
+    @Benchmark
+    public Set<AdGroup> getGroupsForDNRecursive() throws ActiveDirectoryClientException {
+        return client.getGroupsForDN(pick(userDns), true);
+    }
+
+    @Benchmark
+    public OrganizationalUnit findOrganizationalUnits() throws ActiveDirectoryClientException {
+        return client.findOrganizationalUnits(pick(departmentPaths));
+    }
+
+    private static String pick(List<String> values) {
+        return values.get(ThreadLocalRandom.current().nextInt(values.size()));
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.benchmarks;
+
+import fr.cerema.dsi.ldap.activedirectory.client.utils.ObjectGUIDConverter;
+import fr.cerema.dsi.ldap.activedirectory.client.utils.SidConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the objectSid and objectGUID codecs of the client with the implementations they replaced,
+ * kept in {@link Legacy}
+ * <p>
+ * Run with the gc profiler to compare the allocations as well : <code>java -jar target/benchmarks.jar Codec -prof gc</code>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+    private static final int VALUES = 1024;
+
+    private final byte[][] objectGUIDs = new byte[VALUES][];
+    private final byte[][] objectSids = new byte[VALUES][];
+    private final String[] sids = new String[VALUES];
+    private final StringBuilder reusedBuilder = new StringBuilder(256);
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < VALUES; i++) {
+            objectGUIDs[i] = new byte[16];
+            random.nextBytes(objectGUIDs[i]);
+            sids[i] = "S-1-5-21-" + (random.nextInt() & 0x7fffffff) + "-" + (random.nextInt() & 0x7fffffff) + "-"
+                    + (random.nextInt() & 0x7fffffff) + "-" + (1000 + random.nextInt(100000));
+            objectSids[i] = SidConverter.stringToBytes(sids[i]);
+        }
+    }
+
+    private int nextIndex() {
+        next = (next + 1) & (VALUES - 1);
+        return next;
+    }
+
+    @Benchmark
+    public String guidToStringLegacy() {
+        return Legacy.getObjectGUIDAsString(objectGUIDs[nextIndex()]);
+    }
+
+    @Benchmark
+    public String guidToString() {
+        return ObjectGUIDConverter.getObjectGUIDAsString(objectGUIDs[nextIndex()]);
+    }
+
+    @Benchmark
+    public int guidToReusedBuilder() {
+        reusedBuilder.setLength(0);
+        return ObjectGUIDConverter.appendObjectGUID(objectGUIDs[nextIndex()], reusedBuilder).length();
+    }
+
+    @Benchmark
+    public String sidToStringLegacy() {
+        return Legacy.bytesToString(objectSids[nextIndex()]);
+    }
+
+    @Benchmark
+    public String sidToString() {
+        return SidConverter.bytesToString(objectSids[nextIndex()]);
+    }
+
+    @Benchmark
+    public int sidToReusedBuilder() {
+        reusedBuilder.setLength(0);
+        return SidConverter.appendString(objectSids[nextIndex()], reusedBuilder).length();
+    }
+
+    @Benchmark
+    public String sidToFilterValueLegacy() {
+        return Legacy.bytesToFilterValue(Legacy.stringToBytes(sids[nextIndex()]));
+    }
+
+    @Benchmark
+    public String sidToFilterValue() {
+        return SidConverter.stringToFilterValue(sids[nextIndex()]);
+    }
+
+    /**
+     * The codecs replaced by the table driven ones, without their argument checks
+     */
+    static class Legacy {
+
+        private static String addLeadingZero(int k) {
+            return (k <= 0xF) ? "0" + Integer.toHexString(k) : Integer.toHexString(k);
+        }
+
+        static String getObjectGUIDAsString(byte[] GUID) {
+            String strGUID = "{";
+            strGUID = strGUID + addLeadingZero((int) GUID[3] & 0xFF);
+            strGUID = strGUID + addLeadingZero((int) GUID[2] & 0xFF);
+            strGUID = strGUID + addLeadingZero((int) GUID[1] & 0xFF);
+            strGUID = strGUID + addLeadingZero((int) GUID[0] & 0xFF);
+            strGUID = strGUID + "-";
+            strGUID = strGUID + addLeadingZero((int) GUID[5] & 0xFF);
+            strGUID = strGUID + addLeadingZero((int) GUID[4] & 0xFF);
+            strGUID = strGUID + "-";
+            strGUID = strGUID + addLeadingZero((int) GUID[7] & 0xFF);
+            strGUID = strGUID + addLeadingZero((int) GUID[6] & 0xFF);
+            strGUID = strGUID + "-";
+            strGUID = strGUID + addLeadingZero((int) GUID[8] & 0xFF);
+            strGUID = strGUID + addLeadingZero((int) GUID[9] & 0xFF);
+            strGUID = strGUID + "-";
+            for (int i = 10; i < 16; i++) {
+                strGUID = strGUID + addLeadingZero((int) GUID[i] & 0xFF);
+            }
+            strGUID = strGUID + "}";
+            return strGUID.toUpperCase();
+        }
+
+        static String bytesToString(byte[] bytes) {
+            int revision = bytes[0] & 0xff;
+            int numberOfSubAuthorityParts = bytes[1] & 0xff;
+            ByteBuffer bb = ByteBuffer.wrap(bytes);
+            long authority = bb.getLong() & 0xffffffffffffL;
+            int[] subAuthority = new int[numberOfSubAuthorityParts];
+            bb.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(subAuthority);
+            StringBuilder sb = new StringBuilder();
+            sb.append("S-");
+            sb.append(revision);
+            sb.append("-");
+            sb.append(authority);
+            for (int subAuthorityPart : subAuthority) {
+                sb.append("-");
+                sb.append(subAuthorityPart & 0xffffffffL);
+            }
+            return sb.toString();
+        }
+
+        static String bytesToFilterValue(byte[] bytes) {
+            StringBuilder sb = new StringBuilder(bytes.length * 3);
+            for (byte b : bytes) {
+                sb.append('\\');
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        }
+
+        static byte[] stringToBytes(String sid) {
+            String[] parts = sid.split("-");
+            int revision = Integer.parseInt(parts[1]);
+            int numberOfSubAuthorityParts = parts.length - 3;
+            long authority = Long.parseLong(parts[2]);
+            int[] subAuthority = new int[numberOfSubAuthorityParts];
+            for (int i = 0; i < numberOfSubAuthorityParts; i++) {
+                subAuthority[i] = (int) Long.parseLong(parts[3 + i]);
+            }
+            byte[] bytes = new byte[8 + numberOfSubAuthorityParts * 4];
+            ByteBuffer.wrap(bytes).putLong(authority);
+            bytes[0] = (byte) revision;
+            bytes[1] = (byte) numberOfSubAuthorityParts;
+            ByteBuffer.wrap(bytes, 8, bytes.length - 8)
+                    .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(subAuthority);
+            return bytes;
+        }
+    }
+}
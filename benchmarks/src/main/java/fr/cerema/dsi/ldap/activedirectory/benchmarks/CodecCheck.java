@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.benchmarks;
+
+import fr.cerema.dsi.ldap.activedirectory.client.utils.ObjectGUIDConverter;
+import fr.cerema.dsi.ldap.activedirectory.client.utils.SidConverter;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks the objectSid and objectGUID codecs against the implementations they replaced, on random values
+ * <p>
+ * Each value goes through bytes, string, bytes and filter value, and the strings are compared with the ones of
+ * {@link CodecBenchmark.Legacy}. The objectGUID strings written by version 1.0-RC2 (bytes 0x0F written with a single
+ * digit) are converted back as well : they must give the original bytes, or be rejected as ambiguous.
+ * <p>
+ * Run with <code>java -cp target/benchmarks.jar fr.cerema.dsi.ldap.activedirectory.benchmarks.CodecCheck [values]</code>,
+ * 200 000 values by default. Exits with an exception on the first difference.
+ */
+public class CodecCheck {
+
+    private static final int DEFAULT_VALUES = 200000;
+
+    public static void main(String[] args) {
+        int values = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_VALUES;
+        Random random = new Random(42);
+        int releasedForms = 0;
+        int ambiguousForms = 0;
+        for (int i = 0; i < values; i++) {
+            byte[] objectGUID = new byte[16];
+            random.nextBytes(objectGUID);
+            if (i % 4 == 0) {
+                // the random values seldom hold the 0x0F bytes the released form writes differently
+                objectGUID[random.nextInt(16)] = 0x0F;
+            }
+            checkObjectGUID(objectGUID);
+            String released = releasedObjectGUIDAsString(objectGUID);
+            if (released.length() < 38) {
+                releasedForms++;
+                if (!checkReleasedObjectGUID(released, objectGUID)) {
+                    ambiguousForms++;
+                }
+            }
+            checkSid(randomSid(random));
+        }
+        System.out.println(values + " objectGUIDs and objectSids checked, " + releasedForms
+                + " objectGUIDs in the form of version 1.0-RC2 of which " + ambiguousForms + " ambiguous");
+    }
+
+    private static void checkObjectGUID(byte[] objectGUID) {
+        String string = ObjectGUIDConverter.getObjectGUIDAsString(objectGUID);
+        check(string.equals(CodecBenchmark.Legacy.getObjectGUIDAsString(objectGUID)), "objectGUID string", string);
+        check(ObjectGUIDConverter.appendObjectGUID(objectGUID, new StringBuilder()).toString().equals(string),
+                "appended objectGUID", string);
+        check(Arrays.equals(ObjectGUIDConverter.stringToBytes(string), objectGUID), "objectGUID bytes", string);
+        check(Arrays.equals(ObjectGUIDConverter.stringToBytes(string.substring(1, 37).toLowerCase()), objectGUID),
+                "objectGUID bytes without braces", string);
+        String filterValue = ObjectGUIDConverter.getObjectGUIDAsFilterValue(objectGUID);
+        check(filterValue.equals(CodecBenchmark.Legacy.bytesToFilterValue(objectGUID)), "objectGUID filter value", string);
+        check(ObjectGUIDConverter.stringToFilterValue(string).equals(filterValue), "objectGUID filter value from string",
+                string);
+    }
+
+    /**
+     * Converts back an objectGUID string of version 1.0-RC2
+     * @return false if the string is rejected as ambiguous
+     */
+    private static boolean checkReleasedObjectGUID(String released, byte[] objectGUID) {
+        byte[] bytes;
+        try {
+            bytes = ObjectGUIDConverter.stringToBytes(released);
+        } catch (IllegalArgumentException iae) {
+            check(iae.getMessage().startsWith("Ambiguous"), "rejected objectGUID of version 1.0-RC2", released);
+            return false;
+        }
+        check(Arrays.equals(bytes, objectGUID), "objectGUID of version 1.0-RC2", released);
+        check(ObjectGUIDConverter.stringToFilterValue(released).equals(ObjectGUIDConverter.getObjectGUIDAsFilterValue(objectGUID)),
+                "filter value of an objectGUID of version 1.0-RC2", released);
+        return true;
+    }
+
+    private static void checkSid(byte[] objectSid) {
+        String string = SidConverter.bytesToString(objectSid);
+        check(string.equals(CodecBenchmark.Legacy.bytesToString(objectSid)), "objectSid string", string);
+        check(SidConverter.appendString(objectSid, new StringBuilder()).toString().equals(string), "appended objectSid",
+                string);
+        check(Arrays.equals(SidConverter.stringToBytes(string), objectSid), "objectSid bytes", string);
+        check(Arrays.equals(CodecBenchmark.Legacy.stringToBytes(string), objectSid), "objectSid bytes of the previous codec",
+                string);
+        String filterValue = SidConverter.bytesToFilterValue(objectSid);
+        check(filterValue.equals(CodecBenchmark.Legacy.bytesToFilterValue(objectSid)), "objectSid filter value", string);
+        check(SidConverter.stringToFilterValue(string).equals(filterValue), "objectSid filter value from string", string);
+    }
+
+    private static byte[] randomSid(Random random) {
+        int subAuthorities = 1 + random.nextInt(15);
+        byte[] objectSid = new byte[8 + 4 * subAuthorities];
+        random.nextBytes(objectSid);
+        objectSid[0] = 1;
+        objectSid[1] = (byte) subAuthorities;
+        return objectSid;
+    }
+
+    /**
+     * The objectGUID string as written by version 1.0-RC2, the bytes 0x0F having a single digit
+     */
+    private static String releasedObjectGUIDAsString(byte[] objectGUID) {
+        int[] order = {3, 2, 1, 0, -1, 5, 4, -1, 7, 6, -1, 8, 9, -1, 10, 11, 12, 13, 14, 15};
+        StringBuilder sb = new StringBuilder("{");
+        for (int index : order) {
+            if (index < 0) {
+                sb.append('-');
+            } else {
+                int k = objectGUID[index] & 0xFF;
+                sb.append(k < 0xF ? "0" + Integer.toHexString(k) : Integer.toHexString(k));
+            }
+        }
+        return sb.append('}').toString().toUpperCase();
+    }
+
+    private static void check(boolean condition, String conversion, String value) {
+        if (!condition) {
+            throw new IllegalStateException("Different " + conversion + " for " + value);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.benchmarks;
+
+import fr.cerema.dsi.ldap.activedirectory.client.AdEntryMapper;
+import fr.cerema.dsi.ldap.activedirectory.client.model.AbstractAdObject;
+import fr.cerema.dsi.ldap.activedirectory.client.model.AdGroup;
+import fr.cerema.dsi.ldap.activedirectory.client.model.AdUser;
+import fr.cerema.dsi.ldap.activedirectory.client.utils.ObjectGUIDConverter;
+import fr.cerema.dsi.ldap.activedirectory.client.utils.SidConverter;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the conversion of the entries by the compiled mappings of the {@link AdEntryMapper} with the attribute
+ * lookups they replaced, kept in {@link Legacy}
+ * <p>
+ * The entries hold two additional attributes, as configured with <code>configureAdditionalAttributes</code>.
+ * Run with the gc profiler to compare the allocations as well : <code>java -jar target/benchmarks.jar Mapping -prof gc</code>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappingBenchmark {
+
+    private static final int ENTRIES = 256;
+
+    private static final List<String> ADDITIONAL_ATTRIBUTES = Arrays.asList("employeeNumber", "title");
+
+    private final Entry[] userEntries = new Entry[ENTRIES];
+    private final Entry[] groupEntries = new Entry[ENTRIES];
+    private AdEntryMapper mapper;
+    private Legacy legacy;
+    private int next;
+
+    @Setup
+    public void setUp() throws LdapException {
+        mapper = new AdEntryMapper(ADDITIONAL_ATTRIBUTES);
+        legacy = new Legacy(ADDITIONAL_ATTRIBUTES);
+        Random random = new Random(42);
+        for (int i = 0; i < ENTRIES; i++) {
+            String userDn = "CN=User " + i + ",OU=Users,DC=bench,DC=local";
+            DefaultEntry user = new DefaultEntry(userDn);
+            user.add("objectClass", "top", "person", "organizationalPerson", "user");
+            user.add("distinguishedName", userDn);
+            user.add("sAMAccountName", "user" + i);
+            user.add("userPrincipalName", "user" + i + "@bench.local");
+            user.add("cn", "User " + i);
+            user.add("givenName", "First" + i);
+            user.add("sn", "Last" + i);
+            user.add("mail", "user" + i + "@bench.local");
+            user.add("telephoneNumber", "+33 1 23 45 " + i);
+            user.add("department", "Department " + (i % 10));
+            user.add("employeeNumber", String.valueOf(10000 + i));
+            user.add("title", "Engineer");
+            user.add("objectSid", objectSid(random));
+            user.add("objectGUID", objectGUID(random));
+            userEntries[i] = user;
+
+            String groupDn = "CN=Group " + i + ",OU=Groups,DC=bench,DC=local";
+            DefaultEntry group = new DefaultEntry(groupDn);
+            group.add("objectClass", "top", "group");
+            group.add("distinguishedName", groupDn);
+            group.add("sAMAccountName", "group" + i);
+            group.add("cn", "Group " + i);
+            group.add("description", "Group number " + i);
+            group.add("objectSid", objectSid(random));
+            group.add("objectGUID", objectGUID(random));
+            groupEntries[i] = group;
+        }
+    }
+
+    private static byte[] objectSid(Random random) {
+        return SidConverter.stringToBytes("S-1-5-21-1004336348-1177238915-682003330-" + (1000 + random.nextInt(100000)));
+    }
+
+    private static byte[] objectGUID(Random random) {
+        byte[] objectGUID = new byte[16];
+        random.nextBytes(objectGUID);
+        return objectGUID;
+    }
+
+    private int nextIndex() {
+        next = (next + 1) & (ENTRIES - 1);
+        return next;
+    }
+
+    @Benchmark
+    public AdUser userLegacy() throws LdapInvalidAttributeValueException {
+        return legacy.toUser(userEntries[nextIndex()]);
+    }
+
+    @Benchmark
+    public AdUser user() throws LdapInvalidAttributeValueException {
+        return mapper.toUser(userEntries[nextIndex()]);
+    }
+
+    @Benchmark
+    public AdGroup groupLegacy() throws LdapInvalidAttributeValueException {
+        return legacy.toGroup(groupEntries[nextIndex()]);
+    }
+
+    @Benchmark
+    public AdGroup group() throws LdapInvalidAttributeValueException {
+        return mapper.toGroup(groupEntries[nextIndex()]);
+    }
+
+    /**
+     * The conversions replaced by the compiled mappings, without their argument checks
+     */
+    static class Legacy {
+
+        private final List<String> additionalAttributes;
+
+        Legacy(List<String> additionalAttributes) {
+            this.additionalAttributes = additionalAttributes;
+        }
+
+        AdUser toUser(Entry userEntry) throws LdapInvalidAttributeValueException {
+            AdUser result = new AdUser();
+            result.setDistinguishedName(userEntry.get("distinguishedName").getString());
+            if (Objects.nonNull(userEntry.get("userPrincipalName"))) result.setUserPrincipalName(userEntry.get("userPrincipalName").getString());
+            result.setsAMAccountName(userEntry.get("sAMaccountName").getString());
+            if (Objects.nonNull(userEntry.get("cn"))) result.setCommonName(userEntry.get("cn").getString());
+            if (Objects.nonNull(userEntry.get("givenName"))) result.setFirstname(userEntry.get("givenName").getString());
+            if (Objects.nonNull(userEntry.get("mail"))) result.setMail(userEntry.get("mail").getString());
+            if (Objects.nonNull(userEntry.get("telephoneNumber"))) result.setTelephoneNumber(userEntry.get("telephoneNumber").getString());
+            if (Objects.nonNull(userEntry.get("department"))) result.setDepartment(userEntry.get("department").getString());
+            if (Objects.nonNull(userEntry.get("sn"))) result.setSurname(userEntry.get("sn").getString());
+            result.setObjectSid(userEntry.get("objectSid").getBytes());
+            result.setObjectGUID(ObjectGUIDConverter.getObjectGUIDAsString(userEntry.get("objectGUID").getBytes()));
+            this.setAdditionalAttributes(result, userEntry);
+            return result;
+        }
+
+        AdGroup toGroup(Entry groupEntry) throws LdapInvalidAttributeValueException {
+            AdGroup result = new AdGroup();
+            result.setDistinguishedName(groupEntry.get("distinguishedName").getString());
+            result.setsAMAccountName(groupEntry.get("sAMaccountName").getString());
+            if (Objects.nonNull(groupEntry.get("description"))) result.setDescription(groupEntry.get("description").getString());
+            if (Objects.nonNull(groupEntry.get("cn"))) result.setCommonName(groupEntry.get("cn").getString());
+            result.setObjectSid(groupEntry.get("objectSid").getBytes());
+            result.setObjectGUID(ObjectGUIDConverter.getObjectGUIDAsString(groupEntry.get("objectGUID").getBytes()));
+            this.setAdditionalAttributes(result, groupEntry);
+            return result;
+        }
+
+        private void setAdditionalAttributes(AbstractAdObject adObject, Entry entry) {
+            for (String attributeName : this.additionalAttributes) {
+                Attribute attribute = entry.get(attributeName);
+                if (attribute != null) {
+                    List<String> values = new ArrayList<>(attribute.size());
+                    for (Value<?> value : attribute) {
+                        values.add(value.getString());
+                    }
+                    adObject.getAdditionalAttributes().put(attributeName, values);
+                }
+            }
+        }
+    }
+}
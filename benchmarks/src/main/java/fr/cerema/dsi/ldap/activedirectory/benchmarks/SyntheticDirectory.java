@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.benchmarks;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPException;
+import fr.cerema.dsi.ldap.activedirectory.client.utils.SidConverter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Embedded in-memory ldap server holding a synthetic tree shaped like an Active Directory domain
+ * <p>
+ * The domain DC=lab,DC=Cerema,DC=fr holds the organizational unit tree used by
+ * {@link fr.cerema.dsi.ldap.activedirectory.client.utils.PathHelpers#createDnFromPath(String)} :
+ * under OU=Structure Amande, <i>ouFanout</i> directions each holding <i>ouFanout</i> services over
+ * <i>ouDepth</i> levels. The users are spread over the deepest organizational units. The groups, under OU=Groupes,
+ * form <i>groupFanout</i> trees of <i>groupDepth</i> levels nested through the member attribute,
+ * the users being members of the leaf groups.
+ * <p>
+ * The entries carry the attributes maintained by Active Directory and read by the client
+ * (distinguishedName, objectSid, objectGUID, sAMAccountName, memberOf...). The server does not check the schema.
+ * The tree is generated from a fixed seed, so that all the runs work on the same data.
+ */
+public class SyntheticDirectory implements AutoCloseable {
+
+    public static final String DOMAIN_DN = "DC=lab,DC=Cerema,DC=fr";
+    public static final String ROOT_OU_DN = "OU=Structure Amande," + DOMAIN_DN;
+    public static final String GROUPS_OU_DN = "OU=Groupes," + ROOT_OU_DN;
+    public static final String BIND_DN = "CN=benchmark,CN=Users," + DOMAIN_DN;
+    public static final String BIND_PASSWORD = "benchmark";
+
+    private static final String DOMAIN_SID = "S-1-5-21-1004336348-1177238915-682003330";
+    private static final String GLOBAL_SECURITY_GROUP = "-2147483646";
+
+    private final InMemoryDirectoryServer server;
+    private final Random random = new Random(42);
+    private int nextRid = 1100;
+
+    private final List<String> departmentPaths = new ArrayList<>();
+    private final List<String> leafOuDns = new ArrayList<>();
+    private final List<Group> rootGroups = new ArrayList<>();
+    private final List<Group> leafGroups = new ArrayList<>();
+    private final List<String> userDns = new ArrayList<>();
+    private final List<String> userSAMAccountNames = new ArrayList<>();
+    private final List<String> objectSids = new ArrayList<>();
+
+    /**
+     * Builds the tree and starts the server on a free port
+     * @param userCount the number of users
+     * @param ouFanout the number of children of each organizational unit
+     * @param ouDepth the number of levels of organizational units under OU=Structure Amande
+     * @param groupFanout the number of root groups, and of child groups of each group
+     * @param groupDepth the number of levels of nested groups
+     * @throws LDAPException if the server cannot be started
+     */
+    public SyntheticDirectory(int userCount, int ouFanout, int ouDepth, int groupFanout, int groupDepth) throws LDAPException {
+        InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(DOMAIN_DN);
+        config.setSchema(null);
+        config.addAdditionalBindCredentials(BIND_DN, BIND_PASSWORD);
+        config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("ldap", 0));
+        this.server = new InMemoryDirectoryServer(config);
+
+        Entry domain = new Entry(DOMAIN_DN);
+        domain.addAttribute("objectClass", "top", "domain", "domainDNS");
+        domain.addAttribute("dc", "lab");
+        domain.addAttribute("distinguishedName", DOMAIN_DN);
+        server.add(domain);
+        this.addOrganizationalUnit(ROOT_OU_DN, "Structure Amande");
+        this.addOrganizationalUnits(ROOT_OU_DN, "", 1, ouFanout, ouDepth);
+        this.addOrganizationalUnit(GROUPS_OU_DN, "Groupes");
+
+        for (int i = 1; i <= groupFanout; i++) {
+            rootGroups.add(this.createGroups(null, "G" + i, 1, groupFanout, groupDepth));
+        }
+        for (int i = 0; i < userCount; i++) {
+            String sAMAccountName = String.format("user%06d", i);
+            String dn = "CN=" + sAMAccountName + "," + leafOuDns.get(i % leafOuDns.size());
+            Group group = leafGroups.get(i % leafGroups.size());
+            group.members.add(dn);
+            Entry user = new Entry(dn);
+            user.addAttribute("objectClass", "top", "person", "organizationalPerson", "user");
+            user.addAttribute("distinguishedName", dn);
+            user.addAttribute("cn", sAMAccountName);
+            user.addAttribute("sAMAccountName", sAMAccountName);
+            user.addAttribute("userPrincipalName", sAMAccountName + "@lab.cerema.fr");
+            user.addAttribute("givenName", "Prenom" + i);
+            user.addAttribute("sn", "Nom" + i);
+            user.addAttribute("mail", sAMAccountName + "@cerema.fr");
+            user.addAttribute("memberOf", group.dn);
+            this.addIdentifiers(user);
+            server.add(user);
+            userDns.add(dn);
+            userSAMAccountNames.add(sAMAccountName);
+        }
+        for (Group root : rootGroups) {
+            this.addGroups(root);
+        }
+        server.startListening();
+    }
+
+    /**
+     * Returns the port the server listens to
+     * @return the port
+     */
+    public int getPort() {
+        return server.getListenPort();
+    }
+
+    /**
+     * Returns the paths of the first level organizational units, as given to findOrganizationalUnits
+     * @return the paths
+     */
+    public List<String> getDepartmentPaths() {
+        return Collections.unmodifiableList(departmentPaths);
+    }
+
+    /**
+     * Returns the dns of the users
+     * @return the dns
+     */
+    public List<String> getUserDns() {
+        return Collections.unmodifiableList(userDns);
+    }
+
+    /**
+     * Returns the sAMAccountNames of the users
+     * @return the sAMAccountNames
+     */
+    public List<String> getUserSAMAccountNames() {
+        return Collections.unmodifiableList(userSAMAccountNames);
+    }
+
+    /**
+     * Returns the objectSids of all the users and groups, in sid syntax
+     * @return the objectSids
+     */
+    public List<String> getObjectSids() {
+        return Collections.unmodifiableList(objectSids);
+    }
+
+    /**
+     * Returns the dns of the groups which are not member of another group
+     * @return the dns
+     */
+    public List<String> getRootGroupDns() {
+        List<String> dns = new ArrayList<>();
+        for (Group group : rootGroups) {
+            dns.add(group.dn);
+        }
+        return dns;
+    }
+
+    @Override
+    public void close() {
+        server.shutDown(true);
+    }
+
+    private void addOrganizationalUnits(String parentDn, String parentPath, int level, int fanout, int depth) throws LDAPException {
+        for (int i = 1; i <= fanout; i++) {
+            String name = (level == 1 ? "Direction " : "Service ") + level + "." + i;
+            String dn = "OU=" + name + "," + parentDn;
+            String path = parentPath.isEmpty() ? name : parentPath + "/" + name;
+            this.addOrganizationalUnit(dn, name);
+            if (level == 1) {
+                departmentPaths.add(path);
+            }
+            if (level < depth) {
+                this.addOrganizationalUnits(dn, path, level + 1, fanout, depth);
+            } else {
+                leafOuDns.add(dn);
+            }
+        }
+    }
+
+    private void addOrganizationalUnit(String dn, String name) throws LDAPException {
+        Entry ou = new Entry(dn);
+        ou.addAttribute("objectClass", "top", "organizationalUnit");
+        ou.addAttribute("distinguishedName", dn);
+        ou.addAttribute("ou", name);
+        ou.addAttribute("description", name);
+        ou.addAttribute("objectGUID", this.newObjectGUID());
+        server.add(ou);
+    }
+
+    private Group createGroups(Group parent, String name, int level, int fanout, int depth) {
+        Group group = new Group("CN=" + name + "," + GROUPS_OU_DN, name, parent);
+        if (level < depth) {
+            for (int i = 1; i <= fanout; i++) {
+                Group child = this.createGroups(group, name + "." + i, level + 1, fanout, depth);
+                group.members.add(child.dn);
+            }
+        } else {
+            leafGroups.add(group);
+        }
+        return group;
+    }
+
+    private void addGroups(Group group) throws LDAPException {
+        Entry entry = new Entry(group.dn);
+        entry.addAttribute("objectClass", "top", "group");
+        entry.addAttribute("distinguishedName", group.dn);
+        entry.addAttribute("cn", group.name);
+        entry.addAttribute("sAMAccountName", "grp-" + group.name);
+        entry.addAttribute("description", "Groupe " + group.name);
+        entry.addAttribute("groupType", GLOBAL_SECURITY_GROUP);
+        if (!group.members.isEmpty()) {
+            entry.addAttribute("member", group.members.toArray(new String[0]));
+        }
+        if (group.parent != null) {
+            entry.addAttribute("memberOf", group.parent.dn);
+        }
+        this.addIdentifiers(entry);
+        server.add(entry);
+        for (Group child : group.children) {
+            this.addGroups(child);
+        }
+    }
+
+    private void addIdentifiers(Entry entry) {
+        String objectSid = DOMAIN_SID + "-" + nextRid++;
+        entry.addAttribute("objectSid", SidConverter.stringToBytes(objectSid));
+        entry.addAttribute("objectGUID", this.newObjectGUID());
+        objectSids.add(objectSid);
+    }
+
+    private byte[] newObjectGUID() {
+        byte[] objectGUID = new byte[16];
+        random.nextBytes(objectGUID);
+        return objectGUID;
+    }
+
+    private static class Group {
+        private final String dn;
+        private final String name;
+        private final Group parent;
+        private final List<Group> children = new ArrayList<>();
+        private final List<String> members = new ArrayList<>();
+
+        private Group(String dn, String name, Group parent) {
+            this.dn = dn;
+            this.name = name;
+            this.parent = parent;
+            if (parent != null) {
+                parent.children.add(this);
+            }
+        }
+    }
+}
@@ -20,10 +20,16 @@ import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClien
 import fr.cerema.dsi.ldap.activedirectory.client.model.AbstractAdObject;
 import fr.cerema.dsi.ldap.activedirectory.client.model.AdGroup;
 import fr.cerema.dsi.ldap.activedirectory.client.model.AdUser;
+import fr.cerema.dsi.ldap.activedirectory.client.model.BatchLookupResult;
+import fr.cerema.dsi.ldap.activedirectory.client.model.MembershipChangeReport;
 import fr.cerema.dsi.ldap.activedirectory.client.model.OrganizationalUnit;
+import org.reactivestreams.Publisher;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Stream;
 
 /**
  * This interface exposes the API of the Active Directory Client
@@ -58,6 +64,18 @@ public interface ActiveDirectoryClient {
      */
     Set<AbstractAdObject> getMembersForDN(String dn, boolean recursive) throws ActiveDirectoryClientException;
 
+    /**
+     * Returns the set of {@link AbstractAdObject} that are members of the given DN (which de facto must be a group), if any
+     * @param dn the distinguished name of the group whose members will be returned
+     * @param recursive
+     * <p> if true, member groups will be recursively scanned and their users will be added to the returned set
+     * <p> if false, only members of the given group dn will be returned
+     * @param resolution the way recursive memberships are resolved (ignored if recursive is false)
+     * @return the set of objects members (recursively or not) of the given group dn
+     * @throws ActiveDirectoryClientException if an exception occurs during the method call
+     */
+    Set<AbstractAdObject> getMembersForDN(String dn, boolean recursive, MembershipResolution resolution) throws ActiveDirectoryClientException;
+
     /**
      * Returns the set of {@link AdGroup} containing the object whose dn is given as argument, if any
      * @param dn the distinguished name of the object we want to get the containing groups
@@ -69,6 +87,18 @@ public interface ActiveDirectoryClient {
      */
     Set<AdGroup> getGroupsForDN(String dn, boolean recursive) throws ActiveDirectoryClientException;
 
+    /**
+     * Returns the set of {@link AdGroup} containing the object whose dn is given as argument, if any
+     * @param dn the distinguished name of the object we want to get the containing groups
+     * @param recursive
+     * <p> if true, groups containing the groups of the object will be recursively added to the returned set
+     * <p> if false, only groups directly containing the object will be returned
+     * @param resolution the way recursive memberships are resolved (ignored if recursive is false)
+     * @return the set of groups containing (recursively or not) the given dn
+     * @throws ActiveDirectoryClientException if an exception occurs during the method call
+     */
+    Set<AdGroup> getGroupsForDN(String dn, boolean recursive, MembershipResolution resolution) throws ActiveDirectoryClientException;
+
     /**
      * Returns a Set of String containing the dn of objects whose sAMAccountNames <b>begin</b> with the sAMAccountName param.
      * @param sAMAccountName the sAMAccountName
@@ -78,6 +108,33 @@ public interface ActiveDirectoryClient {
      */
     Set<String> findBySAMAccountName(String sAMAccountName, String searchBase) throws ActiveDirectoryClientException;
 
+    /**
+     * Lazy variant of {@link #findBySAMAccountName(String, String)}
+     * <p>
+     * Results are requested page by page while the stream is consumed, so memory usage depends on the
+     * configured page size and not on the number of results.
+     * The stream must be closed if it is not entirely consumed (try-with-resources), so that its ldap connection
+     * is given back to the pool. Exceptions occurring while consuming the stream are thrown as
+     * {@link fr.cerema.dsi.ldap.activedirectory.client.exceptions.UncheckedActiveDirectoryClientException}.
+     * @param sAMAccountName the sAMAccountName
+     * @param searchBase the searchBase in the ldap directory
+     * @return the stream of dn whose sAMAccountNames begin with the given parameter
+     * @throws ActiveDirectoryClientException if the search cannot be built
+     */
+    Stream<String> streamBySAMAccountName(String sAMAccountName, String searchBase) throws ActiveDirectoryClientException;
+
+    /**
+     * Reactive variant of {@link #findBySAMAccountName(String, String)}
+     * <p>
+     * Each subscriber gets its own search, whose pages are requested from the server only as the subscriber's demand
+     * allows. Cancelling the subscription abandons the search. Exceptions are signaled with
+     * {@link org.reactivestreams.Subscriber#onError(Throwable)}.
+     * @param sAMAccountName the sAMAccountName
+     * @param searchBase the searchBase in the ldap directory
+     * @return the publisher of dn whose sAMAccountNames begin with the given parameter
+     */
+    Publisher<String> publishBySAMAccountName(String sAMAccountName, String searchBase);
+
     /**
      * Returns the only object whose sAMAccountName is given as sAMAccountName parameter, or null if not found
      * @param sAMAccountName the sAMAccountName of the object to get
@@ -137,6 +194,30 @@ public interface ActiveDirectoryClient {
      */
     void removeEntityFromGroup(String entityDn, String groupDn) throws ActiveDirectoryClientException;
 
+    /**
+     * Adds several existing entities to an existing group
+     * <p>
+     * The member values are sent by chunks of the configured size, so that a few modify requests are enough.
+     * A chunk refused by the server is split in two until the entities responsible of the refusal are found :
+     * the other entities are added, and each dn gets its own outcome in the returned report.
+     * @param entityDns the dns of the entities to add to the group
+     * @param groupDn the group's dn we must add the entities in
+     * @return the outcome of each dn
+     * @throws ActiveDirectoryClientException if the group does not exist, or if an exception occurs during the method call
+     */
+    MembershipChangeReport addEntitiesToGroup(Collection<String> entityDns, String groupDn) throws ActiveDirectoryClientException;
+
+    /**
+     * Removes several entities from a group
+     * <p>
+     * Works by chunks like {@link #addEntitiesToGroup(Collection, String)}.
+     * @param entityDns the dns of the entities to remove from the group
+     * @param groupDn the dn of the group the entities must be removed from
+     * @return the outcome of each dn
+     * @throws ActiveDirectoryClientException if the group does not exist, or if an exception occurs during the method call
+     */
+    MembershipChangeReport removeEntitiesFromGroup(Collection<String> entityDns, String groupDn) throws ActiveDirectoryClientException;
+
     /**
      * Return the object whose objectSid is given as parameter
      * @param objectSid the objectSid to search
@@ -148,13 +229,119 @@ public interface ActiveDirectoryClient {
 
     /**
      * Returns a set of objects whose objectSids are given in parameter
+     * <p>
+     * The set tells neither which sid each object was found with nor which sids were not found : use
+     * {@link #resolveSids(Collection, String)} to match the objects with the sids.
      * @param sids the {@link List} of objectSid to search
      * @param searchBase the searchBase
-     * @return the set of objects whose objectSids are those given as parameters
+     * @return the set of objects whose objectSids are those given as parameters, containing null if a sid was not found
      * @throws ActiveDirectoryClientException if an exception occurs during the method call
      */
     Set<AbstractAdObject> getObjectsBySid(List<String> sids, String searchBase) throws ActiveDirectoryClientException;
 
+    /**
+     * Returns the objects whose objectSids are given in parameter, indexed by objectSid
+     * <p>
+     * The sids are searched by chunks of {@link LdapConnectionConfigurer#configureLookupBatchSize(int)} values, each chunk
+     * being a single search with an OR filter of binary objectSid values.
+     * The chunks are searched concurrently on several pooled connections.
+     * @param sids the objectSids to search, in the S-1-5-21-... syntax
+     * @param searchBase the searchBase
+     * @return the objects found indexed by the sids given as parameter, and the sids not found (or not valid)
+     * @throws ActiveDirectoryClientException if an exception occurs during the method call
+     */
+    BatchLookupResult<AbstractAdObject> resolveSids(Collection<String> sids, String searchBase) throws ActiveDirectoryClientException;
+
+    /**
+     * Tells whether the entity is a direct member of the group
+     * <p>
+     * Uses the ldap compare operation on the member attribute of the group : only the answer is returned by the server,
+     * not the members of the group.
+     * @param entityDn the dn of the user or group
+     * @param groupDn the dn of the group
+     * @return true if the entity is a member of the group
+     * @throws ActiveDirectoryClientException if the group does not exist, or if an exception occurs during the method call
+     */
+    boolean isDirectMember(String entityDn, String groupDn) throws ActiveDirectoryClientException;
+
+    /**
+     * Tells whether the entity is a member of the group, directly or through nested groups
+     * <p>
+     * Uses a base search on the entity with the Active Directory LDAP_MATCHING_RULE_IN_CHAIN on memberOf : the nested
+     * groups are walked by the server, which returns the entity only if it is a member.
+     * @param entityDn the dn of the user or group
+     * @param groupDn the dn of the group
+     * @return true if the entity is a transitive member of the group
+     * @throws ActiveDirectoryClientException if the entity does not exist, or if an exception occurs during the method call
+     */
+    boolean isTransitiveMember(String entityDn, String groupDn) throws ActiveDirectoryClientException;
+
+    /**
+     * Tells for each group whether the entity is a member of it, directly or through nested groups
+     * <p>
+     * The groups are checked by chunks of {@link LdapConnectionConfigurer#configureLookupBatchSize(int)} groups of the
+     * same domain, each chunk being a single search of the groups of the chunk having the entity as member in chain.
+     * @param entityDn the dn of the user or group
+     * @param groupDns the dns of the groups
+     * @return for each dn given as parameter, true if the entity is a transitive member of the group
+     * @throws ActiveDirectoryClientException if a dn is not valid, or if an exception occurs during the method call
+     */
+    Map<String, Boolean> isTransitiveMember(String entityDn, Collection<String> groupDns) throws ActiveDirectoryClientException;
+
+    /**
+     * Returns the objectSids of all the security groups the object is transitively member of
+     * <p>
+     * The sids are read from the constructed tokenGroups attribute of the object, computed by the domain controller
+     * with a single base search, including the primary group and the groups of the other domains of the forest. The
+     * distribution groups are not included. This is enough for authorization checks, which compare sids.
+     * @param dn the dn of the user or group
+     * @return the sids of the groups, in the S-1-5-21-... syntax, empty if the object is not found
+     * @throws ActiveDirectoryClientException if an exception occurs during the method call
+     */
+    Set<String> getTokenGroupSids(String dn) throws ActiveDirectoryClientException;
+
+    /**
+     * Returns all the security groups the object is transitively member of
+     * <p>
+     * The sids of the groups are read with {@link #getTokenGroupSids(String)}, then resolved with
+     * {@link #resolveSids(Collection, String)} : one request for the sids, and one request per chunk of sids, instead
+     * of one request per group of {@link #getGroupsForDN(String, boolean)}. The groups outside the search base (builtin
+     * groups of another domain, well-known sids) are not returned.
+     * @param dn the dn of the user or group
+     * @param searchBase the searchBase of the groups
+     * @return the groups, empty if the object is not found
+     * @throws ActiveDirectoryClientException if an exception occurs during the method call
+     */
+    Set<AdGroup> getEffectiveGroups(String dn, String searchBase) throws ActiveDirectoryClientException;
+
+    /**
+     * Returns the user, group or organizational unit whose objectGUID is given as parameter
+     * <p>
+     * Unlike the dn, the objectGUID of an object does not change when it is renamed or moved. The object is searched
+     * with an equality filter on the indexed objectGUID attribute, in the whole forest through the Global Catalog when
+     * it is enabled ({@link LdapConnectionConfigurer#configureGlobalCatalogPort(int)}) and reachable, otherwise
+     * <b>only in the default naming context of the server</b> : the objects of the other domains are not found.
+     * @param objectGUID the objectGUID, in the {XXXXXXXX-XXXX-XXXX-XXXX-XXXXXXXXXXXX} format of
+     *                   {@link AbstractAdObject#getObjectGUID()}
+     * @return the found object or null if not found
+     * @throws ActiveDirectoryClientException if the objectGUID is not valid, or if an exception occurs during the
+     * method call
+     */
+    AbstractAdObject getByObjectGuid(String objectGUID) throws ActiveDirectoryClientException;
+
+    /**
+     * Returns the users, groups and organizational units whose objectGUIDs are given in parameter, indexed by objectGUID
+     * <p>
+     * The objectGUIDs are searched by chunks of {@link LdapConnectionConfigurer#configureLookupBatchSize(int)} values,
+     * each chunk being a single search with an OR filter of binary objectGUID values, run concurrently like the chunks
+     * of {@link #resolveSids(Collection, String)}. They are searched in the same naming contexts as
+     * {@link #getByObjectGuid(String)}.
+     * @param objectGUIDs the objectGUIDs to search
+     * @return the objects found indexed by the objectGUIDs given as parameter, and the objectGUIDs not found (or not valid)
+     * @throws ActiveDirectoryClientException if an exception occurs during the method call
+     */
+    BatchLookupResult<AbstractAdObject> getByObjectGuids(Collection<String> objectGUIDs) throws ActiveDirectoryClientException;
+
     /**
      * Returns a set of {@link AbstractAdObject} whose commonName (ie. cn)
      * <b>contains</b> the commonName given as parameter.
@@ -167,6 +354,33 @@ public interface ActiveDirectoryClient {
      */
     Set<AbstractAdObject> findByCommonName(String commonName, String searchBase) throws ActiveDirectoryClientException;
 
+    /**
+     * Lazy variant of {@link #findByCommonName(String, String)}
+     * <p>
+     * Results are requested page by page while the stream is consumed, so memory usage depends on the
+     * configured page size and not on the number of results.
+     * The stream must be closed if it is not entirely consumed (try-with-resources), so that its ldap connection
+     * is given back to the pool. Exceptions occurring while consuming the stream are thrown as
+     * {@link fr.cerema.dsi.ldap.activedirectory.client.exceptions.UncheckedActiveDirectoryClientException}.
+     * @param commonName the string that must be contained in results commonName
+     * @param searchBase the dn of the search base
+     * @return the stream of {@link AbstractAdObject} whose common name <b>contains</b> commonName parameter
+     * @throws ActiveDirectoryClientException if the search cannot be built
+     */
+    Stream<AbstractAdObject> streamByCommonName(String commonName, String searchBase) throws ActiveDirectoryClientException;
+
+    /**
+     * Reactive variant of {@link #findByCommonName(String, String)}
+     * <p>
+     * Each subscriber gets its own search, whose pages are requested from the server only as the subscriber's demand
+     * allows. Cancelling the subscription abandons the search. Exceptions are signaled with
+     * {@link org.reactivestreams.Subscriber#onError(Throwable)}.
+     * @param commonName the string that must be contained in results commonName
+     * @param searchBase the dn of the search base
+     * @return the publisher of {@link AbstractAdObject} whose common name <b>contains</b> commonName parameter
+     */
+    Publisher<AbstractAdObject> publishByCommonName(String commonName, String searchBase);
+
     /**
      * Returns the only Object whose dn is given as parameter, or null if not found
      * @param dn the dn of the object to get
@@ -20,62 +20,291 @@ import fr.cerema.dsi.ldap.activedirectory.client.exceptions.*;
 import fr.cerema.dsi.ldap.activedirectory.client.model.AbstractAdObject;
 import fr.cerema.dsi.ldap.activedirectory.client.model.AdGroup;
 import fr.cerema.dsi.ldap.activedirectory.client.model.AdUser;
+import fr.cerema.dsi.ldap.activedirectory.client.model.BatchLookupResult;
+import fr.cerema.dsi.ldap.activedirectory.client.model.MembershipChangeReport;
 import fr.cerema.dsi.ldap.activedirectory.client.model.OrganizationalUnit;
+import fr.cerema.dsi.ldap.activedirectory.client.pool.DomainController;
+import fr.cerema.dsi.ldap.activedirectory.client.pool.LdapConnectionSource;
+import fr.cerema.dsi.ldap.activedirectory.client.pool.MonitoredLdapConnectionPool;
+import fr.cerema.dsi.ldap.activedirectory.client.pool.RoutingLdapConnectionPool;
+import fr.cerema.dsi.ldap.activedirectory.client.search.GlobalCatalog;
+import fr.cerema.dsi.ldap.activedirectory.client.search.PagedSearch;
+import fr.cerema.dsi.ldap.activedirectory.client.search.PagedSearchPublisher;
 import fr.cerema.dsi.ldap.activedirectory.client.utils.ObjectGUIDConverter;
 import fr.cerema.dsi.ldap.activedirectory.client.utils.PathHelpers;
+import fr.cerema.dsi.ldap.activedirectory.client.utils.SidConverter;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
 import org.apache.directory.api.ldap.model.cursor.EntryCursor;
-import org.apache.directory.api.ldap.model.cursor.SearchCursor;
 import org.apache.directory.api.ldap.model.entry.*;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.filter.FilterEncoder;
 import org.apache.directory.api.ldap.model.message.*;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.ldap.client.api.*;
+import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.util.Assert;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.List;
-import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 /**
  * This is the core class of ActiveDirectoryClient
  * It implements the API defined in {@link ActiveDirectoryClient} interface
  */
-public class ActiveDirectoryClientImpl implements ActiveDirectoryClient {
+public class ActiveDirectoryClientImpl implements ActiveDirectoryClient, AutoCloseable {
 
     private static Logger LOG;
+    private static final String TOKEN_GROUPS_ATTRIBUTE = "tokenGroups";
+    private static final String NO_ATTRIBUTES = "1.1";
     private LdapConnectionConfig ldapConnectionConfig;
-    private LdapConnectionPool ldapConnectionPool;
+    private LdapConnectionSource ldapConnectionPool;
+    private LdapConnectionSource globalCatalogPool;
+    private GlobalCatalog globalCatalog;
+    private int pageSize;
+    private long operationTimeout;
+    private int lookupBatchSize;
+    private List<String> additionalAttributes;
+    private List<String> ldapHosts;
+
+    private AdEntryMapper entryMapper;
+    private MembershipResolution membershipResolution;
+    private ExecutorService executorService;
+    private ExecutorService publisherExecutorService;
+    private BreadthFirstGroupExpander groupExpander;
+    private ChunkedMembershipModifier membershipModifier;
+    private String[] userOrGroupAttributes;
+    private String[] groupAttributes;
+    private String[] objectAttributes;
+    private String[] organizationalUnitAttributes;
+    private volatile String defaultNamingContext;
 
     /**
      * Public constructor for this class
      * @param config the Ldap Connection config to use
      */
     public ActiveDirectoryClientImpl(LdapConnectionConfig config) {
+        this(new LdapConnectionConfigurer(config));
+    }
+
+    /**
+     * Public constructor for this class
+     * @param configurer the configurer holding the Ldap Connection config and the client's settings
+     */
+    public ActiveDirectoryClientImpl(LdapConnectionConfigurer configurer) {
         LOG = LoggerFactory.getLogger(ActiveDirectoryClientImpl.class);
+        LdapConnectionConfig config = configurer.getLdapConnectionConfig();
         this.ldapConnectionConfig = config;
+        this.pageSize = configurer.getPageSize();
+        this.operationTimeout = configurer.getOperationTimeout();
+        this.lookupBatchSize = configurer.getLookupBatchSize();
+        this.additionalAttributes = configurer.getAdditionalAttributes();
+        this.ldapHosts = configurer.getLdapHosts();
+        this.entryMapper = new AdEntryMapper(this.additionalAttributes);
+        this.membershipResolution = configurer.getMembershipResolution();
+        this.userOrGroupAttributes = this.attributesFor(AdUser.LDAP_ATTRIBUTES, AdGroup.LDAP_ATTRIBUTES);
+        this.groupAttributes = this.attributesFor(AdGroup.LDAP_ATTRIBUTES);
+        this.objectAttributes = this.attributesFor(AdUser.LDAP_ATTRIBUTES, AdGroup.LDAP_ATTRIBUTES,
+                OrganizationalUnit.LDAP_ATTRIBUTES);
+        this.organizationalUnitAttributes = this.attributesFor(OrganizationalUnit.LDAP_ATTRIBUTES);
         LOG.info("Bean activeDirectoryClient instance configured with : " + this.getLdapConnectionParameters());
+        List<LdapConnectionConfig> domainControllerConfigs = new ArrayList<>(ldapHosts.size());
+        if (ldapHosts.size() > 1) {
+            for (String ldapHost : ldapHosts) {
+                domainControllerConfigs.add(configurer.createLdapConnectionConfig(ldapHost));
+            }
+        } else {
+            domainControllerConfigs.add(config);
+        }
+        this.ldapConnectionPool = this.createPool(domainControllerConfigs, configurer);
+        int globalCatalogPort = configurer.getGlobalCatalogPort();
+        if (globalCatalogPort > 0) {
+            List<LdapConnectionConfig> globalCatalogConfigs = new ArrayList<>(ldapHosts.size());
+            for (String ldapHost : ldapHosts) {
+                LdapConnectionConfig globalCatalogConfig = configurer.createLdapConnectionConfig(ldapHost);
+                globalCatalogConfig.setLdapPort(globalCatalogPort);
+                if (globalCatalogPort == GlobalCatalog.GLOBAL_CATALOG_SSL_PORT) {
+                    globalCatalogConfig.setUseSsl(true);
+                }
+                globalCatalogConfigs.add(globalCatalogConfig);
+            }
+            this.globalCatalogPool = this.createPool(globalCatalogConfigs, configurer);
+            this.globalCatalog = new GlobalCatalog(globalCatalogPool, ldapConnectionPool);
+            LOG.info("Global Catalog enabled on port " + globalCatalogPort);
+        }
+
+        LOG.info("LDAP Connection pool ready with configuration : " + configurer);
+
+        int parallelism = configurer.getExpansionParallelism();
+        if (parallelism > 1) {
+            this.executorService = Executors.newFixedThreadPool(parallelism, daemonThreadFactory("activeDirectoryClient-"));
+        }
+        // publisher searches block on the network : bounded number of threads, the other searches are queued
+        int publisherParallelism = configurer.getPublisherParallelism();
+        ThreadPoolExecutor publisherExecutor = new ThreadPoolExecutor(publisherParallelism, publisherParallelism,
+                60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), daemonThreadFactory("activeDirectoryClient-publisher-"));
+        publisherExecutor.allowCoreThreadTimeOut(true);
+        this.publisherExecutorService = publisherExecutor;
+        this.groupExpander = new BreadthFirstGroupExpander(ldapConnectionPool, executorService, parallelism);
+        this.membershipModifier = new ChunkedMembershipModifier(ldapConnectionPool, configurer.getMembershipChunkSize());
+    }
+
+    /**
+     * Creates the pool of a single domain controller, or a pool routing the requests to the domain controllers
+     */
+    private LdapConnectionSource createPool(List<LdapConnectionConfig> configs, LdapConnectionConfigurer configurer) {
+        if (configs.size() == 1) {
+            return this.createPool(configs.get(0), configurer);
+        }
+        List<DomainController> domainControllers = new ArrayList<>(configs.size());
+        for (LdapConnectionConfig domainControllerConfig : configs) {
+            domainControllers.add(new DomainController(domainControllerConfig.getLdapHost(),
+                    domainControllerConfig.getLdapPort(), this.createPool(domainControllerConfig, configurer)));
+        }
+        return new RoutingLdapConnectionPool(domainControllers, configurer.getDomainControllerSelection(),
+                configurer.getDomainControllerProbeInterval(), configurer.getReadYourWritesWindow());
+    }
+
+    private MonitoredLdapConnectionPool createPool(LdapConnectionConfig config, LdapConnectionConfigurer configurer) {
         DefaultLdapConnectionFactory factory= new DefaultLdapConnectionFactory(config);
-        factory.setTimeOut(0);
-        DefaultPoolableLdapConnectionFactory connectionFactory = new DefaultPoolableLdapConnectionFactory(factory);
-        this.ldapConnectionPool = new LdapConnectionPool(connectionFactory);
+        factory.setTimeOut(this.operationTimeout);
+        ValidatingPoolableLdapConnectionFactory connectionFactory = new ValidatingPoolableLdapConnectionFactory(factory);
+        connectionFactory.setValidator(configurer.getConnectionValidator());
+        return new MonitoredLdapConnectionPool(connectionFactory, configurer.getPoolConfig());
+    }
+
+    /**
+     * Stops the threads of the client and closes the connections of the pool
+     * <p>
+     * Called by the framework when the application context is closed.
+     */
+    @Override
+    public void close() {
+        LOG.info("Closing activeDirectoryClient.");
+        if (this.executorService != null) {
+            this.executorService.shutdownNow();
+        }
+        this.publisherExecutorService.shutdownNow();
+        try {
+            this.ldapConnectionPool.close();
+        } catch (Exception e) {
+            LOG.warn("Cannot close LDAP Connection pool : " + e.getLocalizedMessage());
+        }
+        if (this.globalCatalogPool != null) {
+            try {
+                this.globalCatalogPool.close();
+            } catch (Exception e) {
+                LOG.warn("Cannot close Global Catalog connection pool : " + e.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the pool of connections of the client, for monitoring purpose
+     * @return the connection pool
+     */
+    public LdapConnectionSource getLdapConnectionPool() {
+        return this.ldapConnectionPool;
+    }
+
+    /**
+     * Returns the mapper converting the entries into objects of the model, as configured for this client
+     * @return the entry mapper
+     */
+    public AdEntryMapper getEntryMapper() {
+        return this.entryMapper;
+    }
+
+    /**
+     * Returns the attributes requested to build organizational units, as configured for this client
+     * @return the names of the attributes
+     */
+    public String[] getOrganizationalUnitAttributes() {
+        return organizationalUnitAttributes;
+    }
+
+    /**
+     * Returns the attributes requested to build users, groups and organizational units, as configured for this client
+     * @return the names of the attributes
+     */
+    public String[] getObjectAttributes() {
+        return this.objectAttributes.clone();
+    }
+
+    /**
+     * Returns the page size of the searches, as configured for this client
+     * @return the page size
+     */
+    public int getPageSize() {
+        return this.pageSize;
+    }
 
-        LOG.info("LDAP Connection pool ready with default configuration.");
+    /**
+     * Returns the timeout of the ldap operations, as configured for this client
+     * @return the timeout in milliseconds
+     */
+    public long getOperationTimeout() {
+        return this.operationTimeout;
+    }
+
+    private static ThreadFactory daemonThreadFactory(String namePrefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, namePrefix + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
     }
 
     private String getLdapConnectionParameters() {
         return "ldap://" + this.ldapConnectionConfig.getName()
                 + ":PROTECTED"
-                + "@" + this.ldapConnectionConfig.getLdapHost()
+                + "@" + String.join(",", this.ldapHosts)
                 +":"+this.ldapConnectionConfig.getLdapPort();
     }
 
+    /**
+     * Returns the attributes to request for building objects of the given model classes
+     * (the additional attributes configured are always added)
+     */
+    @SafeVarargs
+    private final String[] attributesFor(List<String>... modelAttributes) {
+        Set<String> attributes = new LinkedHashSet<>();
+        for (List<String> modelAttribute : modelAttributes) {
+            attributes.addAll(modelAttribute);
+        }
+        attributes.addAll(this.additionalAttributes);
+        return attributes.toArray(new String[0]);
+    }
+
 
     @Override
     public AbstractAdObject getByDn(String dn) throws ActiveDirectoryClientException{
@@ -85,12 +314,12 @@ public class ActiveDirectoryClientImpl implements ActiveDirectoryClient {
             LdapConnection ldapConnection = ldapConnectionPool.getConnection();
             LOG.debug("Successfully got connection from pool");
             try {
-                Entry resultEntry = ldapConnection.lookup(dn);
+                Entry resultEntry = ldapConnection.lookup(dn, objectAttributes);
                 if (resultEntry != null) {
                     Attribute classes = resultEntry.get("objectClass");
-                    if (classes.contains(AD_USER_OBJECTCLASS)) result = this.createUserFromUserEntry(resultEntry);
-                    if (classes.contains(AD_GROUP_OBJECTCLASS)) result = this.createGroupFromGroupEntry(resultEntry);
-                    if (classes.contains(AD_ORGANIZATIONAL_UNIT_CLASS)) result = this.createOuFromEntry(resultEntry);
+                    if (classes.contains(AD_USER_OBJECTCLASS)) result = entryMapper.toUser(resultEntry);
+                    if (classes.contains(AD_GROUP_OBJECTCLASS)) result = entryMapper.toGroup(resultEntry);
+                    if (classes.contains(AD_ORGANIZATIONAL_UNIT_CLASS)) result = entryMapper.toOrganizationalUnit(resultEntry);
                 }
             }
             catch(LdapException lde) {
@@ -122,12 +351,12 @@ public class ActiveDirectoryClientImpl implements ActiveDirectoryClient {
             LOG.debug("Successfully got connection from pool");
             try {
                 EntryCursor entryCursor = ldapConnection.search(searchBase.toString(),
-                        "(sAMAccountName=" + sAMAccountName + ")", SearchScope.SUBTREE, "*");
+                        "(sAMAccountName=" + sAMAccountName + ")", SearchScope.SUBTREE, userOrGroupAttributes);
                 entryCursor.next();
                 Entry resultEntry=entryCursor.get();
                 Attribute classes = resultEntry.get("objectClass");
-                if (classes.contains(AD_USER_OBJECTCLASS)) result = this.createUserFromUserEntry(resultEntry);
-                if (classes.contains(AD_GROUP_OBJECTCLASS)) result = this.createGroupFromGroupEntry(resultEntry);
+                if (classes.contains(AD_USER_OBJECTCLASS)) result = entryMapper.toUser(resultEntry);
+                if (classes.contains(AD_GROUP_OBJECTCLASS)) result = entryMapper.toGroup(resultEntry);
                 entryCursor.close();
             }
             catch(LdapException lde) {
@@ -159,65 +388,74 @@ public class ActiveDirectoryClientImpl implements ActiveDirectoryClient {
         return result;
     }
 
+    @Override
     public Set<AdGroup> getGroupsForDN(String dn, boolean recursive) throws ActiveDirectoryClientException{
-        LOG.info("getGroupsForDN called with Dn:" + dn);
-        Set<AdGroup> groups = new HashSet<AdGroup>();
-        Set<String> groupsExplored = new HashSet<>();
-        groups.addAll(this.getGroupsForDN(dn, recursive, groupsExplored));
-        return groups;
+        return this.getGroupsForDN(dn, recursive, this.membershipResolution);
     }
 
+    @Override
+    public Set<AdGroup> getGroupsForDN(String dn, boolean recursive, MembershipResolution resolution) throws ActiveDirectoryClientException{
+        LOG.info("getGroupsForDN called with Dn:" + dn + " and resolution: " + resolution);
+        if (recursive && resolution == MembershipResolution.IN_CHAIN) {
+            return this.getGroupsInChain(dn);
+        }
+        return groupExpander.expand(dn, "memberOf", groupAttributes, entryMapper::toGroupIfGroup, recursive);
+    }
+
+    @Override
     public Set<AbstractAdObject> getMembersForDN(String dn, boolean recursive) throws ActiveDirectoryClientException{
-        LOG.info("getAllUsersForDN called with Dn:" + dn);
-        Set<AbstractAdObject> members = new HashSet<AbstractAdObject>();
-        Set<String> groups = new HashSet<String>();
-        members.addAll(this.getMembersForDN(dn, recursive, groups));
-        return members;
+        return this.getMembersForDN(dn, recursive, this.membershipResolution);
+    }
+
+    @Override
+    public Set<AbstractAdObject> getMembersForDN(String dn, boolean recursive, MembershipResolution resolution) throws ActiveDirectoryClientException{
+        LOG.info("getAllUsersForDN called with Dn:" + dn + " and resolution: " + resolution);
+        if (recursive && resolution == MembershipResolution.IN_CHAIN) {
+            return this.getMembersInChain(dn);
+        }
+        return groupExpander.expand(dn, "member", userOrGroupAttributes, entryMapper::toUserOrGroup, recursive);
     }
 
     @Override
     public Set<AbstractAdObject> findByCommonName(String commonName, String searchBase) throws  ActiveDirectoryClientException{
         LOG.info("findByCommonName called with : " + commonName + " and searchBase: " +searchBase);
         Set<AbstractAdObject> result = new HashSet<>();
-        try {
-            LdapConnection ldapConnection = ldapConnectionPool.getConnection();
-            LOG.debug("Successfully got connection from pool");
-            try {
-                EntryCursor entryCursor = ldapConnection.search(searchBase, "(cn=" + "*" + commonName + "*" + ")", SearchScope.SUBTREE, "*");
-                while (entryCursor.next()) {
-                    Entry resultEntry = entryCursor.get();
-                    Attribute classes = resultEntry.get("objectClass");
-                    if (classes.contains(AD_USER_OBJECTCLASS)) result.add(this.createUserFromUserEntry(resultEntry));
-                    if (classes.contains(AD_GROUP_OBJECTCLASS)) result.add(this.createGroupFromGroupEntry(resultEntry));
-                }
-                entryCursor.close();
-            }
-            catch(LdapException lde) {
-                LOG.error("An error occured while requesting the ldap server.");
-                LOG.error("Message from  Server is :" +lde.getLocalizedMessage());
-                throw new ActiveDirectoryClientRequestException("An error occured while requesting the ldap server.", lde);
-            }
-            catch (CursorException ce) {
-                LOG.warn("An error occured while fetching next cursor of LDAP request results.");
-                LOG.warn("The is probably no result for this request.");
-                LOG.warn("Message from  Server is :" +ce.getLocalizedMessage());
-            }
-            catch (IOException ioe) {
-                LOG.error("An error occured while closing cursor of LDAP request results.");
-                LOG.error("Message from  Server is :" +ioe.getLocalizedMessage());
-            }
-            finally {
-                ldapConnectionPool.releaseConnection(ldapConnection);
-                LOG.debug("Successfully released connection to pool");
+        try (PagedSearch pagedSearch = this.createCommonNameSearch(commonName, searchBase)) {
+            AbstractAdObject adObject;
+            while ((adObject = pagedSearch.next(entryMapper::toUserOrGroup)) != null) {
+                result.add(adObject);
             }
         }
+        return result;
+    }
 
-        catch (LdapException lde) {
-            LOG.error("Cannot get/release LdapConnection from/to pool.");
-            LOG.error("Message from LDAP Server is :" +lde.getLocalizedMessage());
-            throw new ActiveDirectoryClientConnectionException("Cannot get/release LdapConnection from/to pool.", lde);
+    @Override
+    public Stream<AbstractAdObject> streamByCommonName(String commonName, String searchBase) throws ActiveDirectoryClientException {
+        LOG.info("streamByCommonName called with : " + commonName + " and searchBase: " +searchBase);
+        return this.createCommonNameSearch(commonName, searchBase).stream(entryMapper::toUserOrGroup);
+    }
+
+    @Override
+    public Publisher<AbstractAdObject> publishByCommonName(String commonName, String searchBase) {
+        LOG.info("publishByCommonName called with : " + commonName + " and searchBase: " +searchBase);
+        return new PagedSearchPublisher<>(() -> this.createCommonNameSearch(commonName, searchBase),
+                entryMapper::toUserOrGroup, publisherExecutorService);
+    }
+
+    private PagedSearch createCommonNameSearch(String commonName, String searchBase) throws ActiveDirectoryClientException {
+        return this.createSubtreeSearch(searchBase, "(cn=" + "*" + commonName + "*" + ")", userOrGroupAttributes);
+    }
+
+    /**
+     * Creates a subtree search, sent to the Global Catalog when it is enabled and the search base is the forest root
+     */
+    private PagedSearch createSubtreeSearch(String searchBase, String filter, String... attributes) throws ActiveDirectoryClientException {
+        if (globalCatalog != null && globalCatalog.isForestWide(searchBase)) {
+            LOG.debug("Search " + filter + " sent to the Global Catalog");
+            return globalCatalog.createSearch(filter, pageSize, attributes);
         }
-        return result;
+        SearchRequest req = PagedSearch.createSearchRequest(searchBase, filter, SearchScope.SUBTREE, attributes);
+        return new PagedSearch(ldapConnectionPool, req, pageSize);
     }
 
     @Override
@@ -225,7 +463,12 @@ public class ActiveDirectoryClientImpl implements ActiveDirectoryClient {
         return  this.findOrganizationalUnits(PathHelpers.createDnFromPath(path), null);
     }
 
-
+    /**
+     * Builds the tree of the organizational units under the given one
+     * <p>
+     * The units are read with a single paged subtree search and linked to their parent in memory, and the
+     * descriptions of the ancestors of the root unit are read with one more search.
+     */
     private OrganizationalUnit findOrganizationalUnits(String distinguishedName, String parentDescription) throws  ActiveDirectoryClientException {
         LOG.info("findOrganizationalUnits called with : " + distinguishedName);
 
@@ -238,61 +481,55 @@ public class ActiveDirectoryClientImpl implements ActiveDirectoryClient {
             throw new ActiveDirectoryClientInvalidDnException(distinguishedName + "is not a valid distinguishedName");
         }
 
-        // We immediately get the root organizationalUnit
-        OrganizationalUnit resultUnit = (OrganizationalUnit) this.getByDn(distinguishedName);
-
-        if (parentDescription == null) {
-            String ldapParentDescription = this.getParentDescription(name);
-            if (ldapParentDescription.length()>0) {
-                resultUnit.setDescriptionPath(this.getParentDescription(name) + "/" + resultUnit.getDescription());
-            }
-            else {
-                resultUnit.setDescriptionPath(resultUnit.getDescription());
+        // All the units of the subtree, in the order of the search results
+        Map<String, OrganizationalUnit> units = new LinkedHashMap<>();
+        Map<String, String> parentKeys = new HashMap<>();
+        SearchRequest req = PagedSearch.createSearchRequest(distinguishedName,
+                "(objectClass=" + AD_ORGANIZATIONAL_UNIT_CLASS + ")", SearchScope.SUBTREE, organizationalUnitAttributes);
+        try (PagedSearch pagedSearch = new PagedSearch(ldapConnectionPool, req, pageSize)) {
+            Entry entry;
+            while ((entry = pagedSearch.nextEntry()) != null) {
+                String key = PathHelpers.getDnKey(entry.getDn());
+                units.put(key, entryMapper.toOrganizationalUnit(entry));
+                if (entry.getDn().size() > name.size()) {
+                    parentKeys.put(key, PathHelpers.getDnKey(entry.getDn().getParent()));
+                }
             }
         }
-        else {
-            resultUnit.setDescriptionPath(parentDescription + "/" + resultUnit.getDescription());
+        OrganizationalUnit resultUnit = units.get(PathHelpers.getDnKey(name));
+        if (resultUnit == null) {
+            LOG.warn("No organizational unit found with dn " + distinguishedName);
+            return null;
         }
-
-        try {
-            LdapConnection ldapConnection = ldapConnectionPool.getConnection();
-            LOG.debug("Successfully got connection from pool");
-            try {
-                EntryCursor entryCursor = ldapConnection.search(
-                        name,
-                        "(objectClass=" + AD_ORGANIZATIONAL_UNIT_CLASS + ")",
-                        SearchScope.ONELEVEL);
-                for (Entry entry : entryCursor) {
-                        resultUnit.getOrganizationalUnits().add(
-                                this.findOrganizationalUnits(
-                                        entry.get("distinguishedName").getString(),
-                                        resultUnit.getDescriptionPath()
-                                )
-                        );
-                }
-                entryCursor.close();
+        for (Map.Entry<String, OrganizationalUnit> unit : units.entrySet()) {
+            String parentKey = parentKeys.get(unit.getKey());
+            if (parentKey == null) {
+                continue;
             }
-            catch(LdapException lde) {
-                LOG.error("An error occured while requesting the ldap server.");
-                LOG.error("Message from  Server is :" +lde.getLocalizedMessage());
-                throw new ActiveDirectoryClientRequestException("An error occured while requesting the ldap server.", lde);
-            }
-
-            catch (IOException ioe) {
-                LOG.error("An error occured while closing cursor of LDAP request results.");
-                LOG.error("Message from  Server is :" +ioe.getLocalizedMessage());
-            }
-            finally {
-                ldapConnectionPool.releaseConnection(ldapConnection);
-                LOG.debug("Successfully released connection to pool");
+            OrganizationalUnit parent = units.get(parentKey);
+            if (parent != null) {
+                parent.getOrganizationalUnits().add(unit.getValue());
+            } else {
+                // units held by another kind of container are not part of the tree
+                LOG.debug("****Skipping " + unit.getValue().getDistinguishedName());
             }
         }
 
-        catch (LdapException lde) {
-            LOG.error("Cannot get/release LdapConnection from/to pool.");
-            LOG.error("Message from LDAP Server is :" +lde.getLocalizedMessage());
-            throw new ActiveDirectoryClientConnectionException("Cannot get/release LdapConnection from/to pool.", lde);
+        if (parentDescription == null) {
+            parentDescription = this.getParentDescription(name);
+        }
+        resultUnit.setDescriptionPath(parentDescription.length() > 0
+                ? parentDescription + "/" + resultUnit.getDescription() : resultUnit.getDescription());
+        Deque<OrganizationalUnit> toDescribe = new ArrayDeque<>();
+        toDescribe.push(resultUnit);
+        while (!toDescribe.isEmpty()) {
+            OrganizationalUnit unit = toDescribe.pop();
+            for (OrganizationalUnit child : unit.getOrganizationalUnits()) {
+                child.setDescriptionPath(unit.getDescriptionPath() + "/" + child.getDescription());
+                toDescribe.push(child);
+            }
         }
+        LOG.debug("Organizational units tree of " + distinguishedName + " built : " + units.size() + " units");
         return resultUnit;
     }
 
@@ -310,7 +547,7 @@ public class ActiveDirectoryClientImpl implements ActiveDirectoryClient {
     public void deleteByDn(String dn) throws ActiveDirectoryClientException {
         LOG.info("deleteSecurityGroup called with Dn: " + dn);
         try {
-            LdapConnection ldapConnection = ldapConnectionPool.getConnection();
+            LdapConnection ldapConnection = ldapConnectionPool.getWriteConnection();
             LOG.debug("Successfully got connection from pool");
             try {
                 ldapConnection.delete(dn);
@@ -349,7 +586,7 @@ public class ActiveDirectoryClientImpl implements ActiveDirectoryClient {
         }
 
         try {
-            LdapConnection ldapConnection = ldapConnectionPool.getConnection();
+            LdapConnection ldapConnection = ldapConnectionPool.getWriteConnection();
             LOG.debug("Successfully got connection from pool");
             try {
                 Entry entry = new DefaultEntry(dn,
@@ -386,7 +623,7 @@ public class ActiveDirectoryClientImpl implements ActiveDirectoryClient {
     public void addEntityToGroup(String entityDn, String groupDn) throws ActiveDirectoryClientException{
         LOG.info("addEntityToGroup called with entityDn: + " + entityDn + " and groupDn" + groupDn);
         try {
-            LdapConnection ldapConnection = ldapConnectionPool.getConnection();
+            LdapConnection ldapConnection = ldapConnectionPool.getWriteConnection();
             LOG.debug("Successfully got connection from pool");
             try {
                 Modification addMemberModification = new DefaultModification(
@@ -417,7 +654,7 @@ public class ActiveDirectoryClientImpl implements ActiveDirectoryClient {
     public void changeEntityDescription(String entityDn, String newDescription) throws ActiveDirectoryClientException{
         LOG.info("changeEntityDescription called with entityDn: + " + entityDn + " and groupDn" + entityDn);
         try {
-            LdapConnection ldapConnection = ldapConnectionPool.getConnection();
+            LdapConnection ldapConnection = ldapConnectionPool.getWriteConnection();
             LOG.debug("Successfully got connection from pool");
             try {
                 Modification changeDescrModification = new DefaultModification(
@@ -448,7 +685,7 @@ public class ActiveDirectoryClientImpl implements ActiveDirectoryClient {
     public void removeEntityFromGroup(String entityDn, String groupDn) throws ActiveDirectoryClientException {
         LOG.info("removeEntityFromGroup called with entityDn: + " + entityDn + " and groupDn" + groupDn);
         try {
-            LdapConnection ldapConnection = ldapConnectionPool.getConnection();
+            LdapConnection ldapConnection = ldapConnectionPool.getWriteConnection();
             LOG.debug("Successfully got connection from pool");
             try {
                 Modification memberModification = new DefaultModification(
@@ -475,87 +712,180 @@ public class ActiveDirectoryClientImpl implements ActiveDirectoryClient {
         }
     }
 
+    @Override
+    public MembershipChangeReport addEntitiesToGroup(Collection<String> entityDns, String groupDn) throws ActiveDirectoryClientException {
+        LOG.info("addEntitiesToGroup called with " + entityDns.size() + " entities and groupDn: " + groupDn);
+        return membershipModifier.modify(entityDns, groupDn, ModificationOperation.ADD_ATTRIBUTE);
+    }
+
+    @Override
+    public MembershipChangeReport removeEntitiesFromGroup(Collection<String> entityDns, String groupDn) throws ActiveDirectoryClientException {
+        LOG.info("removeEntitiesFromGroup called with " + entityDns.size() + " entities and groupDn: " + groupDn);
+        return membershipModifier.modify(entityDns, groupDn, ModificationOperation.REMOVE_ATTRIBUTE);
+    }
+
     @Override
     public Set<String> findBySAMAccountName(String sAMAccountName, String searchBase) throws ActiveDirectoryClientException{
         LOG.info("findBySAMAccountName called with : " +sAMAccountName);
         Set<String> results = new HashSet<>();
+        try (PagedSearch pagedSearch = this.createSAMAccountNameSearch(sAMAccountName, searchBase)) {
+            String dn;
+            while ((dn = pagedSearch.next(this::getDistinguishedName)) != null) {
+                results.add(dn);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public Stream<String> streamBySAMAccountName(String sAMAccountName, String searchBase) throws ActiveDirectoryClientException {
+        LOG.info("streamBySAMAccountName called with : " +sAMAccountName);
+        return this.createSAMAccountNameSearch(sAMAccountName, searchBase).stream(this::getDistinguishedName);
+    }
+
+    @Override
+    public Publisher<String> publishBySAMAccountName(String sAMAccountName, String searchBase) {
+        LOG.info("publishBySAMAccountName called with : " +sAMAccountName);
+        return new PagedSearchPublisher<>(() -> this.createSAMAccountNameSearch(sAMAccountName, searchBase),
+                this::getDistinguishedName, publisherExecutorService);
+    }
+
+    private PagedSearch createSAMAccountNameSearch(String sAMAccountName, String searchBase) throws ActiveDirectoryClientException {
+        return this.createSubtreeSearch(searchBase, "(sAMAccountName=" + sAMAccountName + "*)", "distinguishedName");
+    }
+
+    @Override
+    public Set<AbstractAdObject> getObjectsBySid(List<String> sids, String searchBase) throws ActiveDirectoryClientException{
+        BatchLookupResult<AbstractAdObject> resolved = this.resolveSids(sids, searchBase);
+        Set<AbstractAdObject> results = new HashSet<>(resolved.getResolved().values());
+        if (!resolved.getUnresolved().isEmpty()) {
+            // a sid not found was returned as a null element before the lookups were batched
+            results.add(null);
+        }
+        return results;
+    }
+
+    @Override
+    public BatchLookupResult<AbstractAdObject> resolveSids(Collection<String> sids, String searchBase) throws ActiveDirectoryClientException {
+        LOG.info("resolveSids called with " + sids.size() + " sids and searchBase: " + searchBase);
+        BatchLookupResult<AbstractAdObject> result = new BatchLookupResult<>();
+
+        // The sids given may not be in canonical form : results are matched back through the canonical form
+        Map<String, List<String>> inputSidsByCanonicalSid = new LinkedHashMap<>();
+        for (String sid : sids) {
+            try {
+                String canonicalSid = SidConverter.bytesToString(SidConverter.stringToBytes(sid));
+                inputSidsByCanonicalSid.computeIfAbsent(canonicalSid, key -> new ArrayList<>()).add(sid);
+            } catch (IllegalArgumentException iae) {
+                LOG.warn(sid + " is not a valid sid : " + iae.getMessage());
+                result.addUnresolved(sid);
+            }
+        }
+
+        List<String> canonicalSids = new ArrayList<>(inputSidsByCanonicalSid.keySet());
+        List<Callable<Map<String, AbstractAdObject>>> chunks = new ArrayList<>();
+        for (int from = 0; from < canonicalSids.size(); from += lookupBatchSize) {
+            List<String> chunk = canonicalSids.subList(from, Math.min(from + lookupBatchSize, canonicalSids.size()));
+            chunks.add(() -> this.searchBySids(chunk, searchBase));
+        }
+        Map<String, AbstractAdObject> found = new HashMap<>();
+        for (Map<String, AbstractAdObject> chunkResult : this.invokeAll(chunks)) {
+            found.putAll(chunkResult);
+        }
+
+        for (Map.Entry<String, List<String>> inputSids : inputSidsByCanonicalSid.entrySet()) {
+            AbstractAdObject adObject = found.get(inputSids.getKey());
+            for (String inputSid : inputSids.getValue()) {
+                if (adObject != null) {
+                    result.addResolved(inputSid, adObject);
+                } else {
+                    result.addUnresolved(inputSid);
+                }
+            }
+        }
+        LOG.debug(result.getResolved().size() + " sids resolved in " + chunks.size() + " requests, "
+                + result.getUnresolved().size() + " unresolved");
+        return result;
+    }
+
+    /**
+     * Searches the objects of the given canonical sids with a single OR filter
+     * @return the objects found indexed by canonical sid
+     */
+    private Map<String, AbstractAdObject> searchBySids(List<String> canonicalSids, String searchBase) throws ActiveDirectoryClientException {
+        StringBuilder filter = new StringBuilder("(|");
+        for (String sid : canonicalSids) {
+            filter.append("(objectSid=").append(SidConverter.stringToFilterValue(sid)).append(')');
+        }
+        filter.append(')');
+        Map<String, AbstractAdObject> found = new HashMap<>();
+        try (PagedSearch pagedSearch = this.createSubtreeSearch(searchBase, filter.toString(), userOrGroupAttributes)) {
+            Entry entry;
+            while ((entry = pagedSearch.nextEntry()) != null) {
+                AbstractAdObject adObject = entryMapper.toUserOrGroup(entry);
+                if (adObject != null) {
+                    found.put(SidConverter.bytesToString(entry.get("objectSid").getBytes()), adObject);
+                }
+            }
+        } catch (LdapInvalidAttributeValueException e) {
+            throw new ActiveDirectoryAttributeNotFoundException("Mandatory attribute not found in entry.", e);
+        }
+        return found;
+    }
+
+    @Override
+    public boolean isDirectMember(String entityDn, String groupDn) throws ActiveDirectoryClientException {
+        LOG.info("isDirectMember called with entityDn: " + entityDn + " and groupDn: " + groupDn);
+        boolean result;
         try {
             LdapConnection ldapConnection = ldapConnectionPool.getConnection();
             LOG.debug("Successfully got connection from pool");
             try {
-                SearchRequest req = new SearchRequestImpl();
-                req.setScope(SearchScope.SUBTREE);
-                req.addAttributes("*");
-                req.setTimeLimit(0);
-                req.setBase(new Dn(searchBase));
-                req.setFilter( "(sAMAccountName=" + sAMAccountName + "*)" );
-
-            // Process the request
-            SearchCursor searchCursor = ldapConnection.search(req);
-
-            while (searchCursor.next()) {
-                Response response = searchCursor.get();
-
-                // process the SearchResultEntry
-                if (response instanceof SearchResultEntry) {
-                    Entry resultEntry = ((SearchResultEntry) response).getEntry();
-                    results.add(resultEntry.get("distinguishedName").getString());
-                }
-            }
-            searchCursor.close();
+                result = ldapConnection.compare(groupDn, "member", entityDn);
             }
             catch(LdapException lde) {
                 LOG.error("An error occured while requesting the ldap server.");
                 LOG.error("Message from  Server is :" +lde.getLocalizedMessage());
-                throw new ActiveDirectoryClientRequestException("An error occured while requesting the ldap server.",lde);
-            }
-            catch (CursorException ce) {
-                LOG.warn("An error occured while fetching next cursor of LDAP request results.");
-                LOG.warn("Message from  Server is :" +ce.getLocalizedMessage());
-                LOG.warn("The is probably no result for this request.");
-                }
-            catch (IOException ioe) {
-                LOG.error("An error occured while closing cursor of LDAP request results.");
-                LOG.error("Message from  Server is :" +ioe.getLocalizedMessage());
+                throw new ActiveDirectoryClientRequestException("An error occured while requesting the ldap server.", lde);
             }
             finally {
                 ldapConnectionPool.releaseConnection(ldapConnection);
                 LOG.debug("Successfully released connection to pool");
             }
         }
-
         catch (LdapException lde) {
             LOG.error("Cannot get/release LdapConnection from/to pool.");
             LOG.error("Message from LDAP Server is :" +lde.getLocalizedMessage());
+            throw new ActiveDirectoryClientConnectionException("Cannot get/release LdapConnection from/to pool.", lde);
         }
-
-        return results;
-    }
-
-    @Override
-    public Set<AbstractAdObject> getObjectsBySid(List<String> sids, String searchBase) throws ActiveDirectoryClientException{
-        Set<AbstractAdObject> results = new HashSet<>();
-        for (String sid : sids ) {
-            results.add(this.getObjectBySid(sid, searchBase));
-        }
-        return results;
+        return result;
     }
 
     @Override
-    public AbstractAdObject getObjectBySid(String objectSid, String searchBase) throws ActiveDirectoryClientException{
-        LOG.info("getByObjectSid called with : " + objectSid + " and searchBase: " + searchBase);
-        AbstractAdObject result = null;
+    public boolean isTransitiveMember(String entityDn, String groupDn) throws ActiveDirectoryClientException {
+        LOG.info("isTransitiveMember called with entityDn: " + entityDn + " and groupDn: " + groupDn);
+        boolean result = false;
         try {
             LdapConnection ldapConnection = ldapConnectionPool.getConnection();
             LOG.debug("Successfully got connection from pool");
             try {
-                EntryCursor entryCursor = ldapConnection.search(searchBase, "(objectSid=" + objectSid + ")", SearchScope.SUBTREE, "*");
-                entryCursor.next();
-                Entry resultEntry=entryCursor.get();
-                Attribute classes = resultEntry.get("objectClass");
-                if (classes.contains(AD_USER_OBJECTCLASS)) result = this.createUserFromUserEntry(resultEntry);
-                if (classes.contains(AD_GROUP_OBJECTCLASS)) result = this.createGroupFromGroupEntry(resultEntry);
-                entryCursor.close();
+                // The entity is returned only if the group is one of its memberOf, walked in chain by the server
+                EntryCursor entryCursor = ldapConnection.search(entityDn,
+                        "(memberOf:" + MembershipResolution.IN_CHAIN_MATCHING_RULE + ":=" + FilterEncoder.encodeFilterValue(groupDn) + ")",
+                        SearchScope.OBJECT, NO_ATTRIBUTES);
+                SearchResultDone done = null;
+                try {
+                    result = entryCursor.next();
+                    if (!result) {
+                        done = entryCursor.getSearchResultDone();
+                    }
+                } finally {
+                    entryCursor.close();
+                }
+                if (done != null && done.getLdapResult().getResultCode() == ResultCodeEnum.NO_SUCH_OBJECT) {
+                    LOG.error("Entity " + entityDn + " does not exist.");
+                    throw new ActiveDirectoryClientRequestException("Entity " + entityDn + " does not exist.");
+                }
             }
             catch(LdapException lde) {
                 LOG.error("An error occured while requesting the ldap server.");
@@ -563,270 +893,344 @@ public class ActiveDirectoryClientImpl implements ActiveDirectoryClient {
                 throw new ActiveDirectoryClientRequestException("An error occured while requesting the ldap server.", lde);
             }
             catch (CursorException ce) {
-                LOG.warn("An error occured while fetching next cursor of LDAP request results.");
-                LOG.warn("Message from  Server is :" +ce.getLocalizedMessage());
-                LOG.warn("There is probably no result for this request");
+                LOG.error("An error occured while fetching next cursor of LDAP request results.");
+                LOG.error("Message from  Server is :" +ce.getLocalizedMessage());
+                throw new ActiveDirectoryClientRequestException("An error occured while requesting the ldap server.", ce);
             }
             catch (IOException ioe) {
                 LOG.error("An error occured while closing cursor of LDAP request results.");
                 LOG.error("Message from  Server is :" +ioe.getLocalizedMessage());
+                throw new ActiveDirectoryClientRequestException("An error occured while requesting the ldap server.", ioe);
             }
             finally {
                 ldapConnectionPool.releaseConnection(ldapConnection);
                 LOG.debug("Successfully released connection to pool");
             }
         }
-
         catch (LdapException lde) {
             LOG.error("Cannot get/release LdapConnection from/to pool.");
             LOG.error("Message from LDAP Server is :" +lde.getLocalizedMessage());
-            throw new ActiveDirectoryClientConnectionException("Cannot get/release LdapConnection from/to pool.",lde);
+            throw new ActiveDirectoryClientConnectionException("Cannot get/release LdapConnection from/to pool.", lde);
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Boolean> isTransitiveMember(String entityDn, Collection<String> groupDns) throws ActiveDirectoryClientException {
+        LOG.info("isTransitiveMember called with entityDn: " + entityDn + " and " + groupDns.size() + " groups");
+
+        // The dns given may differ in case or spaces : results are matched back through their key, the groups being
+        // searched in their own domain
+        Map<String, List<String>> groupKeysByDomain = new LinkedHashMap<>();
+        Map<String, String> groupDnsByKey = new HashMap<>();
+        for (String groupDn : groupDns) {
+            String key = dnKey(groupDn);
+            if (groupDnsByKey.putIfAbsent(key, groupDn) == null) {
+                groupKeysByDomain.computeIfAbsent(PathHelpers.getDomainDn(groupDn), domain -> new ArrayList<>()).add(key);
+            }
+        }
+
+        List<Callable<Set<String>>> chunks = new ArrayList<>();
+        for (Map.Entry<String, List<String>> domainGroups : groupKeysByDomain.entrySet()) {
+            List<String> keys = domainGroups.getValue();
+            for (int from = 0; from < keys.size(); from += lookupBatchSize) {
+                List<String> chunk = new ArrayList<>();
+                for (String key : keys.subList(from, Math.min(from + lookupBatchSize, keys.size()))) {
+                    chunk.add(groupDnsByKey.get(key));
+                }
+                chunks.add(() -> this.searchGroupsInChain(entityDn, chunk, domainGroups.getKey()));
+            }
+        }
+        Set<String> memberOf = new HashSet<>();
+        for (Set<String> chunkResult : this.invokeAll(chunks)) {
+            memberOf.addAll(chunkResult);
         }
 
+        Map<String, Boolean> result = new LinkedHashMap<>();
+        for (String groupDn : groupDns) {
+            result.put(groupDn, memberOf.contains(dnKey(groupDn)));
+        }
+        LOG.debug(memberOf.size() + " of " + result.size() + " groups hold " + entityDn + ", checked in "
+                + chunks.size() + " requests");
         return result;
     }
 
-    private Set<AbstractAdObject> getMembersForDN(String dn, boolean recursive, Set<String> groupsAlreadyExplored)
-             throws ActiveDirectoryClientException {
-        Set<AbstractAdObject> members = new HashSet<AbstractAdObject>();
-        LOG.debug("***Exploring  " + dn);
+    /**
+     * Searches, among the given groups of a domain, the groups having the entity as member in chain
+     * @return the keys of the dns of the groups found
+     */
+    private Set<String> searchGroupsInChain(String entityDn, List<String> groupDns, String domainDn) throws ActiveDirectoryClientException {
+        StringBuilder filter = new StringBuilder("(&(objectClass=" + AD_GROUP_OBJECTCLASS + ")(member:"
+                + MembershipResolution.IN_CHAIN_MATCHING_RULE + ":=" + FilterEncoder.encodeFilterValue(entityDn) + ")(|");
+        for (String groupDn : groupDns) {
+            filter.append("(distinguishedName=").append(FilterEncoder.encodeFilterValue(groupDn)).append(')');
+        }
+        filter.append("))");
+        Set<String> found = new HashSet<>();
+        SearchRequest req = PagedSearch.createSearchRequest(domainDn, filter.toString(), SearchScope.SUBTREE, NO_ATTRIBUTES);
+        try (PagedSearch pagedSearch = new PagedSearch(ldapConnectionPool, req, pageSize)) {
+            Entry entry;
+            while ((entry = pagedSearch.nextEntry()) != null) {
+                found.add(PathHelpers.getDnKey(entry.getDn()));
+            }
+        }
+        return found;
+    }
+
+    private static String dnKey(String dn) throws ActiveDirectoryClientException {
+        try {
+            return PathHelpers.getDnKey(new Dn(dn));
+        } catch (LdapInvalidDnException e) {
+            throw new ActiveDirectoryClientInvalidDnException(dn + " is not a valid distinguishedName", e);
+        }
+    }
+
+    @Override
+    public Set<String> getTokenGroupSids(String dn) throws ActiveDirectoryClientException {
+        LOG.info("getTokenGroupSids called with : " + dn);
+        Set<String> sids = new LinkedHashSet<>();
         try {
             LdapConnection ldapConnection = ldapConnectionPool.getConnection();
             LOG.debug("Successfully got connection from pool");
             try {
-                SearchRequest req = new SearchRequestImpl();
-                req.setScope(SearchScope.SUBTREE);
-                req.addAttributes("*");
-                req.setTimeLimit(0);
-                req.setBase(new Dn(dn));
-                req.setFilter("(objectClass=*)");
-
-                SearchCursor searchCursor = ldapConnection.search(req);
-                Set<String> membersDn = new HashSet<String>();
-                while (searchCursor.next()) {
-                    Response response = searchCursor.get();
-                    if (response instanceof SearchResultEntry) {
-                        Entry resultEntry = ((SearchResultEntry) response).getEntry();
-                        Attribute listMember = resultEntry.get("member");
-                        if (listMember != null) {
-                            for (Value value : listMember) {
-                                membersDn.add(value.toString());
-                            }
-                        }
-                    }
-                }
-                searchCursor.close();
-                req.setScope(SearchScope.SUBTREE);
-                req.addAttributes("*");
-                req.setTimeLimit(0);
-                req.setFilter("(objectClass=*)");
-
-                for (String memberDn : membersDn) {
-                    req.setBase(new Dn(memberDn));
-                    searchCursor = ldapConnection.search(req);
-                    while (searchCursor.next()) {
-                        Response response = searchCursor.get();
-                        if (response instanceof SearchResultEntry) {
-                            Entry resultEntry = ((SearchResultEntry) response).getEntry();
-                            Attribute classe = resultEntry.get("objectClass");
-                            if (classe != null) {
-                                for (Value value : classe) {
-                                    if (value.toString().equals(ActiveDirectoryClient.AD_USER_OBJECTCLASS)) {
-                                        members.add(this.createUserFromUserEntry(resultEntry));
-                                    }
-                                    if (value.toString().equals(ActiveDirectoryClient.AD_GROUP_OBJECTCLASS)) {
-                                        members.add(this.createGroupFromGroupEntry(resultEntry));
-                                        if (recursive) {
-                                            if (groupsAlreadyExplored.contains(memberDn)) {
-                                                LOG.debug("****Skipping " + memberDn);
-                                            } else {
-                                                groupsAlreadyExplored.add(memberDn);
-                                                members.addAll(getMembersForDN(memberDn, true, groupsAlreadyExplored));
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
+                // tokenGroups is a constructed attribute : it is only returned by a base search on the object
+                Entry resultEntry = ldapConnection.lookup(dn, TOKEN_GROUPS_ATTRIBUTE);
+                Attribute tokenGroups = resultEntry == null ? null : resultEntry.get(TOKEN_GROUPS_ATTRIBUTE);
+                if (resultEntry == null) {
+                    LOG.warn("No entry found for dn " + dn);
+                } else if (tokenGroups != null) {
+                    for (Value<?> value : tokenGroups) {
+                        sids.add(SidConverter.bytesToString(value.getBytes()));
                     }
-                    searchCursor.close();
                 }
-            } catch (CursorException ce) {
-                LOG.warn("An error occured while fetching next cursor of LDAP request results.");
-                LOG.warn("Message from  Server is :" +ce.getLocalizedMessage());
-                LOG.warn("The is probably no result for this request");
-            } catch (LdapException lde) {
-                LOG.error("An error occured while requesting LDAP Server.");
-                LOG.error("Message from LDAP Server is :" +lde.getLocalizedMessage());
-                throw new ActiveDirectoryClientRequestException("An error occured while requesting LDAP Server.", lde);
-
-            } catch (IOException ioe) {
-                LOG.error("An error occured while closing cursor of LDAP request results.");
-                LOG.error("Message from  Server is :" +ioe.getLocalizedMessage());
+            }
+            catch(LdapException lde) {
+                LOG.error("An error occured while requesting the ldap server.");
+                LOG.error("Message from  Server is :" +lde.getLocalizedMessage());
+                throw new ActiveDirectoryClientRequestException("An error occured while requesting the ldap server.", lde);
             }
             finally {
                 ldapConnectionPool.releaseConnection(ldapConnection);
                 LOG.debug("Successfully released connection to pool");
             }
-        } catch (LdapException lde) {
+        }
+        catch (LdapException lde) {
             LOG.error("Cannot get/release LdapConnection from/to pool.");
+            LOG.error("Message from LDAP Server is :" +lde.getLocalizedMessage());
             throw new ActiveDirectoryClientConnectionException("Cannot get/release LdapConnection from/to pool.", lde);
         }
-        return members;
+        LOG.debug(sids.size() + " token groups read for " + dn);
+        return sids;
     }
 
-    private Set<AdGroup> getGroupsForDN(String dn, boolean recursive, Set<String> groupsAlreadyExplored)
-                throws ActiveDirectoryClientException {
+    @Override
+    public Set<AdGroup> getEffectiveGroups(String dn, String searchBase) throws ActiveDirectoryClientException {
+        LOG.info("getEffectiveGroups called with Dn:" + dn + " and searchBase: " + searchBase);
+        Set<String> sids = this.getTokenGroupSids(dn);
+        Set<AdGroup> groups = new HashSet<>();
+        if (sids.isEmpty()) {
+            return groups;
+        }
+        for (AbstractAdObject adObject : this.resolveSids(sids, searchBase).getResolved().values()) {
+            if (adObject instanceof AdGroup) {
+                groups.add((AdGroup) adObject);
+            }
+        }
+        return groups;
+    }
+
+    @Override
+    public AbstractAdObject getByObjectGuid(String objectGUID) throws ActiveDirectoryClientException {
+        LOG.info("getByObjectGuid called with : " + objectGUID);
+        String canonicalGuid;
+        try {
+            canonicalGuid = ObjectGUIDConverter.getObjectGUIDAsString(ObjectGUIDConverter.stringToBytes(objectGUID));
+        } catch (IllegalArgumentException iae) {
+            LOG.error(objectGUID + " is not a valid objectGUID : " + iae.getMessage());
+            throw new ActiveDirectoryClientRequestException(iae.getMessage(), iae);
+        }
+        return this.searchByGuids(Collections.singletonList(canonicalGuid)).get(canonicalGuid);
+    }
+
+    @Override
+    public BatchLookupResult<AbstractAdObject> getByObjectGuids(Collection<String> objectGUIDs) throws ActiveDirectoryClientException {
+        LOG.info("getByObjectGuids called with " + objectGUIDs.size() + " objectGUIDs");
+        BatchLookupResult<AbstractAdObject> result = new BatchLookupResult<>();
+
+        // The objectGUIDs given may be in lower case or without braces : results are matched back through the canonical form
+        Map<String, List<String>> inputGuidsByCanonicalGuid = new LinkedHashMap<>();
+        for (String objectGUID : objectGUIDs) {
+            try {
+                String canonicalGuid = ObjectGUIDConverter.getObjectGUIDAsString(ObjectGUIDConverter.stringToBytes(objectGUID));
+                inputGuidsByCanonicalGuid.computeIfAbsent(canonicalGuid, key -> new ArrayList<>()).add(objectGUID);
+            } catch (IllegalArgumentException iae) {
+                LOG.warn(objectGUID + " is not a valid objectGUID : " + iae.getMessage());
+                result.addUnresolved(objectGUID);
+            }
+        }
+
+        List<String> canonicalGuids = new ArrayList<>(inputGuidsByCanonicalGuid.keySet());
+        List<Callable<Map<String, AbstractAdObject>>> chunks = new ArrayList<>();
+        for (int from = 0; from < canonicalGuids.size(); from += lookupBatchSize) {
+            List<String> chunk = canonicalGuids.subList(from, Math.min(from + lookupBatchSize, canonicalGuids.size()));
+            chunks.add(() -> this.searchByGuids(chunk));
+        }
+        Map<String, AbstractAdObject> found = new HashMap<>();
+        for (Map<String, AbstractAdObject> chunkResult : this.invokeAll(chunks)) {
+            found.putAll(chunkResult);
+        }
 
-        Set<AdGroup> groups = new HashSet<AdGroup>();
-        Set<String> memberOfs = new HashSet<>();
-        LOG.debug("***Exploring  " + dn);
+        for (Map.Entry<String, List<String>> inputGuids : inputGuidsByCanonicalGuid.entrySet()) {
+            AbstractAdObject adObject = found.get(inputGuids.getKey());
+            for (String inputGuid : inputGuids.getValue()) {
+                if (adObject != null) {
+                    result.addResolved(inputGuid, adObject);
+                } else {
+                    result.addUnresolved(inputGuid);
+                }
+            }
+        }
+        LOG.debug(result.getResolved().size() + " objectGUIDs resolved in " + chunks.size() + " requests, "
+                + result.getUnresolved().size() + " unresolved");
+        return result;
+    }
+
+    /**
+     * Searches the objects of the given canonical objectGUIDs with a single OR filter, in the whole forest through
+     * the Global Catalog when it is enabled and reachable, in the default naming context otherwise
+     * @return the objects found indexed by canonical objectGUID
+     */
+    private Map<String, AbstractAdObject> searchByGuids(List<String> canonicalGuids) throws ActiveDirectoryClientException {
+        StringBuilder filter = new StringBuilder("(|");
+        for (String objectGUID : canonicalGuids) {
+            filter.append("(objectGUID=").append(ObjectGUIDConverter.stringToFilterValue(objectGUID)).append(')');
+        }
+        filter.append(')');
+        Map<String, AbstractAdObject> found = new HashMap<>();
+        PagedSearch search;
+        if (globalCatalog != null && globalCatalog.isAvailable()) {
+            search = globalCatalog.createSearch(filter.toString(), pageSize, objectAttributes);
+        } else {
+            SearchRequest req = PagedSearch.createSearchRequest(this.getDefaultNamingContext(), filter.toString(),
+                    SearchScope.SUBTREE, objectAttributes);
+            search = new PagedSearch(ldapConnectionPool, req, pageSize);
+        }
+        try (PagedSearch pagedSearch = search) {
+            Entry entry;
+            while ((entry = pagedSearch.nextEntry()) != null) {
+                AbstractAdObject adObject = entryMapper.toAdObject(entry);
+                if (adObject != null) {
+                    found.put(adObject.getObjectGUID(), adObject);
+                }
+            }
+        }
+        return found;
+    }
 
+    /**
+     * Returns the dn of the domain of the server, read from its RootDSE on the first call
+     */
+    private String getDefaultNamingContext() throws ActiveDirectoryClientException {
+        String namingContext = this.defaultNamingContext;
+        if (namingContext != null) {
+            return namingContext;
+        }
         try {
             LdapConnection ldapConnection = ldapConnectionPool.getConnection();
             LOG.debug("Successfully got connection from pool");
             try {
-                SearchRequest req = new SearchRequestImpl();
-                req.setScope(SearchScope.SUBTREE);
-                req.addAttributes("*");
-                req.setTimeLimit(0);
-                req.setBase(new Dn(dn));
-                req.setFilter("(objectClass=*)");
-
-                // Process the request
-                SearchCursor searchCursor = ldapConnection.search(req);
-                while (searchCursor.next()) {
-                    Response response = searchCursor.get();
-                    if (response instanceof SearchResultEntry) {
-                        Entry resultEntry = ((SearchResultEntry) response).getEntry();
-                        Attribute listMemberOf = resultEntry.get("memberOf");
-                        if (listMemberOf != null) {
-                            for (Value value : listMemberOf) {
-                                memberOfs.add(value.toString());
-                            }
-                        }
-                    }
-                }
-                searchCursor.close();
-                for (String memberOf : memberOfs) {
-                    req.setBase(new Dn(memberOf));
-                    searchCursor = ldapConnection.search(req);
-                    while (searchCursor.next()) {
-                        Response response = searchCursor.get();
-                        if (response instanceof SearchResultEntry) {
-                            Entry resultEntry = ((SearchResultEntry) response).getEntry();
-                            Attribute classe = resultEntry.get("objectClass");
-                            if (classe != null) {
-                                for (Value value : classe) {
-                                    if (value.toString().equals(ActiveDirectoryClient.AD_GROUP_OBJECTCLASS)) {
-                                        groups.add(this.createGroupFromGroupEntry(resultEntry));
-                                        if (recursive) {
-                                            if (groupsAlreadyExplored.contains(memberOf)) {
-                                                LOG.debug("****Skipping " + memberOf);
-                                            } else {
-                                                groupsAlreadyExplored.add(memberOf);
-                                                groups.addAll(getGroupsForDN(memberOf, true, groupsAlreadyExplored));
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    searchCursor.close();
+                Entry rootDse = ldapConnection.getRootDse("defaultNamingContext");
+                if (rootDse == null || rootDse.get("defaultNamingContext") == null) {
+                    throw new ActiveDirectoryClientRequestException("No defaultNamingContext in the RootDSE of the server.");
                 }
-
-            } catch (LdapException lde) {
-                LOG.error("An error occured while requesting LDAP Server.");
-                LOG.error("Message from LDAP Server is :" +lde.getLocalizedMessage());
-                throw new ActiveDirectoryClientRequestException("An error occured while requesting LDAP Server.",lde);
-            } catch (CursorException ce) {
-                LOG.warn("An error occured while fetching next cursor of LDAP request results.");
-                LOG.warn("Message from Server is :" +ce.getLocalizedMessage());
-                LOG.warn("the is probably no result for this request.");
-            } catch (IOException ioe) {
-                LOG.error("An error occured while closing cursor of LDAP request results.");
-                LOG.error("Message from  Server is :" +ioe.getLocalizedMessage());
+                namingContext = rootDse.get("defaultNamingContext").getString();
+            }
+            catch(LdapException lde) {
+                LOG.error("An error occured while requesting the ldap server.");
+                LOG.error("Message from  Server is :" +lde.getLocalizedMessage());
+                throw new ActiveDirectoryClientRequestException("An error occured while requesting the ldap server.", lde);
             }
             finally {
                 ldapConnectionPool.releaseConnection(ldapConnection);
                 LOG.debug("Successfully released connection to pool");
             }
-        } catch (LdapException lde) {
+        }
+        catch (LdapException lde) {
             LOG.error("Cannot get/release LdapConnection from/to pool.");
-            throw new ActiveDirectoryClientConnectionException("Cannot get/release LdapConnection from/to pool.",lde);
+            LOG.error("Message from LDAP Server is :" +lde.getLocalizedMessage());
+            throw new ActiveDirectoryClientConnectionException("Cannot get/release LdapConnection from/to pool.", lde);
         }
-
-        return groups;
-    }
-
-    private AdUser createUserFromUserEntry(Entry userEntry ) throws LdapInvalidAttributeValueException {
-        Assert.notNull(userEntry, "Entry userEntry cannot be null");
-        Attribute classes = userEntry.get("objectClass");
-        Assert.isTrue(classes.contains(AD_USER_OBJECTCLASS),"Given Entry is not a user entry") ;
-        AdUser result = new AdUser();
-        result.setDistinguishedName(userEntry.get("distinguishedName").getString());
-        if (Objects.nonNull(userEntry.get("userPrincipalName"))) result.setUserPrincipalName(userEntry.get("userPrincipalName").getString());
-        result.setsAMAccountName(userEntry.get("sAMaccountName").getString());
-        if (Objects.nonNull(userEntry.get("cn"))) result.setCommonName(userEntry.get("cn").getString());
-        if (Objects.nonNull(userEntry.get("givenName"))) result.setFirstname(userEntry.get("givenName").getString());
-        if (Objects.nonNull(userEntry.get("mail"))) result.setMail(userEntry.get("mail").getString());
-        if (Objects.nonNull(userEntry.get("telephoneNumber"))) result.setTelephoneNumber(userEntry.get("telephoneNumber").getString());
-        if (Objects.nonNull(userEntry.get("department"))) result.setDepartment(userEntry.get("department").getString());
-        if (Objects.nonNull(userEntry.get("sn"))) result.setSurname(userEntry.get("sn").getString());
-        result.setObjectSid(userEntry.get("objectSid").getBytes());
-        result.setObjectGUID(ObjectGUIDConverter.getObjectGUIDAsString(userEntry.get("objectGUID").getBytes()));        return result;
-    }
-
-    private AdGroup createGroupFromGroupEntry(Entry groupEntry ) throws LdapInvalidAttributeValueException {
-        Assert.notNull(groupEntry, "Entry groupEntry cannot be null");
-        Attribute classes = groupEntry.get("objectClass");
-        Assert.isTrue(classes.contains(AD_GROUP_OBJECTCLASS),"Given Entry is not a group entry") ;
-        AdGroup result = new AdGroup();
-        result.setDistinguishedName(groupEntry.get("distinguishedName").getString());
-        result.setsAMAccountName(groupEntry.get("sAMaccountName").getString());
-        if (Objects.nonNull(groupEntry.get("description"))) result.setDescription(groupEntry.get("description").getString());
-        if (Objects.nonNull(groupEntry.get("cn"))) result.setCommonName(groupEntry.get("cn").getString());
-        result.setObjectSid(groupEntry.get("objectSid").getBytes());
-        result.setObjectGUID(ObjectGUIDConverter.getObjectGUIDAsString(groupEntry.get("objectGUID").getBytes()));
-        return result;
+        this.defaultNamingContext = namingContext;
+        return namingContext;
     }
 
-    private OrganizationalUnit createOuFromEntry(Entry ouEntry ) throws ActiveDirectoryClientException {
-        Assert.notNull(ouEntry, "Entry ouEntry cannot be null");
-        Attribute classes = ouEntry.get("objectClass");
-        Assert.isTrue(classes.contains(AD_ORGANIZATIONAL_UNIT_CLASS),"Given Entry is not a OU entry") ;
-        Dn dn = ouEntry.getDn();
-        OrganizationalUnit result = new OrganizationalUnit();
+    /**
+     * Runs the given tasks on the executor of the client (or in the calling thread if there is none)
+     * @return the results of the tasks, in the order of the tasks
+     */
+    private <T> List<T> invokeAll(List<Callable<T>> tasks) throws ActiveDirectoryClientException {
+        List<T> results = new ArrayList<>(tasks.size());
         try {
-        result.setPath(PathHelpers.getUoPath(dn.getName()).substring(17));
-        result.setObjectGUID(ObjectGUIDConverter.getObjectGUIDAsString(ouEntry.get("objectGUID").getBytes()));
-        result.setDistinguishedName(dn.toString());
-        if (Objects.nonNull(ouEntry.get("description")))
-            result.setDescription(ouEntry.get("description").getString());
-        } catch(LdapInvalidAttributeValueException e) {
-            throw new ActiveDirectoryAttributeNotFoundException("Mandatory attribute not found in entry.", e);
+            if (executorService == null || tasks.size() <= 1) {
+                for (Callable<T> task : tasks) {
+                    results.add(task.call());
+                }
+                return results;
+            }
+            for (Future<T> future : executorService.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new ActiveDirectoryClientRequestException("Interrupted while requesting the ldap server.", ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof ActiveDirectoryClientException) {
+                throw (ActiveDirectoryClientException) ee.getCause();
+            }
+            throw new ActiveDirectoryClientRequestException("An error occured while requesting the ldap server.", ee.getCause());
+        } catch (ActiveDirectoryClientException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ActiveDirectoryClientRequestException("An error occured while requesting the ldap server.", e);
         }
-        return result;
+        return results;
     }
 
-    private String getStringAttributeValue(String dn, String attribute) throws ActiveDirectoryClientException{
-        LOG.info("getStringAttributeValue called with : " + dn + " and attribute " + attribute);
-        String result = "";
+    @Override
+    public AbstractAdObject getObjectBySid(String objectSid, String searchBase) throws ActiveDirectoryClientException{
+        LOG.info("getByObjectSid called with : " + objectSid + " and searchBase: " + searchBase);
+        AbstractAdObject result = null;
+        if (globalCatalog != null && globalCatalog.isForestWide(searchBase)) {
+            try (PagedSearch pagedSearch = globalCatalog.createSearch("(objectSid=" + objectSid + ")", pageSize, userOrGroupAttributes)) {
+                return pagedSearch.next(entryMapper::toUserOrGroup);
+            }
+        }
         try {
             LdapConnection ldapConnection = ldapConnectionPool.getConnection();
             LOG.debug("Successfully got connection from pool");
             try {
-                Entry resultEntry = ldapConnection.lookup(dn);
-                if (resultEntry.get(attribute) != null) {
-                    result =  resultEntry.get(attribute).getString();
-                }
+                EntryCursor entryCursor = ldapConnection.search(searchBase, "(objectSid=" + objectSid + ")", SearchScope.SUBTREE, userOrGroupAttributes);
+                entryCursor.next();
+                Entry resultEntry=entryCursor.get();
+                Attribute classes = resultEntry.get("objectClass");
+                if (classes.contains(AD_USER_OBJECTCLASS)) result = entryMapper.toUser(resultEntry);
+                if (classes.contains(AD_GROUP_OBJECTCLASS)) result = entryMapper.toGroup(resultEntry);
+                entryCursor.close();
             }
             catch(LdapException lde) {
                 LOG.error("An error occured while requesting the ldap server.");
                 LOG.error("Message from  Server is :" +lde.getLocalizedMessage());
                 throw new ActiveDirectoryClientRequestException("An error occured while requesting the ldap server.", lde);
             }
+            catch (CursorException ce) {
+                LOG.warn("An error occured while fetching next cursor of LDAP request results.");
+                LOG.warn("Message from  Server is :" +ce.getLocalizedMessage());
+                LOG.warn("There is probably no result for this request");
+            }
+            catch (IOException ioe) {
+                LOG.error("An error occured while closing cursor of LDAP request results.");
+                LOG.error("Message from  Server is :" +ioe.getLocalizedMessage());
+            }
             finally {
                 ldapConnectionPool.releaseConnection(ldapConnection);
                 LOG.debug("Successfully released connection to pool");
@@ -836,29 +1240,95 @@ public class ActiveDirectoryClientImpl implements ActiveDirectoryClient {
         catch (LdapException lde) {
             LOG.error("Cannot get/release LdapConnection from/to pool.");
             LOG.error("Message from LDAP Server is :" +lde.getLocalizedMessage());
-            throw new ActiveDirectoryClientConnectionException("Cannot get/release LdapConnection from/to pool.", lde);
+            throw new ActiveDirectoryClientConnectionException("Cannot get/release LdapConnection from/to pool.",lde);
         }
+
         return result;
     }
 
+    /**
+     * Returns all the objects transitively member of the group, with a single paged search in the group's domain
+     */
+    private Set<AbstractAdObject> getMembersInChain(String groupDn) throws ActiveDirectoryClientException {
+        Set<AbstractAdObject> members = new HashSet<>();
+        SearchRequest req = PagedSearch.createSearchRequest(PathHelpers.getDomainDn(groupDn),
+                "(memberOf:" + MembershipResolution.IN_CHAIN_MATCHING_RULE + ":=" + FilterEncoder.encodeFilterValue(groupDn) + ")",
+                SearchScope.SUBTREE, userOrGroupAttributes);
+        try (PagedSearch pagedSearch = new PagedSearch(ldapConnectionPool, req, pageSize)) {
+            AbstractAdObject member;
+            while ((member = pagedSearch.next(entryMapper::toUserOrGroup)) != null) {
+                members.add(member);
+            }
+            LOG.debug(members.size() + " members of " + groupDn + " found in " + pagedSearch.getPageCount() + " pages");
+        }
+        return members;
+    }
+
+    /**
+     * Returns all the groups transitively containing the object, with a single paged search in the object's domain
+     */
+    private Set<AdGroup> getGroupsInChain(String dn) throws ActiveDirectoryClientException {
+        Set<AdGroup> groups = new HashSet<>();
+        SearchRequest req = PagedSearch.createSearchRequest(PathHelpers.getDomainDn(dn),
+                "(&(objectClass=" + AD_GROUP_OBJECTCLASS + ")(member:" + MembershipResolution.IN_CHAIN_MATCHING_RULE + ":="
+                        + FilterEncoder.encodeFilterValue(dn) + "))",
+                SearchScope.SUBTREE, groupAttributes);
+        try (PagedSearch pagedSearch = new PagedSearch(ldapConnectionPool, req, pageSize)) {
+            AdGroup group;
+            while ((group = pagedSearch.next(entryMapper::toGroup)) != null) {
+                groups.add(group);
+            }
+            LOG.debug(groups.size() + " groups of " + dn + " found in " + pagedSearch.getPageCount() + " pages");
+        }
+        return groups;
+    }
+
+    private String getDistinguishedName(Entry entry) throws LdapInvalidAttributeValueException {
+        return entry.get("distinguishedName").getString();
+    }
+
+    /**
+     * Returns the descriptions of the organizational units holding the given dn, from the top one down to its parent,
+     * read with a single search
+     */
     private String getParentDescription(Dn dn) throws ActiveDirectoryClientException {
-        String fullParentDescription="";
-            while (dn.getParent() != null) {
-                Dn theParent = dn.getParent();
-                if ("OU".equals(theParent.getRdn().getType())) {
-                    String parentDescription = this.getStringAttributeValue(theParent.getName(), "description");
-                    if (parentDescription.length()>0) fullParentDescription = parentDescription + "/" + fullParentDescription;
-                } else {
-                    break;
+        List<Dn> ancestors = new ArrayList<>();
+        Dn parent = dn.getParent();
+        while (parent != null && !parent.isEmpty() && "OU".equalsIgnoreCase(parent.getRdn().getType())) {
+            ancestors.add(0, parent);
+            parent = parent.getParent();
+        }
+        if (ancestors.isEmpty()) {
+            return "";
+        }
+        StringBuilder filter = new StringBuilder("(&(objectClass=" + AD_ORGANIZATIONAL_UNIT_CLASS + ")(|");
+        for (Dn ancestor : ancestors) {
+            filter.append("(distinguishedName=").append(FilterEncoder.encodeFilterValue(ancestor.getName())).append(')');
+        }
+        filter.append("))");
+        Map<String, String> descriptions = new HashMap<>();
+        SearchRequest req = PagedSearch.createSearchRequest(PathHelpers.getDomainDn(dn.getName()), filter.toString(),
+                SearchScope.SUBTREE, "description");
+        try (PagedSearch pagedSearch = new PagedSearch(ldapConnectionPool, req, pageSize)) {
+            Entry entry;
+            while ((entry = pagedSearch.nextEntry()) != null) {
+                Attribute description = entry.get("description");
+                if (description != null) {
+                    descriptions.put(PathHelpers.getDnKey(entry.getDn()), description.get().getString());
                 }
-                dn = theParent;
-            }
-            if (fullParentDescription.length()>0) {
-                return fullParentDescription.substring(0,fullParentDescription.length()-1);
             }
-            else {
-                return fullParentDescription;
+        }
+        StringBuilder fullParentDescription = new StringBuilder();
+        for (Dn ancestor : ancestors) {
+            String description = descriptions.get(PathHelpers.getDnKey(ancestor));
+            if (description != null && description.length() > 0) {
+                if (fullParentDescription.length() > 0) {
+                    fullParentDescription.append('/');
+                }
+                fullParentDescription.append(description);
             }
+        }
+        return fullParentDescription.toString();
     }
 
 }
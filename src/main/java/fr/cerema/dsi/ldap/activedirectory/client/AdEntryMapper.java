@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client;
+
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryAttributeNotFoundException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientException;
+import fr.cerema.dsi.ldap.activedirectory.client.mapping.AttributeBinder;
+import fr.cerema.dsi.ldap.activedirectory.client.mapping.EntryMapping;
+import fr.cerema.dsi.ldap.activedirectory.client.model.AbstractAdObject;
+import fr.cerema.dsi.ldap.activedirectory.client.model.AdGroup;
+import fr.cerema.dsi.ldap.activedirectory.client.model.AdUser;
+import fr.cerema.dsi.ldap.activedirectory.client.model.OrganizationalUnit;
+import fr.cerema.dsi.ldap.activedirectory.client.utils.ObjectGUIDConverter;
+import fr.cerema.dsi.ldap.activedirectory.client.utils.PathHelpers;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.springframework.util.Assert;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static fr.cerema.dsi.ldap.activedirectory.client.ActiveDirectoryClient.AD_GROUP_OBJECTCLASS;
+import static fr.cerema.dsi.ldap.activedirectory.client.ActiveDirectoryClient.AD_ORGANIZATIONAL_UNIT_CLASS;
+import static fr.cerema.dsi.ldap.activedirectory.client.ActiveDirectoryClient.AD_USER_OBJECTCLASS;
+
+/**
+ * Converts the ldap entries returned by the server into the objects of the model
+ * <p>
+ * The entries must hold the attributes listed by the LDAP_ATTRIBUTES constant of the model classes.
+ * The additional attributes configured with
+ * {@link LdapConnectionConfigurer#configureAdditionalAttributes(String...)} are copied into the objects.
+ * <p>
+ * Each model class is converted by an {@link EntryMapping} built once : the default bindings are declared by
+ * {@link #userMapping(Supplier, List)}, {@link #groupMapping(Supplier, List)} and
+ * {@link #organizationalUnitMapping(Supplier, List)}, whose builders can be given more bindings for custom attributes.
+ */
+public class AdEntryMapper {
+
+    private final List<String> additionalAttributes;
+    private final EntryMapping<? extends AdUser> userMapping;
+    private final EntryMapping<? extends AdGroup> groupMapping;
+    private final EntryMapping<? extends OrganizationalUnit> organizationalUnitMapping;
+
+    /**
+     * Constructor
+     * @param additionalAttributes the names of the additional attributes copied into the objects
+     */
+    public AdEntryMapper(List<String> additionalAttributes) {
+        this(additionalAttributes, userMapping(AdUser::new, additionalAttributes).build(),
+                groupMapping(AdGroup::new, additionalAttributes).build(),
+                organizationalUnitMapping(OrganizationalUnit::new, additionalAttributes).build());
+    }
+
+    /**
+     * Constructor with custom mappings
+     * @param additionalAttributes the names of the additional attributes, which the mappings must bind
+     * @param userMapping the mapping of the user entries
+     * @param groupMapping the mapping of the group entries
+     * @param organizationalUnitMapping the mapping of the organizational unit entries
+     */
+    public AdEntryMapper(List<String> additionalAttributes, EntryMapping<? extends AdUser> userMapping,
+                         EntryMapping<? extends AdGroup> groupMapping,
+                         EntryMapping<? extends OrganizationalUnit> organizationalUnitMapping) {
+        this.additionalAttributes = additionalAttributes == null ? Collections.emptyList() : additionalAttributes;
+        this.userMapping = userMapping;
+        this.groupMapping = groupMapping;
+        this.organizationalUnitMapping = organizationalUnitMapping;
+    }
+
+    /**
+     * Declares the default bindings of the user entries
+     * @param factory the factory of the users
+     * @param additionalAttributes the names of the additional attributes copied into the users, may be null
+     * @param <U> the class of the users
+     * @return the builder of the mapping, to which more bindings can be added
+     */
+    public static <U extends AdUser> EntryMapping.Builder<U> userMapping(Supplier<U> factory, List<String> additionalAttributes) {
+        EntryMapping.Builder<U> builder = EntryMapping.<U>builder(factory)
+                .mandatory("distinguishedName", AttributeBinder.string(AdUser::setDistinguishedName))
+                .optional("userPrincipalName", AttributeBinder.string(AdUser::setUserPrincipalName))
+                .mandatory("sAMAccountName", AttributeBinder.string(AdUser::setsAMAccountName))
+                .optional("cn", AttributeBinder.string(AdUser::setCommonName))
+                .optional("givenName", AttributeBinder.string(AdUser::setFirstname))
+                .optional("mail", AttributeBinder.string(AdUser::setMail))
+                .optional("telephoneNumber", AttributeBinder.string(AdUser::setTelephoneNumber))
+                .optional("department", AttributeBinder.string(AdUser::setDepartment))
+                .optional("sn", AttributeBinder.string(AdUser::setSurname))
+                .mandatory("objectSid", AttributeBinder.bytes(AdUser::setObjectSid))
+                .mandatory("objectGUID", AttributeBinder.bytes(AdEntryMapper::setObjectGUID));
+        return bindAdditionalAttributes(builder, additionalAttributes);
+    }
+
+    /**
+     * Declares the default bindings of the group entries
+     * @param factory the factory of the groups
+     * @param additionalAttributes the names of the additional attributes copied into the groups, may be null
+     * @param <G> the class of the groups
+     * @return the builder of the mapping, to which more bindings can be added
+     */
+    public static <G extends AdGroup> EntryMapping.Builder<G> groupMapping(Supplier<G> factory, List<String> additionalAttributes) {
+        EntryMapping.Builder<G> builder = EntryMapping.<G>builder(factory)
+                .mandatory("distinguishedName", AttributeBinder.string(AdGroup::setDistinguishedName))
+                .mandatory("sAMAccountName", AttributeBinder.string(AdGroup::setsAMAccountName))
+                .optional("description", AttributeBinder.string(AdGroup::setDescription))
+                .optional("cn", AttributeBinder.string(AdGroup::setCommonName))
+                .mandatory("objectSid", AttributeBinder.bytes(AdGroup::setObjectSid))
+                .mandatory("objectGUID", AttributeBinder.bytes(AdEntryMapper::setObjectGUID));
+        return bindAdditionalAttributes(builder, additionalAttributes);
+    }
+
+    /**
+     * Declares the default bindings of the organizational unit entries (the path and the distinguishedName are
+     * computed from the dn of the entry)
+     * @param factory the factory of the organizational units
+     * @param additionalAttributes the names of the additional attributes copied into the units, may be null
+     * @param <O> the class of the organizational units
+     * @return the builder of the mapping, to which more bindings can be added
+     */
+    public static <O extends OrganizationalUnit> EntryMapping.Builder<O> organizationalUnitMapping(Supplier<O> factory,
+                                                                                           List<String> additionalAttributes) {
+        EntryMapping.Builder<O> builder = EntryMapping.<O>builder(factory)
+                .mandatory("objectGUID", AttributeBinder.bytes(AdEntryMapper::setObjectGUID))
+                .optional("description", AttributeBinder.string(OrganizationalUnit::setDescription));
+        return bindAdditionalAttributes(builder, additionalAttributes);
+    }
+
+    private static <T extends AbstractAdObject> EntryMapping.Builder<T> bindAdditionalAttributes(
+            EntryMapping.Builder<T> builder, List<String> additionalAttributes) {
+        if (additionalAttributes != null) {
+            for (String attributeName : additionalAttributes) {
+                builder.optional(attributeName, AttributeBinder.strings(
+                        (adObject, values) -> adObject.getAdditionalAttributes().put(attributeName, values)));
+            }
+        }
+        return builder;
+    }
+
+    private static void setObjectGUID(AbstractAdObject adObject, byte[] objectGUID) {
+        adObject.setObjectGUID(ObjectGUIDConverter.getObjectGUIDAsString(objectGUID));
+    }
+
+    /**
+     * Returns the names of the additional attributes copied into the objects
+     * @return the additional attributes names
+     */
+    public List<String> getAdditionalAttributes() {
+        return additionalAttributes;
+    }
+
+    /**
+     * Converts a user, group or organizational unit entry
+     * @param entry the entry
+     * @return the user, group or organizational unit, or null for other kinds of entries
+     * @throws ActiveDirectoryClientException if a mandatory attribute is missing
+     */
+    public AbstractAdObject toAdObject(Entry entry) throws ActiveDirectoryClientException {
+        Attribute classes = entry.get("objectClass");
+        if (classes.contains(AD_ORGANIZATIONAL_UNIT_CLASS)) {
+            return this.toOrganizationalUnit(entry);
+        }
+        try {
+            return this.toUserOrGroup(entry);
+        } catch (LdapInvalidAttributeValueException e) {
+            throw new ActiveDirectoryAttributeNotFoundException("Mandatory attribute not found in entry.", e);
+        }
+    }
+
+    /**
+     * Converts a user or group entry
+     * @param entry the entry
+     * @return the user or group, or null for other kinds of entries
+     * @throws LdapInvalidAttributeValueException if a mandatory attribute is missing
+     */
+    public AbstractAdObject toUserOrGroup(Entry entry) throws LdapInvalidAttributeValueException {
+        Attribute classes = entry.get("objectClass");
+        if (classes.contains(AD_USER_OBJECTCLASS)) return userMapping.map(entry);
+        if (classes.contains(AD_GROUP_OBJECTCLASS)) return groupMapping.map(entry);
+        return null;
+    }
+
+    /**
+     * Converts a group entry
+     * @param entry the entry
+     * @return the group, or null for other kinds of entries
+     * @throws LdapInvalidAttributeValueException if a mandatory attribute is missing
+     */
+    public AdGroup toGroupIfGroup(Entry entry) throws LdapInvalidAttributeValueException {
+        Attribute classes = entry.get("objectClass");
+        return classes.contains(AD_GROUP_OBJECTCLASS) ? groupMapping.map(entry) : null;
+    }
+
+    /**
+     * Converts a user entry
+     * @param userEntry the entry, which must be a user entry
+     * @return the user
+     * @throws LdapInvalidAttributeValueException if a mandatory attribute is missing
+     */
+    public AdUser toUser(Entry userEntry) throws LdapInvalidAttributeValueException {
+        Assert.notNull(userEntry, "Entry userEntry cannot be null");
+        Attribute classes = userEntry.get("objectClass");
+        Assert.isTrue(classes.contains(AD_USER_OBJECTCLASS),"Given Entry is not a user entry") ;
+        return userMapping.map(userEntry);
+    }
+
+    /**
+     * Converts a group entry
+     * @param groupEntry the entry, which must be a group entry
+     * @return the group
+     * @throws LdapInvalidAttributeValueException if a mandatory attribute is missing
+     */
+    public AdGroup toGroup(Entry groupEntry) throws LdapInvalidAttributeValueException {
+        Assert.notNull(groupEntry, "Entry groupEntry cannot be null");
+        Attribute classes = groupEntry.get("objectClass");
+        Assert.isTrue(classes.contains(AD_GROUP_OBJECTCLASS),"Given Entry is not a group entry") ;
+        return groupMapping.map(groupEntry);
+    }
+
+    /**
+     * Converts an organizational unit entry
+     * @param ouEntry the entry, which must be an organizational unit entry
+     * @return the organizational unit
+     * @throws ActiveDirectoryClientException if a mandatory attribute is missing
+     */
+    public OrganizationalUnit toOrganizationalUnit(Entry ouEntry) throws ActiveDirectoryClientException {
+        Assert.notNull(ouEntry, "Entry ouEntry cannot be null");
+        Attribute classes = ouEntry.get("objectClass");
+        Assert.isTrue(classes.contains(AD_ORGANIZATIONAL_UNIT_CLASS),"Given Entry is not a OU entry") ;
+        Dn dn = ouEntry.getDn();
+        OrganizationalUnit result;
+        try {
+            result = organizationalUnitMapping.map(ouEntry);
+        } catch(LdapInvalidAttributeValueException e) {
+            throw new ActiveDirectoryAttributeNotFoundException("Mandatory attribute not found in entry.", e);
+        }
+        result.setPath(PathHelpers.getUoPath(dn.getName()).substring(17));
+        result.setDistinguishedName(dn.toString());
+        return result;
+    }
+}
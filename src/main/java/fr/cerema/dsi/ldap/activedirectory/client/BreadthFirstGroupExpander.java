@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client;
+
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientConnectionException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientRequestException;
+import fr.cerema.dsi.ldap.activedirectory.client.pool.LdapConnectionSource;
+import fr.cerema.dsi.ldap.activedirectory.client.search.EntryMappingFunction;
+import fr.cerema.dsi.ldap.activedirectory.client.search.RangedAttributeReader;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Level-synchronous breadth first walker of the membership graph
+ * <p>
+ * Starting from an entry, the dns held by a link attribute (member or memberOf) form the first frontier.
+ * All the entries of a frontier are looked up concurrently : the frontier is split in at most
+ * <i>parallelism</i> slices, each slice being looked up on its own pooled connection.
+ * The link attribute of the group entries found gives the next frontier. A dn is never looked up twice
+ * thanks to a visited set shared by the concurrent lookups.
+ * <p>
+ * The link attributes of large groups are read range by range with a {@link RangedAttributeReader}, each range
+ * feeding the next frontier, so that groups beyond the MaxValRange of the AD are expanded entirely.
+ */
+class BreadthFirstGroupExpander {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BreadthFirstGroupExpander.class);
+
+    private final LdapConnectionSource ldapConnectionPool;
+    private final ExecutorService executorService;
+    private final int parallelism;
+    private final RangedAttributeReader rangedAttributeReader = new RangedAttributeReader();
+
+    /**
+     * Constructor
+     * @param ldapConnectionPool the pool the connections are taken from
+     * @param executorService the executor running the lookups, or null to run them in the calling thread
+     * @param parallelism the maximum number of connections used at the same time by one expansion
+     */
+    BreadthFirstGroupExpander(LdapConnectionSource ldapConnectionPool, ExecutorService executorService, int parallelism) {
+        this.ldapConnectionPool = ldapConnectionPool;
+        this.executorService = executorService;
+        this.parallelism = executorService == null ? 1 : parallelism;
+    }
+
+    /**
+     * Returns the objects linked to the start entry
+     * @param startDn the dn of the entry the expansion starts from
+     * @param linkAttribute the attribute holding the dns of the linked entries (member or memberOf)
+     * @param attributes the attributes needed by the mapping function
+     * @param mappingFunction the function building the returned objects, entries for which it returns null are skipped
+     * @param recursive if true the links of the linked groups are followed, otherwise only the direct links are returned
+     * @param <T> the type of the returned objects
+     * @return the objects linked (recursively or not) to the start entry
+     * @throws ActiveDirectoryClientException if an exception occurs while requesting the ldap server
+     */
+    <T> Set<T> expand(String startDn, String linkAttribute, String[] attributes, EntryMappingFunction<T> mappingFunction,
+                      boolean recursive) throws ActiveDirectoryClientException {
+        String[] nodeAttributes = attributes;
+        if (recursive) {
+            nodeAttributes = Arrays.copyOf(attributes, attributes.length + 1);
+            nodeAttributes[attributes.length] = linkAttribute;
+        }
+        Set<String> visited = ConcurrentHashMap.newKeySet();
+        visited.add(normalize(startDn));
+
+        Set<T> results = new HashSet<>();
+        List<String> frontier = this.lookupLinks(startDn, linkAttribute, visited);
+        int depth = 0;
+        while (!frontier.isEmpty()) {
+            depth++;
+            LOG.debug("Exploring level " + depth + " of " + startDn + " : " + frontier.size() + " entries");
+            Level<T> next = this.lookupFrontier(frontier, linkAttribute, nodeAttributes, mappingFunction, recursive, visited);
+            results.addAll(next.results);
+            frontier = next.nextFrontier;
+        }
+        LOG.debug("Expansion of " + startDn + " done : " + results.size() + " results, " + depth + " levels, "
+                + visited.size() + " entries visited");
+        return results;
+    }
+
+    private <T> Level<T> lookupFrontier(List<String> frontier, String linkAttribute, String[] attributes,
+                                        EntryMappingFunction<T> mappingFunction, boolean recursive, Set<String> visited)
+            throws ActiveDirectoryClientException {
+        int slices = Math.min(parallelism, frontier.size());
+        if (slices <= 1) {
+            return this.lookupSlice(frontier, linkAttribute, attributes, mappingFunction, recursive, visited);
+        }
+        int sliceSize = (frontier.size() + slices - 1) / slices;
+        List<Future<Level<T>>> futures = new ArrayList<>(slices);
+        for (int from = 0; from < frontier.size(); from += sliceSize) {
+            List<String> slice = frontier.subList(from, Math.min(from + sliceSize, frontier.size()));
+            futures.add(executorService.submit(
+                    () -> this.lookupSlice(slice, linkAttribute, attributes, mappingFunction, recursive, visited)));
+        }
+        Level<T> level = new Level<>();
+        try {
+            for (Future<Level<T>> future : futures) {
+                Level<T> sliceLevel = future.get();
+                level.results.addAll(sliceLevel.results);
+                level.nextFrontier.addAll(sliceLevel.nextFrontier);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            futures.forEach(future -> future.cancel(true));
+            throw new ActiveDirectoryClientRequestException("Interrupted while exploring the membership graph.", ie);
+        } catch (ExecutionException ee) {
+            futures.forEach(future -> future.cancel(true));
+            if (ee.getCause() instanceof ActiveDirectoryClientException) {
+                throw (ActiveDirectoryClientException) ee.getCause();
+            }
+            throw new ActiveDirectoryClientRequestException("An error occured while exploring the membership graph.", ee.getCause());
+        }
+        return level;
+    }
+
+    /**
+     * Looks up the given dns on a single pooled connection
+     */
+    private <T> Level<T> lookupSlice(List<String> dns, String linkAttribute, String[] attributes,
+                                     EntryMappingFunction<T> mappingFunction, boolean followLinks, Set<String> visited)
+            throws ActiveDirectoryClientException {
+        Level<T> level = new Level<>();
+        try {
+            LdapConnection ldapConnection = ldapConnectionPool.getConnection();
+            LOG.debug("Successfully got connection from pool");
+            try {
+                for (String dn : dns) {
+                    Entry entry = ldapConnection.lookup(dn, attributes);
+                    if (entry == null) {
+                        LOG.debug("****Skipping " + dn + " : not found");
+                        continue;
+                    }
+                    T result = mappingFunction.map(entry);
+                    if (result != null) {
+                        level.results.add(result);
+                    }
+                    if (followLinks && isGroup(entry)) {
+                        this.addLinks(ldapConnection, entry, linkAttribute, visited, level.nextFrontier);
+                    }
+                }
+            } catch (LdapException lde) {
+                LOG.error("An error occured while requesting LDAP Server.");
+                LOG.error("Message from LDAP Server is :" + lde.getLocalizedMessage());
+                throw new ActiveDirectoryClientRequestException("An error occured while requesting LDAP Server.", lde);
+            } finally {
+                ldapConnectionPool.releaseConnection(ldapConnection);
+                LOG.debug("Successfully released connection to pool");
+            }
+        } catch (LdapException lde) {
+            LOG.error("Cannot get/release LdapConnection from/to pool.");
+            throw new ActiveDirectoryClientConnectionException("Cannot get/release LdapConnection from/to pool.", lde);
+        }
+        return level;
+    }
+
+    /**
+     * Returns the dns held by the link attribute of the start entry
+     */
+    private List<String> lookupLinks(String startDn, String linkAttribute, Set<String> visited)
+            throws ActiveDirectoryClientException {
+        List<String> links = new ArrayList<>();
+        try {
+            LdapConnection ldapConnection = ldapConnectionPool.getConnection();
+            LOG.debug("Successfully got connection from pool");
+            try {
+                Entry entry = ldapConnection.lookup(startDn, linkAttribute);
+                if (entry != null) {
+                    this.addLinks(ldapConnection, entry, linkAttribute, visited, links);
+                }
+            } catch (LdapException lde) {
+                LOG.error("An error occured while requesting LDAP Server.");
+                LOG.error("Message from LDAP Server is :" + lde.getLocalizedMessage());
+                throw new ActiveDirectoryClientRequestException("An error occured while requesting LDAP Server.", lde);
+            } finally {
+                ldapConnectionPool.releaseConnection(ldapConnection);
+                LOG.debug("Successfully released connection to pool");
+            }
+        } catch (LdapException lde) {
+            LOG.error("Cannot get/release LdapConnection from/to pool.");
+            throw new ActiveDirectoryClientConnectionException("Cannot get/release LdapConnection from/to pool.", lde);
+        }
+        return links;
+    }
+
+    private void addLinks(LdapConnection ldapConnection, Entry entry, String linkAttribute, Set<String> visited,
+                          List<String> nextFrontier) throws LdapException {
+        rangedAttributeReader.read(ldapConnection, entry, linkAttribute, linkedDn -> {
+            if (visited.add(normalize(linkedDn))) {
+                nextFrontier.add(linkedDn);
+            } else {
+                LOG.debug("****Skipping " + linkedDn);
+            }
+        });
+    }
+
+    private static boolean isGroup(Entry entry) {
+        Attribute classes = entry.get("objectClass");
+        return classes != null && classes.contains(ActiveDirectoryClient.AD_GROUP_OBJECTCLASS);
+    }
+
+    private static String normalize(String dn) {
+        return dn.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Results of the lookups of a frontier, and the dns of the next frontier
+     */
+    private static class Level<T> {
+        private final List<T> results = new ArrayList<>();
+        private final List<String> nextFrontier = new ArrayList<>();
+    }
+}
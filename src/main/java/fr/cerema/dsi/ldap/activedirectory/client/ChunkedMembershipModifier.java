@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client;
+
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientConnectionException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientInvalidDnException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientRequestException;
+import fr.cerema.dsi.ldap.activedirectory.client.model.MembershipChangeOutcome;
+import fr.cerema.dsi.ldap.activedirectory.client.model.MembershipChangeReport;
+import fr.cerema.dsi.ldap.activedirectory.client.pool.LdapConnectionSource;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.message.LdapResult;
+import org.apache.directory.api.ldap.model.message.ModifyRequest;
+import org.apache.directory.api.ldap.model.message.ModifyRequestImpl;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Adds or removes many members to or from a group with a few multi-valued modify requests
+ * <p>
+ * The member values are sent by chunks, on a single pooled connection. A modify request is atomic :
+ * when the server refuses a chunk because of some of its values (already member, not member, unknown entity),
+ * none of its values is applied. The chunk is then split in two halves which are sent again, until the
+ * refused values are isolated, so that k refused values among n cost about k.log2(n) additional requests.
+ */
+class ChunkedMembershipModifier {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChunkedMembershipModifier.class);
+
+    /**
+     * Result codes caused by some values of a chunk, for which the chunk is split
+     */
+    private static final Set<ResultCodeEnum> VALUE_REFUSALS = EnumSet.of(
+            ResultCodeEnum.ATTRIBUTE_OR_VALUE_EXISTS,
+            ResultCodeEnum.ENTRY_ALREADY_EXISTS,
+            ResultCodeEnum.NO_SUCH_ATTRIBUTE,
+            ResultCodeEnum.NO_SUCH_OBJECT,
+            ResultCodeEnum.UNWILLING_TO_PERFORM,
+            ResultCodeEnum.CONSTRAINT_VIOLATION,
+            ResultCodeEnum.INVALID_DN_SYNTAX,
+            ResultCodeEnum.ADMIN_LIMIT_EXCEEDED);
+
+    private final LdapConnectionSource ldapConnectionPool;
+    private final int chunkSize;
+
+    /**
+     * Constructor
+     * @param ldapConnectionPool the pool the connection is taken from
+     * @param chunkSize the maximum number of member values sent by a single request
+     */
+    ChunkedMembershipModifier(LdapConnectionSource ldapConnectionPool, int chunkSize) {
+        this.ldapConnectionPool = ldapConnectionPool;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Adds or removes the entities to or from the group
+     * @param entityDns the dns of the entities
+     * @param groupDn the dn of the group
+     * @param operation {@link ModificationOperation#ADD_ATTRIBUTE} or {@link ModificationOperation#REMOVE_ATTRIBUTE}
+     * @return the outcome of each dn
+     * @throws ActiveDirectoryClientException if the group does not exist, or if an exception occurs while requesting
+     * the ldap server
+     */
+    MembershipChangeReport modify(Collection<String> entityDns, String groupDn, ModificationOperation operation)
+            throws ActiveDirectoryClientException {
+        Dn group;
+        try {
+            group = new Dn(groupDn);
+        } catch (LdapInvalidDnException e) {
+            LOG.error(groupDn + " is not a valid dn.");
+            throw new ActiveDirectoryClientInvalidDnException(groupDn + " is not a valid distinguishedName");
+        }
+        // a value given twice in a request would make the whole request fail
+        List<String> dns = new ArrayList<>(new LinkedHashSet<>(entityDns));
+        GroupModification modification = new GroupModification(group, operation, new MembershipChangeReport(groupDn));
+        if (dns.isEmpty()) {
+            return modification.report;
+        }
+        try {
+            LdapConnection ldapConnection = ldapConnectionPool.getWriteConnection();
+            LOG.debug("Successfully got connection from pool");
+            try {
+                for (int from = 0; from < dns.size(); from += chunkSize) {
+                    modification.send(ldapConnection, dns.subList(from, Math.min(from + chunkSize, dns.size())));
+                }
+            } catch (LdapException lde) {
+                LOG.error("An error occured while requesting LDAP Server for group modification.");
+                LOG.error("Message from LDAP Server is :" + lde.getLocalizedMessage());
+                throw new ActiveDirectoryClientRequestException("An error occured while requesting LDAP Server for group modification." +
+                        "Please check the given Dns, and your authorizations against the AD.", lde);
+            } finally {
+                ldapConnectionPool.releaseConnection(ldapConnection);
+                LOG.debug("Successfully released connection to pool");
+            }
+        } catch (LdapException lde) {
+            LOG.error("Cannot get/release LdapConnection from/to pool.");
+            LOG.error("Message from LDAP Server is :" + lde.getLocalizedMessage());
+            throw new ActiveDirectoryClientConnectionException("Cannot get/release LdapConnection from/to pool.", lde);
+        }
+        LOG.info(modification.report.toString());
+        return modification.report;
+    }
+
+    /**
+     * State of a modification of a group
+     */
+    private static class GroupModification {
+
+        private final Dn group;
+        private final ModificationOperation operation;
+        private final MembershipChangeReport report;
+        private boolean groupExists;
+
+        private GroupModification(Dn group, ModificationOperation operation, MembershipChangeReport report) {
+            this.group = group;
+            this.operation = operation;
+            this.report = report;
+        }
+
+        /**
+         * Sends a chunk, splitting it in two halves if the server refuses some of its values
+         */
+        private void send(LdapConnection ldapConnection, List<String> chunk) throws LdapException, ActiveDirectoryClientException {
+            ModifyRequest modifyRequest = new ModifyRequestImpl();
+            modifyRequest.setName(group);
+            modifyRequest.addModification(new DefaultModification(operation, "member", chunk.toArray(new String[0])));
+            report.countRequest();
+            LdapResult result = ldapConnection.modify(modifyRequest).getLdapResult();
+            ResultCodeEnum resultCode = result.getResultCode();
+            if (resultCode == ResultCodeEnum.SUCCESS) {
+                MembershipChangeOutcome outcome = operation == ModificationOperation.ADD_ATTRIBUTE
+                        ? MembershipChangeOutcome.ADDED : MembershipChangeOutcome.REMOVED;
+                chunk.forEach(dn -> report.record(dn, outcome));
+                return;
+            }
+            if (resultCode == ResultCodeEnum.NO_SUCH_OBJECT) {
+                this.checkGroupExists(ldapConnection);
+            }
+            if (chunk.size() == 1) {
+                this.recordRefusal(chunk.get(0), resultCode, result.getDiagnosticMessage());
+            } else if (VALUE_REFUSALS.contains(resultCode)) {
+                LOG.debug("Chunk of " + chunk.size() + " values refused with " + resultCode + ", splitting it");
+                int middle = chunk.size() / 2;
+                this.send(ldapConnection, chunk.subList(0, middle));
+                this.send(ldapConnection, chunk.subList(middle, chunk.size()));
+            } else {
+                // the refusal does not depend on the values (access rights...) : splitting would not help
+                chunk.forEach(dn -> report.recordFailure(dn, resultCode + " : " + result.getDiagnosticMessage()));
+            }
+        }
+
+        private void recordRefusal(String dn, ResultCodeEnum resultCode, String diagnosticMessage) {
+            boolean adding = operation == ModificationOperation.ADD_ATTRIBUTE;
+            if (adding && (resultCode == ResultCodeEnum.ATTRIBUTE_OR_VALUE_EXISTS || resultCode == ResultCodeEnum.ENTRY_ALREADY_EXISTS)) {
+                report.record(dn, MembershipChangeOutcome.ALREADY_MEMBER);
+            } else if (!adding && (resultCode == ResultCodeEnum.NO_SUCH_ATTRIBUTE || resultCode == ResultCodeEnum.UNWILLING_TO_PERFORM)) {
+                // Active Directory answers unwillingToPerform when removing a value which is not a member
+                report.record(dn, MembershipChangeOutcome.NOT_MEMBER);
+            } else if (resultCode == ResultCodeEnum.NO_SUCH_OBJECT) {
+                report.record(dn, MembershipChangeOutcome.NO_SUCH_OBJECT);
+            } else {
+                report.recordFailure(dn, resultCode + " : " + diagnosticMessage);
+            }
+        }
+
+        /**
+         * Distinguishes a missing group from missing members, once per modification
+         */
+        private void checkGroupExists(LdapConnection ldapConnection) throws LdapException, ActiveDirectoryClientException {
+            if (groupExists) {
+                return;
+            }
+            if (ldapConnection.lookup(group, "1.1") == null) {
+                LOG.error("Group " + group + " does not exist.");
+                throw new ActiveDirectoryClientRequestException("Group " + group.getName() + " does not exist.");
+            }
+            groupExists = true;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client;
+
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientException;
+import fr.cerema.dsi.ldap.activedirectory.client.model.AbstractAdObject;
+import fr.cerema.dsi.ldap.activedirectory.client.model.AdGroup;
+import fr.cerema.dsi.ldap.activedirectory.client.model.BatchLookupResult;
+import fr.cerema.dsi.ldap.activedirectory.client.model.MembershipChangeReport;
+import fr.cerema.dsi.ldap.activedirectory.client.model.OrganizationalUnit;
+import org.reactivestreams.Publisher;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Base class of the decorators of an {@link ActiveDirectoryClient}
+ * <p>
+ * Every method is forwarded to the decorated client, subclasses override the methods they decorate.
+ * Closing the decorator closes the decorated client.
+ */
+public abstract class ForwardingActiveDirectoryClient implements ActiveDirectoryClient, AutoCloseable {
+
+    private final ActiveDirectoryClient delegate;
+
+    /**
+     * Constructor
+     * @param delegate the decorated client
+     */
+    protected ForwardingActiveDirectoryClient(ActiveDirectoryClient delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Returns the decorated client
+     * @return the decorated client
+     */
+    public ActiveDirectoryClient delegate() {
+        return this.delegate;
+    }
+
+    @Override
+    public Set<AbstractAdObject> getMembersForDN(String dn, boolean recursive) throws ActiveDirectoryClientException {
+        return delegate.getMembersForDN(dn, recursive);
+    }
+
+    @Override
+    public Set<AbstractAdObject> getMembersForDN(String dn, boolean recursive, MembershipResolution resolution) throws ActiveDirectoryClientException {
+        return delegate.getMembersForDN(dn, recursive, resolution);
+    }
+
+    @Override
+    public Set<AdGroup> getGroupsForDN(String dn, boolean recursive) throws ActiveDirectoryClientException {
+        return delegate.getGroupsForDN(dn, recursive);
+    }
+
+    @Override
+    public Set<AdGroup> getGroupsForDN(String dn, boolean recursive, MembershipResolution resolution) throws ActiveDirectoryClientException {
+        return delegate.getGroupsForDN(dn, recursive, resolution);
+    }
+
+    @Override
+    public Set<String> findBySAMAccountName(String sAMAccountName, String searchBase) throws ActiveDirectoryClientException {
+        return delegate.findBySAMAccountName(sAMAccountName, searchBase);
+    }
+
+    @Override
+    public Stream<String> streamBySAMAccountName(String sAMAccountName, String searchBase) throws ActiveDirectoryClientException {
+        return delegate.streamBySAMAccountName(sAMAccountName, searchBase);
+    }
+
+    @Override
+    public Publisher<String> publishBySAMAccountName(String sAMAccountName, String searchBase) {
+        return delegate.publishBySAMAccountName(sAMAccountName, searchBase);
+    }
+
+    @Override
+    public AbstractAdObject getBySAMAccountName(String sAMAccountName, String searchBase) throws ActiveDirectoryClientException {
+        return delegate.getBySAMAccountName(sAMAccountName, searchBase);
+    }
+
+    @Override
+    public void deleteByDn(String dn) throws ActiveDirectoryClientException {
+        delegate.deleteByDn(dn);
+    }
+
+    @Override
+    public AdGroup createSecurityGroup(String dn) throws ActiveDirectoryClientException {
+        return delegate.createSecurityGroup(dn);
+    }
+
+    @Override
+    public AdGroup createSecurityGroup(String dn, String description) throws ActiveDirectoryClientException {
+        return delegate.createSecurityGroup(dn, description);
+    }
+
+    @Override
+    public AdGroup createSecurityGroup(String dn, String description, String sAMAccountName) throws ActiveDirectoryClientException {
+        return delegate.createSecurityGroup(dn, description, sAMAccountName);
+    }
+
+    @Override
+    public void addEntityToGroup(String entityDn, String groupDN) throws ActiveDirectoryClientException {
+        delegate.addEntityToGroup(entityDn, groupDN);
+    }
+
+    @Override
+    public void removeEntityFromGroup(String entityDn, String groupDn) throws ActiveDirectoryClientException {
+        delegate.removeEntityFromGroup(entityDn, groupDn);
+    }
+
+    @Override
+    public MembershipChangeReport addEntitiesToGroup(Collection<String> entityDns, String groupDn) throws ActiveDirectoryClientException {
+        return delegate.addEntitiesToGroup(entityDns, groupDn);
+    }
+
+    @Override
+    public MembershipChangeReport removeEntitiesFromGroup(Collection<String> entityDns, String groupDn) throws ActiveDirectoryClientException {
+        return delegate.removeEntitiesFromGroup(entityDns, groupDn);
+    }
+
+    @Override
+    public AbstractAdObject getObjectBySid(String objectSid, String searchBase) throws ActiveDirectoryClientException {
+        return delegate.getObjectBySid(objectSid, searchBase);
+    }
+
+    @Override
+    public Set<AbstractAdObject> getObjectsBySid(List<String> sids, String searchBase) throws ActiveDirectoryClientException {
+        return delegate.getObjectsBySid(sids, searchBase);
+    }
+
+    @Override
+    public BatchLookupResult<AbstractAdObject> resolveSids(Collection<String> sids, String searchBase) throws ActiveDirectoryClientException {
+        return delegate.resolveSids(sids, searchBase);
+    }
+
+    @Override
+    public boolean isDirectMember(String entityDn, String groupDn) throws ActiveDirectoryClientException {
+        return delegate.isDirectMember(entityDn, groupDn);
+    }
+
+    @Override
+    public boolean isTransitiveMember(String entityDn, String groupDn) throws ActiveDirectoryClientException {
+        return delegate.isTransitiveMember(entityDn, groupDn);
+    }
+
+    @Override
+    public Map<String, Boolean> isTransitiveMember(String entityDn, Collection<String> groupDns) throws ActiveDirectoryClientException {
+        return delegate.isTransitiveMember(entityDn, groupDns);
+    }
+
+    @Override
+    public Set<String> getTokenGroupSids(String dn) throws ActiveDirectoryClientException {
+        return delegate.getTokenGroupSids(dn);
+    }
+
+    @Override
+    public Set<AdGroup> getEffectiveGroups(String dn, String searchBase) throws ActiveDirectoryClientException {
+        return delegate.getEffectiveGroups(dn, searchBase);
+    }
+
+    @Override
+    public AbstractAdObject getByObjectGuid(String objectGUID) throws ActiveDirectoryClientException {
+        return delegate.getByObjectGuid(objectGUID);
+    }
+
+    @Override
+    public BatchLookupResult<AbstractAdObject> getByObjectGuids(Collection<String> objectGUIDs) throws ActiveDirectoryClientException {
+        return delegate.getByObjectGuids(objectGUIDs);
+    }
+
+    @Override
+    public Set<AbstractAdObject> findByCommonName(String commonName, String searchBase) throws ActiveDirectoryClientException {
+        return delegate.findByCommonName(commonName, searchBase);
+    }
+
+    @Override
+    public Stream<AbstractAdObject> streamByCommonName(String commonName, String searchBase) throws ActiveDirectoryClientException {
+        return delegate.streamByCommonName(commonName, searchBase);
+    }
+
+    @Override
+    public Publisher<AbstractAdObject> publishByCommonName(String commonName, String searchBase) {
+        return delegate.publishByCommonName(commonName, searchBase);
+    }
+
+    @Override
+    public AbstractAdObject getByDn(String dn) throws ActiveDirectoryClientException {
+        return delegate.getByDn(dn);
+    }
+
+    @Override
+    public void changeEntityDescription(String entityDn, String newDescription) throws ActiveDirectoryClientException {
+        delegate.changeEntityDescription(entityDn, newDescription);
+    }
+
+    @Override
+    public OrganizationalUnit findOrganizationalUnits(String distinguishedName) throws ActiveDirectoryClientException {
+        return delegate.findOrganizationalUnits(distinguishedName);
+    }
+
+    /**
+     * Closes the decorated client if it holds resources
+     * @throws Exception if the decorated client cannot be closed
+     */
+    @Override
+    public void close() throws Exception {
+        if (delegate instanceof AutoCloseable) {
+            ((AutoCloseable) delegate).close();
+        }
+    }
+}
@@ -16,7 +16,17 @@
 
 package fr.cerema.dsi.ldap.activedirectory.client;
 
+import fr.cerema.dsi.ldap.activedirectory.client.pool.DomainControllerSelection;
+import fr.cerema.dsi.ldap.activedirectory.client.search.PagedSearch;
+import org.apache.commons.pool.impl.GenericObjectPool;
 import org.apache.directory.ldap.client.api.LdapConnectionConfig;
+import org.apache.directory.ldap.client.api.LdapConnectionValidator;
+import org.apache.directory.ldap.client.api.LookupLdapConnectionValidator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * This is an helper class for configuring the ldap connection to AD
@@ -25,7 +35,112 @@ import org.apache.directory.ldap.client.api.LdapConnectionConfig;
  */
 public class LdapConnectionConfigurer {
 
-    private LdapConnectionConfig ldapConnectionConfig = new LdapConnectionConfig();
+    /**
+     * Default number of connections used at the same time by a walk of the membership graph
+     */
+    public static final int DEFAULT_EXPANSION_PARALLELISM = 4;
+
+    /**
+     * Default number of publisher searches running at the same time
+     */
+    public static final int DEFAULT_PUBLISHER_PARALLELISM = 4;
+
+    /**
+     * Default number of values (objectSids, objectGUIDs, group dns) looked up by a single request
+     */
+    public static final int DEFAULT_LOOKUP_BATCH_SIZE = 100;
+
+    /**
+     * Default number of member values sent by a single modify request
+     */
+    public static final int DEFAULT_MEMBERSHIP_CHUNK_SIZE = 500;
+
+    /**
+     * Default timeout of ldap operations, in milliseconds
+     */
+    public static final long DEFAULT_OPERATION_TIMEOUT = 30000L;
+
+    /**
+     * Default time to live of the cached objects, in milliseconds
+     */
+    public static final long DEFAULT_CACHE_TIME_TO_LIVE = 300000L;
+
+    /**
+     * Default delay between two probes of the ejected domain controllers, in milliseconds
+     */
+    public static final long DEFAULT_DOMAIN_CONTROLLER_PROBE_INTERVAL = 10000L;
+
+    /**
+     * Default time during which the reads are sent to the domain controller of the writes after a write, in milliseconds
+     * (the delay of the change notification between domain controllers of a same site is 15 s)
+     */
+    public static final long DEFAULT_READ_YOUR_WRITES_WINDOW = 15000L;
+
+    private LdapConnectionConfig ldapConnectionConfig;
+
+    private List<String> ldapHosts = new ArrayList<>();
+
+    private DomainControllerSelection domainControllerSelection = DomainControllerSelection.LOWEST_LATENCY;
+
+    private long domainControllerProbeInterval = DEFAULT_DOMAIN_CONTROLLER_PROBE_INTERVAL;
+
+    private long readYourWritesWindow = DEFAULT_READ_YOUR_WRITES_WINDOW;
+
+    private int globalCatalogPort = 0;
+
+    private GenericObjectPool.Config poolConfig = new GenericObjectPool.Config();
+
+    private LdapConnectionValidator connectionValidator = new LookupLdapConnectionValidator();
+
+    private long operationTimeout = DEFAULT_OPERATION_TIMEOUT;
+
+    private int pageSize = PagedSearch.DEFAULT_PAGE_SIZE;
+
+    private List<String> additionalAttributes = new ArrayList<>();
+
+    private MembershipResolution membershipResolution = MembershipResolution.WALK;
+
+    private int expansionParallelism = DEFAULT_EXPANSION_PARALLELISM;
+
+    private int publisherParallelism = DEFAULT_PUBLISHER_PARALLELISM;
+
+    private int lookupBatchSize = DEFAULT_LOOKUP_BATCH_SIZE;
+
+    private int membershipChunkSize = DEFAULT_MEMBERSHIP_CHUNK_SIZE;
+
+    private int cacheMaxEntries = 0;
+
+    private long cacheTimeToLive = DEFAULT_CACHE_TIME_TO_LIVE;
+
+    private long cacheRefreshAfter = 0;
+
+    private long organizationalUnitCacheRefreshInterval = 0;
+
+    private boolean requestCoalescing = false;
+
+    /**
+     * Creates a configurer holding a new {@link LdapConnectionConfig}
+     */
+    public LdapConnectionConfigurer() {
+        this(new LdapConnectionConfig());
+    }
+
+    /**
+     * Creates a configurer holding the given {@link LdapConnectionConfig}
+     * @param ldapConnectionConfig the ldap connection config to configure
+     */
+    public LdapConnectionConfigurer(LdapConnectionConfig ldapConnectionConfig) {
+        this.ldapConnectionConfig = ldapConnectionConfig;
+        this.poolConfig.maxActive = 8;
+        this.poolConfig.maxIdle = 8;
+        this.poolConfig.minIdle = 0;
+        this.poolConfig.maxWait = 30000L;
+        this.poolConfig.whenExhaustedAction = GenericObjectPool.WHEN_EXHAUSTED_BLOCK;
+        this.poolConfig.testOnBorrow = true;
+        this.poolConfig.testWhileIdle = true;
+        this.poolConfig.timeBetweenEvictionRunsMillis = 60000L;
+        this.poolConfig.minEvictableIdleTimeMillis = 1800000L;
+    }
 
     /**
      * Returns the {@link LdapConnectionConfig} used for configuring the ldap connection
@@ -45,6 +160,71 @@ public class LdapConnectionConfigurer {
         return this;
     }
 
+    /**
+     * Configures several domain controllers of the domain, each one with its own connection pool
+     * <p>
+     * The reads are spread over the domain controllers answering (see
+     * {@link #configureDomainControllerSelection(DomainControllerSelection)}), the writes are sent to one of them,
+     * and the failing ones are ejected until they answer again.
+     * The pool settings ({@link #configureMaxActive(int)}...) apply to each domain controller.
+     * @param ldapHosts the hostnames of the domain controllers, followed by :port when their port is not the one
+     *                  configured with {@link #configureLdapPort(int)}
+     * @return the instance itself for coding facilities
+     * @see fr.cerema.dsi.ldap.activedirectory.client.pool.RoutingLdapConnectionPool
+     */
+    public LdapConnectionConfigurer configureLdapHosts(String... ldapHosts) {
+        if (ldapHosts.length == 0) {
+            throw new IllegalArgumentException("At least one ldap host is needed");
+        }
+        this.ldapHosts = new ArrayList<>(Arrays.asList(ldapHosts));
+        this.ldapConnectionConfig.setLdapHost(getHost(ldapHosts[0]));
+        if (ldapHosts.length == 1) {
+            this.ldapConnectionConfig.setLdapPort(getPort(ldapHosts[0], this.ldapConnectionConfig.getLdapPort()));
+        }
+        return this;
+    }
+
+    /**
+     * Configures how the domain controller of a read is chosen when several domain controllers are configured.
+     * Default is {@link DomainControllerSelection#LOWEST_LATENCY}.
+     * @param domainControllerSelection the selection
+     * @return the instance itself for coding facilities
+     */
+    public LdapConnectionConfigurer configureDomainControllerSelection(DomainControllerSelection domainControllerSelection) {
+        this.domainControllerSelection = domainControllerSelection;
+        return this;
+    }
+
+    /**
+     * Configures the delay between two probes of the domain controllers, measuring the latency of the healthy ones
+     * and trying the ejected ones again
+     * (default {@value #DEFAULT_DOMAIN_CONTROLLER_PROBE_INTERVAL} ms)
+     * @param probeIntervalMillis the delay in milliseconds
+     * @return the instance itself for coding facilities
+     */
+    public LdapConnectionConfigurer configureDomainControllerProbeInterval(long probeIntervalMillis) {
+        if (probeIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Domain controller probe interval must be strictly positive, got "
+                    + probeIntervalMillis);
+        }
+        this.domainControllerProbeInterval = probeIntervalMillis;
+        return this;
+    }
+
+    /**
+     * Configures how long the reads are sent to the domain controller of the writes after a write, so that the client
+     * reads its own changes before they are replicated (default {@value #DEFAULT_READ_YOUR_WRITES_WINDOW} ms)
+     * @param readYourWritesWindowMillis the window in milliseconds, 0 to route the reads independently of the writes
+     * @return the instance itself for coding facilities
+     */
+    public LdapConnectionConfigurer configureReadYourWritesWindow(long readYourWritesWindowMillis) {
+        if (readYourWritesWindowMillis < 0) {
+            throw new IllegalArgumentException("Read your writes window must be positive, got " + readYourWritesWindowMillis);
+        }
+        this.readYourWritesWindow = readYourWritesWindowMillis;
+        return this;
+    }
+
     /**
      * Configures the ldap port
      * @param ldapPort the port number of the active directory ldap server
@@ -55,6 +235,24 @@ public class LdapConnectionConfigurer {
         return this;
     }
 
+    /**
+     * Enables the Global Catalog : the searches by common name, sAMAccountName and objectSid whose base is the root of
+     * the forest (or the empty dn) are sent to the Global Catalog port of the configured hosts, so that a single search
+     * covers all the domains of the forest (disabled by default)
+     * @param globalCatalogPort {@link fr.cerema.dsi.ldap.activedirectory.client.search.GlobalCatalog#GLOBAL_CATALOG_PORT},
+     *                          {@link fr.cerema.dsi.ldap.activedirectory.client.search.GlobalCatalog#GLOBAL_CATALOG_SSL_PORT}
+     *                          for ldaps, or 0 to disable the Global Catalog
+     * @return the instance itself for coding facilities
+     * @see fr.cerema.dsi.ldap.activedirectory.client.search.GlobalCatalog
+     */
+    public LdapConnectionConfigurer configureGlobalCatalogPort(int globalCatalogPort) {
+        if (globalCatalogPort < 0) {
+            throw new IllegalArgumentException("Global Catalog port must be positive, got " + globalCatalogPort);
+        }
+        this.globalCatalogPort = globalCatalogPort;
+        return this;
+    }
+
     /**
      * Configures the ldap user (if necessary)
      * @param dn user's dn to be used for connecting to the AD ldap server
@@ -77,6 +275,510 @@ public class LdapConnectionConfigurer {
     }
 
 
+    /**
+     * Configures the number of entries requested per page by searches (Simple Paged Results control)
+     * <p>
+     * Must not exceed the MaxPageSize policy of the AD (1000 by default). Default is {@value PagedSearch#DEFAULT_PAGE_SIZE}.
+     * @param pageSize the page size
+     * @return the instance itself for coding facilities
+     */
+    public LdapConnectionConfigurer configurePageSize(int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be strictly positive, got " + pageSize);
+        }
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * Returns the number of entries requested per page by searches
+     * @return the page size
+     */
+    public int getPageSize() {
+        return this.pageSize;
+    }
+
+    /**
+     * Configures attributes to request in addition to the ones needed by the model classes
+     * (see {@link fr.cerema.dsi.ldap.activedirectory.client.model.AdUser#LDAP_ATTRIBUTES} and the like).
+     * <p>
+     * Their values are available as strings through
+     * {@link fr.cerema.dsi.ldap.activedirectory.client.model.AbstractAdObject#getAdditionalAttributes()}.
+     * @param attributes the names of the additional attributes
+     * @return the instance itself for coding facilities
+     */
+    public LdapConnectionConfigurer configureAdditionalAttributes(String... attributes) {
+        this.additionalAttributes = new ArrayList<>(Arrays.asList(attributes));
+        return this;
+    }
+
+    /**
+     * Returns the attributes requested in addition to the ones needed by the model classes
+     * @return the additional attributes
+     */
+    public List<String> getAdditionalAttributes() {
+        return Collections.unmodifiableList(this.additionalAttributes);
+    }
+
+    /**
+     * Configures how recursive memberships are resolved when no resolution is given to the method called.
+     * Default is {@link MembershipResolution#WALK}, which works with any ldap server.
+     * @param membershipResolution the default membership resolution
+     * @return the instance itself for coding facilities
+     */
+    public LdapConnectionConfigurer configureMembershipResolution(MembershipResolution membershipResolution) {
+        this.membershipResolution = membershipResolution;
+        return this;
+    }
+
+    /**
+     * Returns the default membership resolution of the client
+     * @return the membership resolution
+     */
+    public MembershipResolution getMembershipResolution() {
+        return this.membershipResolution;
+    }
+
+    /**
+     * Configures the number of connections used at the same time when walking the membership graph
+     * ({@link MembershipResolution#WALK}) : the groups of a same level are looked up concurrently.
+     * <p>
+     * Should stay below the size of the connection pool. 1 means the walk is done in the calling thread.
+     * Default is {@value #DEFAULT_EXPANSION_PARALLELISM}.
+     * @param expansionParallelism the number of concurrent connections
+     * @return the instance itself for coding facilities
+     */
+    public LdapConnectionConfigurer configureExpansionParallelism(int expansionParallelism) {
+        if (expansionParallelism <= 0) {
+            throw new IllegalArgumentException("Expansion parallelism must be strictly positive, got " + expansionParallelism);
+        }
+        this.expansionParallelism = expansionParallelism;
+        return this;
+    }
+
+    /**
+     * Returns the number of connections used at the same time when walking the membership graph
+     * @return the expansion parallelism
+     */
+    public int getExpansionParallelism() {
+        return this.expansionParallelism;
+    }
+
+    /**
+     * Configures the number of threads running the searches of the Reactive Streams publishers
+     * ({@code publishByCommonName}, {@code publishBySAMAccountName}).
+     * <p>
+     * A search keeps its thread while it emits the requested results : the searches of the other subscribers wait
+     * for a free thread. Should stay below the size of the connection pool.
+     * Default is {@value #DEFAULT_PUBLISHER_PARALLELISM}.
+     * @param publisherParallelism the number of threads
+     * @return the instance itself for coding facilities
+     */
+    public LdapConnectionConfigurer configurePublisherParallelism(int publisherParallelism) {
+        if (publisherParallelism <= 0) {
+            throw new IllegalArgumentException("Publisher parallelism must be strictly positive, got " + publisherParallelism);
+        }
+        this.publisherParallelism = publisherParallelism;
+        return this;
+    }
+
+    /**
+     * Returns the number of threads running the searches of the publishers
+     * @return the publisher parallelism
+     */
+    public int getPublisherParallelism() {
+        return this.publisherParallelism;
+    }
+
+    /**
+     * Configures the number of values looked up by a single request of the batch lookups : the objectSids of
+     * {@link ActiveDirectoryClient#resolveSids(java.util.Collection, String)}, the objectGUIDs of
+     * {@link ActiveDirectoryClient#getByObjectGuids(java.util.Collection)} and the groups of
+     * {@link ActiveDirectoryClient#isTransitiveMember(String, java.util.Collection)}, each request being a search with
+     * an OR filter of these values.
+     * Default is {@value #DEFAULT_LOOKUP_BATCH_SIZE}.
+     * @param lookupBatchSize the number of values per request
+     * @return the instance itself for coding facilities
+     */
+    public LdapConnectionConfigurer configureLookupBatchSize(int lookupBatchSize) {
+        if (lookupBatchSize <= 0) {
+            throw new IllegalArgumentException("Lookup batch size must be strictly positive, got " + lookupBatchSize);
+        }
+        this.lookupBatchSize = lookupBatchSize;
+        return this;
+    }
+
+    /**
+     * Returns the number of values looked up by a single request of the batch lookups
+     * @return the lookup batch size
+     */
+    public int getLookupBatchSize() {
+        return this.lookupBatchSize;
+    }
+
+    /**
+     * Configures the number of member values sent by a single modify request of
+     * {@link ActiveDirectoryClient#addEntitiesToGroup(java.util.Collection, String)} and
+     * {@link ActiveDirectoryClient#removeEntitiesFromGroup(java.util.Collection, String)}.
+     * Default is {@value #DEFAULT_MEMBERSHIP_CHUNK_SIZE}.
+     * @param membershipChunkSize the number of member values per request
+     * @return the instance itself for coding facilities
+     */
+    public LdapConnectionConfigurer configureMembershipChunkSize(int membershipChunkSize) {
+        if (membershipChunkSize <= 0) {
+            throw new IllegalArgumentException("Membership chunk size must be strictly positive, got " + membershipChunkSize);
+        }
+        this.membershipChunkSize = membershipChunkSize;
+        return this;
+    }
+
+    /**
+     * Returns the number of member values sent by a single modify request
+     * @return the membership chunk size
+     */
+    public int getMembershipChunkSize() {
+        return this.membershipChunkSize;
+    }
+
+    /**
+     * Configures the maximum number of connections of the pool (default 8)
+     * @param maxActive the maximum number of connections, negative for no limit
+     * @return the instance itself for coding facilities
+     */
+    public LdapConnectionConfigurer configureMaxActive(int maxActive) {
+        this.poolConfig.maxActive = maxActive;
+        return this;
+    }
+
+    /**
+     * Configures the maximum number of idle connections kept by the pool (default 8)
+     * @param maxIdle the maximum number of idle connections, negative for no limit
+     * @return the instance itself for coding facilities
+     */
+    public LdapConnectionConfigurer configureMaxIdle(int maxIdle) {
+        this.poolConfig.maxIdle = maxIdle;
+        return this;
+    }
+
+    /**
+     * Configures the minimum number of idle connections kept by the pool (default 0)
+     * <p>
+     * Idle connections are created by the eviction thread, so eviction runs must be enabled.
+     * @param minIdle the minimum number of idle connections
+     * @return the instance itself for coding facilities
+     */
+    public LdapConnectionConfigurer configureMinIdle(int minIdle) {
+        this.poolConfig.minIdle = minIdle;
+        return this;
+    }
+
+    /**
+     * Configures how long a thread waits for a connection when the pool is exhausted (default 30 s)
+     * <p>
+     * When the time is elapsed, the methods of the client throw an
+     * {@link fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientConnectionException} caused by a
+     * {@link fr.cerema.dsi.ldap.activedirectory.client.pool.LdapConnectionPoolExhaustedException}.
+     * @param maxWaitMillis the maximum waiting time in milliseconds, negative to wait indefinitely
+     * @return the instance itself for coding facilities
+     */
+    public LdapConnectionConfigurer configureMaxWait(long maxWaitMillis) {
+        this.poolConfig.maxWait = maxWaitMillis;
+        return this;
+    }
+
+    /**
+     * Configures whether connections are validated before being given by the pool (default true)
+     * <p>
+     * Connections which fail validation are dropped and replaced, so that a dead connection (for instance a half-open
+     * socket to a domain controller which failed over) is never used.
+     * @param testOnBorrow true to validate connections on checkout
+     * @return the instance itself for coding facilities
+     * @see #configureConnectionValidator(LdapConnectionValidator)
+     */
+    public LdapConnectionConfigurer configureTestOnBorrow(boolean testOnBorrow) {
+        this.poolConfig.testOnBorrow = testOnBorrow;
+        return this;
+    }
+
+    /**
+     * Configures whether idle connections are validated by the eviction thread (default true)
+     * @param testWhileIdle true to validate idle connections
+     * @return the instance itself for coding facilities
+     * @see #configureTimeBetweenEvictionRuns(long)
+     */
+    public LdapConnectionConfigurer configureTestWhileIdle(boolean testWhileIdle) {
+        this.poolConfig.testWhileIdle = testWhileIdle;
+        return this;
+    }
+
+    /**
+     * Configures the period of the eviction thread, which validates and evicts idle connections (default 60 s)
+     * @param timeBetweenEvictionRunsMillis the period in milliseconds, negative to disable the eviction thread
+     * @return the instance itself for coding facilities
+     */
+    public LdapConnectionConfigurer configureTimeBetweenEvictionRuns(long timeBetweenEvictionRunsMillis) {
+        this.poolConfig.timeBetweenEvictionRunsMillis = timeBetweenEvictionRunsMillis;
+        return this;
+    }
+
+    /**
+     * Configures how long a connection may stay idle before being evicted (default 30 min)
+     * @param minEvictableIdleTimeMillis the idle time in milliseconds, negative to never evict idle connections
+     * @return the instance itself for coding facilities
+     */
+    public LdapConnectionConfigurer configureMinEvictableIdleTime(long minEvictableIdleTimeMillis) {
+        this.poolConfig.minEvictableIdleTimeMillis = minEvictableIdleTimeMillis;
+        return this;
+    }
+
+    /**
+     * Configures how connections are validated.
+     * <p>
+     * Default is {@link LookupLdapConnectionValidator}, which reads the root DSE and so detects connections whose
+     * socket is dead. {@link org.apache.directory.ldap.client.api.DefaultLdapConnectionValidator} only checks
+     * the connection state and costs no round trip.
+     * @param connectionValidator the validator
+     * @return the instance itself for coding facilities
+     */
+    public LdapConnectionConfigurer configureConnectionValidator(LdapConnectionValidator connectionValidator) {
+        this.connectionValidator = connectionValidator;
+        return this;
+    }
+
+    /**
+     * Configures how long the client waits for the response of an ldap operation (default 30 s)
+     * @param operationTimeoutMillis the timeout in milliseconds
+     * @return the instance itself for coding facilities
+     */
+    public LdapConnectionConfigurer configureOperationTimeout(long operationTimeoutMillis) {
+        if (operationTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Operation timeout must be strictly positive, got " + operationTimeoutMillis);
+        }
+        this.operationTimeout = operationTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * Enables the cache of the objects looked up by dn, objectSid or sAMAccountName (disabled by default)
+     * @param cacheMaxEntries the maximum number of cached objects, 0 to disable the cache
+     * @return the instance itself for coding facilities
+     * @see fr.cerema.dsi.ldap.activedirectory.client.cache.CachingActiveDirectoryClient
+     */
+    public LdapConnectionConfigurer configureCacheMaxEntries(int cacheMaxEntries) {
+        if (cacheMaxEntries < 0) {
+            throw new IllegalArgumentException("Cache size must be positive, got " + cacheMaxEntries);
+        }
+        this.cacheMaxEntries = cacheMaxEntries;
+        return this;
+    }
+
+    /**
+     * Configures how long a cached object is returned without requesting the ldap server (default 5 min)
+     * @param cacheTimeToLiveMillis the time to live in milliseconds
+     * @return the instance itself for coding facilities
+     */
+    public LdapConnectionConfigurer configureCacheTimeToLive(long cacheTimeToLiveMillis) {
+        if (cacheTimeToLiveMillis <= 0) {
+            throw new IllegalArgumentException("Cache time to live must be strictly positive, got " + cacheTimeToLiveMillis);
+        }
+        this.cacheTimeToLive = cacheTimeToLiveMillis;
+        return this;
+    }
+
+    /**
+     * Configures the age from which a cached object is reloaded in background when requested (disabled by default)
+     * <p>
+     * Must be lower than the time to live, so that frequently requested objects are reloaded before they expire.
+     * @param cacheRefreshAfterMillis the refresh delay in milliseconds, 0 to disable refresh-ahead
+     * @return the instance itself for coding facilities
+     */
+    public LdapConnectionConfigurer configureCacheRefreshAfter(long cacheRefreshAfterMillis) {
+        if (cacheRefreshAfterMillis < 0) {
+            throw new IllegalArgumentException("Cache refresh delay must be positive, got " + cacheRefreshAfterMillis);
+        }
+        this.cacheRefreshAfter = cacheRefreshAfterMillis;
+        return this;
+    }
+
+    /**
+     * Enables the resident cache of the organizational units answering findOrganizationalUnits (disabled by default)
+     * <p>
+     * The units are loaded on the first call, then the changes are read in background at the given interval.
+     * @param refreshIntervalMillis the delay between two refreshes in milliseconds, 0 to disable the cache
+     * @return the instance itself for coding facilities
+     * @see fr.cerema.dsi.ldap.activedirectory.client.cache.OrganizationalUnitHierarchyCache
+     */
+    public LdapConnectionConfigurer configureOrganizationalUnitCacheRefreshInterval(long refreshIntervalMillis) {
+        if (refreshIntervalMillis < 0) {
+            throw new IllegalArgumentException("Organizational unit cache refresh interval must be positive, got "
+                    + refreshIntervalMillis);
+        }
+        this.organizationalUnitCacheRefreshInterval = refreshIntervalMillis;
+        return this;
+    }
+
+    /**
+     * Enables the coalescing of the identical lookups running at the same time (disabled by default)
+     * <p>
+     * A lookup called while the same lookup is running waits for its result instead of requesting the server again.
+     * @param requestCoalescing true to coalesce the lookups
+     * @return the instance itself for coding facilities
+     * @see fr.cerema.dsi.ldap.activedirectory.client.cache.CoalescingActiveDirectoryClient
+     */
+    public LdapConnectionConfigurer configureRequestCoalescing(boolean requestCoalescing) {
+        this.requestCoalescing = requestCoalescing;
+        return this;
+    }
+
+    /**
+     * Returns the maximum number of cached objects
+     * @return the cache size, 0 if the cache is disabled
+     */
+    public int getCacheMaxEntries() {
+        return this.cacheMaxEntries;
+    }
+
+    /**
+     * Returns whether the identical lookups running at the same time are coalesced
+     * @return true if the lookups are coalesced
+     */
+    public boolean isRequestCoalescing() {
+        return this.requestCoalescing;
+    }
+
+    /**
+     * Returns the time to live of the cached objects
+     * @return the time to live in milliseconds
+     */
+    public long getCacheTimeToLive() {
+        return this.cacheTimeToLive;
+    }
+
+    /**
+     * Returns the age from which a cached object is reloaded in background
+     * @return the refresh delay in milliseconds, 0 if refresh-ahead is disabled
+     */
+    public long getCacheRefreshAfter() {
+        return this.cacheRefreshAfter;
+    }
+
+    /**
+     * Returns the delay between two refreshes of the organizational units cache
+     * @return the refresh interval in milliseconds, 0 if the cache is disabled
+     */
+    public long getOrganizationalUnitCacheRefreshInterval() {
+        return this.organizationalUnitCacheRefreshInterval;
+    }
+
+    /**
+     * Returns the domain controllers configured
+     * @return the hosts, with their port if given, a single host when {@link #configureLdapHosts(String...)} is not used
+     */
+    public List<String> getLdapHosts() {
+        if (this.ldapHosts.isEmpty()) {
+            return Collections.singletonList(this.ldapConnectionConfig.getLdapHost());
+        }
+        return Collections.unmodifiableList(this.ldapHosts);
+    }
+
+    /**
+     * Returns how the domain controller of a read is chosen
+     * @return the domain controller selection
+     */
+    public DomainControllerSelection getDomainControllerSelection() {
+        return this.domainControllerSelection;
+    }
+
+    /**
+     * Returns the delay between two probes of the ejected domain controllers
+     * @return the probe interval in milliseconds
+     */
+    public long getDomainControllerProbeInterval() {
+        return this.domainControllerProbeInterval;
+    }
+
+    /**
+     * Returns how long the reads are sent to the domain controller of the writes after a write
+     * @return the read-your-writes window in milliseconds
+     */
+    public long getReadYourWritesWindow() {
+        return this.readYourWritesWindow;
+    }
+
+    /**
+     * Returns the port of the Global Catalog
+     * @return the port, 0 if the Global Catalog is disabled
+     */
+    public int getGlobalCatalogPort() {
+        return this.globalCatalogPort;
+    }
+
+    /**
+     * Creates the connection config of one of the domain controllers : a copy of the {@link LdapConnectionConfig}
+     * of the configurer pointing to the given host
+     * @param ldapHost the hostname of the domain controller, followed by :port when its port is not the one configured
+     * @return the connection config
+     */
+    public LdapConnectionConfig createLdapConnectionConfig(String ldapHost) {
+        LdapConnectionConfig config = new LdapConnectionConfig();
+        config.setLdapHost(getHost(ldapHost));
+        config.setLdapPort(getPort(ldapHost, this.ldapConnectionConfig.getLdapPort()));
+        config.setName(this.ldapConnectionConfig.getName());
+        config.setCredentials(this.ldapConnectionConfig.getCredentials());
+        config.setUseSsl(this.ldapConnectionConfig.isUseSsl());
+        config.setUseTls(this.ldapConnectionConfig.isUseTls());
+        config.setTimeout(this.ldapConnectionConfig.getTimeout());
+        config.setTrustManagers(this.ldapConnectionConfig.getTrustManagers());
+        config.setKeyManagers(this.ldapConnectionConfig.getKeyManagers());
+        config.setSslProtocol(this.ldapConnectionConfig.getSslProtocol());
+        config.setEnabledCipherSuites(this.ldapConnectionConfig.getEnabledCipherSuites());
+        config.setEnabledProtocols(this.ldapConnectionConfig.getEnabledProtocols());
+        config.setSecureRandom(this.ldapConnectionConfig.getSecureRandom());
+        config.setBinaryAttributeDetector(this.ldapConnectionConfig.getBinaryAttributeDetector());
+        return config;
+    }
+
+    private static String getHost(String ldapHost) {
+        int colon = ldapHost.lastIndexOf(':');
+        return colon > 0 && colon == ldapHost.indexOf(':') ? ldapHost.substring(0, colon) : ldapHost;
+    }
+
+    private static int getPort(String ldapHost, int defaultPort) {
+        int colon = ldapHost.lastIndexOf(':');
+        if (colon <= 0 || colon != ldapHost.indexOf(':')) {
+            return defaultPort;
+        }
+        try {
+            return Integer.parseInt(ldapHost.substring(colon + 1));
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("Invalid port in ldap host " + ldapHost, nfe);
+        }
+    }
+
+    /**
+     * Returns the configuration of the connection pool
+     * @return the pool configuration
+     */
+    public GenericObjectPool.Config getPoolConfig() {
+        return this.poolConfig;
+    }
+
+    /**
+     * Returns the validator of the pooled connections
+     * @return the connection validator
+     */
+    public LdapConnectionValidator getConnectionValidator() {
+        return this.connectionValidator;
+    }
+
+    /**
+     * Returns the timeout of ldap operations
+     * @return the timeout in milliseconds
+     */
+    public long getOperationTimeout() {
+        return this.operationTimeout;
+    }
+
     /**
      * For debugging purpose
      * @return the ldap connection parameters
@@ -85,8 +787,32 @@ public class LdapConnectionConfigurer {
         return "LDAP Connection parameters :"  +
                 " Host : " + this.ldapConnectionConfig.getLdapHost() +
                 " - Port : " + this.ldapConnectionConfig.getLdapPort() +
+                " - Domain controller selection : " + this.domainControllerSelection +
+                " - Domain controller probe interval : " + this.domainControllerProbeInterval +
+                " - Read your writes window : " + this.readYourWritesWindow +
+                " - Global Catalog port : " + this.globalCatalogPort +
                 " - Dn Name : " + this.ldapConnectionConfig.getName() +
-                " - Password : " + "PROTECTED";
+                " - Password : " + "PROTECTED" +
+                " - Page size : " + this.pageSize +
+                " - Additional attributes : " + this.additionalAttributes +
+                " - Membership resolution : " + this.membershipResolution +
+                " - Expansion parallelism : " + this.expansionParallelism +
+                " - Publisher parallelism : " + this.publisherParallelism +
+                " - Lookup batch size : " + this.lookupBatchSize +
+                " - Membership chunk size : " + this.membershipChunkSize +
+                " - Operation timeout : " + this.operationTimeout +
+                " - Pool max active : " + this.poolConfig.maxActive +
+                " - Pool max idle : " + this.poolConfig.maxIdle +
+                " - Pool min idle : " + this.poolConfig.minIdle +
+                " - Pool max wait : " + this.poolConfig.maxWait +
+                " - Pool test on borrow : " + this.poolConfig.testOnBorrow +
+                " - Pool test while idle : " + this.poolConfig.testWhileIdle +
+                " - Pool eviction period : " + this.poolConfig.timeBetweenEvictionRunsMillis +
+                " - Cache max entries : " + this.cacheMaxEntries +
+                " - Cache time to live : " + this.cacheTimeToLive +
+                " - Cache refresh after : " + this.cacheRefreshAfter +
+                " - Organizational unit cache refresh interval : " + this.organizationalUnitCacheRefreshInterval +
+                " - Request coalescing : " + this.requestCoalescing;
     }
 
 }
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client;
+
+/**
+ * The ways recursive memberships can be resolved by the {@link ActiveDirectoryClient}
+ * @see ActiveDirectoryClient#getMembersForDN(String, boolean, MembershipResolution)
+ * @see ActiveDirectoryClient#getGroupsForDN(String, boolean, MembershipResolution)
+ */
+public enum MembershipResolution {
+
+    /**
+     * The membership graph is walked one level at a time, with one lookup per explored entry.
+     * The entries of a same level are looked up concurrently on several pooled connections
+     * (see {@link LdapConnectionConfigurer#configureExpansionParallelism(int)}).
+     * <p>
+     * Works with any ldap server.
+     */
+    WALK,
+
+    /**
+     * The whole transitive closure is returned by a single paged search using the
+     * LDAP_MATCHING_RULE_IN_CHAIN matching rule ({@value #IN_CHAIN_MATCHING_RULE}).
+     * <p>
+     * Only supported by Active Directory. The search is done in the domain of the given dn.
+     */
+    IN_CHAIN;
+
+    /**
+     * The OID of the Active Directory LDAP_MATCHING_RULE_IN_CHAIN matching rule
+     */
+    public static final String IN_CHAIN_MATCHING_RULE = "1.2.840.113556.1.4.1941";
+}
@@ -19,6 +19,11 @@ package fr.cerema.dsi.ldap.activedirectory.client.annotations;
 import fr.cerema.dsi.ldap.activedirectory.client.ActiveDirectoryClient;
 import fr.cerema.dsi.ldap.activedirectory.client.ActiveDirectoryClientImpl;
 import fr.cerema.dsi.ldap.activedirectory.client.LdapConnectionConfigurer;
+import fr.cerema.dsi.ldap.activedirectory.client.cache.CachingActiveDirectoryClient;
+import fr.cerema.dsi.ldap.activedirectory.client.cache.CoalescingActiveDirectoryClient;
+import fr.cerema.dsi.ldap.activedirectory.client.cache.OrganizationalUnitCachingActiveDirectoryClient;
+import fr.cerema.dsi.ldap.activedirectory.client.cache.OrganizationalUnitHierarchyCache;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientException;
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
@@ -120,11 +125,28 @@ public class ActiveDirectoryClientConfigurationSupport implements ApplicationCon
 
     /**
      * Called by the framework in order to create the activeDirectoryClient instance
+     * <p>
+     * The client is wrapped in a {@link CoalescingActiveDirectoryClient}, an
+     * {@link OrganizationalUnitCachingActiveDirectoryClient} and a {@link CachingActiveDirectoryClient} when they are
+     * enabled in the configurer, so that the cache misses are coalesced too.
      * @return
+     * @throws ActiveDirectoryClientException if the organizational units cache cannot be created
      */
     @Bean(name = "activeDirectoryClient")
-    public ActiveDirectoryClient createActiveDirectoryClient() {
-        return new ActiveDirectoryClientImpl(this.getLdapConnectionConfigurer()
-                                             .getLdapConnectionConfig());
+    public ActiveDirectoryClient createActiveDirectoryClient() throws ActiveDirectoryClientException {
+        LdapConnectionConfigurer configurer = this.getLdapConnectionConfigurer();
+        ActiveDirectoryClientImpl clientImpl = new ActiveDirectoryClientImpl(configurer);
+        ActiveDirectoryClient client = clientImpl;
+        if (configurer.isRequestCoalescing()) {
+            client = new CoalescingActiveDirectoryClient(client);
+        }
+        if (configurer.getOrganizationalUnitCacheRefreshInterval() > 0) {
+            client = new OrganizationalUnitCachingActiveDirectoryClient(client, new OrganizationalUnitHierarchyCache(
+                    clientImpl, configurer.getOrganizationalUnitCacheRefreshInterval()));
+        }
+        if (configurer.getCacheMaxEntries() > 0) {
+            client = new CachingActiveDirectoryClient(client, configurer);
+        }
+        return client;
     }
 }
@@ -17,6 +17,7 @@
 package fr.cerema.dsi.ldap.activedirectory.client.annotations;
 
 import fr.cerema.dsi.ldap.activedirectory.client.DelegatingActiveDirectoryClientConfiguration;
+import fr.cerema.dsi.ldap.activedirectory.client.metrics.ActiveDirectoryClientMetricsConfiguration;
 import org.springframework.context.annotation.Import;
 
 import java.lang.annotation.ElementType;
@@ -50,10 +51,13 @@ import java.lang.annotation.Target;
  * <p>
  * The developper can also extends directly the {@link ActiveDirectoryClientConfigurationSupport} in the configuration class
  * and override the connection's configuration mathod(s).
+ * <p>
+ * When Micrometer is on the classpath and a MeterRegistry bean is present, the client is instrumented
+ * (see {@link fr.cerema.dsi.ldap.activedirectory.client.metrics.MeteredActiveDirectoryClient}).
 
  */
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.TYPE)
-@Import(DelegatingActiveDirectoryClientConfiguration.class)
+@Import({DelegatingActiveDirectoryClientConfiguration.class, ActiveDirectoryClientMetricsConfiguration.class})
 public @interface EnableActiveDirectoryClient {
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.async;
+
+import fr.cerema.dsi.ldap.activedirectory.client.model.AbstractAdObject;
+import fr.cerema.dsi.ldap.activedirectory.client.model.AdGroup;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous variant of {@link fr.cerema.dsi.ldap.activedirectory.client.ActiveDirectoryClient}
+ * <p>
+ * The methods return immediately : the requests are sent on pooled connections, and the returned futures are
+ * completed when the server has answered. Errors complete the futures exceptionally with an
+ * {@link fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientException}.
+ * Cancelling a future abandons its request.
+ */
+public interface AsyncActiveDirectoryClient {
+
+    /**
+     * Returns the active directory object (user, group or organizational unit) for the given dn
+     * @param dn the distinguished name of the object
+     * @return the future object, completed with null if no object is found
+     */
+    CompletableFuture<AbstractAdObject> getByDn(String dn);
+
+    /**
+     * Returns the user or group with the given sAMAccountName
+     * @param sAMAccountName the sAMAccountName
+     * @param searchBase the dn of the search base
+     * @return the future object, completed with null if no object is found
+     */
+    CompletableFuture<AbstractAdObject> getBySAMAccountName(String sAMAccountName, String searchBase);
+
+    /**
+     * Returns the user or group with the given objectSid
+     * @param objectSid the objectSid in sid syntax (S-1-5-21-...)
+     * @param searchBase the dn of the search base
+     * @return the future object, completed with null if no object is found
+     */
+    CompletableFuture<AbstractAdObject> getObjectBySid(String objectSid, String searchBase);
+
+    /**
+     * Returns the users and groups whose common name contains the given string
+     * @param commonName the string to find in the common names
+     * @param searchBase the dn of the search base
+     * @return the future users and groups found
+     */
+    CompletableFuture<Set<AbstractAdObject>> findByCommonName(String commonName, String searchBase);
+
+    /**
+     * Returns the dns of the objects whose sAMAccountName starts with the given string
+     * @param sAMAccountName the beginning of the sAMAccountName
+     * @param searchBase the dn of the search base
+     * @return the future dns found
+     */
+    CompletableFuture<Set<String>> findBySAMAccountName(String sAMAccountName, String searchBase);
+
+    /**
+     * Creates a global security group
+     * @param dn the dn of the group
+     * @param description the description of the group, may be null
+     * @param sAMAccountName the sAMAccountName of the group, the value of the rdn if null
+     * @return the future group created
+     */
+    CompletableFuture<AdGroup> createSecurityGroup(String dn, String description, String sAMAccountName);
+
+    /**
+     * Deletes an object
+     * @param dn the dn of the object
+     * @return the future completed when the object is deleted
+     */
+    CompletableFuture<Void> deleteByDn(String dn);
+
+    /**
+     * Adds an entity to a group
+     * @param entityDn the dn of the entity
+     * @param groupDn the dn of the group
+     * @return the future completed when the entity is added
+     */
+    CompletableFuture<Void> addEntityToGroup(String entityDn, String groupDn);
+
+    /**
+     * Removes an entity from a group
+     * @param entityDn the dn of the entity
+     * @param groupDn the dn of the group
+     * @return the future completed when the entity is removed
+     */
+    CompletableFuture<Void> removeEntityFromGroup(String entityDn, String groupDn);
+
+    /**
+     * Replaces the description of an entity
+     * @param entityDn the dn of the entity
+     * @param newDescription the new description
+     * @return the future completed when the description is replaced
+     */
+    CompletableFuture<Void> changeEntityDescription(String entityDn, String newDescription);
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.async;
+
+import fr.cerema.dsi.ldap.activedirectory.client.ActiveDirectoryClient;
+import fr.cerema.dsi.ldap.activedirectory.client.ActiveDirectoryClientImpl;
+import fr.cerema.dsi.ldap.activedirectory.client.AdEntryMapper;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientInvalidDnException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientRequestException;
+import fr.cerema.dsi.ldap.activedirectory.client.model.AbstractAdObject;
+import fr.cerema.dsi.ldap.activedirectory.client.model.AdGroup;
+import fr.cerema.dsi.ldap.activedirectory.client.pool.LdapConnectionSource;
+import fr.cerema.dsi.ldap.activedirectory.client.search.EntryMappingFunction;
+import fr.cerema.dsi.ldap.activedirectory.client.search.PagedSearch;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.filter.FilterEncoder;
+import org.apache.directory.api.ldap.model.message.AddRequest;
+import org.apache.directory.api.ldap.model.message.AddRequestImpl;
+import org.apache.directory.api.ldap.model.message.DeleteRequest;
+import org.apache.directory.api.ldap.model.message.DeleteRequestImpl;
+import org.apache.directory.api.ldap.model.message.ModifyRequest;
+import org.apache.directory.api.ldap.model.message.ModifyRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Implementation of {@link AsyncActiveDirectoryClient} sharing the connection pool of an {@link ActiveDirectoryClientImpl}
+ * <p>
+ * The requests are sent with the asynchronous operations of the ldap connections ({@code searchAsync},
+ * {@code addAsync}, {@code modifyAsync}, {@code deleteAsync}). A single dispatcher thread polls the responses
+ * of all the running requests, so that many lookups run at the same time without a thread per lookup.
+ * Each running request holds a pooled connection, which is given back to the pool as soon as its future completes :
+ * at most <i>maxInFlight</i> requests run at the same time, the others wait for a connection.
+ * <p>
+ * The dependent stages of the returned futures are run by the dispatcher thread when they are not async stages :
+ * long processing should use the {@code xxxAsync} methods of {@link CompletableFuture}.
+ */
+public class AsyncActiveDirectoryClientImpl implements AsyncActiveDirectoryClient, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncActiveDirectoryClientImpl.class);
+
+    /**
+     * Number of requests running at the same time when the pool has no limit
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 8;
+
+    private final AdEntryMapper entryMapper;
+    private final String[] objectAttributes;
+    private final int pageSize;
+    private final LdapOperationDispatcher dispatcher;
+
+    /**
+     * Constructor : at most as many requests as the pool has connections run at the same time
+     * @param client the client whose connection pool and settings are used
+     */
+    public AsyncActiveDirectoryClientImpl(ActiveDirectoryClientImpl client) {
+        this(client, client.getLdapConnectionPool().getMaxActive() > 0 ? client.getLdapConnectionPool().getMaxActive()
+                : DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Constructor
+     * @param client the client whose connection pool and settings are used
+     * @param maxInFlight the maximum number of requests running at the same time
+     */
+    public AsyncActiveDirectoryClientImpl(ActiveDirectoryClientImpl client, int maxInFlight) {
+        this(client.getLdapConnectionPool(), client.getEntryMapper(), client.getObjectAttributes(), client.getPageSize(),
+                maxInFlight, client.getOperationTimeout());
+    }
+
+    /**
+     * Constructor
+     * @param ldapConnectionPool the pool the connections are taken from
+     * @param entryMapper the conversion of the entries into objects of the model
+     * @param objectAttributes the attributes requested to build the objects
+     * @param pageSize the page size of the searches returning several objects
+     * @param maxInFlight the maximum number of requests running at the same time
+     * @param operationTimeout the maximum time to wait for a response, in milliseconds
+     */
+    public AsyncActiveDirectoryClientImpl(LdapConnectionSource ldapConnectionPool, AdEntryMapper entryMapper,
+                                          String[] objectAttributes, int pageSize, int maxInFlight, long operationTimeout) {
+        this.entryMapper = entryMapper;
+        this.objectAttributes = objectAttributes.clone();
+        this.pageSize = pageSize;
+        this.dispatcher = new LdapOperationDispatcher(ldapConnectionPool, Math.max(1, maxInFlight), operationTimeout);
+        LOG.info("Asynchronous activeDirectoryClient ready with " + maxInFlight + " requests in flight at most");
+    }
+
+    /**
+     * Stops the dispatcher thread : the pending futures are completed exceptionally
+     * <p>
+     * The connection pool is not closed, it belongs to the synchronous client.
+     */
+    @Override
+    public void close() {
+        LOG.info("Closing asynchronous activeDirectoryClient.");
+        this.dispatcher.close();
+    }
+
+    @Override
+    public CompletableFuture<AbstractAdObject> getByDn(String dn) {
+        LOG.info("getByDn called with : " + dn);
+        return this.search(dn, "(objectClass=*)", SearchScope.OBJECT, 0, entryMapper::toAdObject, AsyncActiveDirectoryClientImpl::first);
+    }
+
+    @Override
+    public CompletableFuture<AbstractAdObject> getBySAMAccountName(String sAMAccountName, String searchBase) {
+        LOG.info("getBySAMAccountName called with sAMAccountName: " + sAMAccountName + " and searchBase: " + searchBase);
+        return this.search(searchBase, "(sAMAccountName=" + FilterEncoder.encodeFilterValue(sAMAccountName) + ")",
+                SearchScope.SUBTREE, 0, entryMapper::toUserOrGroup, AsyncActiveDirectoryClientImpl::first);
+    }
+
+    @Override
+    public CompletableFuture<AbstractAdObject> getObjectBySid(String objectSid, String searchBase) {
+        LOG.info("getObjectBySid called with : " + objectSid + " and searchBase: " + searchBase);
+        return this.search(searchBase, "(objectSid=" + FilterEncoder.encodeFilterValue(objectSid) + ")",
+                SearchScope.SUBTREE, 0, entryMapper::toUserOrGroup, AsyncActiveDirectoryClientImpl::first);
+    }
+
+    @Override
+    public CompletableFuture<Set<AbstractAdObject>> findByCommonName(String commonName, String searchBase) {
+        LOG.info("findByCommonName called with : " + commonName + " and searchBase: " + searchBase);
+        return this.search(searchBase, "(cn=*" + FilterEncoder.encodeFilterValue(commonName) + "*)",
+                SearchScope.SUBTREE, pageSize, entryMapper::toUserOrGroup, HashSet::new);
+    }
+
+    @Override
+    public CompletableFuture<Set<String>> findBySAMAccountName(String sAMAccountName, String searchBase) {
+        LOG.info("findBySAMAccountName called with : " + sAMAccountName + " and searchBase: " + searchBase);
+        return this.search(searchBase, "(sAMAccountName=" + FilterEncoder.encodeFilterValue(sAMAccountName) + "*)",
+                SearchScope.SUBTREE, pageSize, entry -> entry.getDn().getName(), HashSet::new);
+    }
+
+    @Override
+    public CompletableFuture<AdGroup> createSecurityGroup(String dn, String description, String sAMAccountName) {
+        LOG.info("createSecurityGroup called with Dn: " + dn + " description: " + description + " samAccountName: " + sAMAccountName);
+        AddRequest addRequest = new AddRequestImpl();
+        try {
+            Dn dnToCreate = parseDn(dn);
+            String accountName = sAMAccountName == null || "".equals(sAMAccountName)
+                    ? dnToCreate.getRdn().getValue() : sAMAccountName;
+            Entry entry = new DefaultEntry(dn,
+                    "sAMAccountName: " + accountName,
+                    "ObjectClass: " + ActiveDirectoryClient.AD_GROUP_OBJECTCLASS,
+                    "groupType: " + ActiveDirectoryClient.AD_GLOBAL_SECURITYGROUP_FLAGS);
+            if (description != null && !"".equals(description)) {
+                entry.add("description", description);
+            }
+            addRequest.setEntry(entry);
+        } catch (ActiveDirectoryClientException e) {
+            return failed(e);
+        } catch (LdapException lde) {
+            return failed(new ActiveDirectoryClientRequestException("Cannot build the security group entry for " + dn, lde));
+        }
+        return dispatcher.submit(new UpdateOperation("creation of " + dn, connection -> connection.addAsync(addRequest)))
+                .thenCompose(created -> this.getByDn(dn))
+                .thenApply(group -> group instanceof AdGroup ? (AdGroup) group : null);
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteByDn(String dn) {
+        LOG.info("deleteByDn called with Dn: " + dn);
+        DeleteRequest deleteRequest = new DeleteRequestImpl();
+        try {
+            deleteRequest.setName(parseDn(dn));
+        } catch (ActiveDirectoryClientException e) {
+            return failed(e);
+        }
+        return dispatcher.submit(new UpdateOperation("deletion of " + dn, connection -> connection.deleteAsync(deleteRequest)));
+    }
+
+    @Override
+    public CompletableFuture<Void> addEntityToGroup(String entityDn, String groupDn) {
+        LOG.info("addEntityToGroup called with entityDn: " + entityDn + " and groupDn: " + groupDn);
+        ModifyRequest modifyRequest = new ModifyRequestImpl();
+        try {
+            modifyRequest.setName(parseDn(groupDn));
+        } catch (ActiveDirectoryClientException e) {
+            return failed(e);
+        }
+        modifyRequest.add("member", entityDn);
+        return this.modify("addition of " + entityDn + " to " + groupDn, modifyRequest);
+    }
+
+    @Override
+    public CompletableFuture<Void> removeEntityFromGroup(String entityDn, String groupDn) {
+        LOG.info("removeEntityFromGroup called with entityDn: " + entityDn + " and groupDn: " + groupDn);
+        ModifyRequest modifyRequest = new ModifyRequestImpl();
+        try {
+            modifyRequest.setName(parseDn(groupDn));
+        } catch (ActiveDirectoryClientException e) {
+            return failed(e);
+        }
+        modifyRequest.remove("member", entityDn);
+        return this.modify("removal of " + entityDn + " from " + groupDn, modifyRequest);
+    }
+
+    @Override
+    public CompletableFuture<Void> changeEntityDescription(String entityDn, String newDescription) {
+        LOG.info("changeEntityDescription called with entityDn: " + entityDn);
+        ModifyRequest modifyRequest = new ModifyRequestImpl();
+        try {
+            modifyRequest.setName(parseDn(entityDn));
+        } catch (ActiveDirectoryClientException e) {
+            return failed(e);
+        }
+        modifyRequest.replace("description", newDescription);
+        return this.modify("change of the description of " + entityDn, modifyRequest);
+    }
+
+    private CompletableFuture<Void> modify(String description, ModifyRequest modifyRequest) {
+        return dispatcher.submit(new UpdateOperation(description, connection -> connection.modifyAsync(modifyRequest)));
+    }
+
+    private <E, R> CompletableFuture<R> search(String searchBase, String filter, SearchScope scope, int searchPageSize,
+                                               EntryMappingFunction<E> mappingFunction, Function<List<E>, R> finisher) {
+        SearchRequest searchRequest;
+        try {
+            searchRequest = PagedSearch.createSearchRequest(searchBase, filter, scope, objectAttributes);
+        } catch (ActiveDirectoryClientException e) {
+            return failed(e);
+        }
+        return dispatcher.submit(new SearchOperation<>(searchRequest, searchPageSize, mappingFunction, finisher));
+    }
+
+    private static <E> E first(List<E> results) {
+        return results.isEmpty() ? null : results.get(0);
+    }
+
+    private static Dn parseDn(String dn) throws ActiveDirectoryClientInvalidDnException {
+        try {
+            return new Dn(dn);
+        } catch (LdapInvalidDnException e) {
+            LOG.error(dn + " is not a valid dn.");
+            throw new ActiveDirectoryClientInvalidDnException(dn + " is not a valid distinguishedName");
+        }
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable throwable) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+}
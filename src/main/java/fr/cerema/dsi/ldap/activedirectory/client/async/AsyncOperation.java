@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.async;
+
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientRequestException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.Response;
+import org.apache.directory.ldap.client.api.LdapAsyncConnection;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.future.ResponseFuture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * An ldap operation run by the {@link LdapOperationDispatcher}
+ * <p>
+ * The operation sends its request(s) on the connection given by the dispatcher, and consumes the responses
+ * as they arrive, until it completes its result. All the methods are called by the dispatcher thread.
+ * @param <T> the type of the result
+ */
+abstract class AsyncOperation<T> {
+
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+    private final String description;
+    private final long createdAt = System.currentTimeMillis();
+
+    private LdapConnection connection;
+    private LdapAsyncConnection asyncConnection;
+    private ResponseFuture<?> responseFuture;
+    private long deadline;
+    private long timeoutMillis;
+
+    AsyncOperation(String description) {
+        this.description = description;
+    }
+
+    /**
+     * Sends the first request of the operation
+     * @param asyncConnection the connection
+     * @return the future of the responses
+     * @throws LdapException if the request cannot be sent
+     */
+    abstract ResponseFuture<?> send(LdapAsyncConnection asyncConnection) throws LdapException;
+
+    /**
+     * Handles a response of the server
+     * @param response the response
+     * @return true if the operation is complete (its result has been completed)
+     * @throws LdapException if the request of the next page cannot be sent
+     * @throws ActiveDirectoryClientException if the response is an error, or if an entry cannot be converted
+     */
+    abstract boolean onResponse(Response response) throws LdapException, ActiveDirectoryClientException;
+
+    /**
+     * Returns whether the operation modifies the directory, so that its connection is taken for a write
+     * @return false, except for updates
+     */
+    boolean isUpdate() {
+        return false;
+    }
+
+    /**
+     * Returns when the operation was created
+     * @return the creation time in milliseconds
+     */
+    long getCreatedAt() {
+        return createdAt;
+    }
+
+    CompletableFuture<T> getResult() {
+        return result;
+    }
+
+    LdapConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Starts the operation
+     * @param connection the pooled connection, given back to the pool by the dispatcher when the operation completes
+     * @param asyncConnection the asynchronous view of the connection
+     * @param timeoutMillis the maximum time to wait for each response
+     */
+    void start(LdapConnection connection, LdapAsyncConnection asyncConnection, long timeoutMillis) {
+        this.connection = connection;
+        this.asyncConnection = asyncConnection;
+        this.timeoutMillis = timeoutMillis;
+        try {
+            this.continueWith(this.send(asyncConnection));
+        } catch (LdapException | RuntimeException e) {
+            this.fail(new ActiveDirectoryClientRequestException("An error occured while requesting the ldap server : "
+                    + description, e));
+        }
+    }
+
+    /**
+     * Waits for the responses of a new request (next page of a search)
+     * @param responseFuture the future of the new request
+     */
+    void continueWith(ResponseFuture<?> responseFuture) {
+        this.responseFuture = responseFuture;
+        this.deadline = System.currentTimeMillis() + timeoutMillis;
+    }
+
+    LdapAsyncConnection getAsyncConnection() {
+        return asyncConnection;
+    }
+
+    /**
+     * Consumes the responses arrived so far
+     * @return true if at least one response was consumed, or if the operation completed
+     */
+    boolean poll() {
+        if (result.isDone()) {
+            // cancelled by the caller, or failed to start
+            this.abandon();
+            return true;
+        }
+        boolean progressed = false;
+        try {
+            Response response;
+            while ((response = this.nextResponse()) != null) {
+                progressed = true;
+                // a search streaming its entries does not time out as long as they keep arriving
+                this.deadline = System.currentTimeMillis() + timeoutMillis;
+                if (this.onResponse(response)) {
+                    return true;
+                }
+            }
+        } catch (ActiveDirectoryClientException e) {
+            this.abandon();
+            this.fail(e);
+            return true;
+        } catch (LdapException | ExecutionException e) {
+            this.abandon();
+            this.fail(new ActiveDirectoryClientRequestException("An error occured while requesting the ldap server : "
+                    + description, e));
+            return true;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            this.abandon();
+            this.fail(new ActiveDirectoryClientRequestException("Interrupted while waiting for " + description, ie));
+            return true;
+        } catch (RuntimeException re) {
+            // conversion of an entry or of the result, sending of the next page
+            this.abandon();
+            this.fail(new ActiveDirectoryClientRequestException("An error occured while handling the responses of the "
+                    + description, re));
+            return true;
+        }
+        if (System.currentTimeMillis() > deadline) {
+            this.abandon();
+            this.fail(new ActiveDirectoryClientRequestException("No response from the ldap server after "
+                    + timeoutMillis + " ms : " + description));
+            return true;
+        }
+        return progressed;
+    }
+
+    boolean isComplete() {
+        return result.isDone();
+    }
+
+    void complete(T value) {
+        result.complete(value);
+    }
+
+    void fail(Throwable throwable) {
+        result.completeExceptionally(throwable);
+    }
+
+    String getDescription() {
+        return description;
+    }
+
+    private Response nextResponse() throws InterruptedException, ExecutionException {
+        try {
+            return responseFuture.get(0, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException te) {
+            return null;
+        }
+    }
+
+    /**
+     * Abandons the request on the server side if it is still running
+     */
+    private void abandon() {
+        if (responseFuture != null && !responseFuture.isDone()) {
+            responseFuture.cancel(true);
+        }
+    }
+}
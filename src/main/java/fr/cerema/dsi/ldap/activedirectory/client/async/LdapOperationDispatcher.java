@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.async;
+
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientConnectionException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientRequestException;
+import fr.cerema.dsi.ldap.activedirectory.client.pool.LdapConnectionPoolExhaustedException;
+import fr.cerema.dsi.ldap.activedirectory.client.pool.LdapConnectionSource;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.ldap.client.api.LdapAsyncConnection;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.LdapConnectionWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the {@link AsyncOperation}s on pooled connections, from a single thread
+ * <p>
+ * Submitted operations are started as long as less than <i>maxInFlight</i> operations are running, each one on a
+ * connection taken from the pool. The dispatcher thread then polls the responses of the running operations,
+ * and gives their connection back to the pool as soon as they complete. When no response is waiting,
+ * the thread sleeps between two polls, from {@link #IDLE_PAUSE_MICROS} microseconds doubled at each empty poll
+ * up to {@link #IDLE_PARK_MILLIS} milliseconds.
+ * <p>
+ * The thread never waits for the pool : when no connection is available, the operation is retried at the next turn
+ * and fails once it has waited longer than the timeout. An error raised by an operation only fails this operation.
+ */
+class LdapOperationDispatcher implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LdapOperationDispatcher.class);
+
+    /**
+     * First pause of the dispatcher thread when no response is waiting
+     */
+    static final long IDLE_PAUSE_MICROS = 200;
+
+    /**
+     * Longest pause of the dispatcher thread when no response is waiting, and pause when no operation is running
+     */
+    static final long IDLE_PARK_MILLIS = 100;
+
+    /**
+     * Pause of the dispatcher thread when operations wait for a connection of the pool
+     */
+    static final long CONNECTION_RETRY_PAUSE_MILLIS = 1;
+
+    private final LdapConnectionSource ldapConnectionPool;
+    private final int maxInFlight;
+    private final long timeoutMillis;
+
+    private final Queue<AsyncOperation<?>> submitted = new ConcurrentLinkedQueue<>();
+    private final List<AsyncOperation<?>> inFlight = new ArrayList<>();
+    /**
+     * Operations waiting for a connection of the pool, only used by the dispatcher thread
+     */
+    private final Deque<AsyncOperation<?>> waiting = new ArrayDeque<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+    /**
+     * Pause after the next empty poll, only used by the dispatcher thread
+     */
+    private long idlePauseNanos = TimeUnit.MICROSECONDS.toNanos(IDLE_PAUSE_MICROS);
+
+    /**
+     * Constructor, starting the dispatcher thread
+     * @param ldapConnectionPool the pool the connections are taken from
+     * @param maxInFlight the maximum number of operations running at the same time
+     * @param timeoutMillis the maximum time to wait for a response
+     */
+    LdapOperationDispatcher(LdapConnectionSource ldapConnectionPool, int maxInFlight, long timeoutMillis) {
+        this.ldapConnectionPool = ldapConnectionPool;
+        this.maxInFlight = maxInFlight;
+        this.timeoutMillis = timeoutMillis;
+        this.thread = new Thread(this::run, "activeDirectoryClient-async");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Submits an operation
+     * @param operation the operation
+     * @param <T> the type of the result
+     * @return the future result of the operation
+     */
+    <T> CompletableFuture<T> submit(AsyncOperation<T> operation) {
+        if (!running) {
+            operation.fail(new ActiveDirectoryClientConnectionException("The asynchronous client is closed."));
+            return operation.getResult();
+        }
+        submitted.add(operation);
+        LockSupport.unpark(thread);
+        return operation.getResult();
+    }
+
+    /**
+     * Stops the dispatcher thread : the running and waiting operations fail
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        LOG.debug("Asynchronous operations dispatcher started");
+        while (running) {
+            try {
+                this.dispatch();
+            } catch (RuntimeException re) {
+                // never let the thread die : the waiting operations would never complete
+                LOG.error("Unexpected error in the asynchronous operations dispatcher", re);
+            }
+        }
+        ActiveDirectoryClientConnectionException closed =
+                new ActiveDirectoryClientConnectionException("The asynchronous client is closed.");
+        for (AsyncOperation<?> operation : inFlight) {
+            operation.fail(closed);
+            try {
+                operation.poll();
+            } catch (RuntimeException re) {
+                LOG.warn("Cannot abandon " + operation.getDescription() + " : " + re.getLocalizedMessage());
+            }
+            this.release(operation);
+        }
+        inFlight.clear();
+        AsyncOperation<?> operation;
+        while ((operation = waiting.poll()) != null) {
+            operation.fail(closed);
+        }
+        while ((operation = submitted.poll()) != null) {
+            operation.fail(closed);
+        }
+        LOG.debug("Asynchronous operations dispatcher stopped");
+    }
+
+    /**
+     * One turn of the dispatcher : starts the operations which can be, then polls the running ones
+     */
+    private void dispatch() {
+        boolean progressed = this.startSubmitted();
+        Iterator<AsyncOperation<?>> operations = inFlight.iterator();
+        while (operations.hasNext()) {
+            AsyncOperation<?> operation = operations.next();
+            try {
+                if (operation.poll()) {
+                    progressed = true;
+                }
+            } catch (RuntimeException re) {
+                operation.fail(new ActiveDirectoryClientRequestException("An error occured while requesting the ldap server.", re));
+            }
+            if (operation.isComplete()) {
+                operations.remove();
+                this.release(operation);
+            }
+        }
+        if (progressed) {
+            idlePauseNanos = TimeUnit.MICROSECONDS.toNanos(IDLE_PAUSE_MICROS);
+            return;
+        }
+        long pause;
+        if (!waiting.isEmpty()) {
+            pause = TimeUnit.MILLISECONDS.toNanos(CONNECTION_RETRY_PAUSE_MILLIS);
+        } else if (inFlight.isEmpty()) {
+            pause = TimeUnit.MILLISECONDS.toNanos(IDLE_PARK_MILLIS);
+        } else {
+            pause = idlePauseNanos;
+        }
+        // the responses of slow requests are polled less and less often, a submission waking the thread up
+        idlePauseNanos = Math.min(idlePauseNanos * 2, TimeUnit.MILLISECONDS.toNanos(IDLE_PARK_MILLIS));
+        LockSupport.parkNanos(pause);
+    }
+
+    /**
+     * Starts the waiting then the submitted operations, as long as less than <i>maxInFlight</i> operations are
+     * running and the pool gives connections without waiting
+     * @return true if an operation was started or completed
+     */
+    private boolean startSubmitted() {
+        boolean started = false;
+        AsyncOperation<?> operation;
+        while (inFlight.size() < maxInFlight && (operation = this.nextOperation()) != null) {
+            if (operation.isComplete()) {
+                // cancelled before being started
+                continue;
+            }
+            LdapConnection ldapConnection;
+            try {
+                ldapConnection = this.getConnection(operation);
+            } catch (LdapConnectionPoolExhaustedException lpee) {
+                if (System.currentTimeMillis() - operation.getCreatedAt() >= timeoutMillis) {
+                    LOG.error("Cannot get LdapConnection from pool.");
+                    operation.fail(new ActiveDirectoryClientConnectionException("Cannot get/release LdapConnection from/to pool.", lpee));
+                    started = true;
+                    continue;
+                }
+                // retried at the next turn, the running operations being polled meanwhile
+                waiting.addFirst(operation);
+                break;
+            } catch (LdapException | RuntimeException e) {
+                LOG.error("Cannot get LdapConnection from pool.");
+                operation.fail(new ActiveDirectoryClientConnectionException("Cannot get/release LdapConnection from/to pool.", e));
+                started = true;
+                continue;
+            }
+            LdapAsyncConnection asyncConnection = asAsyncConnection(ldapConnection);
+            if (asyncConnection == null) {
+                operation.fail(new ActiveDirectoryClientConnectionException("The pooled connections do not support asynchronous operations."));
+                this.release(ldapConnection);
+                continue;
+            }
+            try {
+                operation.start(ldapConnection, asyncConnection, timeoutMillis);
+            } catch (RuntimeException re) {
+                operation.fail(new ActiveDirectoryClientRequestException("An error occured while requesting the ldap server.", re));
+            }
+            // added even when failed to start, so that its connection is released with the completed ones
+            inFlight.add(operation);
+            started = true;
+        }
+        return started;
+    }
+
+    /**
+     * Gives the next operation to start, the ones waiting for a connection first
+     */
+    private AsyncOperation<?> nextOperation() {
+        AsyncOperation<?> operation = waiting.poll();
+        return operation != null ? operation : submitted.poll();
+    }
+
+    /**
+     * Takes the connection of an operation, a connection for a write when the operation is an update and the pool
+     * routes the writes
+     */
+    private LdapConnection getConnection(AsyncOperation<?> operation) throws LdapException {
+        if (operation.isUpdate()) {
+            return ldapConnectionPool.getWriteConnection(0, TimeUnit.MILLISECONDS);
+        }
+        return ldapConnectionPool.getConnection(0, TimeUnit.MILLISECONDS);
+    }
+
+    private void release(AsyncOperation<?> operation) {
+        if (operation.getConnection() != null) {
+            this.release(operation.getConnection());
+        }
+    }
+
+    private void release(LdapConnection ldapConnection) {
+        try {
+            ldapConnectionPool.releaseConnection(ldapConnection);
+        } catch (LdapException lde) {
+            LOG.warn("Cannot release LdapConnection to pool : " + lde.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Returns the asynchronous view of a pooled connection, which may be wrapped by the pool
+     * @return the connection, or null if it does not support asynchronous operations
+     */
+    private static LdapAsyncConnection asAsyncConnection(LdapConnection ldapConnection) {
+        LdapConnection connection = ldapConnection;
+        while (!(connection instanceof LdapAsyncConnection) && connection instanceof LdapConnectionWrapper) {
+            connection = ((LdapConnectionWrapper) connection).wrapped();
+        }
+        return connection instanceof LdapAsyncConnection ? (LdapAsyncConnection) connection : null;
+    }
+}
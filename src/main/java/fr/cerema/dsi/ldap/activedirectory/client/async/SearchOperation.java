@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.async;
+
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientRequestException;
+import fr.cerema.dsi.ldap.activedirectory.client.search.EntryMappingFunction;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.Response;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchResultDone;
+import org.apache.directory.api.ldap.model.message.SearchResultEntry;
+import org.apache.directory.api.ldap.model.message.controls.PagedResults;
+import org.apache.directory.api.ldap.model.message.controls.PagedResultsImpl;
+import org.apache.directory.ldap.client.api.LdapAsyncConnection;
+import org.apache.directory.ldap.client.api.future.ResponseFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Asynchronous search, paged with the Simple Paged Results control when a page size is given
+ * <p>
+ * The pages are requested on the same connection, each one when the previous one is done.
+ * A search whose base does not exist returns no result.
+ * @param <E> the type of the converted entries
+ * @param <R> the type of the result
+ */
+class SearchOperation<E, R> extends AsyncOperation<R> {
+
+    private static final byte[] NO_COOKIE = new byte[0];
+
+    private final SearchRequest searchRequest;
+    private final int pageSize;
+    private final EntryMappingFunction<E> mappingFunction;
+    private final Function<List<E>, R> finisher;
+    private final List<E> results = new ArrayList<>();
+
+    /**
+     * Constructor
+     * @param searchRequest the search request
+     * @param pageSize the page size, 0 to send the search without paging
+     * @param mappingFunction the conversion of the entries, entries for which it returns null are skipped
+     * @param finisher the function building the result from the converted entries
+     */
+    SearchOperation(SearchRequest searchRequest, int pageSize, EntryMappingFunction<E> mappingFunction,
+                    Function<List<E>, R> finisher) {
+        super("search of " + searchRequest.getBase() + " with filter " + searchRequest.getFilter());
+        this.searchRequest = searchRequest;
+        this.pageSize = pageSize;
+        this.mappingFunction = mappingFunction;
+        this.finisher = finisher;
+    }
+
+    @Override
+    ResponseFuture<?> send(LdapAsyncConnection asyncConnection) throws LdapException {
+        if (pageSize > 0) {
+            this.setCookie(NO_COOKIE);
+        }
+        return asyncConnection.searchAsync(searchRequest);
+    }
+
+    @Override
+    boolean onResponse(Response response) throws LdapException, ActiveDirectoryClientException {
+        if (response instanceof SearchResultEntry) {
+            E result = mappingFunction.map(((SearchResultEntry) response).getEntry());
+            if (result != null) {
+                results.add(result);
+            }
+            return false;
+        }
+        if (!(response instanceof SearchResultDone)) {
+            return false;
+        }
+        SearchResultDone done = (SearchResultDone) response;
+        ResultCodeEnum resultCode = done.getLdapResult().getResultCode();
+        if (resultCode == ResultCodeEnum.NO_SUCH_OBJECT) {
+            this.complete(finisher.apply(results));
+            return true;
+        }
+        if (resultCode != ResultCodeEnum.SUCCESS) {
+            throw new ActiveDirectoryClientRequestException("The ldap server answered " + resultCode + " to the "
+                    + this.getDescription() + " : " + done.getLdapResult().getDiagnosticMessage());
+        }
+        PagedResults pagedResults = (PagedResults) done.getControl(PagedResults.OID);
+        if (pageSize > 0 && pagedResults != null && pagedResults.getCookie() != null && pagedResults.getCookie().length > 0) {
+            this.setCookie(pagedResults.getCookie());
+            this.continueWith(this.getAsyncConnection().searchAsync(searchRequest));
+            return false;
+        }
+        this.complete(finisher.apply(results));
+        return true;
+    }
+
+    private void setCookie(byte[] cookie) {
+        PagedResults pagedResults = new PagedResultsImpl();
+        pagedResults.setSize(pageSize);
+        pagedResults.setCookie(cookie);
+        searchRequest.addControl(pagedResults);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.async;
+
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientRequestException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.Response;
+import org.apache.directory.api.ldap.model.message.ResultResponse;
+import org.apache.directory.ldap.client.api.LdapAsyncConnection;
+import org.apache.directory.ldap.client.api.future.ResponseFuture;
+
+/**
+ * Asynchronous add, modify or delete operation, completed with null when the server answers success
+ */
+class UpdateOperation extends AsyncOperation<Void> {
+
+    /**
+     * Sends the request of the operation
+     */
+    @FunctionalInterface
+    interface RequestSender {
+        ResponseFuture<?> send(LdapAsyncConnection asyncConnection) throws LdapException;
+    }
+
+    private final RequestSender requestSender;
+
+    /**
+     * Constructor
+     * @param description the description of the operation, for the error messages
+     * @param requestSender the function sending the request
+     */
+    UpdateOperation(String description, RequestSender requestSender) {
+        super(description);
+        this.requestSender = requestSender;
+    }
+
+    @Override
+    boolean isUpdate() {
+        return true;
+    }
+
+    @Override
+    ResponseFuture<?> send(LdapAsyncConnection asyncConnection) throws LdapException {
+        return requestSender.send(asyncConnection);
+    }
+
+    @Override
+    boolean onResponse(Response response) throws ActiveDirectoryClientException {
+        if (!(response instanceof ResultResponse)) {
+            return false;
+        }
+        ResultResponse resultResponse = (ResultResponse) response;
+        ResultCodeEnum resultCode = resultResponse.getLdapResult().getResultCode();
+        if (resultCode != ResultCodeEnum.SUCCESS) {
+            throw new ActiveDirectoryClientRequestException("The ldap server answered " + resultCode + " to the "
+                    + this.getDescription() + " : " + resultResponse.getLdapResult().getDiagnosticMessage());
+        }
+        this.complete(null);
+        return true;
+    }
+}
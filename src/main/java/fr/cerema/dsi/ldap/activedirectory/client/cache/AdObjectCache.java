@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.cache;
+
+import fr.cerema.dsi.ldap.activedirectory.client.model.AbstractAdObject;
+import fr.cerema.dsi.ldap.activedirectory.client.model.AdGroup;
+import fr.cerema.dsi.ldap.activedirectory.client.model.AdUser;
+import fr.cerema.dsi.ldap.activedirectory.client.model.OrganizationalUnit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-bounded, least recently used store of active directory objects
+ * <p>
+ * Objects are stored by distinguished name, and indexed by objectSid, objectGUID and sAMAccountName.
+ * Every key is case insensitive. All the methods are thread safe.
+ */
+class AdObjectCache {
+
+    private final int maxEntries;
+    private final long timeToLiveNanos;
+    private final long refreshAfterNanos;
+
+    private final LinkedHashMap<String, CachedObject> objectsByDn = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, String> dnsBySid = new HashMap<>();
+    private final Map<String, String> dnsByGuid = new HashMap<>();
+    private final Map<String, String> dnsBySAMAccountName = new HashMap<>();
+
+    private long invalidationSequence;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder refreshCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder expirationCount = new LongAdder();
+    private final LongAdder invalidationCount = new LongAdder();
+
+    /**
+     * Constructor
+     * @param maxEntries the maximum number of objects stored
+     * @param timeToLiveMillis the time after which an object is not returned anymore
+     * @param refreshAfterMillis the time after which an object should be reloaded, 0 to never reload objects
+     */
+    AdObjectCache(int maxEntries, long timeToLiveMillis, long refreshAfterMillis) {
+        this.maxEntries = maxEntries;
+        this.timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis);
+        this.refreshAfterNanos = refreshAfterMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(refreshAfterMillis) : Long.MAX_VALUE;
+    }
+
+    synchronized CachedObject getByDn(String dn) {
+        return this.get(normalize(dn));
+    }
+
+    synchronized CachedObject getBySid(String sid) {
+        return this.get(dnsBySid.get(normalize(sid)));
+    }
+
+    synchronized CachedObject getByGuid(String guid) {
+        return this.get(dnsByGuid.get(normalize(guid)));
+    }
+
+    synchronized CachedObject getBySAMAccountName(String sAMAccountName) {
+        return this.get(dnsBySAMAccountName.get(normalize(sAMAccountName)));
+    }
+
+    private CachedObject get(String dnKey) {
+        CachedObject cached = dnKey == null ? null : objectsByDn.get(dnKey);
+        if (cached != null && cached.isExpired(System.nanoTime())) {
+            this.remove(dnKey);
+            expirationCount.increment();
+            cached = null;
+        }
+        return cached;
+    }
+
+    /**
+     * Returns a value to give to {@link #put(AbstractAdObject, long)} when the object put has been loaded
+     * @return the current invalidation sequence
+     */
+    synchronized long getInvalidationSequence() {
+        return invalidationSequence;
+    }
+
+    /**
+     * Stores an object, unless an invalidation occurred since it was loaded (it could be stale)
+     * @param adObject the object to store
+     * @param loadSequence the invalidation sequence read before loading the object
+     */
+    synchronized void put(AbstractAdObject adObject, long loadSequence) {
+        if (adObject == null || adObject.getDistinguishedName() == null || loadSequence != invalidationSequence) {
+            return;
+        }
+        String dnKey = normalize(adObject.getDistinguishedName());
+        this.remove(dnKey);
+        freeze(adObject);
+        objectsByDn.put(dnKey, new CachedObject(adObject, System.nanoTime()));
+        this.index(dnKey, adObject);
+        Iterator<Map.Entry<String, CachedObject>> eldest = objectsByDn.entrySet().iterator();
+        while (objectsByDn.size() > maxEntries && eldest.hasNext()) {
+            Map.Entry<String, CachedObject> entry = eldest.next();
+            eldest.remove();
+            this.unindex(entry.getKey(), entry.getValue().adObject);
+            evictionCount.increment();
+        }
+    }
+
+    /**
+     * Replaces an object by its reloaded version, unless it was removed in the meantime
+     * @param previous the cached object which has been reloaded
+     * @param adObject the reloaded object, null if it does not exist anymore
+     */
+    synchronized void replace(CachedObject previous, AbstractAdObject adObject) {
+        String dnKey = normalize(previous.adObject.getDistinguishedName());
+        if (objectsByDn.get(dnKey) != previous) {
+            return;
+        }
+        this.remove(dnKey);
+        refreshCount.increment();
+        if (adObject != null) {
+            this.put(adObject, invalidationSequence);
+        }
+    }
+
+    /**
+     * Removes an object, and prevents the objects being loaded from being stored
+     * @param dn the distinguished name of the object
+     */
+    synchronized void invalidate(String dn) {
+        invalidationSequence++;
+        if (this.remove(normalize(dn)) != null) {
+            invalidationCount.increment();
+        }
+    }
+
+    /**
+     * Removes all the objects
+     */
+    synchronized void invalidateAll() {
+        invalidationSequence++;
+        invalidationCount.add(objectsByDn.size());
+        objectsByDn.clear();
+        dnsBySid.clear();
+        dnsByGuid.clear();
+        dnsBySAMAccountName.clear();
+    }
+
+    private CachedObject remove(String dnKey) {
+        CachedObject removed = objectsByDn.remove(dnKey);
+        if (removed != null) {
+            this.unindex(dnKey, removed.adObject);
+        }
+        return removed;
+    }
+
+    private void index(String dnKey, AbstractAdObject adObject) {
+        putIfNotNull(dnsBySid, getSid(adObject), dnKey);
+        putIfNotNull(dnsByGuid, adObject.getObjectGUID(), dnKey);
+        putIfNotNull(dnsBySAMAccountName, getSAMAccountName(adObject), dnKey);
+    }
+
+    private void unindex(String dnKey, AbstractAdObject adObject) {
+        removeIfMapped(dnsBySid, getSid(adObject), dnKey);
+        removeIfMapped(dnsByGuid, adObject.getObjectGUID(), dnKey);
+        removeIfMapped(dnsBySAMAccountName, getSAMAccountName(adObject), dnKey);
+    }
+
+    private static void putIfNotNull(Map<String, String> index, String key, String dnKey) {
+        if (key != null) {
+            index.put(normalize(key), dnKey);
+        }
+    }
+
+    private static void removeIfMapped(Map<String, String> index, String key, String dnKey) {
+        if (key != null) {
+            index.remove(normalize(key), dnKey);
+        }
+    }
+
+    private static String getSid(AbstractAdObject adObject) {
+        if (adObject instanceof AdUser && ((AdUser) adObject).getObjectSid() != null) {
+            return ((AdUser) adObject).getObjectSidAsString();
+        }
+        if (adObject instanceof AdGroup && ((AdGroup) adObject).getObjectSid() != null) {
+            return ((AdGroup) adObject).getObjectSidAsString();
+        }
+        return null;
+    }
+
+    private static String getSAMAccountName(AbstractAdObject adObject) {
+        if (adObject instanceof AdUser) {
+            return ((AdUser) adObject).getsAMAccountName();
+        }
+        if (adObject instanceof AdGroup) {
+            return ((AdGroup) adObject).getsAMAccountName();
+        }
+        return null;
+    }
+
+    void recordHit() {
+        hitCount.increment();
+    }
+
+    void recordMiss() {
+        missCount.increment();
+    }
+
+    synchronized CacheStatistics getStatistics() {
+        return new CacheStatistics(hitCount.sum(), missCount.sum(), refreshCount.sum(), evictionCount.sum(),
+                expirationCount.sum(), invalidationCount.sum(), objectsByDn.size());
+    }
+
+    static String normalize(String key) {
+        return key.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Makes the collections of a stored object unmodifiable, the object being shared by all the callers
+     */
+    private static void freeze(AbstractAdObject adObject) {
+        Map<String, List<String>> additionalAttributes = new HashMap<>();
+        for (Map.Entry<String, List<String>> attribute : adObject.getAdditionalAttributes().entrySet()) {
+            additionalAttributes.put(attribute.getKey(), Collections.unmodifiableList(new ArrayList<>(attribute.getValue())));
+        }
+        adObject.setAdditionalAttributes(Collections.unmodifiableMap(additionalAttributes));
+        if (adObject instanceof OrganizationalUnit) {
+            OrganizationalUnit unit = (OrganizationalUnit) adObject;
+            unit.setOrganizationalUnits(Collections.unmodifiableList(new ArrayList<>(unit.getOrganizationalUnits())));
+        }
+    }
+
+    /**
+     * An object of the cache, with its loading time
+     */
+    class CachedObject {
+        private final AbstractAdObject adObject;
+        private final long loadTime;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private CachedObject(AbstractAdObject adObject, long loadTime) {
+            this.adObject = adObject;
+            this.loadTime = loadTime;
+        }
+
+        AbstractAdObject getAdObject() {
+            return adObject;
+        }
+
+        private boolean isExpired(long now) {
+            return now - loadTime >= timeToLiveNanos;
+        }
+
+        /**
+         * Tells whether the object must be reloaded, only once : the caller is in charge of the reload
+         * @return true if the caller must reload the object
+         */
+        boolean startRefreshIfDue() {
+            return System.nanoTime() - loadTime >= refreshAfterNanos && refreshing.compareAndSet(false, true);
+        }
+
+        /**
+         * Allows another reload after a failed one
+         */
+        void refreshFailed() {
+            refreshing.set(false);
+        }
+    }
+}
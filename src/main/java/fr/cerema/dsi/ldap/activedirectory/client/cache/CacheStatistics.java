@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.cache;
+
+/**
+ * Snapshot of the statistics of a {@link CachingActiveDirectoryClient}
+ */
+public class CacheStatistics {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long refreshCount;
+    private final long evictionCount;
+    private final long expirationCount;
+    private final long invalidationCount;
+    private final int size;
+
+    CacheStatistics(long hitCount, long missCount, long refreshCount, long evictionCount, long expirationCount,
+                    long invalidationCount, int size) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.refreshCount = refreshCount;
+        this.evictionCount = evictionCount;
+        this.expirationCount = expirationCount;
+        this.invalidationCount = invalidationCount;
+        this.size = size;
+    }
+
+    /**
+     * Returns the number of lookups answered by the cache
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of lookups forwarded to the ldap server
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the ratio of lookups answered by the cache
+     * @return the hit rate, between 0 and 1 (1 if no lookup was made)
+     */
+    public double getHitRate() {
+        long requestCount = hitCount + missCount;
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    /**
+     * Returns the number of entries reloaded in background before their expiration
+     * @return the number of refreshes
+     */
+    public long getRefreshCount() {
+        return refreshCount;
+    }
+
+    /**
+     * Returns the number of entries removed because the cache was full
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns the number of entries removed because their time to live was elapsed
+     * @return the number of expirations
+     */
+    public long getExpirationCount() {
+        return expirationCount;
+    }
+
+    /**
+     * Returns the number of entries removed because of a write made through the client
+     * @return the number of invalidations
+     */
+    public long getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    /**
+     * Returns the number of entries in the cache
+     * @return the size of the cache
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * For debugging purpose
+     * @return the statistics
+     */
+    @Override
+    public String toString() {
+        return "Cache statistics :" +
+                " Size : " + size +
+                " - Hits : " + hitCount +
+                " - Misses : " + missCount +
+                " - Hit rate : " + getHitRate() +
+                " - Refreshes : " + refreshCount +
+                " - Evictions : " + evictionCount +
+                " - Expirations : " + expirationCount +
+                " - Invalidations : " + invalidationCount;
+    }
+}
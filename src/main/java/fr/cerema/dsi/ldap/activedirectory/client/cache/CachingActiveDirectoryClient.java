@@ -0,0 +1,481 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.cache;
+
+import fr.cerema.dsi.ldap.activedirectory.client.ActiveDirectoryClient;
+import fr.cerema.dsi.ldap.activedirectory.client.ForwardingActiveDirectoryClient;
+import fr.cerema.dsi.ldap.activedirectory.client.LdapConnectionConfigurer;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientException;
+import fr.cerema.dsi.ldap.activedirectory.client.model.AbstractAdObject;
+import fr.cerema.dsi.ldap.activedirectory.client.model.AdGroup;
+import fr.cerema.dsi.ldap.activedirectory.client.model.BatchLookupResult;
+import fr.cerema.dsi.ldap.activedirectory.client.model.MembershipChangeReport;
+import fr.cerema.dsi.ldap.activedirectory.client.utils.ObjectGUIDConverter;
+import fr.cerema.dsi.ldap.activedirectory.client.utils.PathHelpers;
+import fr.cerema.dsi.ldap.activedirectory.client.utils.SidConverter;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decorator of an {@link ActiveDirectoryClient} caching the objects returned by {@link #getByDn(String)},
+ * {@link #getObjectBySid(String, String)}, {@link #getBySAMAccountName(String, String)},
+ * {@link #getByObjectGuid(String)}, {@link #resolveSids(Collection, String)} and {@link #getByObjectGuids(Collection)}
+ * <p>
+ * The groups of {@link #getEffectiveGroups(String, String)} are resolved through the cache too : only the tokenGroups
+ * of the object are read from the server when its groups are cached.
+ * <p>
+ * The cache holds at most <i>maxEntries</i> objects, the least recently used being evicted first.
+ * An object is returned during its time to live, whatever the key (dn, objectSid, sAMAccountName or objectGUID)
+ * it is looked up with. When refresh-ahead is enabled, an object older than the refresh delay is still returned,
+ * and reloaded in background so that frequently used objects never expire.
+ * <p>
+ * The writes made through this client (deletion, description change, membership change) invalidate the modified
+ * objects. Writes made by other means are seen when the objects expire or are refreshed.
+ * <p>
+ * The cached objects are shared by the callers : their collections (additional attributes, child units) are
+ * unmodifiable, and their setters must not be called.
+ */
+public class CachingActiveDirectoryClient extends ForwardingActiveDirectoryClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CachingActiveDirectoryClient.class);
+
+    private static final int MAX_PENDING_REFRESHES = 1000;
+
+    private final AdObjectCache cache;
+
+    private final ThreadPoolExecutor refreshExecutor;
+
+    /**
+     * Creates a cache configured by {@link LdapConnectionConfigurer#configureCacheMaxEntries(int)},
+     * {@link LdapConnectionConfigurer#configureCacheTimeToLive(long)} and
+     * {@link LdapConnectionConfigurer#configureCacheRefreshAfter(long)}
+     * @param delegate the decorated client
+     * @param configurer the configuration of the cache
+     */
+    public CachingActiveDirectoryClient(ActiveDirectoryClient delegate, LdapConnectionConfigurer configurer) {
+        this(delegate, configurer.getCacheMaxEntries(), configurer.getCacheTimeToLive(), configurer.getCacheRefreshAfter());
+    }
+
+    /**
+     * Constructor
+     * @param delegate the decorated client
+     * @param maxEntries the maximum number of objects cached
+     * @param timeToLiveMillis the time during which an object is returned without requesting the ldap server
+     * @param refreshAfterMillis the age from which an object is reloaded in background when requested,
+     *                           0 to disable refresh-ahead. Must be lower than the time to live.
+     */
+    public CachingActiveDirectoryClient(ActiveDirectoryClient delegate, int maxEntries, long timeToLiveMillis,
+                                        long refreshAfterMillis) {
+        super(delegate);
+        if (maxEntries <= 0 || timeToLiveMillis <= 0) {
+            throw new IllegalArgumentException("Cache size and time to live must be strictly positive, got "
+                    + maxEntries + " and " + timeToLiveMillis);
+        }
+        if (refreshAfterMillis < 0 || refreshAfterMillis >= timeToLiveMillis) {
+            throw new IllegalArgumentException("Cache refresh delay must be between 0 and the time to live, got "
+                    + refreshAfterMillis);
+        }
+        this.cache = new AdObjectCache(maxEntries, timeToLiveMillis, refreshAfterMillis);
+        if (refreshAfterMillis > 0) {
+            this.refreshExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(MAX_PENDING_REFRESHES), runnable -> {
+                Thread thread = new Thread(runnable, "activeDirectoryClientCache-refresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.refreshExecutor = null;
+        }
+        LOG.info("Active directory client cache ready : " + maxEntries + " entries, time to live " + timeToLiveMillis
+                + " ms, refresh after " + refreshAfterMillis + " ms");
+    }
+
+    @Override
+    public AbstractAdObject getByDn(String dn) throws ActiveDirectoryClientException {
+        AdObjectCache.CachedObject cached = cache.getByDn(dn);
+        if (cached != null) {
+            return this.hit(cached);
+        }
+        cache.recordMiss();
+        long loadSequence = cache.getInvalidationSequence();
+        AbstractAdObject result = super.getByDn(dn);
+        cache.put(result, loadSequence);
+        return result;
+    }
+
+    @Override
+    public AbstractAdObject getObjectBySid(String objectSid, String searchBase) throws ActiveDirectoryClientException {
+        String canonicalSid = canonicalize(objectSid);
+        if (canonicalSid == null) {
+            return super.getObjectBySid(objectSid, searchBase);
+        }
+        AdObjectCache.CachedObject cached = cache.getBySid(canonicalSid);
+        if (cached != null && isUnder(cached.getAdObject(), searchBase)) {
+            return this.hit(cached);
+        }
+        cache.recordMiss();
+        long loadSequence = cache.getInvalidationSequence();
+        AbstractAdObject result = super.getObjectBySid(objectSid, searchBase);
+        cache.put(result, loadSequence);
+        return result;
+    }
+
+    @Override
+    public AbstractAdObject getBySAMAccountName(String sAMAccountName, String searchBase) throws ActiveDirectoryClientException {
+        AdObjectCache.CachedObject cached = cache.getBySAMAccountName(sAMAccountName);
+        if (cached != null && isUnder(cached.getAdObject(), searchBase)) {
+            return this.hit(cached);
+        }
+        cache.recordMiss();
+        long loadSequence = cache.getInvalidationSequence();
+        AbstractAdObject result = super.getBySAMAccountName(sAMAccountName, searchBase);
+        cache.put(result, loadSequence);
+        return result;
+    }
+
+    @Override
+    public Set<AbstractAdObject> getObjectsBySid(List<String> sids, String searchBase) throws ActiveDirectoryClientException {
+        BatchLookupResult<AbstractAdObject> resolved = this.resolveSids(sids, searchBase);
+        Set<AbstractAdObject> results = new HashSet<>(resolved.getResolved().values());
+        if (!resolved.getUnresolved().isEmpty()) {
+            // a sid not found was returned as a null element before the lookups were batched
+            results.add(null);
+        }
+        return results;
+    }
+
+    /**
+     * Resolves the sids found in the cache, and forwards the others to the decorated client in a single call
+     */
+    @Override
+    public BatchLookupResult<AbstractAdObject> resolveSids(Collection<String> sids, String searchBase) throws ActiveDirectoryClientException {
+        Map<String, AbstractAdObject> hits = new HashMap<>();
+        List<String> misses = new ArrayList<>();
+        for (String sid : sids) {
+            String canonicalSid = canonicalize(sid);
+            AdObjectCache.CachedObject cached = canonicalSid == null ? null : cache.getBySid(canonicalSid);
+            if (cached != null && isUnder(cached.getAdObject(), searchBase)) {
+                hits.put(sid, this.hit(cached));
+            } else {
+                cache.recordMiss();
+                misses.add(sid);
+            }
+        }
+        if (misses.isEmpty()) {
+            BatchLookupResult<AbstractAdObject> result = new BatchLookupResult<>();
+            for (String sid : sids) {
+                result.addResolved(sid, hits.get(sid));
+            }
+            return result;
+        }
+
+        long loadSequence = cache.getInvalidationSequence();
+        BatchLookupResult<AbstractAdObject> loaded = super.resolveSids(misses, searchBase);
+        for (AbstractAdObject adObject : loaded.getResolved().values()) {
+            cache.put(adObject, loadSequence);
+        }
+        BatchLookupResult<AbstractAdObject> result = new BatchLookupResult<>();
+        for (String sid : sids) {
+            AbstractAdObject adObject = hits.containsKey(sid) ? hits.get(sid) : loaded.getResolved().get(sid);
+            if (adObject != null) {
+                result.addResolved(sid, adObject);
+            } else {
+                result.addUnresolved(sid);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the sids of the groups from the decorated client, and resolves them through the cache
+     */
+    @Override
+    public Set<AdGroup> getEffectiveGroups(String dn, String searchBase) throws ActiveDirectoryClientException {
+        Set<AdGroup> groups = new HashSet<>();
+        Set<String> sids = super.getTokenGroupSids(dn);
+        if (sids.isEmpty()) {
+            return groups;
+        }
+        for (AbstractAdObject adObject : this.resolveSids(sids, searchBase).getResolved().values()) {
+            if (adObject instanceof AdGroup) {
+                groups.add((AdGroup) adObject);
+            }
+        }
+        return groups;
+    }
+
+    @Override
+    public AbstractAdObject getByObjectGuid(String objectGUID) throws ActiveDirectoryClientException {
+        String canonicalGuid = canonicalizeGuid(objectGUID);
+        if (canonicalGuid == null) {
+            return super.getByObjectGuid(objectGUID);
+        }
+        AdObjectCache.CachedObject cached = cache.getByGuid(canonicalGuid);
+        if (cached != null) {
+            return this.hit(cached);
+        }
+        cache.recordMiss();
+        long loadSequence = cache.getInvalidationSequence();
+        AbstractAdObject result = super.getByObjectGuid(objectGUID);
+        cache.put(result, loadSequence);
+        return result;
+    }
+
+    /**
+     * Resolves the objectGUIDs found in the cache, and forwards the others to the decorated client in a single call
+     */
+    @Override
+    public BatchLookupResult<AbstractAdObject> getByObjectGuids(Collection<String> objectGUIDs) throws ActiveDirectoryClientException {
+        Map<String, AbstractAdObject> hits = new HashMap<>();
+        List<String> misses = new ArrayList<>();
+        for (String objectGUID : objectGUIDs) {
+            String canonicalGuid = canonicalizeGuid(objectGUID);
+            AdObjectCache.CachedObject cached = canonicalGuid == null ? null : cache.getByGuid(canonicalGuid);
+            if (cached != null) {
+                hits.put(objectGUID, this.hit(cached));
+            } else {
+                cache.recordMiss();
+                misses.add(objectGUID);
+            }
+        }
+        BatchLookupResult<AbstractAdObject> loaded = new BatchLookupResult<>();
+        if (!misses.isEmpty()) {
+            long loadSequence = cache.getInvalidationSequence();
+            loaded = super.getByObjectGuids(misses);
+            for (AbstractAdObject adObject : loaded.getResolved().values()) {
+                cache.put(adObject, loadSequence);
+            }
+        }
+        BatchLookupResult<AbstractAdObject> result = new BatchLookupResult<>();
+        for (String objectGUID : objectGUIDs) {
+            AbstractAdObject adObject = hits.containsKey(objectGUID) ? hits.get(objectGUID) : loaded.getResolved().get(objectGUID);
+            if (adObject != null) {
+                result.addResolved(objectGUID, adObject);
+            } else {
+                result.addUnresolved(objectGUID);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void deleteByDn(String dn) throws ActiveDirectoryClientException {
+        try {
+            super.deleteByDn(dn);
+        } finally {
+            cache.invalidate(dn);
+        }
+    }
+
+    @Override
+    public AdGroup createSecurityGroup(String dn, String description, String sAMAccountName) throws ActiveDirectoryClientException {
+        try {
+            return super.createSecurityGroup(dn, description, sAMAccountName);
+        } finally {
+            cache.invalidate(dn);
+        }
+    }
+
+    @Override
+    public AdGroup createSecurityGroup(String dn, String description) throws ActiveDirectoryClientException {
+        try {
+            return super.createSecurityGroup(dn, description);
+        } finally {
+            cache.invalidate(dn);
+        }
+    }
+
+    @Override
+    public AdGroup createSecurityGroup(String dn) throws ActiveDirectoryClientException {
+        try {
+            return super.createSecurityGroup(dn);
+        } finally {
+            cache.invalidate(dn);
+        }
+    }
+
+    @Override
+    public void addEntityToGroup(String entityDn, String groupDN) throws ActiveDirectoryClientException {
+        try {
+            super.addEntityToGroup(entityDn, groupDN);
+        } finally {
+            cache.invalidate(entityDn);
+            cache.invalidate(groupDN);
+        }
+    }
+
+    @Override
+    public void removeEntityFromGroup(String entityDn, String groupDn) throws ActiveDirectoryClientException {
+        try {
+            super.removeEntityFromGroup(entityDn, groupDn);
+        } finally {
+            cache.invalidate(entityDn);
+            cache.invalidate(groupDn);
+        }
+    }
+
+    @Override
+    public MembershipChangeReport addEntitiesToGroup(Collection<String> entityDns, String groupDn) throws ActiveDirectoryClientException {
+        try {
+            return super.addEntitiesToGroup(entityDns, groupDn);
+        } finally {
+            entityDns.forEach(cache::invalidate);
+            cache.invalidate(groupDn);
+        }
+    }
+
+    @Override
+    public MembershipChangeReport removeEntitiesFromGroup(Collection<String> entityDns, String groupDn) throws ActiveDirectoryClientException {
+        try {
+            return super.removeEntitiesFromGroup(entityDns, groupDn);
+        } finally {
+            entityDns.forEach(cache::invalidate);
+            cache.invalidate(groupDn);
+        }
+    }
+
+    @Override
+    public void changeEntityDescription(String entityDn, String newDescription) throws ActiveDirectoryClientException {
+        try {
+            super.changeEntityDescription(entityDn, newDescription);
+        } finally {
+            cache.invalidate(entityDn);
+        }
+    }
+
+    /**
+     * Returns the cached object having the given objectGUID, without requesting the ldap server
+     * @param objectGUID the objectGUID, as returned by {@link AbstractAdObject#getObjectGUID()}
+     * @return the cached object, or null if the object is not in the cache
+     */
+    public AbstractAdObject getCachedByObjectGuid(String objectGUID) {
+        AdObjectCache.CachedObject cached = cache.getByGuid(objectGUID);
+        if (cached == null) {
+            cache.recordMiss();
+            return null;
+        }
+        return this.hit(cached);
+    }
+
+    /**
+     * Removes an object from the cache
+     * @param dn the distinguished name of the object
+     */
+    public void invalidate(String dn) {
+        cache.invalidate(dn);
+    }
+
+    /**
+     * Removes all the objects from the cache
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Returns the statistics of the cache
+     * @return a snapshot of the statistics
+     */
+    public CacheStatistics getCacheStatistics() {
+        return cache.getStatistics();
+    }
+
+    /**
+     * Stops the background refreshes and closes the decorated client
+     * @throws Exception if the decorated client cannot be closed
+     */
+    @Override
+    public void close() throws Exception {
+        LOG.info("Closing active directory client cache. " + cache.getStatistics());
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+        super.close();
+    }
+
+    private AbstractAdObject hit(AdObjectCache.CachedObject cached) {
+        cache.recordHit();
+        if (refreshExecutor != null && cached.startRefreshIfDue()) {
+            try {
+                refreshExecutor.execute(() -> this.refresh(cached));
+            } catch (RejectedExecutionException ree) {
+                LOG.debug("Refresh of " + cached.getAdObject().getDistinguishedName() + " rejected : too many pending refreshes");
+                cached.refreshFailed();
+            }
+        }
+        return cached.getAdObject();
+    }
+
+    private void refresh(AdObjectCache.CachedObject cached) {
+        String dn = cached.getAdObject().getDistinguishedName();
+        try {
+            cache.replace(cached, super.getByDn(dn));
+            LOG.debug("Refreshed " + dn);
+        } catch (ActiveDirectoryClientException | RuntimeException e) {
+            LOG.warn("Cannot refresh " + dn + " : " + e.getLocalizedMessage());
+            cached.refreshFailed();
+        }
+    }
+
+    /**
+     * Tells whether the object is in the subtree of the search base, an empty base (whole forest) containing all
+     * the objects
+     */
+    private static boolean isUnder(AbstractAdObject adObject, String searchBase) {
+        if (searchBase == null || searchBase.trim().isEmpty()) {
+            return true;
+        }
+        try {
+            String dn = PathHelpers.getDnKey(new Dn(adObject.getDistinguishedName()));
+            String base = PathHelpers.getDnKey(new Dn(searchBase));
+            return base.isEmpty() || dn.equals(base) || dn.endsWith("," + base);
+        } catch (LdapInvalidDnException e) {
+            // looked up on the server, which reports the invalid base
+            return false;
+        }
+    }
+
+    private static String canonicalizeGuid(String objectGUID) {
+        try {
+            return ObjectGUIDConverter.getObjectGUIDAsString(ObjectGUIDConverter.stringToBytes(objectGUID));
+        } catch (IllegalArgumentException iae) {
+            return null;
+        }
+    }
+
+    private static String canonicalize(String sid) {
+        try {
+            return SidConverter.bytesToString(SidConverter.stringToBytes(sid));
+        } catch (IllegalArgumentException iae) {
+            return null;
+        }
+    }
+}
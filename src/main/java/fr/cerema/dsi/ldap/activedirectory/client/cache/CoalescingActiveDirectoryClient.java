@@ -0,0 +1,386 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.cache;
+
+import fr.cerema.dsi.ldap.activedirectory.client.ActiveDirectoryClient;
+import fr.cerema.dsi.ldap.activedirectory.client.ForwardingActiveDirectoryClient;
+import fr.cerema.dsi.ldap.activedirectory.client.MembershipResolution;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientRequestException;
+import fr.cerema.dsi.ldap.activedirectory.client.model.AbstractAdObject;
+import fr.cerema.dsi.ldap.activedirectory.client.model.AdGroup;
+import fr.cerema.dsi.ldap.activedirectory.client.model.MembershipChangeReport;
+import fr.cerema.dsi.ldap.activedirectory.client.model.OrganizationalUnit;
+import fr.cerema.dsi.ldap.activedirectory.client.utils.ObjectGUIDConverter;
+import fr.cerema.dsi.ldap.activedirectory.client.utils.SidConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * Decorator of an {@link ActiveDirectoryClient} sharing the result of a lookup among the threads asking for it
+ * at the same time
+ * <p>
+ * The lookups are identified by their method and their normalized arguments (dn, sAMAccountName, search base...).
+ * The first thread calling a lookup sends it to the decorated client, the threads calling the same lookup before it
+ * completes wait for its result instead of sending it again, so that a burst of identical lookups takes a single
+ * connection and a single request. An exception thrown by the lookup is thrown to all the waiting threads.
+ * <p>
+ * The writes made through this client are not coalesced, and the lookups called after a write never wait for a lookup
+ * started before it. The returned collections are copied for each thread, the objects are shared and must not be
+ * modified.
+ */
+public class CoalescingActiveDirectoryClient extends ForwardingActiveDirectoryClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CoalescingActiveDirectoryClient.class);
+
+    /**
+     * A lookup of the decorated client
+     */
+    @FunctionalInterface
+    private interface Lookup<T> {
+        T call() throws ActiveDirectoryClientException;
+    }
+
+    private final ConcurrentMap<LookupKey, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder callCount = new LongAdder();
+    private final LongAdder coalescedCount = new LongAdder();
+
+    /**
+     * Constructor
+     * @param delegate the decorated client
+     */
+    public CoalescingActiveDirectoryClient(ActiveDirectoryClient delegate) {
+        super(delegate);
+    }
+
+    /**
+     * Returns the number of lookups sent to the decorated client since the creation of this client
+     * @return the number of lookups sent
+     */
+    public long getCallCount() {
+        return callCount.sum();
+    }
+
+    /**
+     * Returns the number of lookups answered with the result of an identical lookup already running
+     * @return the number of coalesced lookups
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    /**
+     * Returns the number of lookups currently running
+     * @return the number of lookups in flight
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    @Override
+    public AbstractAdObject getByDn(String dn) throws ActiveDirectoryClientException {
+        return this.coalesce(() -> super.getByDn(dn), UnaryOperator.identity(), "getByDn", normalize(dn));
+    }
+
+    @Override
+    public AbstractAdObject getBySAMAccountName(String sAMAccountName, String searchBase) throws ActiveDirectoryClientException {
+        return this.coalesce(() -> super.getBySAMAccountName(sAMAccountName, searchBase), UnaryOperator.identity(),
+                "getBySAMAccountName", normalize(sAMAccountName), normalize(searchBase));
+    }
+
+    @Override
+    public AbstractAdObject getObjectBySid(String objectSid, String searchBase) throws ActiveDirectoryClientException {
+        return this.coalesce(() -> super.getObjectBySid(objectSid, searchBase), UnaryOperator.identity(),
+                "getObjectBySid", canonicalizeSid(objectSid), normalize(searchBase));
+    }
+
+    @Override
+    public AbstractAdObject getByObjectGuid(String objectGUID) throws ActiveDirectoryClientException {
+        return this.coalesce(() -> super.getByObjectGuid(objectGUID), UnaryOperator.identity(),
+                "getByObjectGuid", canonicalizeGuid(objectGUID));
+    }
+
+    @Override
+    public Set<AdGroup> getGroupsForDN(String dn, boolean recursive) throws ActiveDirectoryClientException {
+        return this.coalesce(() -> super.getGroupsForDN(dn, recursive), HashSet::new,
+                "getGroupsForDN", normalize(dn), recursive);
+    }
+
+    @Override
+    public Set<AdGroup> getGroupsForDN(String dn, boolean recursive, MembershipResolution resolution) throws ActiveDirectoryClientException {
+        return this.coalesce(() -> super.getGroupsForDN(dn, recursive, resolution), HashSet::new,
+                "getGroupsForDN", normalize(dn), recursive, resolution);
+    }
+
+    @Override
+    public boolean isDirectMember(String entityDn, String groupDn) throws ActiveDirectoryClientException {
+        return this.coalesce(() -> super.isDirectMember(entityDn, groupDn), UnaryOperator.identity(),
+                "isDirectMember", normalize(entityDn), normalize(groupDn));
+    }
+
+    @Override
+    public boolean isTransitiveMember(String entityDn, String groupDn) throws ActiveDirectoryClientException {
+        return this.coalesce(() -> super.isTransitiveMember(entityDn, groupDn), UnaryOperator.identity(),
+                "isTransitiveMember", normalize(entityDn), normalize(groupDn));
+    }
+
+    @Override
+    public Set<String> getTokenGroupSids(String dn) throws ActiveDirectoryClientException {
+        return this.coalesce(() -> super.getTokenGroupSids(dn), LinkedHashSet::new, "getTokenGroupSids", normalize(dn));
+    }
+
+    @Override
+    public Set<AdGroup> getEffectiveGroups(String dn, String searchBase) throws ActiveDirectoryClientException {
+        return this.coalesce(() -> super.getEffectiveGroups(dn, searchBase), HashSet::new,
+                "getEffectiveGroups", normalize(dn), normalize(searchBase));
+    }
+
+    @Override
+    public Set<AbstractAdObject> getMembersForDN(String dn, boolean recursive) throws ActiveDirectoryClientException {
+        return this.coalesce(() -> super.getMembersForDN(dn, recursive), HashSet::new,
+                "getMembersForDN", normalize(dn), recursive);
+    }
+
+    @Override
+    public Set<AbstractAdObject> getMembersForDN(String dn, boolean recursive, MembershipResolution resolution) throws ActiveDirectoryClientException {
+        return this.coalesce(() -> super.getMembersForDN(dn, recursive, resolution), HashSet::new,
+                "getMembersForDN", normalize(dn), recursive, resolution);
+    }
+
+    @Override
+    public Set<String> findBySAMAccountName(String sAMAccountName, String searchBase) throws ActiveDirectoryClientException {
+        return this.coalesce(() -> super.findBySAMAccountName(sAMAccountName, searchBase), HashSet::new,
+                "findBySAMAccountName", normalize(sAMAccountName), normalize(searchBase));
+    }
+
+    @Override
+    public Set<AbstractAdObject> findByCommonName(String commonName, String searchBase) throws ActiveDirectoryClientException {
+        return this.coalesce(() -> super.findByCommonName(commonName, searchBase), HashSet::new,
+                "findByCommonName", normalize(commonName), normalize(searchBase));
+    }
+
+    @Override
+    public OrganizationalUnit findOrganizationalUnits(String distinguishedName) throws ActiveDirectoryClientException {
+        return this.coalesce(() -> super.findOrganizationalUnits(distinguishedName), UnaryOperator.identity(),
+                "findOrganizationalUnits", normalize(distinguishedName));
+    }
+
+    @Override
+    public void deleteByDn(String dn) throws ActiveDirectoryClientException {
+        try {
+            super.deleteByDn(dn);
+        } finally {
+            this.forgetInFlight();
+        }
+    }
+
+    @Override
+    public AdGroup createSecurityGroup(String dn) throws ActiveDirectoryClientException {
+        try {
+            return super.createSecurityGroup(dn);
+        } finally {
+            this.forgetInFlight();
+        }
+    }
+
+    @Override
+    public AdGroup createSecurityGroup(String dn, String description) throws ActiveDirectoryClientException {
+        try {
+            return super.createSecurityGroup(dn, description);
+        } finally {
+            this.forgetInFlight();
+        }
+    }
+
+    @Override
+    public AdGroup createSecurityGroup(String dn, String description, String sAMAccountName) throws ActiveDirectoryClientException {
+        try {
+            return super.createSecurityGroup(dn, description, sAMAccountName);
+        } finally {
+            this.forgetInFlight();
+        }
+    }
+
+    @Override
+    public void addEntityToGroup(String entityDn, String groupDN) throws ActiveDirectoryClientException {
+        try {
+            super.addEntityToGroup(entityDn, groupDN);
+        } finally {
+            this.forgetInFlight();
+        }
+    }
+
+    @Override
+    public void removeEntityFromGroup(String entityDn, String groupDn) throws ActiveDirectoryClientException {
+        try {
+            super.removeEntityFromGroup(entityDn, groupDn);
+        } finally {
+            this.forgetInFlight();
+        }
+    }
+
+    @Override
+    public MembershipChangeReport addEntitiesToGroup(Collection<String> entityDns, String groupDn) throws ActiveDirectoryClientException {
+        try {
+            return super.addEntitiesToGroup(entityDns, groupDn);
+        } finally {
+            this.forgetInFlight();
+        }
+    }
+
+    @Override
+    public MembershipChangeReport removeEntitiesFromGroup(Collection<String> entityDns, String groupDn) throws ActiveDirectoryClientException {
+        try {
+            return super.removeEntitiesFromGroup(entityDns, groupDn);
+        } finally {
+            this.forgetInFlight();
+        }
+    }
+
+    @Override
+    public void changeEntityDescription(String entityDn, String newDescription) throws ActiveDirectoryClientException {
+        try {
+            super.changeEntityDescription(entityDn, newDescription);
+        } finally {
+            this.forgetInFlight();
+        }
+    }
+
+    /**
+     * Runs the lookup, or waits for the result of the identical lookup already running
+     * @param lookup the lookup of the decorated client
+     * @param copy the copy of the result given to each caller, the result shared through the future being only read
+     * @param method the name of the method
+     * @param arguments the normalized arguments of the lookup
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T coalesce(Lookup<T> lookup, UnaryOperator<T> copy, String method, Object... arguments)
+            throws ActiveDirectoryClientException {
+        LookupKey key = new LookupKey(method, arguments);
+        CompletableFuture<Object> call = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(key, call);
+        if (running != null) {
+            coalescedCount.increment();
+            LOG.debug(key + " coalesced with the running lookup");
+            T result = (T) await(running);
+            return result == null ? null : copy.apply(result);
+        }
+        callCount.increment();
+        try {
+            T result = lookup.call();
+            call.complete(result);
+            // the waiting threads copy the result concurrently : the running thread gets its own copy as well
+            return result == null ? null : copy.apply(result);
+        } catch (ActiveDirectoryClientException | RuntimeException e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, call);
+        }
+    }
+
+    private static Object await(CompletableFuture<Object> running) throws ActiveDirectoryClientException {
+        try {
+            return running.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new ActiveDirectoryClientRequestException("Interrupted while waiting for the result of the lookup.", ie);
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof ActiveDirectoryClientException) {
+                throw (ActiveDirectoryClientException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new ActiveDirectoryClientRequestException("An error occured while requesting the ldap server.", cause);
+        }
+    }
+
+    /**
+     * Makes the lookups called from now on run again, instead of waiting for the lookups started before a write
+     */
+    private void forgetInFlight() {
+        inFlight.clear();
+    }
+
+    private static String normalize(String value) {
+        return value == null ? null : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static String canonicalizeSid(String sid) {
+        try {
+            return SidConverter.bytesToString(SidConverter.stringToBytes(sid));
+        } catch (IllegalArgumentException iae) {
+            return sid;
+        }
+    }
+
+    private static String canonicalizeGuid(String objectGUID) {
+        try {
+            return ObjectGUIDConverter.getObjectGUIDAsString(ObjectGUIDConverter.stringToBytes(objectGUID));
+        } catch (IllegalArgumentException iae) {
+            return objectGUID;
+        }
+    }
+
+    /**
+     * The method and the normalized arguments of a lookup
+     */
+    private static final class LookupKey {
+        private final String method;
+        private final Object[] arguments;
+        private final int hash;
+
+        LookupKey(String method, Object[] arguments) {
+            this.method = method;
+            this.arguments = arguments;
+            this.hash = 31 * method.hashCode() + Arrays.hashCode(arguments);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof LookupKey)) return false;
+            LookupKey that = (LookupKey) o;
+            return method.equals(that.method) && Arrays.equals(arguments, that.arguments);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return method + Arrays.toString(arguments);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.cache;
+
+import fr.cerema.dsi.ldap.activedirectory.client.ActiveDirectoryClient;
+import fr.cerema.dsi.ldap.activedirectory.client.ForwardingActiveDirectoryClient;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientException;
+import fr.cerema.dsi.ldap.activedirectory.client.model.OrganizationalUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decorator of an {@link ActiveDirectoryClient} answering {@link #findOrganizationalUnits(String)} from an
+ * {@link OrganizationalUnitHierarchyCache}
+ * <p>
+ * A path missing from the cache, for instance a unit created since the last refresh, is requested from the
+ * decorated client. The description changes and deletions of units made through this client refresh the cache.
+ * <p>
+ * The returned units are shared by the callers : their lists of children and their additional attributes are
+ * unmodifiable, and their setters must not be called.
+ */
+public class OrganizationalUnitCachingActiveDirectoryClient extends ForwardingActiveDirectoryClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OrganizationalUnitCachingActiveDirectoryClient.class);
+
+    private final OrganizationalUnitHierarchyCache cache;
+
+    /**
+     * Constructor
+     * @param delegate the decorated client
+     * @param cache the cache of the organizational units
+     */
+    public OrganizationalUnitCachingActiveDirectoryClient(ActiveDirectoryClient delegate,
+                                                          OrganizationalUnitHierarchyCache cache) {
+        super(delegate);
+        this.cache = cache;
+    }
+
+    @Override
+    public OrganizationalUnit findOrganizationalUnits(String path) throws ActiveDirectoryClientException {
+        OrganizationalUnit unit = cache.getHierarchy().getByPath(path);
+        if (unit != null) {
+            return unit;
+        }
+        LOG.debug("Organizational unit " + path + " not cached");
+        return super.findOrganizationalUnits(path);
+    }
+
+    @Override
+    public void deleteByDn(String dn) throws ActiveDirectoryClientException {
+        boolean cached = this.isCached(dn);
+        super.deleteByDn(dn);
+        if (cached) {
+            cache.refresh();
+        }
+    }
+
+    @Override
+    public void changeEntityDescription(String entityDn, String newDescription) throws ActiveDirectoryClientException {
+        super.changeEntityDescription(entityDn, newDescription);
+        if (this.isCached(entityDn)) {
+            cache.refresh();
+        }
+    }
+
+    /**
+     * Returns the cache of the organizational units
+     * @return the cache
+     */
+    public OrganizationalUnitHierarchyCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Stops the background refreshes and closes the decorated client
+     * @throws Exception if the decorated client cannot be closed
+     */
+    @Override
+    public void close() throws Exception {
+        cache.close();
+        super.close();
+    }
+
+    private boolean isCached(String dn) throws ActiveDirectoryClientException {
+        return cache.getHierarchy().getByDn(dn) != null;
+    }
+}
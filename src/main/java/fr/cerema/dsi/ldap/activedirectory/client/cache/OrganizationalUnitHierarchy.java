@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.cache;
+
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientInvalidDnException;
+import fr.cerema.dsi.ldap.activedirectory.client.model.OrganizationalUnit;
+import fr.cerema.dsi.ldap.activedirectory.client.utils.PathHelpers;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.name.Dn;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the organizational units under the root of the paths, indexed by path, dn and objectGUID
+ * <p>
+ * The units are linked to their children and hold their path and description path, so that a subtree is
+ * returned without any computation. The units are shared by the callers : their lists of children and their additional
+ * attributes are unmodifiable, and their setters must not be called.
+ */
+public class OrganizationalUnitHierarchy {
+
+    private final Map<String, OrganizationalUnit> records;
+    private final String rootDescription;
+    private final Map<String, OrganizationalUnit> unitsByPath;
+    private final Map<String, OrganizationalUnit> unitsByDn;
+    private final Map<String, OrganizationalUnit> unitsByGuid;
+    private final long loadTime = System.currentTimeMillis();
+
+    /**
+     * Builds the hierarchy
+     * @param records the units as read from the directory, without children, by normalized objectGUID
+     * @param rootDnKey the key of the dn of the root of the paths, see {@link PathHelpers#getDnKey(Dn)}
+     * @param rootDescription the description of the root of the paths, or null if it has none
+     * @throws ActiveDirectoryClientException if the dn of a unit is not valid
+     */
+    OrganizationalUnitHierarchy(Map<String, OrganizationalUnit> records, String rootDnKey, String rootDescription)
+            throws ActiveDirectoryClientException {
+        this.records = Collections.unmodifiableMap(records);
+        this.rootDescription = rootDescription;
+        Map<String, OrganizationalUnit> byPath = new HashMap<>(records.size() * 2);
+        Map<String, OrganizationalUnit> byDn = new HashMap<>(records.size() * 2);
+        Map<String, OrganizationalUnit> byGuid = new HashMap<>(records.size() * 2);
+        List<OrganizationalUnit> units = new ArrayList<>(records.size());
+        List<String> parentKeys = new ArrayList<>(records.size());
+        for (Map.Entry<String, OrganizationalUnit> record : records.entrySet()) {
+            OrganizationalUnit unit = copy(record.getValue());
+            try {
+                Dn dn = new Dn(unit.getDistinguishedName());
+                byDn.put(PathHelpers.getDnKey(dn), unit);
+                units.add(unit);
+                parentKeys.add(PathHelpers.getDnKey(dn.getParent()));
+            } catch (LdapInvalidDnException e) {
+                throw new ActiveDirectoryClientInvalidDnException(unit.getDistinguishedName() + " is not a valid distinguishedName", e);
+            }
+            byPath.put(normalize(unit.getPath()), unit);
+            byGuid.put(record.getKey(), unit);
+        }
+
+        // children are linked in the order of the records, the top level units being the children of the root
+        Deque<OrganizationalUnit> toDescribe = new ArrayDeque<>();
+        for (int i = 0; i < units.size(); i++) {
+            OrganizationalUnit unit = units.get(i);
+            OrganizationalUnit parent = byDn.get(parentKeys.get(i));
+            if (parent != null) {
+                parent.getOrganizationalUnits().add(unit);
+                continue;
+            }
+            // units held by another kind of container start their own description path
+            boolean underRoot = parentKeys.get(i).equals(rootDnKey) && rootDescription != null && !rootDescription.isEmpty();
+            unit.setDescriptionPath(underRoot ? rootDescription + "/" + unit.getDescription() : unit.getDescription());
+            toDescribe.push(unit);
+        }
+        while (!toDescribe.isEmpty()) {
+            OrganizationalUnit unit = toDescribe.pop();
+            for (OrganizationalUnit child : unit.getOrganizationalUnits()) {
+                child.setDescriptionPath(unit.getDescriptionPath() + "/" + child.getDescription());
+                toDescribe.push(child);
+            }
+        }
+        for (OrganizationalUnit unit : units) {
+            unit.setOrganizationalUnits(Collections.unmodifiableList(unit.getOrganizationalUnits()));
+        }
+        this.unitsByPath = byPath;
+        this.unitsByDn = byDn;
+        this.unitsByGuid = byGuid;
+    }
+
+    /**
+     * Returns the unit of the given path, with its subtree
+     * @param path the path of the unit, relative to the root of the paths (for instance DIR/SERVICE)
+     * @return the unit, or null if there is no unit with this path
+     */
+    public OrganizationalUnit getByPath(String path) {
+        return path == null ? null : unitsByPath.get(normalize(path));
+    }
+
+    /**
+     * Returns the unit of the given dn, with its subtree
+     * @param dn the dn of the unit
+     * @return the unit, or null if there is no unit with this dn or if the dn is not valid
+     */
+    public OrganizationalUnit getByDn(String dn) {
+        if (dn == null) {
+            return null;
+        }
+        try {
+            return unitsByDn.get(PathHelpers.getDnKey(new Dn(dn)));
+        } catch (LdapInvalidDnException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the unit of the given objectGUID, with its subtree
+     * @param objectGUID the objectGUID of the unit, as returned by {@link OrganizationalUnit#getObjectGUID()}
+     * @return the unit, or null if there is no unit with this objectGUID
+     */
+    public OrganizationalUnit getByObjectGUID(String objectGUID) {
+        return objectGUID == null ? null : unitsByGuid.get(normalize(objectGUID));
+    }
+
+    /**
+     * Returns the number of units of the hierarchy
+     * @return the number of units
+     */
+    public int size() {
+        return records.size();
+    }
+
+    /**
+     * Returns the time this snapshot was built
+     * @return the time in milliseconds since the epoch
+     */
+    public long getLoadTime() {
+        return loadTime;
+    }
+
+    /**
+     * Returns the units as read from the directory, without children, by normalized objectGUID
+     */
+    Map<String, OrganizationalUnit> getRecords() {
+        return records;
+    }
+
+    /**
+     * Returns the description of the root of the paths
+     */
+    String getRootDescription() {
+        return rootDescription;
+    }
+
+    static String normalize(String key) {
+        return key.toLowerCase(Locale.ROOT);
+    }
+
+    private static OrganizationalUnit copy(OrganizationalUnit record) {
+        OrganizationalUnit unit = new OrganizationalUnit();
+        unit.setPath(record.getPath());
+        unit.setObjectGUID(record.getObjectGUID());
+        unit.setDistinguishedName(record.getDistinguishedName());
+        unit.setDescription(record.getDescription());
+        Map<String, List<String>> additionalAttributes = new HashMap<>();
+        for (Map.Entry<String, List<String>> attribute : record.getAdditionalAttributes().entrySet()) {
+            additionalAttributes.put(attribute.getKey(), Collections.unmodifiableList(new ArrayList<>(attribute.getValue())));
+        }
+        unit.setAdditionalAttributes(Collections.unmodifiableMap(additionalAttributes));
+        return unit;
+    }
+
+    @Override
+    public String toString() {
+        return "OrganizationalUnitHierarchy{" +
+                "units=" + records.size() +
+                ", loadTime=" + loadTime +
+                '}';
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.cache;
+
+import fr.cerema.dsi.ldap.activedirectory.client.ActiveDirectoryClientImpl;
+import fr.cerema.dsi.ldap.activedirectory.client.AdEntryMapper;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientConnectionException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientInvalidDnException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientRequestException;
+import fr.cerema.dsi.ldap.activedirectory.client.model.OrganizationalUnit;
+import fr.cerema.dsi.ldap.activedirectory.client.pool.LdapConnectionSource;
+import fr.cerema.dsi.ldap.activedirectory.client.search.PagedSearch;
+import fr.cerema.dsi.ldap.activedirectory.client.sync.DirectorySynchronizer;
+import fr.cerema.dsi.ldap.activedirectory.client.utils.ObjectGUIDConverter;
+import fr.cerema.dsi.ldap.activedirectory.client.utils.PathHelpers;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.controls.OpaqueControl;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static fr.cerema.dsi.ldap.activedirectory.client.ActiveDirectoryClient.AD_ORGANIZATIONAL_UNIT_CLASS;
+
+/**
+ * Resident cache of the organizational units under the root of the paths
+ * <p>
+ * The units are loaded with a single paged search into an {@link OrganizationalUnitHierarchy}. The hierarchy is then
+ * refreshed in background : only the units whose uSNChanged is above the watermark of the previous refresh are read,
+ * along with the units deleted since, and a new hierarchy replaces the previous one in a single step, so that the
+ * readers always see a consistent snapshot. A rename or a move of a unit, which changes the dn of its whole subtree,
+ * as well as a change of domain controller, reloads all the units.
+ */
+public class OrganizationalUnitHierarchyCache implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OrganizationalUnitHierarchyCache.class);
+
+    private static final String OU_FILTER = "(objectClass=" + AD_ORGANIZATIONAL_UNIT_CLASS + ")";
+
+    private final LdapConnectionSource ldapConnectionPool;
+    private final AdEntryMapper entryMapper;
+    private final String[] attributes;
+    private final int pageSize;
+    private final String rootDn;
+    private final String rootDnKey;
+    private final String domainDn;
+    private final ScheduledExecutorService refreshExecutor;
+
+    private volatile OrganizationalUnitHierarchy hierarchy;
+    private long highestCommittedUsn;
+    private String serverName;
+
+    /**
+     * Creates a cache of the units under {@link PathHelpers#PATH_ROOT_DN}, using the connections and the configuration
+     * of the given client
+     * @param client the client
+     * @param refreshIntervalMillis the delay between two background refreshes, 0 to refresh only on demand
+     * @throws ActiveDirectoryClientException if the root of the paths is not a valid dn
+     */
+    public OrganizationalUnitHierarchyCache(ActiveDirectoryClientImpl client, long refreshIntervalMillis)
+            throws ActiveDirectoryClientException {
+        this(client.getLdapConnectionPool(), client.getEntryMapper(), client.getOrganizationalUnitAttributes(),
+                client.getPageSize(), PathHelpers.PATH_ROOT_DN, refreshIntervalMillis);
+    }
+
+    /**
+     * Constructor
+     * @param ldapConnectionPool the pool the connections are taken from
+     * @param entryMapper the mapper building the units
+     * @param organizationalUnitAttributes the attributes needed by the mapper
+     * @param pageSize the page size of the searches
+     * @param rootDn the dn of the root of the paths, which is not part of the hierarchy
+     * @param refreshIntervalMillis the delay between two background refreshes, 0 to refresh only on demand
+     * @throws ActiveDirectoryClientException if the rootDn is not a valid dn
+     */
+    public OrganizationalUnitHierarchyCache(LdapConnectionSource ldapConnectionPool, AdEntryMapper entryMapper,
+                                            String[] organizationalUnitAttributes, int pageSize, String rootDn,
+                                            long refreshIntervalMillis) throws ActiveDirectoryClientException {
+        if (refreshIntervalMillis < 0) {
+            throw new IllegalArgumentException("Refresh interval must be positive, got " + refreshIntervalMillis);
+        }
+        this.ldapConnectionPool = ldapConnectionPool;
+        this.entryMapper = entryMapper;
+        this.attributes = Arrays.copyOf(organizationalUnitAttributes, organizationalUnitAttributes.length + 1);
+        this.attributes[organizationalUnitAttributes.length] = "uSNChanged";
+        this.pageSize = pageSize;
+        this.rootDn = rootDn;
+        this.rootDnKey = dnKey(rootDn);
+        this.domainDn = PathHelpers.getDomainDn(rootDn);
+        if (refreshIntervalMillis > 0) {
+            this.refreshExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "activeDirectoryClient-organizationalUnits");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.refreshExecutor.scheduleWithFixedDelay(this::backgroundRefresh, refreshIntervalMillis,
+                    refreshIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.refreshExecutor = null;
+        }
+    }
+
+    /**
+     * Returns the current snapshot of the units, loading it on the first call
+     * @return the hierarchy
+     * @throws ActiveDirectoryClientException if the units cannot be loaded
+     */
+    public OrganizationalUnitHierarchy getHierarchy() throws ActiveDirectoryClientException {
+        OrganizationalUnitHierarchy current = hierarchy;
+        if (current == null) {
+            this.refresh();
+            current = hierarchy;
+        }
+        return current;
+    }
+
+    /**
+     * Reads the changes made to the units since the previous refresh (all the units on the first call)
+     * and publishes a new snapshot if some units changed
+     * @throws ActiveDirectoryClientException if an exception occurs while requesting the ldap server, the current
+     * snapshot being kept
+     */
+    public synchronized void refresh() throws ActiveDirectoryClientException {
+        long start = System.currentTimeMillis();
+        // the watermark of a domain controller is only valid on it : all the requests are sent to the same one
+        LdapConnectionSource connections = this.pinConnections();
+        String[] rootDse = this.readRootDse(connections);
+        long usn = Long.parseLong(rootDse[0]);
+        OrganizationalUnitHierarchy current = hierarchy;
+        OrganizationalUnitHierarchy next = null;
+        if (current != null && rootDse[1] != null && rootDse[1].equals(serverName)) {
+            next = this.readChanges(connections, current);
+            if (next == current) {
+                highestCommittedUsn = usn;
+                return;
+            }
+        }
+        if (next == null) {
+            next = this.load(connections);
+        }
+        hierarchy = next;
+        highestCommittedUsn = usn;
+        serverName = rootDse[1];
+        LOG.info("Organizational units hierarchy refreshed in " + (System.currentTimeMillis() - start) + " ms : "
+                + next.size() + " units");
+    }
+
+    /**
+     * Stops the background refreshes
+     */
+    @Override
+    public void close() {
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+    }
+
+    private void backgroundRefresh() {
+        try {
+            this.refresh();
+        } catch (ActiveDirectoryClientException | RuntimeException e) {
+            LOG.warn("Cannot refresh the organizational units hierarchy, keeping the previous one : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads all the units under the root
+     */
+    private OrganizationalUnitHierarchy load(LdapConnectionSource connections) throws ActiveDirectoryClientException {
+        Map<String, OrganizationalUnit> records = new LinkedHashMap<>();
+        String rootDescription = null;
+        try (PagedSearch pagedSearch = new PagedSearch(connections,
+                PagedSearch.createSearchRequest(rootDn, OU_FILTER, SearchScope.SUBTREE, attributes), pageSize)) {
+            Entry entry;
+            while ((entry = pagedSearch.nextEntry()) != null) {
+                if (PathHelpers.getDnKey(entry.getDn()).equals(rootDnKey)) {
+                    rootDescription = getDescription(entry);
+                } else {
+                    this.put(records, entry);
+                }
+            }
+        }
+        return new OrganizationalUnitHierarchy(records, rootDnKey, rootDescription);
+    }
+
+    /**
+     * Applies the changes made since the watermark to the units of the current snapshot
+     * @return the new snapshot, the current one if nothing changed, or null if all the units must be reloaded
+     */
+    private OrganizationalUnitHierarchy readChanges(LdapConnectionSource connections, OrganizationalUnitHierarchy current)
+            throws ActiveDirectoryClientException {
+        Map<String, OrganizationalUnit> records = new LinkedHashMap<>(current.getRecords());
+        String rootDescription = current.getRootDescription();
+        String usnFilter = "(uSNChanged>=" + (highestCommittedUsn + 1) + ")";
+        int changed = 0;
+        List<String> created = new ArrayList<>();
+
+        // searched from the domain so that the units moved out of the root are seen
+        try (PagedSearch pagedSearch = new PagedSearch(connections, PagedSearch.createSearchRequest(domainDn,
+                "(&" + OU_FILTER + usnFilter + ")", SearchScope.SUBTREE, attributes), pageSize)) {
+            Entry entry;
+            while ((entry = pagedSearch.nextEntry()) != null) {
+                String key = PathHelpers.getDnKey(entry.getDn());
+                if (key.equals(rootDnKey)) {
+                    rootDescription = getDescription(entry);
+                    changed++;
+                    continue;
+                }
+                OrganizationalUnit previous = records.get(getObjectGUID(entry));
+                if (previous != null && !dnKey(previous.getDistinguishedName()).equals(key)) {
+                    LOG.debug("Organizational unit " + previous.getDistinguishedName() + " renamed or moved to " + entry.getDn());
+                    return null;
+                }
+                if (!key.endsWith("," + rootDnKey)) {
+                    continue;
+                }
+                if (previous == null) {
+                    created.add(entry.getDn().getName());
+                }
+                this.put(records, entry);
+                changed++;
+            }
+        }
+
+        // a unit moved under the root comes with its subtree, whose uSNChanged did not change
+        for (String createdDn : created) {
+            try (PagedSearch pagedSearch = new PagedSearch(connections,
+                    PagedSearch.createSearchRequest(createdDn, OU_FILTER, SearchScope.ONELEVEL, attributes), pageSize)) {
+                if (pagedSearch.nextEntry() != null) {
+                    LOG.debug("Organizational unit " + createdDn + " moved under the root with its subtree");
+                    return null;
+                }
+            }
+        }
+
+        SearchRequest deletedRequest = PagedSearch.createSearchRequest(domainDn,
+                "(&(isDeleted=TRUE)" + OU_FILTER + usnFilter + ")", SearchScope.SUBTREE, "objectGUID", "isDeleted");
+        deletedRequest.addControl(new OpaqueControl(DirectorySynchronizer.SHOW_DELETED_OID, true));
+        try (PagedSearch pagedSearch = new PagedSearch(connections, deletedRequest, pageSize)) {
+            Entry entry;
+            while ((entry = pagedSearch.nextEntry()) != null) {
+                if (records.remove(getObjectGUID(entry)) != null) {
+                    changed++;
+                }
+            }
+        }
+        if (changed == 0) {
+            return current;
+        }
+        LOG.debug(changed + " organizational units changed since uSN " + highestCommittedUsn);
+        return new OrganizationalUnitHierarchy(records, rootDnKey, rootDescription);
+    }
+
+    private void put(Map<String, OrganizationalUnit> records, Entry entry) throws ActiveDirectoryClientException {
+        OrganizationalUnit unit = entryMapper.toOrganizationalUnit(entry);
+        records.put(OrganizationalUnitHierarchy.normalize(unit.getObjectGUID()), unit);
+    }
+
+    /**
+     * Returns the highestCommittedUSN and the dsServiceName of the server
+     */
+    private String[] readRootDse(LdapConnectionSource connections) throws ActiveDirectoryClientException {
+        try {
+            LdapConnection ldapConnection = connections.getConnection();
+            LOG.debug("Successfully got connection from pool");
+            try {
+                Entry entry = ldapConnection.getRootDse("highestCommittedUSN", "dsServiceName");
+                Attribute usn = entry.get("highestCommittedUSN");
+                Attribute server = entry.get("dsServiceName");
+                if (usn == null) {
+                    throw new ActiveDirectoryClientRequestException("No highestCommittedUSN in the RootDSE of the server.");
+                }
+                return new String[] {usn.getString(), server == null ? null : server.getString()};
+            } catch (LdapException lde) {
+                LOG.error("An error occured while requesting the ldap server.");
+                LOG.error("Message from  Server is :" + lde.getLocalizedMessage());
+                throw new ActiveDirectoryClientRequestException("An error occured while requesting the ldap server.", lde);
+            } finally {
+                connections.releaseConnection(ldapConnection);
+                LOG.debug("Successfully released connection to pool");
+            }
+        } catch (LdapException lde) {
+            LOG.error("Cannot get/release LdapConnection from/to pool.");
+            throw new ActiveDirectoryClientConnectionException("Cannot get/release LdapConnection from/to pool.", lde);
+        }
+    }
+
+    /**
+     * Returns the connections to the domain controller answering all the requests of a refresh
+     */
+    private LdapConnectionSource pinConnections() throws ActiveDirectoryClientException {
+        try {
+            return ldapConnectionPool.pin();
+        } catch (LdapException lde) {
+            LOG.error("Cannot get LdapConnection from pool.");
+            throw new ActiveDirectoryClientConnectionException("Cannot get/release LdapConnection from/to pool.", lde);
+        }
+    }
+
+    private static String getDescription(Entry entry) throws ActiveDirectoryClientException {
+        Attribute description = entry.get("description");
+        try {
+            return description == null ? null : description.getString();
+        } catch (LdapException lde) {
+            throw new ActiveDirectoryClientRequestException("Cannot read the description of " + entry.getDn(), lde);
+        }
+    }
+
+    private static String getObjectGUID(Entry entry) throws ActiveDirectoryClientException {
+        try {
+            return OrganizationalUnitHierarchy.normalize(
+                    ObjectGUIDConverter.getObjectGUIDAsString(entry.get("objectGUID").getBytes()));
+        } catch (LdapException lde) {
+            throw new ActiveDirectoryClientRequestException("Cannot read the objectGUID of " + entry.getDn(), lde);
+        }
+    }
+
+    private static String dnKey(String dn) throws ActiveDirectoryClientException {
+        try {
+            return PathHelpers.getDnKey(new Dn(dn));
+        } catch (LdapInvalidDnException e) {
+            throw new ActiveDirectoryClientInvalidDnException(dn + " is not a valid distinguishedName", e);
+        }
+    }
+}
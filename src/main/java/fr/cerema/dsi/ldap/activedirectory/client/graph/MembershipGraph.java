@@ -0,0 +1,420 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.graph;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Immutable, in-memory index of the group memberships of a directory
+ * <p>
+ * Every user, group or member dn gets a dense int id. The member links are stored twice in compressed sparse row
+ * layout : for the group of id <i>g</i>, its members are <code>members[memberOffsets[g] .. memberOffsets[g+1]-1]</code>,
+ * and the groups of the object of id <i>m</i> are <code>groups[groupOffsets[m] .. groupOffsets[m+1]-1]</code>.
+ * Dns and objectGUIDs are found through open addressing tables of ids, so that no per-node object is allocated
+ * apart from the dn strings. A directory of 300 000 users and 60 000 groups with a million member links takes
+ * about 20 MB plus the dns.
+ * <p>
+ * The transitive walks mark the visited nodes in an <code>int[nodeCount]</code> : at most
+ * {@value #MAX_IDLE_TRAVERSALS} of them are kept between two walks (about 6 MB more for the directory above),
+ * the concurrent walks beyond them allocating their own.
+ * <p>
+ * Like the member attribute, the graph ignores primary group memberships (primaryGroupID).
+ * <p>
+ * Instances are thread safe. They are built by {@link MembershipGraphBuilder}, or loaded from the directory by
+ * {@link MembershipGraphLoader}.
+ */
+public class MembershipGraph {
+
+    /**
+     * Id returned for an unknown dn or objectGUID
+     */
+    public static final int NO_ID = -1;
+
+    static final byte UNKNOWN = 0;
+    static final byte USER = 1;
+    static final byte GROUP = 2;
+
+    /**
+     * Maximum number of walk states kept for reuse
+     */
+    static final int MAX_IDLE_TRAVERSALS = 4;
+
+    private final String[] dns;
+    private final long[] guidHighs;
+    private final long[] guidLows;
+    private final byte[] types;
+    private final int[] memberOffsets;
+    private final int[] members;
+    private final int[] groupOffsets;
+    private final int[] groups;
+    private final int[] dnTable;
+    private final int[] guidTable;
+
+    private final BlockingQueue<Traversal> idleTraversals = new ArrayBlockingQueue<>(MAX_IDLE_TRAVERSALS);
+
+    MembershipGraph(String[] dns, long[] guidHighs, long[] guidLows, byte[] types, int[] memberOffsets, int[] members,
+                    int[] groupOffsets, int[] groups) {
+        this.dns = dns;
+        this.guidHighs = guidHighs;
+        this.guidLows = guidLows;
+        this.types = types;
+        this.memberOffsets = memberOffsets;
+        this.members = members;
+        this.groupOffsets = groupOffsets;
+        this.groups = groups;
+        this.dnTable = new int[tableSize(dns.length)];
+        this.guidTable = new int[tableSize(dns.length)];
+        for (int id = 0; id < dns.length; id++) {
+            insert(dnTable, hashDn(dns[id]), id);
+            if (guidHighs[id] != 0 || guidLows[id] != 0) {
+                insert(guidTable, hashGuid(guidHighs[id], guidLows[id]), id);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of nodes (users, groups and unknown members)
+     * @return the number of nodes
+     */
+    public int getNodeCount() {
+        return dns.length;
+    }
+
+    /**
+     * Returns the number of member links
+     * @return the number of links
+     */
+    public int getLinkCount() {
+        return members.length;
+    }
+
+    /**
+     * Returns the id of a dn
+     * @param dn the distinguished name, as returned by the server (compared case insensitively)
+     * @return the id, or {@link #NO_ID} if the dn is unknown
+     */
+    public int idOf(String dn) {
+        int mask = dnTable.length - 1;
+        for (int slot = hashDn(dn) & mask; dnTable[slot] != 0; slot = (slot + 1) & mask) {
+            int id = dnTable[slot] - 1;
+            if (dns[id].equalsIgnoreCase(dn)) {
+                return id;
+            }
+        }
+        return NO_ID;
+    }
+
+    /**
+     * Returns the id of an objectGUID
+     * @param objectGUID the objectGUID, as returned by
+     *                   {@link fr.cerema.dsi.ldap.activedirectory.client.model.AbstractAdObject#getObjectGUID()}
+     * @return the id, or {@link #NO_ID} if the objectGUID is unknown or invalid
+     */
+    public int idOfObjectGuid(String objectGUID) {
+        long[] guid = parseGuid(objectGUID);
+        if (guid == null) {
+            return NO_ID;
+        }
+        int mask = guidTable.length - 1;
+        for (int slot = hashGuid(guid[0], guid[1]) & mask; guidTable[slot] != 0; slot = (slot + 1) & mask) {
+            int id = guidTable[slot] - 1;
+            if (guidHighs[id] == guid[0] && guidLows[id] == guid[1]) {
+                return id;
+            }
+        }
+        return NO_ID;
+    }
+
+    /**
+     * Returns the dn of a node
+     * @param id the id of the node
+     * @return the distinguished name
+     */
+    public String getDn(int id) {
+        return dns[id];
+    }
+
+    /**
+     * Tells whether a node is a group
+     * @param id the id of the node
+     * @return true for a group
+     */
+    public boolean isGroup(int id) {
+        return types[id] == GROUP;
+    }
+
+    /**
+     * Tells whether a node is a user
+     * @param id the id of the node
+     * @return true for a user
+     */
+    public boolean isUser(int id) {
+        return types[id] == USER;
+    }
+
+    /**
+     * Returns the direct members of a group
+     * @param groupId the id of the group
+     * @return the ids of the members
+     */
+    public int[] getDirectMembers(int groupId) {
+        return Arrays.copyOfRange(members, memberOffsets[groupId], memberOffsets[groupId + 1]);
+    }
+
+    /**
+     * Returns the groups a node is directly member of
+     * @param id the id of the node
+     * @return the ids of the groups
+     */
+    public int[] getDirectGroups(int id) {
+        return Arrays.copyOfRange(groups, groupOffsets[id], groupOffsets[id + 1]);
+    }
+
+    /**
+     * Returns the members of a group and of its member groups, recursively
+     * @param groupId the id of the group
+     * @return the ids of the members, in breadth first order
+     */
+    public int[] getTransitiveMembers(int groupId) {
+        Traversal traversal = this.borrowTraversal();
+        try {
+            return traversal.toArray(traversal.walk(groupId, memberOffsets, members, NO_ID));
+        } finally {
+            idleTraversals.offer(traversal);
+        }
+    }
+
+    /**
+     * Returns the groups a node is member of, directly or through other groups
+     * @param id the id of the node
+     * @return the ids of the groups, in breadth first order
+     */
+    public int[] getTransitiveGroups(int id) {
+        Traversal traversal = this.borrowTraversal();
+        try {
+            return traversal.toArray(traversal.walk(id, groupOffsets, groups, NO_ID));
+        } finally {
+            idleTraversals.offer(traversal);
+        }
+    }
+
+    /**
+     * Tells whether a node is member of a group, directly or through other groups
+     * @param id the id of the node
+     * @param groupId the id of the group
+     * @return true if the node is a transitive member of the group, a group being member of itself only through a cycle
+     */
+    public boolean isMemberOf(int id, int groupId) {
+        if (groupOffsets[id] == groupOffsets[id + 1] || memberOffsets[groupId] == memberOffsets[groupId + 1]) {
+            return false;
+        }
+        Traversal traversal = this.borrowTraversal();
+        try {
+            traversal.walk(id, groupOffsets, groups, groupId);
+            return traversal.isReached(groupId);
+        } finally {
+            idleTraversals.offer(traversal);
+        }
+    }
+
+    /**
+     * Returns the dns of the members of a group and of its member groups, recursively
+     * @param groupDn the distinguished name of the group
+     * @return the distinguished names of the members, empty if the group is unknown
+     */
+    public Set<String> getTransitiveMembers(String groupDn) {
+        int id = this.idOf(groupDn);
+        return id == NO_ID ? new LinkedHashSet<>() : this.toDns(this.getTransitiveMembers(id));
+    }
+
+    /**
+     * Returns the dns of the groups an object is member of, directly or through other groups
+     * @param dn the distinguished name of the object
+     * @return the distinguished names of the groups, empty if the object is unknown
+     */
+    public Set<String> getTransitiveGroups(String dn) {
+        int id = this.idOf(dn);
+        return id == NO_ID ? new LinkedHashSet<>() : this.toDns(this.getTransitiveGroups(id));
+    }
+
+    /**
+     * Tells whether an object is member of a group, directly or through other groups
+     * @param memberDn the distinguished name of the object
+     * @param groupDn the distinguished name of the group
+     * @return true if the object is a transitive member of the group
+     */
+    public boolean isMemberOf(String memberDn, String groupDn) {
+        int id = this.idOf(memberDn);
+        int groupId = this.idOf(groupDn);
+        return id != NO_ID && groupId != NO_ID && this.isMemberOf(id, groupId);
+    }
+
+    /**
+     * Returns the approximate memory used by the graph, dns excluded
+     * @return the size in bytes
+     */
+    public long getEstimatedSizeInBytes() {
+        long size = (long) dns.length * (4 + 8 + 8 + 1);
+        size += 4L * (memberOffsets.length + members.length + groupOffsets.length + groups.length);
+        size += 4L * (dnTable.length + guidTable.length);
+        return size;
+    }
+
+    /**
+     * Takes an idle walk state, or creates one if they are all used : it is offered back after the walk,
+     * and dropped if {@value #MAX_IDLE_TRAVERSALS} are already idle
+     */
+    private Traversal borrowTraversal() {
+        Traversal traversal = idleTraversals.poll();
+        return traversal != null ? traversal : new Traversal(dns.length);
+    }
+
+    private Set<String> toDns(int[] ids) {
+        Set<String> result = new LinkedHashSet<>(ids.length * 2);
+        for (int id : ids) {
+            result.add(dns[id]);
+        }
+        return result;
+    }
+
+    static int hashDn(String dn) {
+        int hash = 0;
+        for (int i = 0; i < dn.length(); i++) {
+            hash = 31 * hash + Character.toLowerCase(dn.charAt(i));
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    static int hashGuid(long high, long low) {
+        long hash = high * 31 + low;
+        int h = (int) (hash ^ (hash >>> 32));
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Parses an objectGUID string ({XXXXXXXX-XXXX-XXXX-XXXX-XXXXXXXXXXXX}) into two longs, in display order
+     * @return the high and low longs, or null if the string is not a valid GUID
+     */
+    static long[] parseGuid(String objectGUID) {
+        if (objectGUID == null) {
+            return null;
+        }
+        long high = 0;
+        long low = 0;
+        int digits = 0;
+        for (int i = 0; i < objectGUID.length(); i++) {
+            char c = objectGUID.charAt(i);
+            if (c == '{' || c == '}' || c == '-') {
+                continue;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0 || digits == 32) {
+                return null;
+            }
+            if (digits < 16) {
+                high = (high << 4) | digit;
+            } else {
+                low = (low << 4) | digit;
+            }
+            digits++;
+        }
+        return digits == 32 ? new long[]{high, low} : null;
+    }
+
+    private static int tableSize(int count) {
+        int size = 2;
+        while (size < count * 2) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    private static void insert(int[] table, int hash, int id) {
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = id + 1;
+    }
+
+    /**
+     * Breadth first walk state, reused by successive walks : a node is visited when its mark equals the epoch,
+     * so that the marks are never cleared
+     */
+    private static class Traversal {
+        private final int[] marks;
+        private int[] queue = new int[64];
+        private int epoch;
+
+        private Traversal(int nodeCount) {
+            this.marks = new int[nodeCount];
+        }
+
+        /**
+         * Walks the links from the start node
+         * @param target the node on which the walk stops, or NO_ID to walk the whole reachable graph. The start node
+         *               itself is only reached through a cycle.
+         * @return the number of ids reached, the start node excluded unless it is the target, which are at the head
+         * of the queue
+         */
+        private int walk(int start, int[] offsets, int[] links, int target) {
+            if (++epoch == 0) {
+                Arrays.fill(marks, 0);
+                epoch = 1;
+            }
+            if (start != target) {
+                marks[start] = epoch;
+            }
+            int head = 0;
+            int tail = 0;
+            int current = start;
+            while (true) {
+                for (int i = offsets[current]; i < offsets[current + 1]; i++) {
+                    int next = links[i];
+                    if (marks[next] == epoch) {
+                        continue;
+                    }
+                    marks[next] = epoch;
+                    if (tail == queue.length) {
+                        queue = Arrays.copyOf(queue, queue.length * 2);
+                    }
+                    queue[tail++] = next;
+                    if (next == target) {
+                        return tail;
+                    }
+                }
+                if (head == tail) {
+                    return tail;
+                }
+                current = queue[head++];
+            }
+        }
+
+        private int[] toArray(int count) {
+            return Arrays.copyOf(queue, count);
+        }
+
+        private boolean isReached(int id) {
+            return marks[id] == epoch;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Builder of a {@link MembershipGraph}
+ * <p>
+ * Users and groups are declared with their objectGUID, members are declared by dn : a member dn which is never
+ * declared (foreign security principal, object out of the loaded subtree) is kept as a node of unknown type.
+ * Instances are not thread safe.
+ */
+public class MembershipGraphBuilder {
+
+    private final Map<String, Integer> idsByDn = new HashMap<>();
+    private final List<String> dns = new ArrayList<>();
+    private long[] guidHighs = new long[1024];
+    private long[] guidLows = new long[1024];
+    private byte[] types = new byte[1024];
+    private int[] linkGroups = new int[4096];
+    private int[] linkMembers = new int[4096];
+    private int linkCount;
+
+    /**
+     * Declares a user
+     * @param dn the distinguished name of the user
+     * @param objectGUID the objectGUID of the user, as read from the directory (16 bytes), or null
+     * @return the instance itself for coding facilities
+     */
+    public MembershipGraphBuilder addUser(String dn, byte[] objectGUID) {
+        this.declare(dn, objectGUID, MembershipGraph.USER);
+        return this;
+    }
+
+    /**
+     * Declares a group and its members
+     * @param dn the distinguished name of the group
+     * @param objectGUID the objectGUID of the group, as read from the directory (16 bytes), or null
+     * @param memberDns the distinguished names of the direct members
+     * @return the instance itself for coding facilities
+     */
+    public MembershipGraphBuilder addGroup(String dn, byte[] objectGUID, Iterable<String> memberDns) {
+        int groupId = this.declare(dn, objectGUID, MembershipGraph.GROUP);
+        for (String memberDn : memberDns) {
+            this.addLink(groupId, this.idOf(memberDn));
+        }
+        return this;
+    }
+
+    /**
+     * Declares a member of a group, the group being declared later or not
+     * @param groupDn the distinguished name of the group
+     * @param memberDn the distinguished name of the member
+     * @return the instance itself for coding facilities
+     */
+    public MembershipGraphBuilder addMember(String groupDn, String memberDn) {
+        this.addLink(this.idOf(groupDn), this.idOf(memberDn));
+        return this;
+    }
+
+    /**
+     * Builds the graph
+     * @return the graph
+     */
+    public MembershipGraph build() {
+        int nodeCount = dns.size();
+        int[] memberOffsets = new int[nodeCount + 1];
+        int[] groupOffsets = new int[nodeCount + 1];
+        for (int i = 0; i < linkCount; i++) {
+            memberOffsets[linkGroups[i] + 1]++;
+            groupOffsets[linkMembers[i] + 1]++;
+        }
+        for (int id = 0; id < nodeCount; id++) {
+            memberOffsets[id + 1] += memberOffsets[id];
+            groupOffsets[id + 1] += groupOffsets[id];
+        }
+        int[] members = new int[linkCount];
+        int[] groups = new int[linkCount];
+        int[] memberPositions = Arrays.copyOf(memberOffsets, nodeCount);
+        int[] groupPositions = Arrays.copyOf(groupOffsets, nodeCount);
+        for (int i = 0; i < linkCount; i++) {
+            members[memberPositions[linkGroups[i]]++] = linkMembers[i];
+            groups[groupPositions[linkMembers[i]]++] = linkGroups[i];
+        }
+        return new MembershipGraph(dns.toArray(new String[0]), Arrays.copyOf(guidHighs, nodeCount),
+                Arrays.copyOf(guidLows, nodeCount), Arrays.copyOf(types, nodeCount),
+                memberOffsets, members, groupOffsets, groups);
+    }
+
+    private int declare(String dn, byte[] objectGUID, byte type) {
+        int id = this.idOf(dn);
+        types[id] = type;
+        if (objectGUID != null && objectGUID.length == 16) {
+            // display order of the objectGUID string : the first three fields are little endian
+            guidHighs[id] = toLong(objectGUID, 3, 2, 1, 0, 5, 4, 7, 6);
+            guidLows[id] = toLong(objectGUID, 8, 9, 10, 11, 12, 13, 14, 15);
+        }
+        return id;
+    }
+
+    private int idOf(String dn) {
+        Integer id = idsByDn.get(dn.toLowerCase(Locale.ROOT));
+        if (id != null) {
+            return id;
+        }
+        int newId = dns.size();
+        dns.add(dn);
+        idsByDn.put(dn.toLowerCase(Locale.ROOT), newId);
+        if (newId == types.length) {
+            guidHighs = Arrays.copyOf(guidHighs, newId * 2);
+            guidLows = Arrays.copyOf(guidLows, newId * 2);
+            types = Arrays.copyOf(types, newId * 2);
+        }
+        return newId;
+    }
+
+    private void addLink(int groupId, int memberId) {
+        if (linkCount == linkGroups.length) {
+            linkGroups = Arrays.copyOf(linkGroups, linkCount * 2);
+            linkMembers = Arrays.copyOf(linkMembers, linkCount * 2);
+        }
+        linkGroups[linkCount] = groupId;
+        linkMembers[linkCount] = memberId;
+        linkCount++;
+    }
+
+    private static long toLong(byte[] bytes, int... indexes) {
+        long value = 0;
+        for (int index : indexes) {
+            value = (value << 8) | (bytes[index] & 0xFF);
+        }
+        return value;
+    }
+}
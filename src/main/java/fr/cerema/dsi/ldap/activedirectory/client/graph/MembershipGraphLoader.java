@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.graph;
+
+import fr.cerema.dsi.ldap.activedirectory.client.ActiveDirectoryClient;
+import fr.cerema.dsi.ldap.activedirectory.client.ActiveDirectoryClientImpl;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientRequestException;
+import fr.cerema.dsi.ldap.activedirectory.client.pool.LdapConnectionSource;
+import fr.cerema.dsi.ldap.activedirectory.client.search.PagedSearch;
+import fr.cerema.dsi.ldap.activedirectory.client.search.RangedAttributeReader;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads a {@link MembershipGraph} from the directory with a single paged search of the users and groups
+ * under a search base
+ * <p>
+ * The members of the groups beyond the MaxValRange of the AD are read range by range on another pooled connection.
+ */
+public class MembershipGraphLoader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MembershipGraphLoader.class);
+
+    // computers are of class user too
+    private static final String FILTER = "(|(&(objectCategory=person)(objectClass=user))(objectClass=group))";
+
+    private static final String[] ATTRIBUTES = {"objectClass", "distinguishedName", "objectGUID", "member"};
+
+    private final LdapConnectionSource ldapConnectionPool;
+    private final int pageSize;
+    private final RangedAttributeReader rangedAttributeReader = new RangedAttributeReader();
+
+    /**
+     * Creates a loader using the connections of the given client
+     * @param client the client
+     */
+    public MembershipGraphLoader(ActiveDirectoryClientImpl client) {
+        this(client.getLdapConnectionPool(), PagedSearch.DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Constructor
+     * @param ldapConnectionPool the pool the connection is taken from
+     * @param pageSize the page size of the search
+     */
+    public MembershipGraphLoader(LdapConnectionSource ldapConnectionPool, int pageSize) {
+        this.ldapConnectionPool = ldapConnectionPool;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Loads the memberships of the users and groups under the search base
+     * @param searchBase the dn of the loaded subtree
+     * @return the graph
+     * @throws ActiveDirectoryClientException if an exception occurs while requesting the ldap server
+     */
+    public MembershipGraph load(String searchBase) throws ActiveDirectoryClientException {
+        LOG.info("load called with searchBase: " + searchBase);
+        long start = System.currentTimeMillis();
+        MembershipGraphBuilder builder = new MembershipGraphBuilder();
+        try (PagedSearch pagedSearch = new PagedSearch(ldapConnectionPool,
+                PagedSearch.createSearchRequest(searchBase, FILTER, SearchScope.SUBTREE, ATTRIBUTES), pageSize)) {
+            Entry entry;
+            while ((entry = pagedSearch.nextEntry()) != null) {
+                this.add(builder, entry);
+            }
+        }
+        MembershipGraph graph = builder.build();
+        LOG.info("Membership graph loaded in " + (System.currentTimeMillis() - start) + " ms : " + graph.getNodeCount()
+                + " nodes, " + graph.getLinkCount() + " links, about " + graph.getEstimatedSizeInBytes() / 1024 + " kB");
+        return graph;
+    }
+
+    private void add(MembershipGraphBuilder builder, Entry entry) throws ActiveDirectoryClientException {
+        try {
+            String dn = entry.get("distinguishedName").getString();
+            byte[] objectGUID = entry.get("objectGUID") == null ? null : entry.get("objectGUID").getBytes();
+            Attribute classes = entry.get("objectClass");
+            if (classes.contains(ActiveDirectoryClient.AD_GROUP_OBJECTCLASS)) {
+                List<String> memberDns = new ArrayList<>();
+                rangedAttributeReader.read(ldapConnectionPool, entry, "member", memberDns::add);
+                builder.addGroup(dn, objectGUID, memberDns);
+            } else {
+                builder.addUser(dn, objectGUID);
+            }
+        } catch (LdapException lde) {
+            throw new ActiveDirectoryClientRequestException("Cannot read entry " + entry.getDn(), lde);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.mapping;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Copies the values of an attribute into an object of the model
+ * @param <T> the type of the objects
+ * @see EntryMapping
+ */
+@FunctionalInterface
+public interface AttributeBinder<T> {
+
+    /**
+     * Copies the values of the attribute into the object
+     * @param target the object
+     * @param attribute the attribute of the entry
+     * @throws LdapInvalidAttributeValueException if the values cannot be read
+     */
+    void bind(T target, Attribute attribute) throws LdapInvalidAttributeValueException;
+
+    /**
+     * Returns a binder calling this binder, then the given one
+     * @param next the binder called next
+     * @return the composed binder
+     */
+    default AttributeBinder<T> andThen(AttributeBinder<? super T> next) {
+        return (target, attribute) -> {
+            this.bind(target, attribute);
+            next.bind(target, attribute);
+        };
+    }
+
+    /**
+     * Returns a binder giving the first value of the attribute as a string
+     * @param setter the setter of the object
+     * @param <T> the type of the objects
+     * @return the binder
+     */
+    static <T> AttributeBinder<T> string(BiConsumer<? super T, String> setter) {
+        return (target, attribute) -> setter.accept(target, attribute.getString());
+    }
+
+    /**
+     * Returns a binder giving the first value of the attribute as bytes
+     * @param setter the setter of the object
+     * @param <T> the type of the objects
+     * @return the binder
+     */
+    static <T> AttributeBinder<T> bytes(BiConsumer<? super T, byte[]> setter) {
+        return (target, attribute) -> setter.accept(target, attribute.getBytes());
+    }
+
+    /**
+     * Returns a binder giving all the values of the attribute as strings
+     * @param setter the setter of the object
+     * @param <T> the type of the objects
+     * @return the binder
+     */
+    static <T> AttributeBinder<T> strings(BiConsumer<? super T, List<String>> setter) {
+        return (target, attribute) -> {
+            List<String> values = new ArrayList<>(attribute.size());
+            for (Value<?> value : attribute) {
+                values.add(value.getString());
+            }
+            setter.accept(target, values);
+        };
+    }
+}
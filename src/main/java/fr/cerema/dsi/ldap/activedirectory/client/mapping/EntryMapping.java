@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.mapping;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Converts ldap entries into objects of a class of the model, with attribute bindings declared once
+ * <p>
+ * The bindings are indexed by the normalized id of their attribute when the mapping is built : an entry is converted
+ * in a single pass over its attributes, each attribute costing one lookup in this index, instead of a case insensitive
+ * search of the entry per bound attribute. The attributes of schema aware entries are identified by the oid of their
+ * type, which is resolved to a binding on its first occurrence only.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ * @param <T> the type of the objects
+ */
+public final class EntryMapping<T> {
+
+    private final Supplier<? extends T> factory;
+    private final Map<String, Binding<T>> bindingsById;
+    private final ConcurrentMap<String, Optional<Binding<T>>> bindingsByOid = new ConcurrentHashMap<>();
+    private final List<String> attributes;
+    private final String[] mandatoryAttributes;
+    private final long mandatoryMask;
+
+    private EntryMapping(Builder<T> builder) {
+        this.factory = builder.factory;
+        this.bindingsById = new HashMap<>(builder.binders.size() * 2);
+        List<String> mandatory = new ArrayList<>();
+        for (Map.Entry<String, AttributeBinder<T>> binder : builder.binders.entrySet()) {
+            long mandatoryBit = 0;
+            if (builder.mandatory.contains(binder.getKey())) {
+                mandatoryBit = 1L << mandatory.size();
+                mandatory.add(builder.names.get(binder.getKey()));
+            }
+            this.bindingsById.put(binder.getKey(), new Binding<>(binder.getValue(), mandatoryBit));
+        }
+        this.attributes = Collections.unmodifiableList(new ArrayList<>(builder.names.values()));
+        this.mandatoryAttributes = mandatory.toArray(new String[0]);
+        this.mandatoryMask = mandatory.isEmpty() ? 0 : -1L >>> (64 - mandatory.size());
+    }
+
+    /**
+     * Starts the declaration of a mapping
+     * @param factory the factory of the objects
+     * @param <T> the type of the objects
+     * @return the builder of the mapping
+     */
+    public static <T> Builder<T> builder(Supplier<? extends T> factory) {
+        return new Builder<>(factory);
+    }
+
+    /**
+     * Returns the names of the bound attributes, as declared
+     * @return the attributes to request for building the objects
+     */
+    public List<String> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * Converts an entry
+     * @param entry the entry
+     * @return the object holding the values of the bound attributes
+     * @throws LdapInvalidAttributeValueException if a mandatory attribute is missing or a value cannot be read
+     */
+    public T map(Entry entry) throws LdapInvalidAttributeValueException {
+        T target = factory.get();
+        long found = 0;
+        for (Attribute attribute : entry) {
+            Binding<T> binding = this.getBinding(attribute);
+            if (binding != null) {
+                binding.binder.bind(target, attribute);
+                found |= binding.mandatoryBit;
+            }
+        }
+        if (found != mandatoryMask) {
+            throw new LdapInvalidAttributeValueException(ResultCodeEnum.NO_SUCH_ATTRIBUTE, "Mandatory attribute "
+                    + this.getMissingAttribute(found) + " not found in entry " + entry.getDn());
+        }
+        return target;
+    }
+
+    private Binding<T> getBinding(Attribute attribute) {
+        Binding<T> binding = bindingsById.get(attribute.getId());
+        if (binding != null) {
+            return binding;
+        }
+        AttributeType attributeType = attribute.getAttributeType();
+        if (attributeType == null || attributeType.getOid() == null) {
+            return null;
+        }
+        return bindingsByOid.computeIfAbsent(attributeType.getOid(), oid -> this.resolve(attributeType)).orElse(null);
+    }
+
+    private Optional<Binding<T>> resolve(AttributeType attributeType) {
+        for (String name : attributeType.getNames()) {
+            Binding<T> binding = bindingsById.get(name.toLowerCase(Locale.ROOT));
+            if (binding != null) {
+                return Optional.of(binding);
+            }
+        }
+        return Optional.empty();
+    }
+
+    private String getMissingAttribute(long found) {
+        for (int i = 0; i < mandatoryAttributes.length; i++) {
+            if ((found & (1L << i)) == 0) {
+                return mandatoryAttributes[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The binder of an attribute, with its bit in the mask of the mandatory attributes (0 if optional)
+     */
+    private static final class Binding<T> {
+        private final AttributeBinder<T> binder;
+        private final long mandatoryBit;
+
+        Binding(AttributeBinder<T> binder, long mandatoryBit) {
+            this.binder = binder;
+            this.mandatoryBit = mandatoryBit;
+        }
+    }
+
+    /**
+     * Declares the bindings of an {@link EntryMapping}
+     * <p>
+     * Several binders declared for a same attribute are called in their declaration order.
+     * @param <T> the type of the objects
+     */
+    public static final class Builder<T> {
+
+        /**
+         * Maximum number of mandatory attributes of a mapping
+         */
+        public static final int MAX_MANDATORY_ATTRIBUTES = 64;
+
+        private final Supplier<? extends T> factory;
+        private final Map<String, String> names = new LinkedHashMap<>();
+        private final Map<String, AttributeBinder<T>> binders = new LinkedHashMap<>();
+        private final Set<String> mandatory = new LinkedHashSet<>();
+
+        private Builder(Supplier<? extends T> factory) {
+            this.factory = factory;
+        }
+
+        /**
+         * Binds an attribute which must be present in the entries
+         * @param attribute the name of the attribute
+         * @param binder the binder of its values
+         * @return the builder itself for coding facilities
+         */
+        public Builder<T> mandatory(String attribute, AttributeBinder<T> binder) {
+            String id = this.bind(attribute, binder);
+            if (mandatory.add(id) && mandatory.size() > MAX_MANDATORY_ATTRIBUTES) {
+                throw new IllegalArgumentException("A mapping cannot have more than " + MAX_MANDATORY_ATTRIBUTES
+                        + " mandatory attributes");
+            }
+            return this;
+        }
+
+        /**
+         * Binds an attribute which may be absent from the entries
+         * @param attribute the name of the attribute
+         * @param binder the binder of its values
+         * @return the builder itself for coding facilities
+         */
+        public Builder<T> optional(String attribute, AttributeBinder<T> binder) {
+            this.bind(attribute, binder);
+            return this;
+        }
+
+        /**
+         * Builds the mapping
+         * @return the mapping
+         */
+        public EntryMapping<T> build() {
+            return new EntryMapping<>(this);
+        }
+
+        private String bind(String attribute, AttributeBinder<T> binder) {
+            String id = attribute.trim().toLowerCase(Locale.ROOT);
+            names.putIfAbsent(id, attribute);
+            binders.merge(id, binder, AttributeBinder::andThen);
+            return id;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.metrics;
+
+import fr.cerema.dsi.ldap.activedirectory.client.ActiveDirectoryClient;
+import fr.cerema.dsi.ldap.activedirectory.client.ActiveDirectoryClientImpl;
+import fr.cerema.dsi.ldap.activedirectory.client.ForwardingActiveDirectoryClient;
+import fr.cerema.dsi.ldap.activedirectory.client.cache.CachingActiveDirectoryClient;
+import fr.cerema.dsi.ldap.activedirectory.client.cache.CoalescingActiveDirectoryClient;
+import fr.cerema.dsi.ldap.activedirectory.client.pool.DomainController;
+import fr.cerema.dsi.ldap.activedirectory.client.pool.LdapConnectionSource;
+import fr.cerema.dsi.ldap.activedirectory.client.pool.RoutingLdapConnectionPool;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Binds the gauges of the connection pool (and of the cache, when enabled) of an {@link ActiveDirectoryClient}
+ * <p>
+ * The client may be decorated : the {@link ActiveDirectoryClientImpl}, the {@link CachingActiveDirectoryClient} and
+ * the {@link CoalescingActiveDirectoryClient} are looked for through the {@link ForwardingActiveDirectoryClient} chain.
+ * <ul>
+ *     <li>activedirectory.pool.active, activedirectory.pool.idle, activedirectory.pool.max : connections of the pool</li>
+ *     <li>activedirectory.pool.waiters : threads waiting for a connection</li>
+ *     <li>activedirectory.pool.checkout : count and total time of the waits for a connection,
+ *     activedirectory.pool.checkout.max : longest wait</li>
+ *     <li>activedirectory.pool.checkout.failures : connection requests which failed</li>
+ *     <li>activedirectory.cache.size, activedirectory.cache.requests (tagged result=hit or miss),
+ *     activedirectory.cache.evictions</li>
+ *     <li>activedirectory.client.coalesced : lookups answered with the result of an identical running lookup,
+ *     activedirectory.client.inflight : lookups running</li>
+ * </ul>
+ */
+public class ActiveDirectoryClientMetrics implements MeterBinder {
+
+    private final LdapConnectionSource ldapConnectionPool;
+    private final CachingActiveDirectoryClient cachingClient;
+    private final CoalescingActiveDirectoryClient coalescingClient;
+    private final Tags tags;
+
+    /**
+     * Constructor
+     * @param client the client, possibly decorated
+     */
+    public ActiveDirectoryClientMetrics(ActiveDirectoryClient client) {
+        this(client, Tags.empty());
+    }
+
+    /**
+     * Constructor
+     * @param client the client, possibly decorated
+     * @param tags the tags added to all the meters
+     */
+    public ActiveDirectoryClientMetrics(ActiveDirectoryClient client, Iterable<Tag> tags) {
+        LdapConnectionSource pool = null;
+        CachingActiveDirectoryClient caching = null;
+        CoalescingActiveDirectoryClient coalescing = null;
+        ActiveDirectoryClient current = client;
+        while (current != null) {
+            if (current instanceof CachingActiveDirectoryClient && caching == null) {
+                caching = (CachingActiveDirectoryClient) current;
+            }
+            if (current instanceof CoalescingActiveDirectoryClient && coalescing == null) {
+                coalescing = (CoalescingActiveDirectoryClient) current;
+            }
+            if (current instanceof ActiveDirectoryClientImpl) {
+                pool = ((ActiveDirectoryClientImpl) current).getLdapConnectionPool();
+            }
+            current = current instanceof ForwardingActiveDirectoryClient
+                    ? ((ForwardingActiveDirectoryClient) current).delegate() : null;
+        }
+        this.ldapConnectionPool = pool;
+        this.cachingClient = caching;
+        this.coalescingClient = coalescing;
+        this.tags = Tags.of(tags);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (ldapConnectionPool != null) {
+            this.bindPool(registry);
+        }
+        if (cachingClient != null) {
+            this.bindCache(registry);
+        }
+        if (coalescingClient != null) {
+            this.bindCoalescing(registry);
+        }
+    }
+
+    private void bindPool(MeterRegistry registry) {
+        Gauge.builder("activedirectory.pool.active", ldapConnectionPool, LdapConnectionSource::getNumActive)
+                .description("Connections of the pool in use")
+                .tags(tags)
+                .register(registry);
+        Gauge.builder("activedirectory.pool.idle", ldapConnectionPool, LdapConnectionSource::getNumIdle)
+                .description("Idle connections of the pool")
+                .tags(tags)
+                .register(registry);
+        Gauge.builder("activedirectory.pool.max", ldapConnectionPool, LdapConnectionSource::getMaxActive)
+                .description("Maximum number of connections of the pool")
+                .tags(tags)
+                .register(registry);
+        Gauge.builder("activedirectory.pool.waiters", ldapConnectionPool, LdapConnectionSource::getNumWaiters)
+                .description("Threads waiting for a connection")
+                .tags(tags)
+                .register(registry);
+        FunctionTimer.builder("activedirectory.pool.checkout", ldapConnectionPool,
+                LdapConnectionSource::getCheckoutCount, LdapConnectionSource::getTotalCheckoutWaitNanos,
+                TimeUnit.NANOSECONDS)
+                .description("Time spent waiting for a connection")
+                .tags(tags)
+                .register(registry);
+        TimeGauge.builder("activedirectory.pool.checkout.max", ldapConnectionPool, TimeUnit.NANOSECONDS,
+                LdapConnectionSource::getMaxCheckoutWaitNanos)
+                .description("Longest time spent waiting for a connection")
+                .tags(tags)
+                .register(registry);
+        FunctionCounter.builder("activedirectory.pool.checkout.failures", ldapConnectionPool,
+                LdapConnectionSource::getFailedCheckoutCount)
+                .description("Connection requests which failed")
+                .tags(tags)
+                .register(registry);
+        if (ldapConnectionPool instanceof RoutingLdapConnectionPool) {
+            for (DomainController domainController : ((RoutingLdapConnectionPool) ldapConnectionPool).getDomainControllers()) {
+                this.bindDomainController(registry, domainController);
+            }
+        }
+    }
+
+    private void bindDomainController(MeterRegistry registry, DomainController domainController) {
+        Gauge.builder("activedirectory.dc.healthy", domainController, dc -> dc.isHealthy() ? 1 : 0)
+                .description("1 if requests are routed to the domain controller, 0 if it is ejected")
+                .tags(tags)
+                .tag("dc", domainController.getHost())
+                .register(registry);
+        Gauge.builder("activedirectory.dc.inflight", domainController, DomainController::getInFlight)
+                .description("Connections of the domain controller in use")
+                .tags(tags)
+                .tag("dc", domainController.getHost())
+                .register(registry);
+        Gauge.builder("activedirectory.dc.latency", domainController, DomainController::getLatencyMillis)
+                .description("Moving average of the round-trip time of the probes of the domain controller")
+                .baseUnit("milliseconds")
+                .tags(tags)
+                .tag("dc", domainController.getHost())
+                .register(registry);
+    }
+
+    private void bindCache(MeterRegistry registry) {
+        Gauge.builder("activedirectory.cache.size", cachingClient, client -> client.getCacheStatistics().getSize())
+                .description("Objects held by the cache")
+                .tags(tags)
+                .register(registry);
+        FunctionCounter.builder("activedirectory.cache.requests", cachingClient,
+                client -> client.getCacheStatistics().getHitCount())
+                .description("Lookups answered by the cache")
+                .tags(tags)
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("activedirectory.cache.requests", cachingClient,
+                client -> client.getCacheStatistics().getMissCount())
+                .description("Lookups sent to the server")
+                .tags(tags)
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("activedirectory.cache.evictions", cachingClient,
+                client -> client.getCacheStatistics().getEvictionCount())
+                .description("Objects evicted from the cache")
+                .tags(tags)
+                .register(registry);
+    }
+
+    private void bindCoalescing(MeterRegistry registry) {
+        FunctionCounter.builder("activedirectory.client.coalesced", coalescingClient,
+                CoalescingActiveDirectoryClient::getCoalescedCount)
+                .description("Lookups answered with the result of an identical running lookup")
+                .tags(tags)
+                .register(registry);
+        Gauge.builder("activedirectory.client.inflight", coalescingClient, CoalescingActiveDirectoryClient::getInFlightCount)
+                .description("Lookups running")
+                .tags(tags)
+                .register(registry);
+    }
+}
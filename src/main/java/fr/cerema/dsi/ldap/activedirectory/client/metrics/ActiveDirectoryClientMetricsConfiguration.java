@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Loaded by {@link fr.cerema.dsi.ldap.activedirectory.client.annotations.EnableActiveDirectoryClient} when Micrometer
+ * is on the classpath : the active directory clients are instrumented if a {@link MeterRegistry} bean is present.
+ */
+@Configuration
+@ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+public class ActiveDirectoryClientMetricsConfiguration {
+
+    /**
+     * Declared static so that the post processor is created before the other beans of the configuration
+     * @param meterRegistryProvider the provider of the registry
+     * @return the post processor
+     */
+    @Bean
+    public static ActiveDirectoryClientMetricsPostProcessor activeDirectoryClientMetricsPostProcessor(
+            ObjectProvider<MeterRegistry> meterRegistryProvider) {
+        return new ActiveDirectoryClientMetricsPostProcessor(meterRegistryProvider);
+    }
+}
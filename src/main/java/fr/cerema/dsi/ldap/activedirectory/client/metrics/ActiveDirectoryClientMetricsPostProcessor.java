@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.metrics;
+
+import fr.cerema.dsi.ldap.activedirectory.client.ActiveDirectoryClient;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+
+/**
+ * Instruments the {@link ActiveDirectoryClient} beans when a {@link MeterRegistry} bean is present
+ * <p>
+ * The gauges of the client are bound with {@link ActiveDirectoryClientMetrics}, and the bean is replaced by a
+ * {@link MeteredActiveDirectoryClient} decorating it.
+ */
+public class ActiveDirectoryClientMetricsPostProcessor implements BeanPostProcessor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ActiveDirectoryClientMetricsPostProcessor.class);
+
+    private final ObjectProvider<MeterRegistry> meterRegistryProvider;
+
+    /**
+     * Constructor
+     * @param meterRegistryProvider the provider of the registry, looked up when the clients are created
+     */
+    public ActiveDirectoryClientMetricsPostProcessor(ObjectProvider<MeterRegistry> meterRegistryProvider) {
+        this.meterRegistryProvider = meterRegistryProvider;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+        if (!(bean instanceof ActiveDirectoryClient) || bean instanceof MeteredActiveDirectoryClient) {
+            return bean;
+        }
+        MeterRegistry meterRegistry = meterRegistryProvider.getIfUnique();
+        if (meterRegistry == null) {
+            return bean;
+        }
+        LOG.info("Registering metrics of bean " + beanName);
+        ActiveDirectoryClient client = (ActiveDirectoryClient) bean;
+        new ActiveDirectoryClientMetrics(client).bindTo(meterRegistry);
+        return new MeteredActiveDirectoryClient(client, meterRegistry);
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.metrics;
+
+import fr.cerema.dsi.ldap.activedirectory.client.ActiveDirectoryClient;
+import fr.cerema.dsi.ldap.activedirectory.client.ForwardingActiveDirectoryClient;
+import fr.cerema.dsi.ldap.activedirectory.client.MembershipResolution;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientException;
+import fr.cerema.dsi.ldap.activedirectory.client.model.AbstractAdObject;
+import fr.cerema.dsi.ldap.activedirectory.client.model.AdGroup;
+import fr.cerema.dsi.ldap.activedirectory.client.model.BatchLookupResult;
+import fr.cerema.dsi.ldap.activedirectory.client.model.MembershipChangeReport;
+import fr.cerema.dsi.ldap.activedirectory.client.model.OrganizationalUnit;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+/**
+ * Decorator of an {@link ActiveDirectoryClient} recording Micrometer metrics for each call
+ * <p>
+ * Three meters are recorded, tagged with the name of the method :
+ * <ul>
+ *     <li>{@value #REQUESTS_METRIC} : timer of the calls, with a percentile histogram, also tagged with the simple name of
+ *     the exception thrown (none for the calls which succeeded)</li>
+ *     <li>{@value #ENTRIES_METRIC} : distribution of the number of objects returned by the lookups and searches</li>
+ *     <li>{@value #ERRORS_METRIC} : counter of the calls which failed, also tagged with the simple name of the exception
+ *     (ActiveDirectoryClientConnectionException, ActiveDirectoryClientRequestException...)</li>
+ * </ul>
+ * The streams and publishers are returned before their results are read, their calls are not recorded.
+ */
+public class MeteredActiveDirectoryClient extends ForwardingActiveDirectoryClient {
+
+    public static final String REQUESTS_METRIC = "activedirectory.client.requests";
+    public static final String ENTRIES_METRIC = "activedirectory.client.entries";
+    public static final String ERRORS_METRIC = "activedirectory.client.errors";
+
+    private static final String NO_EXCEPTION = "none";
+
+    /**
+     * A call to the decorated client
+     */
+    @FunctionalInterface
+    private interface Call<T> {
+        T call() throws ActiveDirectoryClientException;
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final Tags tags;
+    private final ConcurrentMap<String, Timer> successTimers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, DistributionSummary> entrySummaries = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     * @param delegate the decorated client
+     * @param meterRegistry the registry the meters are registered in
+     */
+    public MeteredActiveDirectoryClient(ActiveDirectoryClient delegate, MeterRegistry meterRegistry) {
+        this(delegate, meterRegistry, Tags.empty());
+    }
+
+    /**
+     * Constructor
+     * @param delegate the decorated client
+     * @param meterRegistry the registry the meters are registered in
+     * @param tags the tags added to all the meters
+     */
+    public MeteredActiveDirectoryClient(ActiveDirectoryClient delegate, MeterRegistry meterRegistry, Iterable<Tag> tags) {
+        super(delegate);
+        this.meterRegistry = meterRegistry;
+        this.tags = Tags.of(tags);
+    }
+
+    @Override
+    public Set<AbstractAdObject> getMembersForDN(String dn, boolean recursive) throws ActiveDirectoryClientException {
+        return this.record("getMembersForDN", () -> delegate().getMembersForDN(dn, recursive), Set::size);
+    }
+
+    @Override
+    public Set<AbstractAdObject> getMembersForDN(String dn, boolean recursive, MembershipResolution resolution) throws ActiveDirectoryClientException {
+        return this.record("getMembersForDN", () -> delegate().getMembersForDN(dn, recursive, resolution), Set::size);
+    }
+
+    @Override
+    public Set<AdGroup> getGroupsForDN(String dn, boolean recursive) throws ActiveDirectoryClientException {
+        return this.record("getGroupsForDN", () -> delegate().getGroupsForDN(dn, recursive), Set::size);
+    }
+
+    @Override
+    public Set<AdGroup> getGroupsForDN(String dn, boolean recursive, MembershipResolution resolution) throws ActiveDirectoryClientException {
+        return this.record("getGroupsForDN", () -> delegate().getGroupsForDN(dn, recursive, resolution), Set::size);
+    }
+
+    @Override
+    public Set<String> findBySAMAccountName(String sAMAccountName, String searchBase) throws ActiveDirectoryClientException {
+        return this.record("findBySAMAccountName", () -> delegate().findBySAMAccountName(sAMAccountName, searchBase), Set::size);
+    }
+
+    @Override
+    public AbstractAdObject getBySAMAccountName(String sAMAccountName, String searchBase) throws ActiveDirectoryClientException {
+        return this.record("getBySAMAccountName", () -> delegate().getBySAMAccountName(sAMAccountName, searchBase),
+                MeteredActiveDirectoryClient::countOne);
+    }
+
+    @Override
+    public void deleteByDn(String dn) throws ActiveDirectoryClientException {
+        this.record("deleteByDn", () -> {
+            delegate().deleteByDn(dn);
+            return null;
+        }, null);
+    }
+
+    @Override
+    public AdGroup createSecurityGroup(String dn) throws ActiveDirectoryClientException {
+        return this.record("createSecurityGroup", () -> delegate().createSecurityGroup(dn), null);
+    }
+
+    @Override
+    public AdGroup createSecurityGroup(String dn, String description) throws ActiveDirectoryClientException {
+        return this.record("createSecurityGroup", () -> delegate().createSecurityGroup(dn, description), null);
+    }
+
+    @Override
+    public AdGroup createSecurityGroup(String dn, String description, String sAMAccountName) throws ActiveDirectoryClientException {
+        return this.record("createSecurityGroup", () -> delegate().createSecurityGroup(dn, description, sAMAccountName), null);
+    }
+
+    @Override
+    public void addEntityToGroup(String entityDn, String groupDn) throws ActiveDirectoryClientException {
+        this.record("addEntityToGroup", () -> {
+            delegate().addEntityToGroup(entityDn, groupDn);
+            return null;
+        }, null);
+    }
+
+    @Override
+    public void removeEntityFromGroup(String entityDn, String groupDn) throws ActiveDirectoryClientException {
+        this.record("removeEntityFromGroup", () -> {
+            delegate().removeEntityFromGroup(entityDn, groupDn);
+            return null;
+        }, null);
+    }
+
+    @Override
+    public MembershipChangeReport addEntitiesToGroup(Collection<String> entityDns, String groupDn) throws ActiveDirectoryClientException {
+        return this.record("addEntitiesToGroup", () -> delegate().addEntitiesToGroup(entityDns, groupDn),
+                report -> report.getOutcomes().size());
+    }
+
+    @Override
+    public MembershipChangeReport removeEntitiesFromGroup(Collection<String> entityDns, String groupDn) throws ActiveDirectoryClientException {
+        return this.record("removeEntitiesFromGroup", () -> delegate().removeEntitiesFromGroup(entityDns, groupDn),
+                report -> report.getOutcomes().size());
+    }
+
+    @Override
+    public AbstractAdObject getObjectBySid(String objectSid, String searchBase) throws ActiveDirectoryClientException {
+        return this.record("getObjectBySid", () -> delegate().getObjectBySid(objectSid, searchBase),
+                MeteredActiveDirectoryClient::countOne);
+    }
+
+    @Override
+    public Set<AbstractAdObject> getObjectsBySid(List<String> sids, String searchBase) throws ActiveDirectoryClientException {
+        return this.record("getObjectsBySid", () -> delegate().getObjectsBySid(sids, searchBase), Set::size);
+    }
+
+    @Override
+    public BatchLookupResult<AbstractAdObject> resolveSids(Collection<String> sids, String searchBase) throws ActiveDirectoryClientException {
+        return this.record("resolveSids", () -> delegate().resolveSids(sids, searchBase),
+                result -> result.getResolved().size());
+    }
+
+    @Override
+    public boolean isDirectMember(String entityDn, String groupDn) throws ActiveDirectoryClientException {
+        return this.record("isDirectMember", () -> delegate().isDirectMember(entityDn, groupDn), null);
+    }
+
+    @Override
+    public boolean isTransitiveMember(String entityDn, String groupDn) throws ActiveDirectoryClientException {
+        return this.record("isTransitiveMember", () -> delegate().isTransitiveMember(entityDn, groupDn), null);
+    }
+
+    @Override
+    public Map<String, Boolean> isTransitiveMember(String entityDn, Collection<String> groupDns) throws ActiveDirectoryClientException {
+        return this.record("isTransitiveMember", () -> delegate().isTransitiveMember(entityDn, groupDns), Map::size);
+    }
+
+    @Override
+    public Set<String> getTokenGroupSids(String dn) throws ActiveDirectoryClientException {
+        return this.record("getTokenGroupSids", () -> delegate().getTokenGroupSids(dn), Set::size);
+    }
+
+    @Override
+    public Set<AdGroup> getEffectiveGroups(String dn, String searchBase) throws ActiveDirectoryClientException {
+        return this.record("getEffectiveGroups", () -> delegate().getEffectiveGroups(dn, searchBase), Set::size);
+    }
+
+    @Override
+    public AbstractAdObject getByObjectGuid(String objectGUID) throws ActiveDirectoryClientException {
+        return this.record("getByObjectGuid", () -> delegate().getByObjectGuid(objectGUID),
+                MeteredActiveDirectoryClient::countOne);
+    }
+
+    @Override
+    public BatchLookupResult<AbstractAdObject> getByObjectGuids(Collection<String> objectGUIDs) throws ActiveDirectoryClientException {
+        return this.record("getByObjectGuids", () -> delegate().getByObjectGuids(objectGUIDs),
+                result -> result.getResolved().size());
+    }
+
+    @Override
+    public Set<AbstractAdObject> findByCommonName(String commonName, String searchBase) throws ActiveDirectoryClientException {
+        return this.record("findByCommonName", () -> delegate().findByCommonName(commonName, searchBase), Set::size);
+    }
+
+    @Override
+    public AbstractAdObject getByDn(String dn) throws ActiveDirectoryClientException {
+        return this.record("getByDn", () -> delegate().getByDn(dn), MeteredActiveDirectoryClient::countOne);
+    }
+
+    @Override
+    public void changeEntityDescription(String entityDn, String newDescription) throws ActiveDirectoryClientException {
+        this.record("changeEntityDescription", () -> {
+            delegate().changeEntityDescription(entityDn, newDescription);
+            return null;
+        }, null);
+    }
+
+    @Override
+    public OrganizationalUnit findOrganizationalUnits(String distinguishedName) throws ActiveDirectoryClientException {
+        return this.record("findOrganizationalUnits", () -> delegate().findOrganizationalUnits(distinguishedName),
+                MeteredActiveDirectoryClient::countUnits);
+    }
+
+    /**
+     * Calls the decorated client, recording the duration of the call and the number of objects returned
+     * @param method the name of the method called
+     * @param call the call
+     * @param entryCount the number of objects of the result, null if the method does not return objects
+     */
+    private <T> T record(String method, Call<T> call, ToIntFunction<T> entryCount) throws ActiveDirectoryClientException {
+        long start = System.nanoTime();
+        T result;
+        try {
+            result = call.call();
+        } catch (ActiveDirectoryClientException | RuntimeException e) {
+            String exception = e.getClass().getSimpleName();
+            this.timer(method, exception).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            Counter.builder(ERRORS_METRIC)
+                    .description("Calls of the active directory client which failed")
+                    .tags(tags)
+                    .tags("method", method, "exception", exception)
+                    .register(meterRegistry)
+                    .increment();
+            throw e;
+        }
+        successTimers.computeIfAbsent(method, name -> this.timer(name, NO_EXCEPTION))
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (entryCount != null) {
+            entrySummaries.computeIfAbsent(method, this::entrySummary).record(entryCount.applyAsInt(result));
+        }
+        return result;
+    }
+
+    private Timer timer(String method, String exception) {
+        return Timer.builder(REQUESTS_METRIC)
+                .description("Calls of the active directory client")
+                .tags(tags)
+                .tags("method", method, "exception", exception)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private DistributionSummary entrySummary(String method) {
+        return DistributionSummary.builder(ENTRIES_METRIC)
+                .description("Objects returned by the calls of the active directory client")
+                .baseUnit("entries")
+                .tags(tags)
+                .tags("method", method)
+                .register(meterRegistry);
+    }
+
+    private static int countOne(Object result) {
+        return result == null ? 0 : 1;
+    }
+
+    private static int countUnits(OrganizationalUnit unit) {
+        if (unit == null) {
+            return 0;
+        }
+        int count = 1;
+        for (OrganizationalUnit child : unit.getOrganizationalUnits()) {
+            count += countUnits(child);
+        }
+        return count;
+    }
+}
@@ -20,6 +20,9 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import fr.cerema.dsi.ldap.activedirectory.client.utils.SidConverter;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -40,6 +43,8 @@ public abstract class AbstractAdObject {
 
     private String distinguishedName;
 
+    private Map<String, List<String>> additionalAttributes = new HashMap<>();
+
 
     /**
      * Returns the object's distinguishedName
@@ -57,6 +62,24 @@ public abstract class AbstractAdObject {
         this.distinguishedName = distinguishedName;
     }
 
+    /**
+     * Returns the values of the additional attributes requested through
+     * {@link fr.cerema.dsi.ldap.activedirectory.client.LdapConnectionConfigurer#configureAdditionalAttributes(String...)},
+     * as strings, indexed by attribute name.
+     * @return the additional attributes found in the object's entry
+     */
+    public Map<String, List<String>> getAdditionalAttributes() {
+        return additionalAttributes;
+    }
+
+    /**
+     * Sets the values of the additional attributes
+     * @param additionalAttributes the additional attributes indexed by attribute name
+     */
+    public void setAdditionalAttributes(Map<String, List<String>> additionalAttributes) {
+        this.additionalAttributes = additionalAttributes;
+    }
+
     /**
      * Equals method implementation
      * @param o the object to compare to
@@ -20,6 +20,10 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import fr.cerema.dsi.ldap.activedirectory.client.utils.SidConverter;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Class whose instances are concrete representation of an Active Directory group
  * <p>
@@ -28,6 +32,14 @@ import fr.cerema.dsi.ldap.activedirectory.client.utils.SidConverter;
  */
 public class AdGroup extends AbstractAdObject{
 
+    /**
+     * The ldap attributes needed to build an instance of this class
+     * <p>
+     * The member attribute is not part of it : it may hold thousands of values.
+     */
+    public static final List<String> LDAP_ATTRIBUTES = Collections.unmodifiableList(Arrays.asList(
+            "objectClass", "distinguishedName", "objectGUID", "objectSid", "sAMAccountName", "cn", "description"));
+
     /**
      * Returns the object's sid as an array of bytes
      * @return the object's sid
@@ -20,6 +20,10 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import fr.cerema.dsi.ldap.activedirectory.client.utils.SidConverter;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Class whose instances are concrete representation of an Active Directory user
  * <p>
@@ -28,6 +32,12 @@ import fr.cerema.dsi.ldap.activedirectory.client.utils.SidConverter;
  */
 public class AdUser extends AbstractAdObject{
 
+    /**
+     * The ldap attributes needed to build an instance of this class
+     */
+    public static final List<String> LDAP_ATTRIBUTES = Collections.unmodifiableList(Arrays.asList(
+            "objectClass", "distinguishedName", "objectGUID", "objectSid", "sAMAccountName", "userPrincipalName",
+            "cn", "givenName", "sn", "mail", "telephoneNumber", "department"));
 
     private byte[] objectSid;
 
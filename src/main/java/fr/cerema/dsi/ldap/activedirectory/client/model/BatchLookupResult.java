@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.model;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Result of a lookup of several objects by key (objectSid, objectGUID...)
+ * <p>
+ * Every key given to the lookup is either resolved or unresolved.
+ * @param <T> the type of the objects found
+ */
+public class BatchLookupResult<T> {
+
+    private final Map<String, T> resolved = new LinkedHashMap<>();
+
+    private final Set<String> unresolved = new LinkedHashSet<>();
+
+    /**
+     * Returns the objects found, indexed by the key given to the lookup
+     * @return the resolved objects
+     */
+    public Map<String, T> getResolved() {
+        return Collections.unmodifiableMap(resolved);
+    }
+
+    /**
+     * Returns the keys given to the lookup for which no object was found (or which are not valid)
+     * @return the unresolved keys
+     */
+    public Set<String> getUnresolved() {
+        return Collections.unmodifiableSet(unresolved);
+    }
+
+    /**
+     * Records an object found
+     * @param key the key given to the lookup
+     * @param object the object found
+     */
+    public void addResolved(String key, T object) {
+        this.unresolved.remove(key);
+        this.resolved.put(key, object);
+    }
+
+    /**
+     * Records a key for which no object was found
+     * @param key the key given to the lookup
+     */
+    public void addUnresolved(String key) {
+        if (!this.resolved.containsKey(key)) {
+            this.unresolved.add(key);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.model;
+
+/**
+ * Outcome of the addition or removal of an entity to or from a group
+ */
+public enum MembershipChangeOutcome {
+    /**
+     * The entity has been added to the group
+     */
+    ADDED,
+    /**
+     * The entity has been removed from the group
+     */
+    REMOVED,
+    /**
+     * The entity was already member of the group, nothing was changed
+     */
+    ALREADY_MEMBER,
+    /**
+     * The entity was not member of the group, nothing was changed
+     */
+    NOT_MEMBER,
+    /**
+     * The entity does not exist
+     */
+    NO_SUCH_OBJECT,
+    /**
+     * The server refused the change for another reason (see {@link MembershipChangeReport#getFailures()})
+     */
+    FAILED
+}
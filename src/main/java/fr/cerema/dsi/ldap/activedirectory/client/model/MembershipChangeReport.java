@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.model;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Result of the addition or removal of several entities to or from a group
+ * <p>
+ * Every dn given to the modification gets an outcome. The diagnostic messages of the server are kept for the
+ * dns whose outcome is {@link MembershipChangeOutcome#FAILED}.
+ */
+public class MembershipChangeReport {
+
+    private final String groupDn;
+
+    private final Map<String, MembershipChangeOutcome> outcomes = new LinkedHashMap<>();
+
+    private final Map<String, String> failures = new LinkedHashMap<>();
+
+    private int requestCount;
+
+    /**
+     * Constructor
+     * @param groupDn the dn of the modified group
+     */
+    public MembershipChangeReport(String groupDn) {
+        this.groupDn = groupDn;
+    }
+
+    /**
+     * Returns the dn of the modified group
+     * @return the dn of the group
+     */
+    public String getGroupDn() {
+        return groupDn;
+    }
+
+    /**
+     * Returns the outcome of each dn given to the modification
+     * @return the outcomes, indexed by dn
+     */
+    public Map<String, MembershipChangeOutcome> getOutcomes() {
+        return Collections.unmodifiableMap(outcomes);
+    }
+
+    /**
+     * Returns the dns having the given outcome
+     * @param outcome the outcome
+     * @return the dns
+     */
+    public Set<String> getDns(MembershipChangeOutcome outcome) {
+        Set<String> dns = new LinkedHashSet<>();
+        outcomes.forEach((dn, dnOutcome) -> {
+            if (dnOutcome == outcome) {
+                dns.add(dn);
+            }
+        });
+        return dns;
+    }
+
+    /**
+     * Returns the diagnostic messages of the server for the dns which failed
+     * @return the messages, indexed by dn
+     */
+    public Map<String, String> getFailures() {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * Tells whether every dn has been added (or removed), or was already in the requested state
+     * @return true if no dn failed or was not found
+     */
+    public boolean isSuccessful() {
+        return !outcomes.containsValue(MembershipChangeOutcome.NO_SUCH_OBJECT)
+                && !outcomes.containsValue(MembershipChangeOutcome.FAILED);
+    }
+
+    /**
+     * Returns the number of modify requests sent to the server
+     * @return the number of requests
+     */
+    public int getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * Records the outcome of a dn
+     * @param dn the dn
+     * @param outcome the outcome
+     */
+    public void record(String dn, MembershipChangeOutcome outcome) {
+        this.outcomes.put(dn, outcome);
+    }
+
+    /**
+     * Records a dn for which the server refused the change
+     * @param dn the dn
+     * @param message the diagnostic message of the server
+     */
+    public void recordFailure(String dn, String message) {
+        this.outcomes.put(dn, MembershipChangeOutcome.FAILED);
+        this.failures.put(dn, message);
+    }
+
+    /**
+     * Counts a modify request sent to the server
+     */
+    public void countRequest() {
+        this.requestCount++;
+    }
+
+    /**
+     * For debugging purpose
+     * @return the counts of outcomes
+     */
+    @Override
+    public String toString() {
+        Map<MembershipChangeOutcome, Integer> counts = new LinkedHashMap<>();
+        outcomes.values().forEach(outcome -> counts.merge(outcome, 1, Integer::sum));
+        return "Membership change of " + groupDn + " : " + counts + " in " + requestCount + " requests";
+    }
+}
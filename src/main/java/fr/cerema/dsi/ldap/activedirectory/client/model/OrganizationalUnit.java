@@ -17,11 +17,18 @@
 package fr.cerema.dsi.ldap.activedirectory.client.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 
 public class OrganizationalUnit extends AbstractAdObject{
 
+    /**
+     * The ldap attributes needed to build an instance of this class
+     */
+    public static final List<String> LDAP_ATTRIBUTES = Collections.unmodifiableList(Arrays.asList(
+            "objectClass", "distinguishedName", "objectGUID", "description"));
 
     private String path;
 
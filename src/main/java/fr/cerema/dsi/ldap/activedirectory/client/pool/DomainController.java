@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.pool;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A domain controller the {@link RoutingLdapConnectionPool} sends requests to, with its own connection pool
+ * <p>
+ * It keeps the state used to route the requests : number of connections in use, moving average of the round-trip time
+ * of the probes, consecutive failures, and whether it has been ejected from the routing.
+ */
+public class DomainController {
+
+    /**
+     * Weight of the last measure in the moving average of the latency
+     */
+    static final double LATENCY_EWMA_WEIGHT = 0.2;
+
+    private final String host;
+    private final int port;
+    private final MonitoredLdapConnectionPool ldapConnectionPool;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile boolean healthy = true;
+    private volatile long ejectedAt;
+    private volatile double latencyEwmaNanos;
+
+    /**
+     * Constructor
+     * @param host the hostname of the domain controller
+     * @param port the ldap port of the domain controller
+     * @param ldapConnectionPool the pool of connections to the domain controller
+     */
+    public DomainController(String host, int port, MonitoredLdapConnectionPool ldapConnectionPool) {
+        this.host = host;
+        this.port = port;
+        this.ldapConnectionPool = ldapConnectionPool;
+    }
+
+    /**
+     * Returns the hostname of the domain controller
+     * @return the hostname
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Returns the ldap port of the domain controller
+     * @return the port
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Returns the pool of connections to the domain controller
+     * @return the connection pool
+     */
+    public MonitoredLdapConnectionPool getLdapConnectionPool() {
+        return ldapConnectionPool;
+    }
+
+    /**
+     * Returns whether requests are routed to the domain controller
+     * @return false if the domain controller has been ejected after failures
+     */
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    /**
+     * Returns when the domain controller was ejected
+     * @return the time of the ejection in milliseconds since the epoch, 0 if it has never been ejected
+     */
+    public long getEjectedAt() {
+        return ejectedAt;
+    }
+
+    /**
+     * Returns the number of connections of the domain controller in use or being requested
+     * @return the number of connections in use
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Returns the moving average of the round-trip time of the requests probing the domain controller
+     * @return the latency in milliseconds, 0 until a probe has been measured
+     */
+    public double getLatencyMillis() {
+        return latencyEwmaNanos / 1000000d;
+    }
+
+    /**
+     * Returns the number of failures since the last success
+     * @return the number of consecutive failures
+     */
+    public int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    double getLatencyEwmaNanos() {
+        return latencyEwmaNanos;
+    }
+
+    void checkoutStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    void checkoutEnded() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Records a successful request
+     */
+    void recordSuccess() {
+        consecutiveFailures.set(0);
+    }
+
+    /**
+     * Records the round-trip time of a request
+     * @param latencyNanos the time between the request and its response, in nanoseconds
+     */
+    synchronized void recordLatency(long latencyNanos) {
+        latencyEwmaNanos = latencyEwmaNanos == 0 ? latencyNanos
+                : latencyEwmaNanos + LATENCY_EWMA_WEIGHT * (latencyNanos - latencyEwmaNanos);
+    }
+
+    /**
+     * Records a failure (connection refused, connection lost during a request)
+     * @return the number of consecutive failures
+     */
+    int recordFailure() {
+        return consecutiveFailures.incrementAndGet();
+    }
+
+    /**
+     * Stops routing requests to the domain controller
+     * @return true if the domain controller was healthy
+     */
+    synchronized boolean eject() {
+        if (!healthy) {
+            return false;
+        }
+        healthy = false;
+        ejectedAt = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * Routes the requests to the domain controller again, its latency being measured again from the given one
+     * @param latencyNanos the latency it starts from, in nanoseconds, 0 to start from its next measure
+     */
+    synchronized void readmit(double latencyNanos) {
+        consecutiveFailures.set(0);
+        latencyEwmaNanos = latencyNanos;
+        healthy = true;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port +
+                " - Healthy : " + healthy +
+                " - In flight : " + inFlight.get() +
+                " - Latency (ms) : " + String.format("%.2f", this.getLatencyMillis()) +
+                " - Consecutive failures : " + consecutiveFailures.get();
+    }
+}
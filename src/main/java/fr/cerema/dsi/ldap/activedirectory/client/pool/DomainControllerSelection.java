@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.pool;
+
+/**
+ * The ways the {@link RoutingLdapConnectionPool} chooses the domain controller of a read request
+ * among the healthy ones
+ * @see fr.cerema.dsi.ldap.activedirectory.client.LdapConnectionConfigurer#configureDomainControllerSelection(DomainControllerSelection)
+ */
+public enum DomainControllerSelection {
+
+    /**
+     * The domain controller with the fewest connections in use is chosen.
+     * <p>
+     * Spreads the load evenly when the domain controllers answer at the same speed.
+     */
+    LEAST_LOADED,
+
+    /**
+     * The domain controller with the lowest latency weighted by its connections in use is chosen. The latency of each
+     * domain controller is an exponentially weighted moving average of the round-trip time of the RootDSE reads probing
+     * it, a domain controller not measured yet being given the average latency of the others.
+     * <p>
+     * Sends less load to a slow or distant domain controller, without sending all the load to the fastest one.
+     */
+    LOWEST_LATENCY
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.pool;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+
+/**
+ * Thrown when no connection of a pool became available during the maximum waiting time
+ * <p>
+ * Unlike the other {@link LdapException}s thrown when a connection is requested, it does not mean that the server
+ * is failing, only that all the connections are in use.
+ */
+public class LdapConnectionPoolExhaustedException extends LdapException {
+
+    /**
+     * Constructor
+     * @param message the message
+     * @param cause the exception thrown by the pool
+     */
+    public LdapConnectionPoolExhaustedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
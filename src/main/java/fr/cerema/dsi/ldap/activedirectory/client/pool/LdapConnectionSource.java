@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.pool;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.ldap.client.api.LdapConnection;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The pooled connections the client sends its requests on
+ * <p>
+ * Each connection given must be given back with {@link #releaseConnection(LdapConnection)}. The statistics are those
+ * of all the connections of the source, which may be spread over several pools.
+ * @see MonitoredLdapConnectionPool
+ * @see RoutingLdapConnectionPool
+ */
+public interface LdapConnectionSource extends AutoCloseable {
+
+    /**
+     * Gives a connection, waiting at most the maximum waiting time of the pool when all the connections are in use
+     * @return a connection
+     * @throws LdapConnectionPoolExhaustedException if no connection became available during the maximum waiting time
+     * @throws LdapException if no connection can be given (server unreachable, connection not valid)
+     */
+    LdapConnection getConnection() throws LdapException;
+
+    /**
+     * Gives a connection, waiting at most the given time when all the connections are in use
+     * @param timeout the maximum waiting time, 0 not to wait
+     * @param unit the unit of the timeout
+     * @return a connection
+     * @throws LdapConnectionPoolExhaustedException if no connection became available during the given time
+     * @throws LdapException if no connection can be given (server unreachable, connection not valid)
+     */
+    LdapConnection getConnection(long timeout, TimeUnit unit) throws LdapException;
+
+    /**
+     * Gives a connection for a request modifying the directory
+     * @return a connection
+     * @throws LdapException if no connection can be given
+     */
+    LdapConnection getWriteConnection() throws LdapException;
+
+    /**
+     * Gives a connection for a request modifying the directory, waiting at most the given time when all the
+     * connections are in use
+     * @param timeout the maximum waiting time, 0 not to wait
+     * @param unit the unit of the timeout
+     * @return a connection
+     * @throws LdapConnectionPoolExhaustedException if no connection became available during the given time
+     * @throws LdapException if no connection can be given
+     */
+    LdapConnection getWriteConnection(long timeout, TimeUnit unit) throws LdapException;
+
+    /**
+     * Returns a source giving all its connections on the same server
+     * <p>
+     * Used for the sequences of requests which must be answered by the same domain controller, for instance a
+     * uSNChanged watermark read in the RootDSE, then the search of the entries changed since the previous one :
+     * the update sequence numbers are local to each domain controller. The connections of the returned source are
+     * given back to it, closing it does nothing.
+     * @return the source of the connections to one server
+     * @throws LdapException if no server can give connections
+     */
+    LdapConnectionSource pin() throws LdapException;
+
+    /**
+     * Gives back a connection given by this source
+     * @param connection the connection
+     * @throws LdapException if the connection cannot be given back
+     */
+    void releaseConnection(LdapConnection connection) throws LdapException;
+
+    /**
+     * Returns the number of connections in use
+     * @return the number of active connections
+     */
+    int getNumActive();
+
+    /**
+     * Returns the number of idle connections
+     * @return the number of idle connections
+     */
+    int getNumIdle();
+
+    /**
+     * Returns the maximum number of connections
+     * @return the maximum number of connections, negative if there is no limit
+     */
+    int getMaxActive();
+
+    /**
+     * Returns the number of threads currently waiting for a connection
+     * @return the number of waiters
+     */
+    int getNumWaiters();
+
+    /**
+     * Returns the number of connections given since the creation of the source
+     * @return the number of checkouts
+     */
+    long getCheckoutCount();
+
+    /**
+     * Returns the number of connection requests which failed since the creation of the source
+     * @return the number of failed checkouts
+     */
+    long getFailedCheckoutCount();
+
+    /**
+     * Returns the time spent by all threads waiting for a connection since the creation of the source
+     * @return the cumulated checkout waiting time, in nanoseconds
+     */
+    long getTotalCheckoutWaitNanos();
+
+    /**
+     * Returns the longest time a thread waited for a connection since the creation of the source
+     * @return the maximum checkout waiting time, in nanoseconds
+     */
+    long getMaxCheckoutWaitNanos();
+
+    /**
+     * Closes the connections
+     * @throws Exception if a pool cannot be closed
+     */
+    @Override
+    void close() throws Exception;
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.pool;
+
+import org.apache.commons.pool.PoolableObjectFactory;
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.LdapConnectionPool;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link LdapConnectionPool} keeping statistics about connection checkouts
+ * <p>
+ * In addition to the active and idle connections counts of the pool, it counts the threads waiting for a connection,
+ * the checkouts and their cumulated waiting time, and the checkouts which failed (pool exhausted, server unreachable).
+ * <p>
+ * When the pool blocks on exhaustion, the threads wait for one of the <i>maxActive</i> permits of the pool before
+ * borrowing a connection, so that each checkout can be given its own maximum waiting time. A permit is given back only
+ * once by the connection which holds it, and the number of permits follows {@link #setMaxActive(int)}.
+ */
+public class MonitoredLdapConnectionPool extends LdapConnectionPool implements LdapConnectionSource {
+
+    private final ResizableSemaphore permits;
+    private final long maxWaitNanos;
+    /**
+     * Connections given by the pool and not released yet, each one holding a permit
+     */
+    private final Set<LdapConnection> checkedOut = Collections.synchronizedSet(
+            Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    private final AtomicInteger numWaiters = new AtomicInteger();
+    private final AtomicLong checkoutCount = new AtomicLong();
+    private final AtomicLong failedCheckoutCount = new AtomicLong();
+    private final AtomicLong totalCheckoutWaitNanos = new AtomicLong();
+    private final AtomicLong maxCheckoutWaitNanos = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param factory the factory creating and validating the connections
+     * @param poolConfig the configuration of the pool
+     */
+    public MonitoredLdapConnectionPool(PoolableObjectFactory<LdapConnection> factory, GenericObjectPool.Config poolConfig) {
+        super(factory, poolConfig);
+        this.permits = poolConfig.whenExhaustedAction == GenericObjectPool.WHEN_EXHAUSTED_BLOCK && poolConfig.maxActive > 0
+                ? new ResizableSemaphore(poolConfig.maxActive) : null;
+        this.maxWaitNanos = poolConfig.maxWait > 0 ? TimeUnit.MILLISECONDS.toNanos(poolConfig.maxWait) : -1;
+    }
+
+    /**
+     * Gives a connection from the pool, recording the time spent waiting for it
+     * <p>
+     * The unchecked exceptions of the pool are thrown as {@link LdapException}s, so that the callers handle them like
+     * the other connection failures.
+     * @return a connection
+     * @throws LdapConnectionPoolExhaustedException if no connection became available during the maximum waiting time
+     * @throws LdapException if no connection can be given (server unreachable, connection not valid)
+     */
+    @Override
+    public LdapConnection getConnection() throws LdapException {
+        return this.checkout(maxWaitNanos);
+    }
+
+    @Override
+    public LdapConnection getConnection(long timeout, TimeUnit unit) throws LdapException {
+        return this.checkout(Math.max(0, unit.toNanos(timeout)));
+    }
+
+    /**
+     * Gives the connection back to the pool
+     * <p>
+     * The unchecked exceptions of the pool are thrown as {@link LdapException}s.
+     * @param connection the connection
+     * @throws LdapException if the connection cannot be given back
+     */
+    @Override
+    public void releaseConnection(LdapConnection connection) throws LdapException {
+        if (!checkedOut.remove(connection)) {
+            throw new LdapException("The connection was not given by this pool, or has already been released.");
+        }
+        try {
+            super.releaseConnection(connection);
+        } catch (RuntimeException re) {
+            throw new LdapException("Cannot release the connection to the pool : " + re.getLocalizedMessage(), re);
+        } finally {
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Changes the maximum number of active connections, and the number of permits with it
+     * @param maxActive the maximum number of active connections, strictly positive when the pool blocks on exhaustion
+     */
+    @Override
+    public synchronized void setMaxActive(int maxActive) {
+        if (permits == null) {
+            // called by the constructor of the pool too, before the permits are created
+            super.setMaxActive(maxActive);
+            return;
+        }
+        if (maxActive <= 0) {
+            throw new IllegalArgumentException("The maximum number of active connections of a blocking pool "
+                    + "must be strictly positive, got " + maxActive);
+        }
+        int delta = maxActive - this.getMaxActive();
+        super.setMaxActive(maxActive);
+        if (delta > 0) {
+            permits.release(delta);
+        } else if (delta < 0) {
+            // the permits held by the active connections are given back before new ones are granted
+            permits.reducePermits(-delta);
+        }
+    }
+
+    /**
+     * Borrows a connection once a permit is acquired
+     * @param timeoutNanos the maximum waiting time for a permit, negative to wait indefinitely
+     */
+    private LdapConnection checkout(long timeoutNanos) throws LdapException {
+        long start = System.nanoTime();
+        numWaiters.incrementAndGet();
+        boolean acquired = false;
+        boolean success = false;
+        try {
+            if (permits != null) {
+                if (timeoutNanos < 0) {
+                    permits.acquire();
+                } else if (!permits.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS)) {
+                    throw new LdapConnectionPoolExhaustedException("No connection available in the pool after "
+                            + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms.", null);
+                }
+                acquired = true;
+            }
+            LdapConnection connection = super.getConnection();
+            checkedOut.add(connection);
+            success = true;
+            return connection;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new LdapException("Interrupted while waiting for a connection.", ie);
+        } catch (NoSuchElementException nse) {
+            throw new LdapConnectionPoolExhaustedException("No connection available in the pool after "
+                    + this.getMaxWait() + " ms : " + nse.getLocalizedMessage(), nse);
+        } catch (RuntimeException re) {
+            throw new LdapException("Cannot get a connection from the pool : " + re.getLocalizedMessage(), re);
+        } finally {
+            numWaiters.decrementAndGet();
+            long waitNanos = System.nanoTime() - start;
+            if (success) {
+                checkoutCount.incrementAndGet();
+                totalCheckoutWaitNanos.addAndGet(waitNanos);
+                maxCheckoutWaitNanos.accumulateAndGet(waitNanos, Math::max);
+            } else {
+                if (acquired) {
+                    permits.release();
+                }
+                failedCheckoutCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Gives a connection for a request modifying the directory
+     * <p>
+     * Pools routing the requests to several domain controllers give it on the domain controller receiving the writes,
+     * this pool gives any of its connections.
+     * @return a connection
+     * @throws LdapException if no connection can be given (pool exhausted or server unreachable)
+     */
+    @Override
+    public LdapConnection getWriteConnection() throws LdapException {
+        return this.getConnection();
+    }
+
+    @Override
+    public LdapConnection getWriteConnection(long timeout, TimeUnit unit) throws LdapException {
+        return this.getConnection(timeout, unit);
+    }
+
+    /**
+     * Returns this pool, whose connections are all given on the same server
+     * @return this pool
+     */
+    @Override
+    public LdapConnectionSource pin() {
+        return this;
+    }
+
+    /**
+     * Returns the number of threads currently waiting for a connection
+     * @return the number of waiters
+     */
+    @Override
+    public int getNumWaiters() {
+        return numWaiters.get();
+    }
+
+    /**
+     * Returns the number of connections given by the pool since its creation
+     * @return the number of checkouts
+     */
+    @Override
+    public long getCheckoutCount() {
+        return checkoutCount.get();
+    }
+
+    /**
+     * Returns the number of connection requests which failed since the creation of the pool
+     * @return the number of failed checkouts
+     */
+    @Override
+    public long getFailedCheckoutCount() {
+        return failedCheckoutCount.get();
+    }
+
+    /**
+     * Returns the time spent by all threads waiting for a connection since the creation of the pool
+     * @return the cumulated checkout waiting time, in nanoseconds
+     */
+    @Override
+    public long getTotalCheckoutWaitNanos() {
+        return totalCheckoutWaitNanos.get();
+    }
+
+    /**
+     * Returns the longest time a thread waited for a connection since the creation of the pool
+     * @return the maximum checkout waiting time, in nanoseconds
+     */
+    @Override
+    public long getMaxCheckoutWaitNanos() {
+        return maxCheckoutWaitNanos.get();
+    }
+
+    /**
+     * For debugging purpose
+     * @return the state of the pool
+     */
+    @Override
+    public String toString() {
+        return "LDAP Connection pool state :" +
+                " Active : " + this.getNumActive() + "/" + this.getMaxActive() +
+                " - Idle : " + this.getNumIdle() +
+                " - Waiters : " + this.getNumWaiters() +
+                " - Checkouts : " + this.getCheckoutCount() +
+                " - Failed checkouts : " + this.getFailedCheckoutCount() +
+                " - Max checkout wait (ms) : " + this.getMaxCheckoutWaitNanos() / 1000000;
+    }
+
+    /**
+     * Semaphore whose number of permits can be reduced
+     */
+    private static class ResizableSemaphore extends Semaphore {
+
+        ResizableSemaphore(int permits) {
+            super(permits, true);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
@@ -0,0 +1,672 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.pool;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connection pool spreading the requests over several domain controllers, each one having its own pool
+ * <p>
+ * The connections for reads are taken on the healthy domain controller chosen by the {@link DomainControllerSelection}.
+ * The connections for writes ({@link #getWriteConnection()}) are always taken on the same domain controller, and during
+ * the read-your-writes window following a write, the reads are sent to it too, so that the client reads what it has
+ * just written before the change is replicated to the other domain controllers.
+ * <p>
+ * A domain controller is ejected from the routing after {@value #FAILURE_THRESHOLD} consecutive failures (connection
+ * refused, connection lost during a request) and its idle connections are dropped. The domain controllers are probed
+ * in background by reading their RootDSE : the round-trip time of the probes gives the latency of the healthy ones,
+ * and the ejected ones are routed to again as soon as they answer. When all the domain controllers are ejected,
+ * they are all tried anyway.
+ * <p>
+ * The sequences of requests which must be answered by the same domain controller take their connections from
+ * {@link #pin()}.
+ * <p>
+ * A checkout waits at most the maximum waiting time of the pools overall : the domain controllers whose connections
+ * are all in use are only tried without waiting, then the best of them is waited for during the remaining time.
+ */
+public class RoutingLdapConnectionPool implements LdapConnectionSource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RoutingLdapConnectionPool.class);
+
+    /**
+     * Number of consecutive failures after which a domain controller is ejected
+     */
+    public static final int FAILURE_THRESHOLD = 3;
+
+    private final List<DomainController> domainControllers;
+    private final DomainControllerSelection selection;
+    private final long readYourWritesWindowNanos;
+    private final long maxWaitNanos;
+    private final ScheduledExecutorService probeExecutor;
+
+    private final Map<LdapConnection, Checkout> checkouts = Collections.synchronizedMap(new IdentityHashMap<>());
+    private final AtomicInteger nextIndex = new AtomicInteger();
+    private volatile DomainController writeDomainController;
+    private volatile long readYourWritesUntil = System.nanoTime();
+
+    /**
+     * Constructor, starting the thread probing the domain controllers
+     * @param domainControllers the domain controllers, at least one
+     * @param selection how the domain controller of a read is chosen
+     * @param probeIntervalMillis the delay between two probes of the domain controllers, in milliseconds
+     * @param readYourWritesWindowMillis how long the reads are sent to the domain controller of the writes after a write,
+     *                                   in milliseconds, 0 to route the reads independently of the writes
+     */
+    public RoutingLdapConnectionPool(List<DomainController> domainControllers, DomainControllerSelection selection,
+                                     long probeIntervalMillis, long readYourWritesWindowMillis) {
+        if (domainControllers.isEmpty()) {
+            throw new IllegalArgumentException("At least one domain controller is needed");
+        }
+        this.domainControllers = Collections.unmodifiableList(new ArrayList<>(domainControllers));
+        this.selection = selection;
+        this.readYourWritesWindowNanos = TimeUnit.MILLISECONDS.toNanos(readYourWritesWindowMillis);
+        long maxWait = domainControllers.get(0).getLdapConnectionPool().getMaxWait();
+        this.maxWaitNanos = maxWait > 0 ? TimeUnit.MILLISECONDS.toNanos(maxWait) : -1;
+        this.probeExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "activeDirectoryClient-dc-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // the first probe measures the latencies the reads are routed with
+        this.probeExecutor.scheduleWithFixedDelay(this::probe, 0, probeIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the domain controllers the requests are routed to
+     * @return the domain controllers
+     */
+    public List<DomainController> getDomainControllers() {
+        return domainControllers;
+    }
+
+    /**
+     * Returns the domain controller receiving the writes
+     * @return the domain controller, null until the first write
+     */
+    public DomainController getWriteDomainController() {
+        return writeDomainController;
+    }
+
+    /**
+     * Gives a connection for a read, on the domain controller of the writes during the read-your-writes window,
+     * otherwise on the domain controller chosen by the selection
+     * @return a connection
+     * @throws LdapException if no domain controller can give a connection
+     */
+    @Override
+    public LdapConnection getConnection() throws LdapException {
+        return this.checkout(this.getReadPreference(), false, maxWaitNanos);
+    }
+
+    /**
+     * Gives a connection for a read like {@link #getConnection()}, waiting at most the given time
+     * @param timeout the maximum waiting time, 0 not to wait
+     * @param unit the unit of the timeout
+     * @return a connection
+     * @throws LdapException if no domain controller can give a connection
+     */
+    @Override
+    public LdapConnection getConnection(long timeout, TimeUnit unit) throws LdapException {
+        return this.checkout(this.getReadPreference(), false, Math.max(0, unit.toNanos(timeout)));
+    }
+
+    /**
+     * Gives a connection for a write, on the domain controller receiving the writes. Another domain controller is
+     * chosen when it is ejected.
+     * @return a connection
+     * @throws LdapException if no domain controller can give a connection
+     */
+    @Override
+    public LdapConnection getWriteConnection() throws LdapException {
+        DomainController current = writeDomainController;
+        return this.checkout(current != null && current.isHealthy() ? current : null, true, maxWaitNanos);
+    }
+
+    /**
+     * Gives a connection for a write like {@link #getWriteConnection()}, waiting at most the given time
+     * @param timeout the maximum waiting time, 0 not to wait
+     * @param unit the unit of the timeout
+     * @return a connection
+     * @throws LdapException if no domain controller can give a connection
+     */
+    @Override
+    public LdapConnection getWriteConnection(long timeout, TimeUnit unit) throws LdapException {
+        DomainController current = writeDomainController;
+        return this.checkout(current != null && current.isHealthy() ? current : null, true,
+                Math.max(0, unit.toNanos(timeout)));
+    }
+
+    /**
+     * Returns a source giving all its connections on the domain controller of the writes during the read-your-writes
+     * window, otherwise on the domain controller chosen by the selection
+     * <p>
+     * The domain controller is not changed when it fails : the requests of the returned source fail, and the next
+     * sequence of requests pins another domain controller.
+     * @return the source of the connections to the domain controller
+     * @throws LdapException if no domain controller is available
+     */
+    @Override
+    public LdapConnectionSource pin() throws LdapException {
+        DomainController domainController = this.getReadPreference();
+        if (domainController == null) {
+            domainController = this.select(Collections.emptyList());
+        }
+        if (domainController == null) {
+            throw new LdapException("No domain controller available.");
+        }
+        LOG.debug("Requests pinned to the domain controller " + domainController.getHost());
+        return new PinnedDomainController(domainController);
+    }
+
+    /**
+     * Gives the connection back to the pool of its domain controller, recording a success,
+     * or a failure if it has been disconnected
+     * @param connection the connection
+     * @throws LdapException if the connection cannot be given back
+     */
+    @Override
+    public void releaseConnection(LdapConnection connection) throws LdapException {
+        Checkout checkout = checkouts.remove(connection);
+        if (checkout == null) {
+            throw new LdapException("The connection was not given by this pool.");
+        }
+        DomainController domainController = checkout.domainController;
+        domainController.checkoutEnded();
+        if (connection.isConnected()) {
+            domainController.recordSuccess();
+            if (checkout.write) {
+                readYourWritesUntil = System.nanoTime() + readYourWritesWindowNanos;
+            }
+        } else {
+            this.recordFailure(domainController);
+        }
+        domainController.getLdapConnectionPool().releaseConnection(connection);
+    }
+
+    /**
+     * Returns the domain controller of the writes during the read-your-writes window
+     * @return the domain controller, null when the reads are routed by the selection
+     */
+    private DomainController getReadPreference() {
+        if (System.nanoTime() - readYourWritesUntil < 0) {
+            DomainController current = writeDomainController;
+            if (current != null && current.isHealthy()) {
+                return current;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Takes a connection on the preferred domain controller, or on the one chosen by the selection, trying the other
+     * domain controllers when it cannot give one
+     * <p>
+     * Only the preferred domain controller is waited for. When the others have all their connections in use, the best
+     * of them is waited for during the time remaining before the deadline.
+     * @param timeoutNanos the maximum waiting time overall, negative to wait indefinitely
+     */
+    private LdapConnection checkout(DomainController preferred, boolean write, long timeoutNanos) throws LdapException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        List<DomainController> tried = new ArrayList<>(domainControllers.size());
+        DomainController exhausted = null;
+        LdapException lastFailure = null;
+        LdapConnectionPoolExhaustedException lastExhaustion = null;
+        DomainController domainController = preferred != null ? preferred : this.select(tried);
+        while (domainController != null) {
+            tried.add(domainController);
+            try {
+                return this.checkoutOn(domainController, write,
+                        domainController == preferred ? remainingNanos(timeoutNanos, deadline) : 0);
+            } catch (LdapConnectionPoolExhaustedException pee) {
+                if (exhausted == null && domainController != preferred) {
+                    exhausted = domainController;
+                }
+                lastExhaustion = pee;
+            } catch (LdapException lde) {
+                lastFailure = lde;
+            }
+            domainController = this.select(tried);
+        }
+        long remainingNanos = remainingNanos(timeoutNanos, deadline);
+        if (exhausted != null && remainingNanos != 0) {
+            try {
+                return this.checkoutOn(exhausted, write, remainingNanos);
+            } catch (LdapConnectionPoolExhaustedException pee) {
+                lastExhaustion = pee;
+            } catch (LdapException lde) {
+                lastFailure = lde;
+            }
+        }
+        if (lastFailure != null) {
+            throw lastFailure;
+        }
+        if (lastExhaustion != null) {
+            throw lastExhaustion;
+        }
+        throw new LdapException("No domain controller available.");
+    }
+
+    /**
+     * Takes a connection on the given domain controller, recording a failure when it cannot give one
+     * @param timeoutNanos the maximum waiting time, negative to wait for the maximum waiting time of its pool
+     */
+    private LdapConnection checkoutOn(DomainController domainController, boolean write, long timeoutNanos) throws LdapException {
+        domainController.checkoutStarted();
+        long start = System.nanoTime();
+        try {
+            MonitoredLdapConnectionPool pool = domainController.getLdapConnectionPool();
+            LdapConnection connection = timeoutNanos < 0 ? pool.getConnection()
+                    : pool.getConnection(timeoutNanos, TimeUnit.NANOSECONDS);
+            checkouts.put(connection, new Checkout(domainController, write));
+            if (write && writeDomainController != domainController) {
+                LOG.info("Writes are now sent to the domain controller " + domainController.getHost());
+                writeDomainController = domainController;
+            }
+            return connection;
+        } catch (LdapConnectionPoolExhaustedException pee) {
+            // pool exhausted : the domain controller is busy, not failing
+            domainController.checkoutEnded();
+            LOG.debug("No connection available to the domain controller " + domainController.getHost()
+                    + " after " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+            throw pee;
+        } catch (LdapException lde) {
+            domainController.checkoutEnded();
+            LOG.warn("Cannot get a connection to the domain controller " + domainController.getHost()
+                    + " : " + lde.getLocalizedMessage());
+            this.recordFailure(domainController);
+            throw lde;
+        }
+    }
+
+    /**
+     * Returns the time remaining before the deadline, negative when there is no deadline
+     */
+    private static long remainingNanos(long timeoutNanos, long deadline) {
+        return timeoutNanos < 0 ? -1 : Math.max(0, deadline - System.nanoTime());
+    }
+
+    /**
+     * Chooses among the healthy domain controllers not tried yet, or among all the ones not tried yet when they are all
+     * ejected
+     * @return the domain controller, null if they have all been tried
+     */
+    private DomainController select(List<DomainController> tried) {
+        DomainController selected = this.select(tried, true);
+        if (selected == null && this.allEjected()) {
+            selected = this.select(tried, false);
+        }
+        return selected;
+    }
+
+    private DomainController select(List<DomainController> tried, boolean healthyOnly) {
+        int count = domainControllers.size();
+        // ties are broken by starting from a different domain controller at each call
+        int start = Math.floorMod(nextIndex.getAndIncrement(), count);
+        DomainController selected = null;
+        double selectedScore = Double.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            DomainController candidate = domainControllers.get((start + i) % count);
+            if ((healthyOnly && !candidate.isHealthy()) || tried.contains(candidate)) {
+                continue;
+            }
+            double score = this.score(candidate);
+            if (selected == null || score < selectedScore) {
+                selected = candidate;
+                selectedScore = score;
+            }
+        }
+        return selected;
+    }
+
+    private double score(DomainController domainController) {
+        int inFlight = domainController.getInFlight();
+        if (selection == DomainControllerSelection.LOWEST_LATENCY) {
+            double latency = domainController.getLatencyEwmaNanos();
+            // a domain controller not measured yet is not preferred to the measured ones
+            return (latency == 0 ? this.averageLatencyNanos() : latency) * (inFlight + 1);
+        }
+        return inFlight;
+    }
+
+    /**
+     * Returns the average latency of the healthy domain controllers already measured
+     * @return the latency in nanoseconds, 0 if none has been measured
+     */
+    private double averageLatencyNanos() {
+        double total = 0;
+        int measured = 0;
+        for (DomainController domainController : domainControllers) {
+            double latency = domainController.getLatencyEwmaNanos();
+            if (domainController.isHealthy() && latency != 0) {
+                total += latency;
+                measured++;
+            }
+        }
+        return measured == 0 ? 0 : total / measured;
+    }
+
+    private boolean allEjected() {
+        for (DomainController domainController : domainControllers) {
+            if (domainController.isHealthy()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void recordFailure(DomainController domainController) {
+        if (domainController.recordFailure() >= FAILURE_THRESHOLD && domainController.eject()) {
+            LOG.error("Domain controller " + domainController.getHost() + " ejected after "
+                    + FAILURE_THRESHOLD + " consecutive failures.");
+            // the idle connections are probably dead
+            domainController.getLdapConnectionPool().clear();
+        }
+    }
+
+    /**
+     * Reads the RootDSE of the domain controllers : records the round-trip time of the healthy ones, and routes the
+     * requests to the ejected ones answering again, starting from the average latency of the healthy ones
+     */
+    private void probe() {
+        for (DomainController domainController : domainControllers) {
+            if (domainController.isHealthy()) {
+                this.measureLatency(domainController);
+                continue;
+            }
+            try {
+                LdapConnection connection = domainController.getLdapConnectionPool().getConnection();
+                try {
+                    connection.getRootDse();
+                } finally {
+                    domainController.getLdapConnectionPool().releaseConnection(connection);
+                }
+                domainController.readmit(this.averageLatencyNanos());
+                LOG.info("Domain controller " + domainController.getHost() + " answers again, requests are routed to it.");
+            } catch (LdapException | RuntimeException e) {
+                LOG.debug("Domain controller " + domainController.getHost() + " still fails : " + e.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * Records the round-trip time of a RootDSE read on a healthy domain controller, unless all its connections are in use
+     */
+    private void measureLatency(DomainController domainController) {
+        MonitoredLdapConnectionPool pool = domainController.getLdapConnectionPool();
+        LdapConnection connection;
+        try {
+            connection = pool.getConnection(0, TimeUnit.MILLISECONDS);
+        } catch (LdapConnectionPoolExhaustedException pee) {
+            // busy : measured at the next probe
+            return;
+        } catch (LdapException | RuntimeException e) {
+            LOG.warn("Cannot probe the domain controller " + domainController.getHost() + " : " + e.getLocalizedMessage());
+            this.recordFailure(domainController);
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            connection.getRootDse();
+            domainController.recordLatency(System.nanoTime() - start);
+        } catch (LdapException | RuntimeException e) {
+            LOG.warn("Cannot probe the domain controller " + domainController.getHost() + " : " + e.getLocalizedMessage());
+            this.recordFailure(domainController);
+        } finally {
+            try {
+                pool.releaseConnection(connection);
+            } catch (LdapException lde) {
+                LOG.warn("Cannot release LdapConnection to pool : " + lde.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * Stops the probes and closes the pools of all the domain controllers
+     * @throws Exception if a pool cannot be closed
+     */
+    @Override
+    public void close() throws Exception {
+        probeExecutor.shutdownNow();
+        Exception failure = null;
+        for (DomainController domainController : domainControllers) {
+            try {
+                domainController.getLdapConnectionPool().close();
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public int getNumActive() {
+        int numActive = 0;
+        for (DomainController domainController : domainControllers) {
+            numActive += domainController.getLdapConnectionPool().getNumActive();
+        }
+        return numActive;
+    }
+
+    @Override
+    public int getNumIdle() {
+        int numIdle = 0;
+        for (DomainController domainController : domainControllers) {
+            numIdle += domainController.getLdapConnectionPool().getNumIdle();
+        }
+        return numIdle;
+    }
+
+    /**
+     * Returns the maximum number of connections of all the domain controllers
+     * @return the sum of the maximum number of connections of each pool, negative if one of them has no limit
+     */
+    @Override
+    public int getMaxActive() {
+        int maxActive = 0;
+        for (DomainController domainController : domainControllers) {
+            int poolMaxActive = domainController.getLdapConnectionPool().getMaxActive();
+            if (poolMaxActive < 0) {
+                return poolMaxActive;
+            }
+            maxActive += poolMaxActive;
+        }
+        return maxActive;
+    }
+
+    @Override
+    public int getNumWaiters() {
+        int numWaiters = 0;
+        for (DomainController domainController : domainControllers) {
+            numWaiters += domainController.getLdapConnectionPool().getNumWaiters();
+        }
+        return numWaiters;
+    }
+
+    @Override
+    public long getCheckoutCount() {
+        long checkoutCount = 0;
+        for (DomainController domainController : domainControllers) {
+            checkoutCount += domainController.getLdapConnectionPool().getCheckoutCount();
+        }
+        return checkoutCount;
+    }
+
+    @Override
+    public long getFailedCheckoutCount() {
+        long failedCheckoutCount = 0;
+        for (DomainController domainController : domainControllers) {
+            failedCheckoutCount += domainController.getLdapConnectionPool().getFailedCheckoutCount();
+        }
+        return failedCheckoutCount;
+    }
+
+    @Override
+    public long getTotalCheckoutWaitNanos() {
+        long totalCheckoutWaitNanos = 0;
+        for (DomainController domainController : domainControllers) {
+            totalCheckoutWaitNanos += domainController.getLdapConnectionPool().getTotalCheckoutWaitNanos();
+        }
+        return totalCheckoutWaitNanos;
+    }
+
+    @Override
+    public long getMaxCheckoutWaitNanos() {
+        long maxCheckoutWaitNanos = 0;
+        for (DomainController domainController : domainControllers) {
+            maxCheckoutWaitNanos = Math.max(maxCheckoutWaitNanos,
+                    domainController.getLdapConnectionPool().getMaxCheckoutWaitNanos());
+        }
+        return maxCheckoutWaitNanos;
+    }
+
+    /**
+     * For debugging purpose
+     * @return the state of the pool and of each domain controller
+     */
+    @Override
+    public String toString() {
+        StringBuilder state = new StringBuilder("LDAP Connection pool state :")
+                .append(" Active : ").append(this.getNumActive()).append("/").append(this.getMaxActive())
+                .append(" - Idle : ").append(this.getNumIdle())
+                .append(" - Waiters : ").append(this.getNumWaiters())
+                .append(" - Checkouts : ").append(this.getCheckoutCount())
+                .append(" - Failed checkouts : ").append(this.getFailedCheckoutCount())
+                .append(" - Max checkout wait (ms) : ").append(this.getMaxCheckoutWaitNanos() / 1000000)
+                .append(" - Selection : ").append(selection)
+                .append(" - Writes : ").append(writeDomainController == null ? "none" : writeDomainController.getHost());
+        for (DomainController domainController : domainControllers) {
+            state.append(System.lineSeparator()).append("  ").append(domainController);
+        }
+        return state.toString();
+    }
+
+    /**
+     * The connections of the routing pool on a single domain controller
+     */
+    private class PinnedDomainController implements LdapConnectionSource {
+        private final DomainController domainController;
+
+        PinnedDomainController(DomainController domainController) {
+            this.domainController = domainController;
+        }
+
+        @Override
+        public LdapConnection getConnection() throws LdapException {
+            return checkoutOn(domainController, false, maxWaitNanos);
+        }
+
+        @Override
+        public LdapConnection getConnection(long timeout, TimeUnit unit) throws LdapException {
+            return checkoutOn(domainController, false, Math.max(0, unit.toNanos(timeout)));
+        }
+
+        @Override
+        public LdapConnection getWriteConnection() throws LdapException {
+            return checkoutOn(domainController, true, maxWaitNanos);
+        }
+
+        @Override
+        public LdapConnection getWriteConnection(long timeout, TimeUnit unit) throws LdapException {
+            return checkoutOn(domainController, true, Math.max(0, unit.toNanos(timeout)));
+        }
+
+        @Override
+        public LdapConnectionSource pin() {
+            return this;
+        }
+
+        @Override
+        public void releaseConnection(LdapConnection connection) throws LdapException {
+            RoutingLdapConnectionPool.this.releaseConnection(connection);
+        }
+
+        @Override
+        public int getNumActive() {
+            return domainController.getLdapConnectionPool().getNumActive();
+        }
+
+        @Override
+        public int getNumIdle() {
+            return domainController.getLdapConnectionPool().getNumIdle();
+        }
+
+        @Override
+        public int getMaxActive() {
+            return domainController.getLdapConnectionPool().getMaxActive();
+        }
+
+        @Override
+        public int getNumWaiters() {
+            return domainController.getLdapConnectionPool().getNumWaiters();
+        }
+
+        @Override
+        public long getCheckoutCount() {
+            return domainController.getLdapConnectionPool().getCheckoutCount();
+        }
+
+        @Override
+        public long getFailedCheckoutCount() {
+            return domainController.getLdapConnectionPool().getFailedCheckoutCount();
+        }
+
+        @Override
+        public long getTotalCheckoutWaitNanos() {
+            return domainController.getLdapConnectionPool().getTotalCheckoutWaitNanos();
+        }
+
+        @Override
+        public long getMaxCheckoutWaitNanos() {
+            return domainController.getLdapConnectionPool().getMaxCheckoutWaitNanos();
+        }
+
+        /**
+         * Does nothing : the pool of the domain controller is closed with the routing pool
+         */
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * A connection given by the pool, with its domain controller
+     */
+    private static class Checkout {
+        private final DomainController domainController;
+        private final boolean write;
+
+        Checkout(DomainController domainController, boolean write) {
+            this.domainController = domainController;
+            this.write = write;
+        }
+    }
+}
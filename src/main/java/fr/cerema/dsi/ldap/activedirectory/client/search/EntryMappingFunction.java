@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.search;
+
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientException;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+
+/**
+ * Function converting an ldap {@link Entry} returned by a search into an object of the API
+ * @param <T> the type of the produced objects
+ */
+@FunctionalInterface
+public interface EntryMappingFunction<T> {
+
+    /**
+     * Converts the entry
+     * @param entry the entry returned by the ldap server
+     * @return the converted object, or null if the entry must be skipped
+     * @throws LdapException if a mandatory attribute cannot be read
+     * @throws ActiveDirectoryClientException if the entry cannot be converted
+     */
+    T map(Entry entry) throws LdapException, ActiveDirectoryClientException;
+}
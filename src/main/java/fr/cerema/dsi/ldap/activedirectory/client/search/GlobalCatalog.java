@@ -0,0 +1,417 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.search;
+
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientConnectionException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientRequestException;
+import fr.cerema.dsi.ldap.activedirectory.client.pool.LdapConnectionSource;
+import fr.cerema.dsi.ldap.activedirectory.client.utils.ObjectGUIDConverter;
+import fr.cerema.dsi.ldap.activedirectory.client.utils.PathHelpers;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sends the forest-wide searches to the Global Catalog
+ * <p>
+ * A Global Catalog holds a partial replica of all the objects of the forest : a single search on its port
+ * ({@value #GLOBAL_CATALOG_PORT}, or {@value #GLOBAL_CATALOG_SSL_PORT} with SSL) replaces a search in each domain.
+ * The searches whose base is the root of the forest (or the empty dn) are sent to it.
+ * <p>
+ * It only holds the attributes of the partial attribute set, read from the schema on the first search. The other
+ * attributes requested (such as {@code department}) are read on the domain controller for the entries of its domain :
+ * the entries are completed by batches of {@value #COMPLETION_BATCH_SIZE}, with a single search by objectGUID per batch.
+ * <b>The entries of the other domains of the forest are returned without these attributes</b>, a warning being logged
+ * once per search : use a search base in their domain when they are needed.
+ * <p>
+ * When the Global Catalog cannot be reached, the searches are sent to the domain controller, and the Global Catalog
+ * is only tried again after {@value #RETRY_DELAY} ms.
+ */
+public class GlobalCatalog {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GlobalCatalog.class);
+
+    /**
+     * The ldap port of the Global Catalog
+     */
+    public static final int GLOBAL_CATALOG_PORT = 3268;
+
+    /**
+     * The ldaps port of the Global Catalog
+     */
+    public static final int GLOBAL_CATALOG_SSL_PORT = 3269;
+
+    /**
+     * Attributes held by the Global Catalog for all the objects, whatever the partial attribute set
+     */
+    private static final Set<String> ALWAYS_HELD = new HashSet<>(Arrays.asList(
+            "distinguishedname", "objectclass", "objectguid", "objectsid", "cn", "name"));
+
+    /**
+     * Maximum number of entries completed by a single search on the domain controller
+     */
+    static final int COMPLETION_BATCH_SIZE = 100;
+
+    /**
+     * Delay before trying again to reach the Global Catalog after a failure, in milliseconds
+     */
+    static final long RETRY_DELAY = 30000L;
+
+    private static final String OBJECT_GUID_ATTRIBUTE = "objectGUID";
+
+    private final LdapConnectionSource globalCatalogPool;
+    private final LdapConnectionSource domainPool;
+
+    private volatile String forestRootKey;
+    private volatile ActiveDirectoryClientException forestRootFailure;
+    private volatile long forestRootFailureTime;
+    private volatile String domainNamingContext;
+    private volatile String domainKey;
+    private volatile Set<String> partialAttributeSet;
+
+    /**
+     * Constructor
+     * @param globalCatalogPool the pool of connections to the Global Catalog
+     * @param domainPool the pool of connections to the domain controller, reading the attributes the Global Catalog
+     *                   does not hold
+     */
+    public GlobalCatalog(LdapConnectionSource globalCatalogPool, LdapConnectionSource domainPool) {
+        this.globalCatalogPool = globalCatalogPool;
+        this.domainPool = domainPool;
+    }
+
+    /**
+     * Returns the pool of connections to the Global Catalog
+     * @return the connection pool
+     */
+    public LdapConnectionSource getLdapConnectionPool() {
+        return globalCatalogPool;
+    }
+
+    /**
+     * Returns whether a search base covers the whole forest : the empty dn, or the dn of the forest root domain
+     * <p>
+     * Returns false when the Global Catalog cannot be reached, so that the search is sent to the domain controller.
+     * @param searchBase the dn of the search base
+     * @return true if the search must be sent to the Global Catalog
+     */
+    public boolean isForestWide(String searchBase) {
+        if (searchBase == null || searchBase.trim().isEmpty()) {
+            return true;
+        }
+        try {
+            return this.getForestRootKey().equals(PathHelpers.getDnKey(new Dn(searchBase)));
+        } catch (LdapInvalidDnException lide) {
+            // the search on the domain controller reports the invalid base
+            return false;
+        } catch (ActiveDirectoryClientException e) {
+            LOG.warn("Global Catalog unavailable, " + searchBase + " is searched on the domain controller : "
+                    + e.getLocalizedMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Returns whether the Global Catalog can be reached, its RootDSE having been read
+     * <p>
+     * After a failure, returns false during {@value #RETRY_DELAY} ms without requesting it again.
+     * @return true if the forest-wide searches can be sent to the Global Catalog
+     */
+    public boolean isAvailable() {
+        try {
+            this.getForestRootKey();
+            return true;
+        } catch (ActiveDirectoryClientException e) {
+            LOG.warn("Global Catalog unavailable : " + e.getLocalizedMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Creates a subtree search of the whole forest
+     * @param filter the ldap filter
+     * @param pageSize the number of entries requested per page
+     * @param attributes the attributes to return
+     * @return the search, whose entries are completed with the attributes the Global Catalog does not hold
+     * @throws ActiveDirectoryClientException if the partial attribute set cannot be read
+     */
+    public PagedSearch createSearch(String filter, int pageSize, String... attributes) throws ActiveDirectoryClientException {
+        Set<String> heldAttributes = this.getPartialAttributeSet();
+        List<String> held = new ArrayList<>(attributes.length);
+        List<String> missing = new ArrayList<>();
+        for (String attribute : attributes) {
+            String key = attribute.toLowerCase(Locale.ROOT);
+            if (ALWAYS_HELD.contains(key) || heldAttributes.contains(key)) {
+                held.add(attribute);
+            } else {
+                missing.add(attribute);
+            }
+        }
+        if (missing.isEmpty()) {
+            SearchRequest req = PagedSearch.createSearchRequest("", filter, SearchScope.SUBTREE, held.toArray(new String[0]));
+            return new PagedSearch(globalCatalogPool, req, pageSize);
+        }
+        LOG.debug(missing + " not held by the Global Catalog, read on the domain controller");
+        // the objectGUID matches the entries of the Global Catalog with the ones of the domain controller
+        boolean guidRequested = false;
+        for (String attribute : held) {
+            guidRequested |= OBJECT_GUID_ATTRIBUTE.equalsIgnoreCase(attribute);
+        }
+        if (!guidRequested) {
+            held.add(OBJECT_GUID_ATTRIBUTE);
+        }
+        SearchRequest req = PagedSearch.createSearchRequest("", filter, SearchScope.SUBTREE, held.toArray(new String[0]));
+        return new CompletingSearch(req, pageSize, missing.toArray(new String[0]), !guidRequested);
+    }
+
+    /**
+     * Search of the Global Catalog whose entries are completed on the domain controller, by batches
+     */
+    private final class CompletingSearch extends PagedSearch {
+
+        private final int pageSize;
+        private final String[] missingAttributes;
+        private final boolean removeGuid;
+        private final Deque<Entry> completed = new ArrayDeque<>();
+        private boolean foreignEntryLogged;
+
+        private CompletingSearch(SearchRequest searchRequest, int pageSize, String[] missingAttributes, boolean removeGuid) {
+            super(globalCatalogPool, searchRequest, pageSize);
+            this.pageSize = pageSize;
+            this.missingAttributes = missingAttributes;
+            this.removeGuid = removeGuid;
+        }
+
+        @Override
+        public Entry nextEntry() throws ActiveDirectoryClientException {
+            if (completed.isEmpty()) {
+                // at most a page : the next page is not requested before the current one is consumed
+                List<Entry> batch = new ArrayList<>();
+                Entry entry;
+                while (batch.size() < pageSize && (entry = super.nextEntry()) != null) {
+                    batch.add(entry);
+                }
+                this.complete(batch);
+                completed.addAll(batch);
+            }
+            return completed.poll();
+        }
+
+        @Override
+        public void close() {
+            completed.clear();
+            super.close();
+        }
+
+        private void complete(List<Entry> batch) throws ActiveDirectoryClientException {
+            if (batch.isEmpty()) {
+                return;
+            }
+            String domain = getDomainKey();
+            Map<String, Entry> domainEntries = new HashMap<>();
+            for (Entry entry : batch) {
+                Attribute guid = entry.get(OBJECT_GUID_ATTRIBUTE);
+                String dnKey = PathHelpers.getDnKey(entry.getDn());
+                if (guid != null && (dnKey.equals(domain) || dnKey.endsWith("," + domain))) {
+                    domainEntries.put(ObjectGUIDConverter.getObjectGUIDAsFilterValue(guid.get().getBytes()), entry);
+                } else if (!foreignEntryLogged) {
+                    foreignEntryLogged = true;
+                    LOG.warn(entry.getDn() + " is not in the domain of the domain controller : the entries of the other domains"
+                            + " are returned without " + Arrays.toString(missingAttributes));
+                }
+                if (removeGuid) {
+                    entry.removeAttributes(OBJECT_GUID_ATTRIBUTE);
+                }
+            }
+            List<String> guids = new ArrayList<>(domainEntries.keySet());
+            for (int from = 0; from < guids.size(); from += COMPLETION_BATCH_SIZE) {
+                this.complete(guids.subList(from, Math.min(guids.size(), from + COMPLETION_BATCH_SIZE)), domainEntries);
+            }
+        }
+
+        /**
+         * Adds to the entries of the given objectGUIDs the attributes read on the domain controller, with a single search
+         */
+        private void complete(List<String> guids, Map<String, Entry> domainEntries) throws ActiveDirectoryClientException {
+            StringBuilder filter = new StringBuilder("(|");
+            for (String guid : guids) {
+                filter.append('(').append(OBJECT_GUID_ATTRIBUTE).append('=').append(guid).append(')');
+            }
+            filter.append(')');
+            String[] attributes = Arrays.copyOf(missingAttributes, missingAttributes.length + 1);
+            attributes[missingAttributes.length] = OBJECT_GUID_ATTRIBUTE;
+            SearchRequest req = PagedSearch.createSearchRequest(getDomainNamingContext(), filter.toString(),
+                    SearchScope.SUBTREE, attributes);
+            try (PagedSearch domainSearch = new PagedSearch(domainPool, req, COMPLETION_BATCH_SIZE)) {
+                Entry domainEntry;
+                while ((domainEntry = domainSearch.nextEntry()) != null) {
+                    Attribute guid = domainEntry.get(OBJECT_GUID_ATTRIBUTE);
+                    Entry entry = guid == null ? null
+                            : domainEntries.get(ObjectGUIDConverter.getObjectGUIDAsFilterValue(guid.get().getBytes()));
+                    if (entry == null) {
+                        continue;
+                    }
+                    for (Attribute attribute : domainEntry) {
+                        if (!OBJECT_GUID_ATTRIBUTE.equalsIgnoreCase(attribute.getUpId()) && entry.get(attribute.getUpId()) == null) {
+                            entry.add(attribute);
+                        }
+                    }
+                }
+            } catch (LdapException lde) {
+                throw new ActiveDirectoryClientRequestException("Cannot complete the entries of the Global Catalog.", lde);
+            }
+        }
+    }
+
+    /**
+     * Returns the key of the dn of the forest root domain, read on the Global Catalog
+     * <p>
+     * A failure is kept {@value #RETRY_DELAY} ms, so that the forest-wide searches do not try the Global Catalog
+     * each time while it is down.
+     */
+    private String getForestRootKey() throws ActiveDirectoryClientException {
+        String key = forestRootKey;
+        if (key != null) {
+            return key;
+        }
+        ActiveDirectoryClientException failure = forestRootFailure;
+        if (failure != null && System.currentTimeMillis() - forestRootFailureTime < RETRY_DELAY) {
+            throw failure;
+        }
+        try {
+            key = getDnKey(getNamingContext(readRootDse(globalCatalogPool, "rootDomainNamingContext"),
+                    "rootDomainNamingContext"));
+        } catch (ActiveDirectoryClientException e) {
+            forestRootFailureTime = System.currentTimeMillis();
+            forestRootFailure = e;
+            throw e;
+        }
+        forestRootKey = key;
+        forestRootFailure = null;
+        return key;
+    }
+
+    private String getDomainKey() throws ActiveDirectoryClientException {
+        String key = domainKey;
+        if (key == null) {
+            key = getDnKey(this.getDomainNamingContext());
+            domainKey = key;
+        }
+        return key;
+    }
+
+    private String getDomainNamingContext() throws ActiveDirectoryClientException {
+        String namingContext = domainNamingContext;
+        if (namingContext == null) {
+            namingContext = getNamingContext(readRootDse(domainPool, "defaultNamingContext"), "defaultNamingContext");
+            domainNamingContext = namingContext;
+        }
+        return namingContext;
+    }
+
+    /**
+     * Returns the lower case names of the attributes of the partial attribute set, read from the schema
+     */
+    private Set<String> getPartialAttributeSet() throws ActiveDirectoryClientException {
+        Set<String> attributes = partialAttributeSet;
+        if (attributes != null) {
+            return attributes;
+        }
+        Attribute schemaNamingContext = readRootDse(globalCatalogPool, "schemaNamingContext").get("schemaNamingContext");
+        if (schemaNamingContext == null) {
+            throw new ActiveDirectoryClientRequestException("No schemaNamingContext in the RootDSE of the Global Catalog.");
+        }
+        attributes = new HashSet<>();
+        SearchRequest req = PagedSearch.createSearchRequest(schemaNamingContext.get().getString(),
+                "(&(objectClass=attributeSchema)(isMemberOfPartialAttributeSet=TRUE))", SearchScope.ONELEVEL,
+                "lDAPDisplayName");
+        try (PagedSearch pagedSearch = new PagedSearch(globalCatalogPool, req, PagedSearch.DEFAULT_PAGE_SIZE)) {
+            Entry entry;
+            while ((entry = pagedSearch.nextEntry()) != null) {
+                Attribute name = entry.get("lDAPDisplayName");
+                if (name != null) {
+                    attributes.add(name.get().getString().toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        LOG.info(attributes.size() + " attributes in the partial attribute set of the Global Catalog");
+        attributes = Collections.unmodifiableSet(attributes);
+        partialAttributeSet = attributes;
+        return attributes;
+    }
+
+    private static String getNamingContext(Entry rootDse, String attribute) throws ActiveDirectoryClientException {
+        Attribute namingContext = rootDse.get(attribute);
+        if (namingContext == null) {
+            throw new ActiveDirectoryClientRequestException("No " + attribute + " in the RootDSE of the server.");
+        }
+        return namingContext.get().getString();
+    }
+
+    private static String getDnKey(String namingContext) throws ActiveDirectoryClientException {
+        try {
+            return PathHelpers.getDnKey(new Dn(namingContext));
+        } catch (LdapInvalidDnException lide) {
+            throw new ActiveDirectoryClientRequestException("Invalid naming context " + namingContext + " in the RootDSE of the server.", lide);
+        }
+    }
+
+    private static Entry readRootDse(LdapConnectionSource ldapConnectionPool, String... attributes) throws ActiveDirectoryClientException {
+        try {
+            LdapConnection ldapConnection = ldapConnectionPool.getConnection();
+            LOG.debug("Successfully got connection from pool");
+            try {
+                Entry rootDse = ldapConnection.getRootDse(attributes);
+                if (rootDse == null) {
+                    throw new ActiveDirectoryClientRequestException("Cannot read the RootDSE of the server.");
+                }
+                return rootDse;
+            } catch (LdapException lde) {
+                LOG.error("An error occured while requesting the ldap server.");
+                LOG.error("Message from  Server is :" + lde.getLocalizedMessage());
+                throw new ActiveDirectoryClientRequestException("An error occured while requesting the ldap server.", lde);
+            } finally {
+                ldapConnectionPool.releaseConnection(ldapConnection);
+                LOG.debug("Successfully released connection to pool");
+            }
+        } catch (LdapException lde) {
+            LOG.error("Cannot get/release LdapConnection from/to pool.");
+            LOG.error("Message from LDAP Server is :" + lde.getLocalizedMessage());
+            throw new ActiveDirectoryClientConnectionException("Cannot get/release LdapConnection from/to pool.", lde);
+        }
+    }
+}
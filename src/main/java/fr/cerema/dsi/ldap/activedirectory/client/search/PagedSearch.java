@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.search;
+
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientConnectionException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientRequestException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.UncheckedActiveDirectoryClientException;
+import fr.cerema.dsi.ldap.activedirectory.client.pool.LdapConnectionSource;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.SearchCursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.*;
+import org.apache.directory.api.ldap.model.message.controls.PagedResults;
+import org.apache.directory.api.ldap.model.message.controls.PagedResultsImpl;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Search engine based upon the Simple Paged Results control (RFC 2696)
+ * <p>
+ * Active Directory never returns more than MaxPageSize (1000 by default) entries for a single search request.
+ * This class sends the search page by page, each page being requested only when the previous one has been consumed,
+ * so that all results are returned and only one page at a time is held in memory.
+ * <p>
+ * The paging cookie is bound to the connection by Active Directory : a connection is taken from the pool
+ * on the first call to {@link #nextEntry()} and kept until the last page is read or until {@link #close()} is called.
+ * Instances are not thread safe.
+ */
+public class PagedSearch implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PagedSearch.class);
+
+    /**
+     * Default number of entries requested per page (must not exceed the MaxPageSize policy of the AD)
+     */
+    public static final int DEFAULT_PAGE_SIZE = 500;
+
+    private static final byte[] NO_COOKIE = new byte[0];
+
+    private final LdapConnectionSource ldapConnectionPool;
+    private final SearchRequest searchRequest;
+    private final int pageSize;
+
+    private LdapConnection ldapConnection;
+    private SearchCursor searchCursor;
+    private byte[] cookie;
+    private boolean lastPage;
+    private boolean closed;
+    private int pageCount;
+    private long entryCount;
+
+    /**
+     * Constructor
+     * @param ldapConnectionPool the pool the connection will be taken from
+     * @param searchRequest the search request to send (its paged results control is managed by this class)
+     * @param pageSize the number of entries requested per page
+     */
+    public PagedSearch(LdapConnectionSource ldapConnectionPool, SearchRequest searchRequest, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be strictly positive, got " + pageSize);
+        }
+        this.ldapConnectionPool = ldapConnectionPool;
+        this.searchRequest = searchRequest;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Builds a search request with no size or time limit
+     * @param searchBase the dn of the search base
+     * @param filter the ldap filter
+     * @param scope the scope of the search
+     * @param attributes the attributes to return
+     * @return the search request
+     * @throws ActiveDirectoryClientException if the searchBase or the filter is not valid
+     */
+    public static SearchRequest createSearchRequest(String searchBase, String filter, SearchScope scope, String... attributes)
+            throws ActiveDirectoryClientException {
+        try {
+            SearchRequest req = new SearchRequestImpl();
+            req.setScope(scope);
+            req.addAttributes(attributes);
+            req.setTimeLimit(0);
+            req.setSizeLimit(0);
+            req.setBase(new Dn(searchBase));
+            req.setFilter(filter);
+            return req;
+        } catch (LdapException lde) {
+            LOG.error("Cannot build search request for base " + searchBase + " and filter " + filter);
+            throw new ActiveDirectoryClientRequestException("Cannot build search request for base " + searchBase
+                    + " and filter " + filter, lde);
+        }
+    }
+
+    /**
+     * Returns the next entry, requesting the next page from the server if the current one is consumed
+     * <p>
+     * The connection is given back to the pool as soon as the last entry has been read.
+     * @return the next entry, or null if there is no more result
+     * @throws ActiveDirectoryClientException if an exception occurs while requesting the ldap server
+     */
+    public Entry nextEntry() throws ActiveDirectoryClientException {
+        if (closed) {
+            return null;
+        }
+        try {
+            while (true) {
+                if (searchCursor == null) {
+                    if (lastPage) {
+                        close();
+                        return null;
+                    }
+                    this.requestNextPage();
+                }
+                while (searchCursor.next()) {
+                    Response response = searchCursor.get();
+                    if (response instanceof SearchResultEntry) {
+                        entryCount++;
+                        return ((SearchResultEntry) response).getEntry();
+                    }
+                }
+                this.endOfPage();
+            }
+        } catch (LdapException lde) {
+            LOG.error("An error occured while requesting the ldap server.");
+            LOG.error("Message from  Server is :" + lde.getLocalizedMessage());
+            close();
+            throw new ActiveDirectoryClientRequestException("An error occured while requesting the ldap server.", lde);
+        } catch (CursorException ce) {
+            LOG.error("An error occured while fetching next cursor of LDAP request results.");
+            LOG.error("Message from  Server is :" + ce.getLocalizedMessage());
+            close();
+            throw new ActiveDirectoryClientRequestException("An error occured while fetching LDAP request results.", ce);
+        }
+    }
+
+    /**
+     * Returns the next entry converted with the given function, skipping entries for which it returns null
+     * @param mappingFunction the conversion function
+     * @param <T> the type of the converted objects
+     * @return the next converted object, or null if there is no more result
+     * @throws ActiveDirectoryClientException if an exception occurs while requesting the ldap server
+     */
+    public <T> T next(EntryMappingFunction<T> mappingFunction) throws ActiveDirectoryClientException {
+        Entry entry;
+        while ((entry = this.nextEntry()) != null) {
+            try {
+                T result = mappingFunction.map(entry);
+                if (result != null) {
+                    return result;
+                }
+            } catch (LdapException lde) {
+                close();
+                throw new ActiveDirectoryClientRequestException("Cannot convert entry " + entry.getDn(), lde);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a lazy {@link Stream} of the converted results
+     * <p>
+     * Pages are requested while the stream is consumed. The stream must be closed (for instance with a
+     * try-with-resources block) if it is not entirely consumed, so that the connection is given back to the pool.
+     * Exceptions are thrown as {@link UncheckedActiveDirectoryClientException}.
+     * @param mappingFunction the conversion function, entries for which it returns null are skipped
+     * @param <T> the type of the converted objects
+     * @return the stream of results
+     */
+    public <T> Stream<T> stream(EntryMappingFunction<T> mappingFunction) {
+        Iterator<T> iterator = new Iterator<T>() {
+            private T nextResult;
+
+            @Override
+            public boolean hasNext() {
+                if (nextResult == null) {
+                    try {
+                        nextResult = PagedSearch.this.next(mappingFunction);
+                    } catch (ActiveDirectoryClientException e) {
+                        throw new UncheckedActiveDirectoryClientException(e);
+                    }
+                }
+                return nextResult != null;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                T result = nextResult;
+                nextResult = null;
+                return result;
+            }
+        };
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+    /**
+     * Returns the number of pages requested so far
+     * @return the number of pages
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Returns the number of entries returned so far
+     * @return the number of entries
+     */
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Stops the search and gives the connection back to the pool
+     * <p>
+     * If pages remain on the server side, the paged search is abandoned by sending a last request
+     * of size 0 with the current cookie (RFC 2696, section 3), so that the server frees its resources.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (ldapConnection == null) {
+            return;
+        }
+        try {
+            this.closeCursor();
+            if (!lastPage && cookie != null) {
+                this.abandonPagedSearch();
+            }
+        } finally {
+            try {
+                ldapConnectionPool.releaseConnection(ldapConnection);
+                LOG.debug("Successfully released connection to pool");
+            } catch (LdapException lde) {
+                LOG.error("Cannot release LdapConnection to pool.");
+                LOG.error("Message from LDAP Server is :" + lde.getLocalizedMessage());
+            }
+            ldapConnection = null;
+        }
+    }
+
+    private void requestNextPage() throws LdapException, ActiveDirectoryClientException {
+        if (ldapConnection == null) {
+            try {
+                ldapConnection = ldapConnectionPool.getConnection();
+                LOG.debug("Successfully got connection from pool");
+            } catch (LdapException lde) {
+                closed = true;
+                LOG.error("Cannot get/release LdapConnection from/to pool.");
+                LOG.error("Message from LDAP Server is :" + lde.getLocalizedMessage());
+                throw new ActiveDirectoryClientConnectionException("Cannot get/release LdapConnection from/to pool.", lde);
+            }
+        }
+        PagedResults pagedResults = new PagedResultsImpl();
+        pagedResults.setSize(pageSize);
+        pagedResults.setCookie(cookie == null ? NO_COOKIE : cookie);
+        searchRequest.addControl(pagedResults);
+        searchCursor = ldapConnection.search(searchRequest);
+        pageCount++;
+        LOG.debug("Requested page " + pageCount + " of search on " + searchRequest.getBase());
+    }
+
+    private void endOfPage() throws LdapException {
+        SearchResultDone done = searchCursor.getSearchResultDone();
+        this.closeCursor();
+        ResultCodeEnum resultCode = done == null ? ResultCodeEnum.SUCCESS : done.getLdapResult().getResultCode();
+        if (resultCode == ResultCodeEnum.NO_SUCH_OBJECT) {
+            LOG.warn("Search base " + searchRequest.getBase() + " does not exist, there is no result for this request.");
+            lastPage = true;
+            return;
+        }
+        if (resultCode != ResultCodeEnum.SUCCESS) {
+            throw new LdapException("Search on " + searchRequest.getBase() + " ended with result code " + resultCode
+                    + " : " + done.getLdapResult().getDiagnosticMessage());
+        }
+        PagedResults responseControl = (PagedResults) done.getControl(PagedResults.OID);
+        cookie = responseControl == null ? null : responseControl.getCookie();
+        lastPage = cookie == null || cookie.length == 0;
+    }
+
+    private void closeCursor() {
+        if (searchCursor != null) {
+            try {
+                // Closing a cursor which is not done abandons the running search operation
+                searchCursor.close();
+            } catch (IOException ioe) {
+                LOG.error("An error occured while closing cursor of LDAP request results.");
+                LOG.error("Message from  Server is :" + ioe.getLocalizedMessage());
+            }
+            searchCursor = null;
+        }
+    }
+
+    private void abandonPagedSearch() {
+        try {
+            PagedResults pagedResults = new PagedResultsImpl();
+            pagedResults.setSize(0);
+            pagedResults.setCookie(cookie);
+            searchRequest.addControl(pagedResults);
+            SearchCursor cursor = ldapConnection.search(searchRequest);
+            while (cursor.next()) {
+                cursor.get();
+            }
+            cursor.close();
+            LOG.debug("Paged search on " + searchRequest.getBase() + " abandoned after " + pageCount + " pages");
+        } catch (LdapException | CursorException | IOException e) {
+            LOG.warn("Cannot abandon paged search on " + searchRequest.getBase() + " : " + e.getLocalizedMessage());
+        }
+        cookie = null;
+    }
+}
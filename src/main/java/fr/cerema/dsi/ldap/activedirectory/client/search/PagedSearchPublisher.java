@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.search;
+
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientException;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reactive Streams {@link Publisher} of the results of a {@link PagedSearch}
+ * <p>
+ * Each subscriber gets its own search, started on its first request. The entries are converted one at a time,
+ * and only as many as requested by the subscriber : the next page is requested from the server only when
+ * the current one has been consumed and the subscriber asks for more results, so that the memory used does not
+ * depend on the number of results. The search runs on the given executor, never in the thread calling
+ * {@link Subscription#request(long)}. Cancelling the subscription abandons the search and gives its connection
+ * back to the pool.
+ * @param <T> the type of the published objects
+ */
+public class PagedSearchPublisher<T> implements Publisher<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PagedSearchPublisher.class);
+
+    /**
+     * Creates the search of a new subscriber
+     */
+    @FunctionalInterface
+    public interface PagedSearchFactory {
+
+        /**
+         * Creates a search, not started yet
+         * @return the search
+         * @throws ActiveDirectoryClientException if the search cannot be built
+         */
+        PagedSearch create() throws ActiveDirectoryClientException;
+    }
+
+    private final PagedSearchFactory searchFactory;
+    private final EntryMappingFunction<T> mappingFunction;
+    private final Executor executor;
+
+    /**
+     * Constructor
+     * @param searchFactory the factory of the searches, called once per subscriber
+     * @param mappingFunction the conversion of the entries, entries for which it returns null are skipped
+     * @param executor the executor running the searches
+     */
+    public PagedSearchPublisher(PagedSearchFactory searchFactory, EntryMappingFunction<T> mappingFunction, Executor executor) {
+        this.searchFactory = searchFactory;
+        this.mappingFunction = mappingFunction;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        subscriber.onSubscribe(new SearchSubscription(subscriber));
+    }
+
+    /**
+     * Subscription of a single subscriber
+     * <p>
+     * The signals to the subscriber are emitted by a drain loop which runs on the executor, and of which
+     * only one instance runs at a time : {@link #request(long)} and {@link #cancel()} only record the demand
+     * and schedule the loop. The search is only used by the drain loop.
+     */
+    private final class SearchSubscription implements Subscription, Runnable {
+
+        private final Subscriber<? super T> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile long invalidRequest;
+
+        private PagedSearch pagedSearch;
+        private boolean terminated;
+
+        private SearchSubscription(Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = n;
+            } else {
+                requested.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            }
+            this.schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            this.schedule();
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException ree) {
+                    LOG.error("Cannot run search : " + ree.getLocalizedMessage());
+                    wip.set(0);
+                    if (!terminated) {
+                        terminated = true;
+                        subscriber.onError(ree);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                this.drain();
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            if (terminated) {
+                return;
+            }
+            if (cancelled) {
+                LOG.debug("Subscription cancelled, closing search");
+                this.terminate();
+                return;
+            }
+            if (invalidRequest != 0) {
+                this.terminate();
+                subscriber.onError(new IllegalArgumentException("Requested number of results must be strictly positive, got "
+                        + invalidRequest));
+                return;
+            }
+            long emitted = 0;
+            try {
+                if (pagedSearch == null) {
+                    pagedSearch = searchFactory.create();
+                }
+                long demand = requested.get();
+                while (emitted != demand) {
+                    if (cancelled) {
+                        this.terminate();
+                        return;
+                    }
+                    T next = pagedSearch.next(mappingFunction);
+                    if (next == null) {
+                        this.terminate();
+                        subscriber.onComplete();
+                        return;
+                    }
+                    try {
+                        subscriber.onNext(next);
+                    } catch (RuntimeException re) {
+                        // the subscriber is in an unknown state and must not be signalled anymore (rule 2.13)
+                        LOG.error("Subscriber failed while receiving results, closing search : " + re.getLocalizedMessage());
+                        this.terminate();
+                        return;
+                    }
+                    emitted++;
+                }
+            } catch (ActiveDirectoryClientException | RuntimeException e) {
+                // failure of the search itself : creation, request of a page or conversion of an entry
+                this.terminate();
+                subscriber.onError(e);
+                return;
+            }
+            if (emitted != 0) {
+                long consumed = emitted;
+                requested.getAndUpdate(current -> current == Long.MAX_VALUE ? current : current - consumed);
+            }
+        }
+
+        private void terminate() {
+            terminated = true;
+            if (pagedSearch != null) {
+                pagedSearch.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.search;
+
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientConnectionException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientRequestException;
+import fr.cerema.dsi.ldap.activedirectory.client.pool.LdapConnectionSource;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Reads the values of a multi-valued attribute, following the ranged retrieval of the Active Directory
+ * <p>
+ * The AD returns at most MaxValRange values (1500 by default) of an attribute such as member or memberOf.
+ * Beyond this limit the entry holds an attribute named <code>member;range=0-1499</code> instead of
+ * <code>member</code>, and the next values must be requested with <code>member;range=1500-*</code>,
+ * until the server answers with a range ending with <code>*</code>.
+ * <p>
+ * The values are given to a consumer range by range : only one range is held in memory at a time,
+ * whatever the number of values of the attribute.
+ */
+public class RangedAttributeReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RangedAttributeReader.class);
+
+    private static final String RANGE_OPTION = ";range=";
+
+    /**
+     * Listener notified after each range read
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+
+        /**
+         * Called after each range read
+         * @param dn the dn of the entry
+         * @param attribute the name of the read attribute
+         * @param valuesRead the number of values read so far
+         * @param complete true if all the values have been read
+         */
+        void rangeRead(Dn dn, String attribute, long valuesRead, boolean complete);
+    }
+
+    private final ProgressListener progressListener;
+
+    /**
+     * Creates a reader logging its progress
+     */
+    public RangedAttributeReader() {
+        this(null);
+    }
+
+    /**
+     * Constructor
+     * @param progressListener the listener notified after each range of the ranged attributes, may be null
+     */
+    public RangedAttributeReader(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Returns the ranged attribute (<code>attribute;range=low-high</code>) held by an entry
+     * @param entry the entry
+     * @param attribute the name of the attribute, without option
+     * @return the ranged attribute, or null if the entry holds all the values of the attribute or none of them
+     */
+    public static Attribute getRangedAttribute(Entry entry, String attribute) {
+        String prefix = attribute.toLowerCase(Locale.ROOT) + RANGE_OPTION;
+        for (Attribute candidate : entry) {
+            if (candidate.getUpId().toLowerCase(Locale.ROOT).startsWith(prefix)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gives all the values of an attribute of the entry to the consumer
+     * <p>
+     * When the entry only holds the first range of the attribute, the next ranges are looked up on the given connection.
+     * @param ldapConnection the connection used to read the next ranges
+     * @param entry the entry, as returned by a lookup or a search requesting the attribute
+     * @param attribute the name of the attribute, without option
+     * @param consumer the consumer of the values
+     * @return the number of values read
+     * @throws LdapException if an exception occurs while requesting the ldap server
+     */
+    public long read(LdapConnection ldapConnection, Entry entry, String attribute, Consumer<String> consumer)
+            throws LdapException {
+        Attribute values = entry.get(attribute);
+        if (values != null) {
+            return consume(values, consumer);
+        }
+        Attribute range = getRangedAttribute(entry, attribute);
+        if (range == null) {
+            return 0;
+        }
+        Dn dn = entry.getDn();
+        long valuesRead = 0;
+        while (true) {
+            valuesRead += consume(range, consumer);
+            String upId = range.getUpId();
+            String high = upId.substring(upId.lastIndexOf('-') + 1);
+            boolean complete = "*".equals(high);
+            this.progress(dn, attribute, valuesRead, complete);
+            if (complete) {
+                return valuesRead;
+            }
+            int nextLow;
+            try {
+                nextLow = Integer.parseInt(high) + 1;
+            } catch (NumberFormatException nfe) {
+                throw new LdapException("Invalid range " + upId + " returned for " + dn, nfe);
+            }
+            Entry next = ldapConnection.lookup(dn, attribute + RANGE_OPTION + nextLow + "-*");
+            if (next == null) {
+                LOG.warn("Entry " + dn + " disappeared while reading the ranges of " + attribute);
+                return valuesRead;
+            }
+            range = getRangedAttribute(next, attribute);
+            if (range == null) {
+                // the attribute shrank below the size of a range since the previous request
+                Attribute rest = next.get(attribute);
+                if (rest != null) {
+                    valuesRead += consume(rest, consumer);
+                }
+                this.progress(dn, attribute, valuesRead, true);
+                return valuesRead;
+            }
+        }
+    }
+
+    /**
+     * Gives all the values of an attribute of the entry to the consumer, the next ranges being looked up
+     * on a pooled connection
+     * <p>
+     * No connection is taken from the pool when the entry holds all the values of the attribute.
+     * @param ldapConnectionPool the pool the connection is taken from
+     * @param entry the entry, as returned by a lookup or a search requesting the attribute
+     * @param attribute the name of the attribute, without option
+     * @param consumer the consumer of the values
+     * @return the number of values read
+     * @throws ActiveDirectoryClientException if an exception occurs while requesting the ldap server
+     */
+    public long read(LdapConnectionSource ldapConnectionPool, Entry entry, String attribute, Consumer<String> consumer)
+            throws ActiveDirectoryClientException {
+        if (getRangedAttribute(entry, attribute) == null) {
+            Attribute values = entry.get(attribute);
+            return values == null ? 0 : consume(values, consumer);
+        }
+        try {
+            LdapConnection ldapConnection = ldapConnectionPool.getConnection();
+            LOG.debug("Successfully got connection from pool");
+            try {
+                return this.read(ldapConnection, entry, attribute, consumer);
+            } catch (LdapException lde) {
+                LOG.error("An error occured while requesting LDAP Server.");
+                LOG.error("Message from LDAP Server is :" + lde.getLocalizedMessage());
+                throw new ActiveDirectoryClientRequestException("An error occured while requesting LDAP Server.", lde);
+            } finally {
+                ldapConnectionPool.releaseConnection(ldapConnection);
+                LOG.debug("Successfully released connection to pool");
+            }
+        } catch (LdapException lde) {
+            LOG.error("Cannot get/release LdapConnection from/to pool.");
+            throw new ActiveDirectoryClientConnectionException("Cannot get/release LdapConnection from/to pool.", lde);
+        }
+    }
+
+    private void progress(Dn dn, String attribute, long valuesRead, boolean complete) {
+        LOG.debug(valuesRead + " values of " + attribute + " read for " + dn + (complete ? " (complete)" : ""));
+        if (progressListener != null) {
+            progressListener.rangeRead(dn, attribute, valuesRead, complete);
+        }
+    }
+
+    private static long consume(Attribute values, Consumer<String> consumer) {
+        long count = 0;
+        for (Value<?> value : values) {
+            consumer.accept(value.getString());
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.sync;
+
+import fr.cerema.dsi.ldap.activedirectory.client.model.AbstractAdObject;
+import fr.cerema.dsi.ldap.activedirectory.client.model.AdGroup;
+import fr.cerema.dsi.ldap.activedirectory.client.model.AdUser;
+import fr.cerema.dsi.ldap.activedirectory.client.model.OrganizationalUnit;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Local copy of the users, groups and organizational units under a search base, maintained by a
+ * {@link DirectorySynchronizer}
+ * <p>
+ * Objects are identified by objectGUID, so that renamed or moved objects are updated in place.
+ * Direct memberships are read from the member attribute of the groups : {@link #getMembers(String, boolean)} and
+ * {@link #getGroupsOf(String, boolean)} answer from memory, only the objects of the replica being returned.
+ * <p>
+ * The replica can be read while it is synchronized : every method sees the state before or after a change,
+ * never in between.
+ */
+public class DirectoryReplica {
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, ReplicaObject> objectsByGuid = new HashMap<>();
+    private final Map<String, String> guidsByDn = new HashMap<>();
+    private final Map<String, Set<String>> groupGuidsByMemberDn = new HashMap<>();
+
+    /**
+     * Returns the object having the given distinguished name
+     * @param dn the distinguished name
+     * @return the object, or null if it is not in the replica
+     */
+    public AbstractAdObject getByDn(String dn) {
+        lock.readLock().lock();
+        try {
+            ReplicaObject replicaObject = this.getReplicaObjectByDn(dn);
+            return replicaObject == null ? null : replicaObject.adObject;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the object having the given objectGUID
+     * @param objectGUID the objectGUID, as returned by {@link AbstractAdObject#getObjectGUID()}
+     * @return the object, or null if it is not in the replica
+     */
+    public AbstractAdObject getByObjectGuid(String objectGUID) {
+        lock.readLock().lock();
+        try {
+            ReplicaObject replicaObject = objectsByGuid.get(normalize(objectGUID));
+            return replicaObject == null ? null : replicaObject.adObject;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the users of the replica
+     * @return the users
+     */
+    public List<AdUser> getUsers() {
+        return this.getObjects(AdUser.class);
+    }
+
+    /**
+     * Returns the groups of the replica
+     * @return the groups
+     */
+    public List<AdGroup> getGroups() {
+        return this.getObjects(AdGroup.class);
+    }
+
+    /**
+     * Returns the organizational units of the replica
+     * @return the organizational units
+     */
+    public List<OrganizationalUnit> getOrganizationalUnits() {
+        return this.getObjects(OrganizationalUnit.class);
+    }
+
+    /**
+     * Returns the members of a group, as {@link fr.cerema.dsi.ldap.activedirectory.client.ActiveDirectoryClient#getMembersForDN(String, boolean)}
+     * would, without requesting the ldap server
+     * @param groupDn the distinguished name of the group
+     * @param recursive if true, the members of the member groups are returned too
+     * @return the members found in the replica
+     */
+    public Set<AbstractAdObject> getMembers(String groupDn, boolean recursive) {
+        lock.readLock().lock();
+        try {
+            Set<AbstractAdObject> members = new LinkedHashSet<>();
+            Set<String> visited = new HashSet<>();
+            Deque<ReplicaObject> groups = new ArrayDeque<>();
+            ReplicaObject start = this.getReplicaObjectByDn(groupDn);
+            if (start != null) {
+                groups.add(start);
+                visited.add(start.guid);
+            }
+            while (!groups.isEmpty()) {
+                for (String memberDn : groups.poll().memberDns) {
+                    ReplicaObject member = this.getReplicaObjectByDn(memberDn);
+                    if (member == null || !visited.add(member.guid)) {
+                        continue;
+                    }
+                    if (member.adObject instanceof AdUser || member.adObject instanceof AdGroup) {
+                        members.add(member.adObject);
+                    }
+                    if (recursive && member.adObject instanceof AdGroup) {
+                        groups.add(member);
+                    }
+                }
+            }
+            return members;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the groups an object is member of, as
+     * {@link fr.cerema.dsi.ldap.activedirectory.client.ActiveDirectoryClient#getGroupsForDN(String, boolean)}
+     * would, without requesting the ldap server
+     * @param dn the distinguished name of the user or group
+     * @param recursive if true, the groups the groups are member of are returned too
+     * @return the groups found in the replica
+     */
+    public Set<AdGroup> getGroupsOf(String dn, boolean recursive) {
+        lock.readLock().lock();
+        try {
+            Set<AdGroup> groups = new LinkedHashSet<>();
+            Set<String> visited = new HashSet<>();
+            Deque<String> dns = new ArrayDeque<>();
+            dns.add(normalize(dn));
+            while (!dns.isEmpty()) {
+                Set<String> groupGuids = groupGuidsByMemberDn.getOrDefault(dns.poll(), Collections.emptySet());
+                for (String groupGuid : groupGuids) {
+                    ReplicaObject group = objectsByGuid.get(groupGuid);
+                    if (group == null || !visited.add(groupGuid)) {
+                        continue;
+                    }
+                    groups.add((AdGroup) group.adObject);
+                    if (recursive) {
+                        dns.add(group.dnKey);
+                    }
+                }
+            }
+            return groups;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of objects of the replica
+     * @return the size of the replica
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return objectsByGuid.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds or replaces an object
+     * @param replicaObject the object with the entry it was built from
+     */
+    void put(ReplicaObject replicaObject) {
+        lock.writeLock().lock();
+        try {
+            this.doRemove(replicaObject.guid);
+            this.doPut(replicaObject);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes an object
+     * @param objectGUID the objectGUID of the object
+     * @return true if the object was in the replica
+     */
+    boolean remove(String objectGUID) {
+        lock.writeLock().lock();
+        try {
+            return this.doRemove(normalize(objectGUID));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces all the objects of the replica
+     * @param replicaObjects the new objects
+     */
+    void replaceAll(Collection<ReplicaObject> replicaObjects) {
+        lock.writeLock().lock();
+        try {
+            objectsByGuid.clear();
+            guidsByDn.clear();
+            groupGuidsByMemberDn.clear();
+            replicaObjects.forEach(this::doPut);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the entries the objects were built from, for persistence
+     * @return the entries
+     */
+    List<Entry> getEntries() {
+        lock.readLock().lock();
+        try {
+            List<Entry> entries = new ArrayList<>(objectsByGuid.size());
+            objectsByGuid.values().forEach(replicaObject -> entries.add(replicaObject.entry));
+            return entries;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private <T extends AbstractAdObject> List<T> getObjects(Class<T> type) {
+        lock.readLock().lock();
+        try {
+            List<T> objects = new ArrayList<>();
+            for (ReplicaObject replicaObject : objectsByGuid.values()) {
+                if (type.isInstance(replicaObject.adObject)) {
+                    objects.add(type.cast(replicaObject.adObject));
+                }
+            }
+            return objects;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private ReplicaObject getReplicaObjectByDn(String dn) {
+        String guid = guidsByDn.get(normalize(dn));
+        return guid == null ? null : objectsByGuid.get(guid);
+    }
+
+    private void doPut(ReplicaObject replicaObject) {
+        objectsByGuid.put(replicaObject.guid, replicaObject);
+        guidsByDn.put(replicaObject.dnKey, replicaObject.guid);
+        for (String memberDn : replicaObject.memberDns) {
+            groupGuidsByMemberDn.computeIfAbsent(memberDn, key -> new HashSet<>()).add(replicaObject.guid);
+        }
+    }
+
+    private boolean doRemove(String guid) {
+        ReplicaObject removed = objectsByGuid.remove(guid);
+        if (removed == null) {
+            return false;
+        }
+        guidsByDn.remove(removed.dnKey, guid);
+        for (String memberDn : removed.memberDns) {
+            Set<String> groupGuids = groupGuidsByMemberDn.get(memberDn);
+            if (groupGuids != null) {
+                groupGuids.remove(guid);
+                if (groupGuids.isEmpty()) {
+                    groupGuidsByMemberDn.remove(memberDn);
+                }
+            }
+        }
+        return true;
+    }
+
+    private static String normalize(String key) {
+        return key.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * An object of the replica with the entry it was built from
+     */
+    static class ReplicaObject {
+        private final String guid;
+        private final String dnKey;
+        private final Entry entry;
+        private final AbstractAdObject adObject;
+        private final List<String> memberDns = new ArrayList<>();
+
+        ReplicaObject(String objectGUID, Entry entry, AbstractAdObject adObject) {
+            this.guid = normalize(objectGUID);
+            this.dnKey = normalize(adObject.getDistinguishedName());
+            this.entry = entry;
+            this.adObject = adObject;
+            Attribute members = adObject instanceof AdGroup ? entry.get("member") : null;
+            if (members != null) {
+                for (Value<?> member : members) {
+                    memberDns.add(normalize(member.getString()));
+                }
+            }
+        }
+    }
+}
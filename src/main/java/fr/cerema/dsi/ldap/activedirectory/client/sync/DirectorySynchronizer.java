@@ -0,0 +1,650 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.sync;
+
+import fr.cerema.dsi.ldap.activedirectory.client.ActiveDirectoryClientImpl;
+import fr.cerema.dsi.ldap.activedirectory.client.AdEntryMapper;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientConnectionException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientInvalidDnException;
+import fr.cerema.dsi.ldap.activedirectory.client.exceptions.ActiveDirectoryClientRequestException;
+import fr.cerema.dsi.ldap.activedirectory.client.model.AbstractAdObject;
+import fr.cerema.dsi.ldap.activedirectory.client.model.OrganizationalUnit;
+import fr.cerema.dsi.ldap.activedirectory.client.pool.LdapConnectionSource;
+import fr.cerema.dsi.ldap.activedirectory.client.search.PagedSearch;
+import fr.cerema.dsi.ldap.activedirectory.client.search.RangedAttributeReader;
+import fr.cerema.dsi.ldap.activedirectory.client.utils.ObjectGUIDConverter;
+import fr.cerema.dsi.ldap.activedirectory.client.utils.PathHelpers;
+import org.apache.directory.api.ldap.extras.controls.ad.AdDirSync;
+import org.apache.directory.api.ldap.extras.controls.ad.AdDirSyncImpl;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.SearchCursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.message.Response;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchResultDone;
+import org.apache.directory.api.ldap.model.message.SearchResultEntry;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.controls.OpaqueControl;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps a {@link DirectoryReplica} of the users, groups and organizational units under a search base
+ * <p>
+ * The first call to {@link #synchronize()} loads all the entries. The next calls only read the entries changed
+ * since the previous one, with the DirSync control when the domain controller supports it and the account is
+ * allowed to use it, or with a uSNChanged watermark otherwise (see {@link SyncMode}).
+ * <p>
+ * When a {@link SyncStateStore} is given, the state is saved after each synchronization and loaded by the constructor,
+ * so that a restarted application goes on with incremental synchronizations. The whole replica is only saved after a
+ * full synchronization, when the changes saved since outnumber its objects, or by {@link #saveReplica()} (on shutdown
+ * for instance) : an incremental synchronization only saves its changes and the new watermark.
+ * <p>
+ * Large groups whose member attribute exceeds the MaxValRange policy of the AD are returned with ranged values
+ * by the server : their next ranges are read before the changes are applied, so that the replica knows all their members.
+ */
+public class DirectorySynchronizer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DirectorySynchronizer.class);
+
+    private static final String OBJECT_FILTER = "(|(objectClass=user)(objectClass=group)(objectClass=organizationalUnit))";
+
+    /**
+     * OID of the control returning deleted entries (tombstones)
+     */
+    public static final String SHOW_DELETED_OID = "1.2.840.113556.1.4.417";
+
+    private static final int DIRSYNC_MAX_RETURN_LENGTH = 1048576;
+
+    private final LdapConnectionSource ldapConnectionPool;
+    private final AdEntryMapper entryMapper;
+    private final String searchBase;
+    private final String searchBaseKey;
+    private final String domainDn;
+    private final String[] attributes;
+    private final int pageSize;
+    private final SyncStateStore syncStateStore;
+    private final DirectoryReplica replica = new DirectoryReplica();
+    private final RangedAttributeReader rangedAttributeReader = new RangedAttributeReader();
+
+    private SyncState syncState;
+    private boolean dirSyncEnabled = true;
+    /**
+     * Number of changed entries saved since the replica was saved entirely
+     */
+    private long savedChanges;
+
+    /**
+     * Creates a synchronizer using the connections and the configuration of the given client
+     * @param client the client
+     * @param searchBase the dn of the synchronized subtree
+     * @param syncStateStore the persistence of the state, or null to keep the state in memory only
+     * @throws ActiveDirectoryClientException if the searchBase is not a valid dn
+     */
+    public DirectorySynchronizer(ActiveDirectoryClientImpl client, String searchBase, SyncStateStore syncStateStore)
+            throws ActiveDirectoryClientException {
+        this(client.getLdapConnectionPool(), client.getEntryMapper(), client.getObjectAttributes(),
+                PagedSearch.DEFAULT_PAGE_SIZE, searchBase, syncStateStore);
+    }
+
+    /**
+     * Constructor
+     * @param ldapConnectionPool the pool the connections are taken from
+     * @param entryMapper the mapper building the objects of the replica
+     * @param objectAttributes the attributes needed by the mapper
+     * @param pageSize the page size of the searches
+     * @param searchBase the dn of the synchronized subtree
+     * @param syncStateStore the persistence of the state, or null to keep the state in memory only
+     * @throws ActiveDirectoryClientException if the searchBase is not a valid dn
+     */
+    public DirectorySynchronizer(LdapConnectionSource ldapConnectionPool, AdEntryMapper entryMapper,
+                                 String[] objectAttributes, int pageSize, String searchBase,
+                                 SyncStateStore syncStateStore) throws ActiveDirectoryClientException {
+        this.ldapConnectionPool = ldapConnectionPool;
+        this.entryMapper = entryMapper;
+        this.attributes = Arrays.copyOf(objectAttributes, objectAttributes.length + 2);
+        this.attributes[objectAttributes.length] = "member";
+        this.attributes[objectAttributes.length + 1] = "isDeleted";
+        this.pageSize = pageSize;
+        this.searchBase = searchBase;
+        this.searchBaseKey = dnKey(searchBase);
+        this.domainDn = PathHelpers.getDomainDn(searchBase);
+        this.syncStateStore = syncStateStore;
+        this.loadState();
+    }
+
+    /**
+     * Returns the replica maintained by this synchronizer
+     * @return the replica
+     */
+    public DirectoryReplica getReplica() {
+        return replica;
+    }
+
+    /**
+     * Enables or disables the DirSync control (enabled by default, used when the server supports it)
+     * @param dirSyncEnabled false to always use the uSNChanged watermark
+     */
+    public void setDirSyncEnabled(boolean dirSyncEnabled) {
+        this.dirSyncEnabled = dirSyncEnabled;
+    }
+
+    /**
+     * Reads the changes made since the previous synchronization (all the entries on the first call)
+     * and applies them to the replica
+     * @return the report of the synchronization
+     * @throws ActiveDirectoryClientException if an exception occurs while requesting the ldap server
+     */
+    public synchronized SyncResult synchronize() throws ActiveDirectoryClientException {
+        LOG.info("synchronize called for searchBase: " + searchBase);
+        long start = System.currentTimeMillis();
+        // the watermark of a domain controller is only valid on it : all the requests are sent to the same one
+        LdapConnectionSource connections = this.pinConnections();
+        RootDse rootDse = this.readRootDse(connections);
+        SyncState previous = syncState;
+        Changes changes = null;
+
+        if (dirSyncEnabled && rootDse.supportsDirSync && (previous == null || previous.getMode() == SyncMode.DIRSYNC)) {
+            byte[] cookie = previous == null ? null : previous.getCookie();
+            changes = this.readDirSyncChanges(connections, cookie);
+            if (changes == null && cookie != null) {
+                LOG.warn("DirSync cookie rejected by the server, synchronizing all entries");
+                changes = this.readDirSyncChanges(connections, null);
+            }
+            if (changes == null) {
+                LOG.warn("DirSync is not available for this account, falling back to uSNChanged");
+                dirSyncEnabled = false;
+                previous = null;
+            }
+        }
+        if (changes == null) {
+            boolean sameServer = previous != null && previous.getMode() == SyncMode.USN_CHANGED
+                    && rootDse.serverName != null && rootDse.serverName.equals(previous.getServerName());
+            changes = this.readUsnChanges(connections, sameServer ? previous.getHighestCommittedUsn() : -1, rootDse);
+        }
+
+        if (!changes.full && this.hasMovedSubtree(connections, changes)) {
+            // the descendants of the unit changed their dn without changing their uSNChanged
+            LOG.info("Organizational unit renamed or moved, synchronizing all entries");
+            changes = changes.state.getMode() == SyncMode.DIRSYNC ? this.readDirSyncChanges(connections, null)
+                    : this.readUsnChanges(connections, -1, rootDse);
+            if (changes == null) {
+                changes = this.readUsnChanges(connections, -1, rootDse);
+            }
+        }
+
+        this.readRangedMembers(connections, changes);
+        SyncResult result = this.apply(changes, System.currentTimeMillis() - start);
+        syncState = changes.state;
+        List<Entry> changedEntries = changes.getChangedEntries();
+        if (changes.full || savedChanges + changedEntries.size() > replica.size()) {
+            this.saveState();
+        } else {
+            this.saveChanges(changedEntries);
+        }
+        LOG.info(result.toString());
+        return result;
+    }
+
+    /**
+     * Saves the whole replica with the current watermark, so that the changes saved since the last full save
+     * are not replayed when the state is loaded
+     * <p>
+     * Does nothing if no {@link SyncStateStore} was given, or if no change was saved since.
+     */
+    public synchronized void saveReplica() {
+        if (syncState != null && savedChanges > 0) {
+            this.saveState();
+        }
+    }
+
+    /**
+     * Reads the changes with the DirSync control
+     * @param cookie the cookie of the previous synchronization, null to read all the entries
+     * @return the changes, or null if the server refused the control or the cookie
+     */
+    private Changes readDirSyncChanges(LdapConnectionSource connections, byte[] cookie) throws ActiveDirectoryClientException {
+        Changes changes = new Changes(cookie == null);
+        try {
+            LdapConnection ldapConnection = connections.getConnection();
+            LOG.debug("Successfully got connection from pool");
+            try {
+                boolean moreData = true;
+                while (moreData) {
+                    // DirSync only accepts the head of a naming context as base : entries are filtered afterwards
+                    SearchRequest req = PagedSearch.createSearchRequest(domainDn, OBJECT_FILTER, SearchScope.SUBTREE, attributes);
+                    AdDirSync dirSync = new AdDirSyncImpl();
+                    dirSync.setCritical(true);
+                    dirSync.setMaxReturnLength(DIRSYNC_MAX_RETURN_LENGTH);
+                    dirSync.setCookie(cookie);
+                    req.addControl(dirSync);
+
+                    int entryCount = 0;
+                    SearchResultDone done;
+                    SearchCursor searchCursor = ldapConnection.search(req);
+                    try {
+                        while (searchCursor.next()) {
+                            Response response = searchCursor.get();
+                            if (response instanceof SearchResultEntry) {
+                                entryCount++;
+                                changes.add(((SearchResultEntry) response).getEntry());
+                            }
+                        }
+                        done = searchCursor.getSearchResultDone();
+                    } finally {
+                        searchCursor.close();
+                    }
+
+                    ResultCodeEnum resultCode = done.getLdapResult().getResultCode();
+                    if (resultCode != ResultCodeEnum.SUCCESS) {
+                        if (entryCount == 0 && changes.isEmpty()) {
+                            LOG.warn("DirSync search refused by the server : " + resultCode + " "
+                                    + done.getLdapResult().getDiagnosticMessage());
+                            return null;
+                        }
+                        throw new ActiveDirectoryClientRequestException("DirSync search failed : " + resultCode + " "
+                                + done.getLdapResult().getDiagnosticMessage());
+                    }
+                    AdDirSync responseControl = (AdDirSync) done.getControl(AdDirSync.OID);
+                    if (responseControl == null) {
+                        LOG.warn("No DirSync control in the response of the server");
+                        return null;
+                    }
+                    cookie = responseControl.getCookie();
+                    // a non zero flag in the response means that more changes are waiting
+                    moreData = entryCount > 0 && responseControl.getFlags() != null && !responseControl.getFlags().isEmpty();
+                }
+                if (!changes.full) {
+                    this.lookupChangedEntries(ldapConnection, changes);
+                }
+            } catch (LdapException lde) {
+                LOG.error("An error occured while requesting the ldap server.");
+                LOG.error("Message from  Server is :" + lde.getLocalizedMessage());
+                throw new ActiveDirectoryClientRequestException("An error occured while requesting the ldap server.", lde);
+            } catch (CursorException ce) {
+                LOG.error("An error occured while fetching next cursor of LDAP request results.");
+                LOG.error("Message from  Server is :" + ce.getLocalizedMessage());
+                throw new ActiveDirectoryClientRequestException("An error occured while fetching LDAP request results.", ce);
+            } catch (IOException ioe) {
+                LOG.error("An error occured while closing cursor of LDAP request results.");
+                throw new ActiveDirectoryClientRequestException("An error occured while closing cursor of LDAP request results.", ioe);
+            } finally {
+                connections.releaseConnection(ldapConnection);
+                LOG.debug("Successfully released connection to pool");
+            }
+        } catch (LdapException lde) {
+            LOG.error("Cannot get/release LdapConnection from/to pool.");
+            throw new ActiveDirectoryClientConnectionException("Cannot get/release LdapConnection from/to pool.", lde);
+        }
+        changes.state.setMode(SyncMode.DIRSYNC);
+        changes.state.setCookie(cookie);
+        return changes;
+    }
+
+    /**
+     * DirSync only returns the changed attributes of the modified entries : they are read entirely
+     */
+    private void lookupChangedEntries(LdapConnection ldapConnection, Changes changes) throws LdapException {
+        for (Map.Entry<String, Entry> change : changes.updated.entrySet()) {
+            Entry entry = ldapConnection.lookup(change.getValue().getDn(), attributes);
+            if (entry == null) {
+                change.setValue(null);
+            } else {
+                change.setValue(entry);
+            }
+        }
+        changes.updated.values().removeIf(entry -> entry == null);
+    }
+
+    /**
+     * Reads the entries whose uSNChanged is greater than the given watermark
+     * @param highestCommittedUsn the watermark of the previous synchronization, -1 to read all the entries
+     */
+    private Changes readUsnChanges(LdapConnectionSource connections, long highestCommittedUsn, RootDse rootDse) throws ActiveDirectoryClientException {
+        Changes changes = new Changes(highestCommittedUsn < 0);
+        if (changes.full) {
+            try (PagedSearch pagedSearch = new PagedSearch(connections,
+                    PagedSearch.createSearchRequest(searchBase, OBJECT_FILTER, SearchScope.SUBTREE, attributes), pageSize)) {
+                Entry entry;
+                while ((entry = pagedSearch.nextEntry()) != null) {
+                    changes.add(entry);
+                }
+            }
+        } else {
+            String usnFilter = "(uSNChanged>=" + (highestCommittedUsn + 1) + ")";
+            // searched from the domain so that the entries moved out of the search base are seen
+            try (PagedSearch pagedSearch = new PagedSearch(connections, PagedSearch.createSearchRequest(domainDn,
+                    "(&" + OBJECT_FILTER + usnFilter + ")", SearchScope.SUBTREE, attributes), pageSize)) {
+                Entry entry;
+                while ((entry = pagedSearch.nextEntry()) != null) {
+                    changes.add(entry);
+                }
+            }
+            SearchRequest deletedRequest = PagedSearch.createSearchRequest(domainDn, "(&(isDeleted=TRUE)" + usnFilter + ")",
+                    SearchScope.SUBTREE, "objectGUID", "isDeleted");
+            deletedRequest.addControl(new OpaqueControl(SHOW_DELETED_OID, true));
+            try (PagedSearch pagedSearch = new PagedSearch(connections, deletedRequest, pageSize)) {
+                Entry entry;
+                while ((entry = pagedSearch.nextEntry()) != null) {
+                    changes.add(entry);
+                }
+            }
+        }
+        changes.state.setMode(SyncMode.USN_CHANGED);
+        changes.state.setHighestCommittedUsn(rootDse.highestCommittedUsn);
+        changes.state.setServerName(rootDse.serverName);
+        return changes;
+    }
+
+    /**
+     * Replaces the first range of the member attribute of the large groups by all their members
+     */
+    private void readRangedMembers(LdapConnectionSource connections, Changes changes) throws ActiveDirectoryClientException {
+        for (Entry entry : changes.updated.values()) {
+            Attribute range = RangedAttributeReader.getRangedAttribute(entry, "member");
+            if (range == null) {
+                continue;
+            }
+            List<String> memberDns = new ArrayList<>();
+            rangedAttributeReader.read(connections, entry, "member", memberDns::add);
+            try {
+                entry.removeAttributes(range.getUpId());
+                entry.add("member", memberDns.toArray(new String[0]));
+            } catch (LdapException lde) {
+                throw new ActiveDirectoryClientRequestException("Cannot read the members of " + entry.getDn(), lde);
+            }
+        }
+    }
+
+    private SyncResult apply(Changes changes, long durationMillis) {
+        int updated = 0;
+        int removed = 0;
+        List<DirectoryReplica.ReplicaObject> replicaObjects = new ArrayList<>();
+        for (Map.Entry<String, Entry> change : changes.updated.entrySet()) {
+            DirectoryReplica.ReplicaObject replicaObject = this.toReplicaObject(change.getKey(), change.getValue());
+            if (replicaObject == null) {
+                continue;
+            }
+            updated++;
+            if (changes.full) {
+                replicaObjects.add(replicaObject);
+            } else {
+                replica.put(replicaObject);
+            }
+        }
+        if (changes.full) {
+            removed = Math.max(0, replica.size() - replicaObjects.size());
+            replica.replaceAll(replicaObjects);
+        } else {
+            for (String guid : changes.removed.keySet()) {
+                if (replica.remove(guid)) {
+                    removed++;
+                }
+            }
+        }
+        changes.state.setSearchBase(searchBase);
+        changes.state.setLastSyncTime(System.currentTimeMillis());
+        return new SyncResult(changes.state.getMode(), changes.full, updated, removed, durationMillis);
+    }
+
+    private DirectoryReplica.ReplicaObject toReplicaObject(String objectGUID, Entry entry) {
+        try {
+            if (entry.get("distinguishedName") == null) {
+                entry.add("distinguishedName", entry.getDn().getName());
+            }
+            return new DirectoryReplica.ReplicaObject(objectGUID, entry, entryMapper.toAdObject(entry));
+        } catch (ActiveDirectoryClientException | LdapException | RuntimeException e) {
+            LOG.debug("****Skipping " + entry.getDn() + " : " + e.getMessage());
+            return null;
+        }
+    }
+
+    private RootDse readRootDse(LdapConnectionSource connections) throws ActiveDirectoryClientException {
+        RootDse rootDse = new RootDse();
+        try {
+            LdapConnection ldapConnection = connections.getConnection();
+            LOG.debug("Successfully got connection from pool");
+            try {
+                Entry entry = ldapConnection.getRootDse("supportedControl", "highestCommittedUSN", "dsServiceName");
+                Attribute supportedControl = entry.get("supportedControl");
+                rootDse.supportsDirSync = supportedControl != null && supportedControl.contains(AdDirSync.OID);
+                if (entry.get("highestCommittedUSN") != null) {
+                    rootDse.highestCommittedUsn = Long.parseLong(entry.get("highestCommittedUSN").getString());
+                }
+                if (entry.get("dsServiceName") != null) {
+                    rootDse.serverName = entry.get("dsServiceName").getString();
+                }
+            } catch (LdapException lde) {
+                LOG.error("An error occured while requesting the ldap server.");
+                LOG.error("Message from  Server is :" + lde.getLocalizedMessage());
+                throw new ActiveDirectoryClientRequestException("An error occured while requesting the ldap server.", lde);
+            } finally {
+                connections.releaseConnection(ldapConnection);
+                LOG.debug("Successfully released connection to pool");
+            }
+        } catch (LdapException lde) {
+            LOG.error("Cannot get/release LdapConnection from/to pool.");
+            throw new ActiveDirectoryClientConnectionException("Cannot get/release LdapConnection from/to pool.", lde);
+        }
+        return rootDse;
+    }
+
+    /**
+     * Returns the connections to the domain controller answering all the requests of a synchronization
+     */
+    private LdapConnectionSource pinConnections() throws ActiveDirectoryClientException {
+        try {
+            return ldapConnectionPool.pin();
+        } catch (LdapException lde) {
+            LOG.error("Cannot get LdapConnection from pool.");
+            throw new ActiveDirectoryClientConnectionException("Cannot get/release LdapConnection from/to pool.", lde);
+        }
+    }
+
+    private void loadState() {
+        if (syncStateStore == null) {
+            return;
+        }
+        try {
+            SyncState state = syncStateStore.load();
+            if (state == null || !searchBase.equalsIgnoreCase(state.getSearchBase())) {
+                return;
+            }
+            List<DirectoryReplica.ReplicaObject> replicaObjects = new ArrayList<>();
+            for (Entry entry : state.getEntries()) {
+                DirectoryReplica.ReplicaObject replicaObject = this.toReplicaObject(getObjectGuid(entry), entry);
+                if (replicaObject != null) {
+                    replicaObjects.add(replicaObject);
+                }
+            }
+            replica.replaceAll(replicaObjects);
+            if (!state.getChanges().isEmpty()) {
+                // replayed like the changes read from the server
+                Changes changes = new Changes(false);
+                state.getChanges().forEach(changes::add);
+                this.apply(changes, 0);
+                savedChanges = state.getChanges().size();
+            }
+            state.setEntries(new ArrayList<>());
+            state.setChanges(new ArrayList<>());
+            syncState = state;
+            LOG.info("Synchronization state loaded : " + replica.size() + " objects, " + savedChanges
+                    + " changes replayed, mode " + state.getMode());
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Cannot load synchronization state, all entries will be synchronized : " + e.getMessage());
+        }
+    }
+
+    private void saveState() {
+        if (syncStateStore == null) {
+            return;
+        }
+        syncState.setEntries(replica.getEntries());
+        try {
+            syncStateStore.save(syncState);
+            savedChanges = 0;
+        } catch (IOException ioe) {
+            LOG.warn("Cannot save synchronization state : " + ioe.getMessage());
+        } finally {
+            syncState.setEntries(new ArrayList<>());
+        }
+    }
+
+    private void saveChanges(List<Entry> changedEntries) {
+        if (syncStateStore == null) {
+            return;
+        }
+        try {
+            syncStateStore.saveChanges(syncState, changedEntries);
+            savedChanges += changedEntries.size();
+        } catch (IOException ioe) {
+            LOG.warn("Cannot save synchronization changes, saving the whole replica : " + ioe.getMessage());
+            this.saveState();
+        }
+    }
+
+    private static String getObjectGuid(Entry entry) {
+        try {
+            return ObjectGUIDConverter.getObjectGUIDAsString(entry.get("objectGUID").getBytes());
+        } catch (LdapException lde) {
+            throw new IllegalArgumentException("Invalid objectGUID in " + entry.getDn(), lde);
+        }
+    }
+
+    /**
+     * Changes read from the server, indexed by objectGUID
+     */
+    private class Changes {
+        private final boolean full;
+        private final Map<String, Entry> updated = new LinkedHashMap<>();
+        /**
+         * Entries removing their object from the replica (tombstones, entries moved out of the search base)
+         */
+        private final Map<String, Entry> removed = new LinkedHashMap<>();
+        private final SyncState state = new SyncState();
+
+        private Changes(boolean full) {
+            this.full = full;
+        }
+
+        private void add(Entry entry) {
+            String guid = getObjectGuid(entry);
+            Attribute isDeleted = entry.get("isDeleted");
+            boolean deleted = isDeleted != null && isDeleted.contains("TRUE");
+            if (deleted || !isUnderSearchBase(entry)) {
+                updated.remove(guid);
+                removed.put(guid, entry);
+            } else {
+                removed.remove(guid);
+                updated.put(guid, entry);
+            }
+        }
+
+        /**
+         * Returns the entries of the changes, to be replayed by {@link #add(Entry)} : an objectGUID being either
+         * removed or updated, their order does not matter
+         */
+        private List<Entry> getChangedEntries() {
+            List<Entry> entries = new ArrayList<>(removed.size() + updated.size());
+            entries.addAll(removed.values());
+            entries.addAll(updated.values());
+            return entries;
+        }
+
+        private boolean isEmpty() {
+            return updated.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    private boolean isUnderSearchBase(Entry entry) {
+        String key = PathHelpers.getDnKey(entry.getDn());
+        return key.equals(searchBaseKey) || key.endsWith("," + searchBaseKey);
+    }
+
+    /**
+     * Tells whether an organizational unit of the replica was renamed, moved, or moved out of the search base, or
+     * whether a unit was moved under the search base with its subtree : the dns of the descendants changed without
+     * changing their uSNChanged, so that only a full synchronization sees them
+     */
+    private boolean hasMovedSubtree(LdapConnectionSource connections, Changes changes) throws ActiveDirectoryClientException {
+        for (Map.Entry<String, Entry> change : changes.updated.entrySet()) {
+            Attribute classes = change.getValue().get("objectClass");
+            if (classes == null || !classes.contains("organizationalUnit")) {
+                continue;
+            }
+            AbstractAdObject previous = replica.getByObjectGuid(change.getKey());
+            if (previous == null) {
+                if (this.hasChildren(connections, change.getValue().getDn().getName())) {
+                    LOG.debug("Organizational unit " + change.getValue().getDn() + " moved under the search base with its subtree");
+                    return true;
+                }
+            } else if (!dnKey(previous.getDistinguishedName()).equals(PathHelpers.getDnKey(change.getValue().getDn()))) {
+                LOG.debug("Organizational unit " + previous.getDistinguishedName() + " renamed or moved to "
+                        + change.getValue().getDn());
+                return true;
+            }
+        }
+        for (Map.Entry<String, Entry> change : changes.removed.entrySet()) {
+            Attribute isDeleted = change.getValue().get("isDeleted");
+            boolean deleted = isDeleted != null && isDeleted.contains("TRUE");
+            AbstractAdObject previous = replica.getByObjectGuid(change.getKey());
+            if (!deleted && previous instanceof OrganizationalUnit) {
+                LOG.debug("Organizational unit " + previous.getDistinguishedName() + " moved out of the search base");
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasChildren(LdapConnectionSource connections, String dn) throws ActiveDirectoryClientException {
+        try (PagedSearch pagedSearch = new PagedSearch(connections,
+                PagedSearch.createSearchRequest(dn, OBJECT_FILTER, SearchScope.ONELEVEL, "objectGUID"), pageSize)) {
+            return pagedSearch.nextEntry() != null;
+        }
+    }
+
+    private static String dnKey(String dn) throws ActiveDirectoryClientException {
+        try {
+            return PathHelpers.getDnKey(new Dn(dn));
+        } catch (LdapInvalidDnException e) {
+            throw new ActiveDirectoryClientInvalidDnException(dn + " is not a valid distinguishedName", e);
+        }
+    }
+
+    /**
+     * Attributes of the root DSE used by the synchronization
+     */
+    private static class RootDse {
+        private boolean supportsDirSync;
+        private long highestCommittedUsn;
+        private String serverName;
+    }
+}
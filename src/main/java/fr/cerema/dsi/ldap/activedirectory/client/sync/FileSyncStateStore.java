@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.sync;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifReader;
+import org.apache.directory.api.ldap.model.ldif.LdifUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * {@link SyncStateStore} writing the state in a directory : the watermark in a properties file,
+ * the entries of the replica and the changes appended since in LDIF files
+ * <p>
+ * Each full save writes a new generation of the replica file, with an empty change log. The properties file, written
+ * to a temporary file and then renamed, names the current generation : an interrupted save leaves the previous state,
+ * and the files of the previous generation are only deleted once the new one is current. The changes are appended
+ * before the watermark is replaced : after a crash between the two writes, the changes already in the log are read
+ * again by the next synchronization, which is harmless. A change log truncated by a crash cannot be read, and the
+ * next synchronization loads all the entries.
+ */
+public class FileSyncStateStore implements SyncStateStore {
+
+    private static final String STATE_FILE = "sync-state.properties";
+    private static final String REPLICA_FILE = "replica-%d.ldif";
+    private static final String CHANGES_FILE = "replica-changes-%d.ldif";
+
+    private final Path directory;
+    private final Path stateFile;
+
+    /**
+     * Constructor
+     * @param directory the directory holding the state files, which must exist
+     */
+    public FileSyncStateStore(Path directory) {
+        this.directory = directory;
+        this.stateFile = directory.resolve(STATE_FILE);
+    }
+
+    @Override
+    public SyncState load() throws IOException {
+        if (!Files.exists(stateFile)) {
+            return null;
+        }
+        Properties properties = this.readProperties();
+        SyncState state = new SyncState();
+        state.setSearchBase(properties.getProperty("searchBase"));
+        state.setMode(SyncMode.valueOf(properties.getProperty("mode")));
+        String cookie = properties.getProperty("cookie");
+        if (cookie != null) {
+            state.setCookie(Base64.getDecoder().decode(cookie));
+        }
+        state.setHighestCommittedUsn(Long.parseLong(properties.getProperty("highestCommittedUsn", "0")));
+        state.setServerName(properties.getProperty("serverName"));
+        state.setLastSyncTime(Long.parseLong(properties.getProperty("lastSyncTime", "0")));
+        long generation = getGeneration(properties);
+        state.setEntries(readEntries(this.replicaFile(generation)));
+        state.setChanges(readEntries(this.changesFile(generation)));
+        return state;
+    }
+
+    @Override
+    public void save(SyncState state) throws IOException {
+        long previousGeneration = Files.exists(stateFile) ? getGeneration(this.readProperties()) : -1;
+        long generation = previousGeneration + 1;
+        Path replicaFile = this.replicaFile(generation);
+        Path replicaTemp = Files.createTempFile(directory, replicaFile.getFileName().toString(), ".tmp");
+        try (Writer writer = Files.newBufferedWriter(replicaTemp, StandardCharsets.UTF_8)) {
+            writeEntries(state.getEntries(), writer);
+        } catch (IOException ioe) {
+            Files.deleteIfExists(replicaTemp);
+            throw ioe;
+        }
+        Files.move(replicaTemp, replicaFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(this.changesFile(generation));
+
+        this.writeProperties(state, generation);
+        if (previousGeneration >= 0) {
+            Files.deleteIfExists(this.replicaFile(previousGeneration));
+            Files.deleteIfExists(this.changesFile(previousGeneration));
+        }
+    }
+
+    @Override
+    public void saveChanges(SyncState state, Collection<Entry> changes) throws IOException {
+        if (!Files.exists(stateFile)) {
+            // no replica to apply the changes to
+            this.save(state);
+            return;
+        }
+        long generation = getGeneration(this.readProperties());
+        if (!changes.isEmpty()) {
+            try (Writer writer = Files.newBufferedWriter(this.changesFile(generation), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                writeEntries(changes, writer);
+            }
+        }
+        this.writeProperties(state, generation);
+    }
+
+    private void writeProperties(SyncState state, long generation) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("searchBase", state.getSearchBase());
+        properties.setProperty("mode", state.getMode().name());
+        if (state.getCookie() != null) {
+            properties.setProperty("cookie", Base64.getEncoder().encodeToString(state.getCookie()));
+        }
+        properties.setProperty("highestCommittedUsn", Long.toString(state.getHighestCommittedUsn()));
+        if (state.getServerName() != null) {
+            properties.setProperty("serverName", state.getServerName());
+        }
+        properties.setProperty("lastSyncTime", Long.toString(state.getLastSyncTime()));
+        properties.setProperty("generation", Long.toString(generation));
+        Path stateTemp = Files.createTempFile(directory, STATE_FILE, ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(stateTemp, StandardCharsets.UTF_8)) {
+            properties.store(writer, "Active directory synchronization state");
+        }
+        Files.move(stateTemp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Properties readProperties() throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(stateFile, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return properties;
+    }
+
+    private Path replicaFile(long generation) {
+        return directory.resolve(String.format(REPLICA_FILE, generation));
+    }
+
+    private Path changesFile(long generation) {
+        return directory.resolve(String.format(CHANGES_FILE, generation));
+    }
+
+    private static long getGeneration(Properties properties) {
+        return Long.parseLong(properties.getProperty("generation", "0"));
+    }
+
+    private static void writeEntries(Collection<Entry> entries, Writer writer) throws IOException {
+        try {
+            for (Entry entry : entries) {
+                writer.write(LdifUtils.convertToLdif(entry));
+                writer.write('\n');
+            }
+        } catch (LdapException lde) {
+            throw new IOException("Cannot convert the replica to LDIF", lde);
+        }
+    }
+
+    private static List<Entry> readEntries(Path file) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        if (!Files.exists(file)) {
+            return entries;
+        }
+        try (LdifReader reader = new LdifReader(file.toFile())) {
+            for (LdifEntry ldifEntry : reader) {
+                if (ldifEntry.isEntry()) {
+                    entries.add(ldifEntry.getEntry());
+                }
+            }
+        } catch (LdapException lde) {
+            throw new IOException("Cannot read the replica file " + file, lde);
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.sync;
+
+/**
+ * How the changes of the directory are detected by a {@link DirectorySynchronizer}
+ */
+public enum SyncMode {
+
+    /**
+     * Changes are read with the DirSync control (1.2.840.113556.1.4.841).
+     * <p>
+     * The account of the connection needs the "Replicating Directory Changes" right on the domain.
+     */
+    DIRSYNC,
+
+    /**
+     * Changes are found by searching the entries whose uSNChanged is greater than the highest committed USN of the
+     * domain controller at the previous synchronization. Deleted entries are found with the Show Deleted control.
+     * <p>
+     * The USN is specific to a domain controller : a full synchronization is done when another controller answers.
+     */
+    USN_CHANGED
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.sync;
+
+/**
+ * Report of a synchronization made by a {@link DirectorySynchronizer}
+ */
+public class SyncResult {
+
+    private final SyncMode mode;
+    private final boolean fullSync;
+    private final int updatedCount;
+    private final int removedCount;
+    private final long durationMillis;
+
+    SyncResult(SyncMode mode, boolean fullSync, int updatedCount, int removedCount, long durationMillis) {
+        this.mode = mode;
+        this.fullSync = fullSync;
+        this.updatedCount = updatedCount;
+        this.removedCount = removedCount;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * Returns how the changes were read
+     * @return the synchronization mode
+     */
+    public SyncMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Tells whether all the entries were read, or only the changed ones
+     * @return true for a full synchronization
+     */
+    public boolean isFullSync() {
+        return fullSync;
+    }
+
+    /**
+     * Returns the number of objects added to or updated in the replica
+     * @return the number of updated objects
+     */
+    public int getUpdatedCount() {
+        return updatedCount;
+    }
+
+    /**
+     * Returns the number of objects removed from the replica (deleted, or moved out of the search base)
+     * @return the number of removed objects
+     */
+    public int getRemovedCount() {
+        return removedCount;
+    }
+
+    /**
+     * Returns the duration of the synchronization
+     * @return the duration in milliseconds
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * For debugging purpose
+     * @return the report
+     */
+    @Override
+    public String toString() {
+        return "Synchronization " + mode + (fullSync ? " (full)" : " (incremental)") +
+                " : " + updatedCount + " updated, " + removedCount + " removed in " + durationMillis + " ms";
+    }
+}
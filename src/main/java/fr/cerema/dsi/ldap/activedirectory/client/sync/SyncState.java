@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.sync;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * State of a {@link DirectorySynchronizer} after a synchronization : the watermark of the changes already read
+ * (DirSync cookie or highest committed USN), the entries of the replica as last saved entirely, and the entries
+ * changed since then
+ */
+public class SyncState {
+
+    private String searchBase;
+
+    private SyncMode mode;
+
+    private byte[] cookie;
+
+    private long highestCommittedUsn;
+
+    private String serverName;
+
+    private long lastSyncTime;
+
+    private Collection<Entry> entries = new ArrayList<>();
+
+    private Collection<Entry> changes = new ArrayList<>();
+
+    /**
+     * Returns the base of the synchronized entries
+     * @return the dn of the search base
+     */
+    public String getSearchBase() {
+        return searchBase;
+    }
+
+    /**
+     * Sets the base of the synchronized entries
+     * @param searchBase the dn of the search base
+     */
+    public void setSearchBase(String searchBase) {
+        this.searchBase = searchBase;
+    }
+
+    /**
+     * Returns how the changes were read
+     * @return the synchronization mode
+     */
+    public SyncMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Sets how the changes were read
+     * @param mode the synchronization mode
+     */
+    public void setMode(SyncMode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Returns the DirSync cookie returned by the last synchronization
+     * @return the cookie, null in {@link SyncMode#USN_CHANGED} mode
+     */
+    public byte[] getCookie() {
+        return cookie;
+    }
+
+    /**
+     * Sets the DirSync cookie
+     * @param cookie the cookie
+     */
+    public void setCookie(byte[] cookie) {
+        this.cookie = cookie;
+    }
+
+    /**
+     * Returns the highest committed USN of the domain controller before the last synchronization
+     * @return the USN, 0 in {@link SyncMode#DIRSYNC} mode
+     */
+    public long getHighestCommittedUsn() {
+        return highestCommittedUsn;
+    }
+
+    /**
+     * Sets the highest committed USN
+     * @param highestCommittedUsn the USN
+     */
+    public void setHighestCommittedUsn(long highestCommittedUsn) {
+        this.highestCommittedUsn = highestCommittedUsn;
+    }
+
+    /**
+     * Returns the dsServiceName of the domain controller which answered the last synchronization
+     * @return the dn of the domain controller's NTDS settings
+     */
+    public String getServerName() {
+        return serverName;
+    }
+
+    /**
+     * Sets the dsServiceName of the domain controller
+     * @param serverName the dn of the domain controller's NTDS settings
+     */
+    public void setServerName(String serverName) {
+        this.serverName = serverName;
+    }
+
+    /**
+     * Returns the time of the last synchronization
+     * @return the time in milliseconds since the epoch
+     */
+    public long getLastSyncTime() {
+        return lastSyncTime;
+    }
+
+    /**
+     * Sets the time of the last synchronization
+     * @param lastSyncTime the time in milliseconds since the epoch
+     */
+    public void setLastSyncTime(long lastSyncTime) {
+        this.lastSyncTime = lastSyncTime;
+    }
+
+    /**
+     * Returns the entries of the replica
+     * @return the entries
+     */
+    public Collection<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Sets the entries of the replica
+     * @param entries the entries
+     */
+    public void setEntries(Collection<Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Returns the entries changed since the entries of the replica were saved, in the order they were read : the
+     * deleted entries (isDeleted) and the entries moved out of the search base remove their object from the replica
+     * @return the changed entries
+     */
+    public Collection<Entry> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Sets the entries changed since the entries of the replica were saved
+     * @param changes the changed entries, in the order they were read
+     */
+    public void setChanges(Collection<Entry> changes) {
+        this.changes = changes;
+    }
+}
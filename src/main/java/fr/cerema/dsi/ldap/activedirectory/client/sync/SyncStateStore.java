@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2018 - Alain CHARLES
+ *
+ *  Licensed under the CeCILL Version 2.0 License (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *           http://www.cecill.info/licences/Licence_CeCILL_V2-fr.html
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License
+ */
+
+package fr.cerema.dsi.ldap.activedirectory.client.sync;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Persistence of the {@link SyncState} of a {@link DirectorySynchronizer}, so that a restarted application
+ * only reads the changes made since its last synchronization
+ * <p>
+ * The entries of the replica are only written entirely after a full synchronization, or when the changes saved since
+ * outnumber them : the incremental synchronizations only append their changes to a log, and replace the watermark.
+ */
+public interface SyncStateStore {
+
+    /**
+     * Reads the persisted state
+     * @return the state with the entries last saved and the changes appended since, or null if no state was saved
+     * @throws IOException if the state cannot be read
+     */
+    SyncState load() throws IOException;
+
+    /**
+     * Persists the state with all the entries of the replica, replacing the previous one and its changes
+     * @param state the state after a synchronization
+     * @throws IOException if the state cannot be written
+     */
+    void save(SyncState state) throws IOException;
+
+    /**
+     * Appends the changes of an incremental synchronization to the ones already saved, and replaces the watermark
+     * <p>
+     * The changes must be appended before the watermark is replaced : after a crash between the two writes,
+     * the next synchronization reads these changes again, which is harmless.
+     * @param state the state after the synchronization, its entries and changes being ignored
+     * @param changes the entries changed by the synchronization
+     * @throws IOException if the changes or the state cannot be written
+     */
+    void saveChanges(SyncState state, Collection<Entry> changes) throws IOException;
+}
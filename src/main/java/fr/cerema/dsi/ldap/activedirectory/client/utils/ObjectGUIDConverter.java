@@ -16,37 +16,274 @@
 
 package fr.cerema.dsi.ldap.activedirectory.client.utils;
 
+import java.util.Arrays;
+
+/**
+ * Active directory stores the objectGUID of any object as an array of 16 bytes.
+ * This class converts it into its registry format, {XXXXXXXX-XXXX-XXXX-XXXX-XXXXXXXXXXXX}, whose first three
+ * groups are written in little-endian order, and into the escaped binary form used in ldap search filters.
+ * <p>
+ * The conversions are table driven and write their characters directly, without intermediate strings.
+ * <p>
+ * Up to version 1.0-RC2, the bytes equal to 0x0F were written with a single digit ({@code F} instead of {@code 0F}),
+ * so that the strings of these objectGUIDs are shorter than 38 characters. The conversions from a string still accept
+ * this legacy form, as long as the position of the single digits can be told apart : a group such as {@code FFF}
+ * may stand for 0x0F 0xFF or 0xFF 0x0F, and is rejected.
+ */
 public class ObjectGUIDConverter {
 
-    private static String AddLeadingZero(int k) {
-        return (k<0xF)?"0" + Integer.toHexString(k):Integer.toHexString(k);
+    private static final int GUID_LENGTH = 16;
+
+    private static final int GUID_STRING_LENGTH = 38;
+
+    private static final char[] UPPER_HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * Value of the hexadecimal digits, indexed by character, -1 for the other characters
+     */
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 16; i++) {
+            HEX_VALUES["0123456789abcdef".charAt(i)] = (byte) i;
+            HEX_VALUES["0123456789ABCDEF".charAt(i)] = (byte) i;
+        }
     }
 
+    /**
+     * Index in the byte array of the n-th byte written in the registry format.
+     * The permutation is its own inverse.
+     */
+    private static final int[] BYTE_ORDER = {3, 2, 1, 0, 5, 4, 7, 6, 8, 9, 10, 11, 12, 13, 14, 15};
+
+    /**
+     * Number of bytes of each dash separated group of the registry format
+     */
+    private static final int[] GROUP_LENGTHS = {4, 2, 2, 2, 6};
+
+    /**
+     * Converts the objectGUID's array of bytes into its registry format
+     * @param GUID the array of 16 bytes
+     * @return the objectGUID, for instance {0A1B2C3D-4E5F-6A7B-8C9D-0E1F2A3B4C5D}
+     */
     public static String getObjectGUIDAsString(byte[] GUID) {
-        String strGUID = "{";
-        strGUID = "{";
-        strGUID = strGUID + AddLeadingZero((int)GUID[3] & 0xFF);
-        strGUID = strGUID + AddLeadingZero((int)GUID[2] & 0xFF);
-        strGUID = strGUID + AddLeadingZero((int)GUID[1] & 0xFF);
-        strGUID = strGUID + AddLeadingZero((int)GUID[0] & 0xFF);
-        strGUID = strGUID + "-";
-        strGUID = strGUID + AddLeadingZero((int)GUID[5] & 0xFF);
-        strGUID = strGUID + AddLeadingZero((int)GUID[4] & 0xFF);
-        strGUID = strGUID + "-";
-        strGUID = strGUID + AddLeadingZero((int)GUID[7] & 0xFF);
-        strGUID = strGUID + AddLeadingZero((int)GUID[6] & 0xFF);
-        strGUID = strGUID + "-";
-        strGUID = strGUID + AddLeadingZero((int)GUID[8] & 0xFF);
-        strGUID = strGUID + AddLeadingZero((int)GUID[9] & 0xFF);
-        strGUID = strGUID + "-";
-        strGUID = strGUID + AddLeadingZero((int)GUID[10] & 0xFF);
-        strGUID = strGUID + AddLeadingZero((int)GUID[11] & 0xFF);
-        strGUID = strGUID + AddLeadingZero((int)GUID[12] & 0xFF);
-        strGUID = strGUID + AddLeadingZero((int)GUID[13] & 0xFF);
-        strGUID = strGUID + AddLeadingZero((int)GUID[14] & 0xFF);
-        strGUID = strGUID + AddLeadingZero((int)GUID[15] & 0xFF);
-        strGUID = strGUID + "}";
-        return strGUID.toUpperCase();
+        checkLength(GUID);
+        char[] chars = new char[GUID_STRING_LENGTH];
+        int position = 0;
+        chars[position++] = '{';
+        for (int i = 0; i < GUID_LENGTH; i++) {
+            if (i == 4 || i == 6 || i == 8 || i == 10) {
+                chars[position++] = '-';
+            }
+            int b = GUID[BYTE_ORDER[i]] & 0xFF;
+            chars[position++] = UPPER_HEX_DIGITS[b >>> 4];
+            chars[position++] = UPPER_HEX_DIGITS[b & 0xF];
+        }
+        chars[position] = '}';
+        return new String(chars);
+    }
+
+    /**
+     * Appends the registry format of the objectGUID to the given builder, which can be reused between calls
+     * @param GUID the array of 16 bytes
+     * @param sb the builder
+     * @return the builder
+     */
+    public static StringBuilder appendObjectGUID(byte[] GUID, StringBuilder sb) {
+        checkLength(GUID);
+        sb.append('{');
+        for (int i = 0; i < GUID_LENGTH; i++) {
+            if (i == 4 || i == 6 || i == 8 || i == 10) {
+                sb.append('-');
+            }
+            int b = GUID[BYTE_ORDER[i]] & 0xFF;
+            sb.append(UPPER_HEX_DIGITS[b >>> 4]).append(UPPER_HEX_DIGITS[b & 0xF]);
+        }
+        return sb.append('}');
+    }
+
+    /**
+     * Converts the registry format of an objectGUID into its array of bytes (inverse of {@link #getObjectGUIDAsString(byte[])})
+     * @param objectGUID the objectGUID, with or without braces, in upper or lower case, or in the legacy form
+     * @return the array of 16 bytes
+     */
+    public static byte[] stringToBytes(String objectGUID) {
+        int offset = formatOffset(objectGUID);
+        if (offset < 0) {
+            return legacyStringToBytes(objectGUID);
+        }
+        byte[] GUID = new byte[GUID_LENGTH];
+        for (int i = 0; i < GUID_LENGTH; i++) {
+            int hex = offset + hexPosition(BYTE_ORDER[i]);
+            GUID[i] = (byte) (HEX_VALUES[objectGUID.charAt(hex)] << 4 | HEX_VALUES[objectGUID.charAt(hex + 1)]);
+        }
+        return GUID;
+    }
+
+    /**
+     * Converts the objectGUID's array of bytes into the escaped binary form used in ldap search filters
+     * @param GUID the array of 16 bytes
+     * @return the escaped value to use in an (objectGUID=...) filter
+     */
+    public static String getObjectGUIDAsFilterValue(byte[] GUID) {
+        checkLength(GUID);
+        return SidConverter.bytesToFilterValue(GUID);
+    }
+
+    /**
+     * Converts the registry format of an objectGUID into the escaped binary form used in ldap search filters,
+     * without building its array of bytes
+     * @param objectGUID the objectGUID, with or without braces, in upper or lower case, or in the legacy form
+     * @return the escaped value to use in an (objectGUID=...) filter
+     */
+    public static String stringToFilterValue(String objectGUID) {
+        int offset = formatOffset(objectGUID);
+        if (offset < 0) {
+            return getObjectGUIDAsFilterValue(legacyStringToBytes(objectGUID));
+        }
+        char[] chars = new char[GUID_LENGTH * 3];
+        int position = 0;
+        for (int i = 0; i < GUID_LENGTH; i++) {
+            int hex = offset + hexPosition(BYTE_ORDER[i]);
+            chars[position++] = '\\';
+            chars[position++] = Character.toLowerCase(objectGUID.charAt(hex));
+            chars[position++] = Character.toLowerCase(objectGUID.charAt(hex + 1));
+        }
+        return new String(chars);
     }
 
+    /**
+     * Returns the position of the two hexadecimal digits of the n-th byte of the registry format, without brace
+     */
+    static int hexPosition(int n) {
+        int dashes = n < 4 ? 0 : n < 6 ? 1 : n < 8 ? 2 : n < 10 ? 3 : 4;
+        return 2 * n + dashes;
+    }
+
+    /**
+     * Checks the registry format of an objectGUID
+     * @return the position of its first hexadecimal digit
+     */
+    static int checkFormat(String objectGUID) {
+        int offset = formatOffset(objectGUID);
+        if (offset < 0) {
+            throw invalid(objectGUID);
+        }
+        return offset;
+    }
+
+    /**
+     * Returns the position of the first hexadecimal digit of an objectGUID in registry format
+     * @return the position, or -1 if the string is not in registry format
+     */
+    private static int formatOffset(String objectGUID) {
+        int offset;
+        if (objectGUID != null && objectGUID.length() == GUID_STRING_LENGTH
+                && objectGUID.charAt(0) == '{' && objectGUID.charAt(GUID_STRING_LENGTH - 1) == '}') {
+            offset = 1;
+        } else if (objectGUID != null && objectGUID.length() == GUID_STRING_LENGTH - 2) {
+            offset = 0;
+        } else {
+            return -1;
+        }
+        for (int i = 0; i < GUID_STRING_LENGTH - 2; i++) {
+            char c = objectGUID.charAt(offset + i);
+            boolean valid = (i == 8 || i == 13 || i == 18 || i == 23) ? c == '-' : c < 128 && HEX_VALUES[c] >= 0;
+            if (!valid) {
+                return -1;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Converts the legacy form of an objectGUID, where the bytes 0x0F are written {@code F}, into its array of bytes
+     * @throws IllegalArgumentException if the string is not in legacy form, or if several objectGUIDs have this form
+     */
+    static byte[] legacyStringToBytes(String objectGUID) {
+        if (objectGUID == null || objectGUID.length() >= GUID_STRING_LENGTH) {
+            throw invalid(objectGUID);
+        }
+        int start = objectGUID.startsWith("{") ? 1 : 0;
+        int end = objectGUID.endsWith("}") ? objectGUID.length() - 1 : objectGUID.length();
+        if ((start == 1) != (end < objectGUID.length())) {
+            throw invalid(objectGUID);
+        }
+        String[] groups = objectGUID.substring(start, end).split("-", -1);
+        if (groups.length != GROUP_LENGTHS.length) {
+            throw invalid(objectGUID);
+        }
+        int[] displayed = new int[GUID_LENGTH];
+        int n = 0;
+        for (int g = 0; g < groups.length; g++) {
+            int[] bytes = new int[GROUP_LENGTHS[g]];
+            int decodings = decodeLegacyGroup(groups[g], 0, bytes, 0, new int[GROUP_LENGTHS[g]]);
+            if (decodings == 0) {
+                throw invalid(objectGUID);
+            } else if (decodings > 1) {
+                throw new IllegalArgumentException("Ambiguous objectGUID \"" + objectGUID + "\": the group \"" + groups[g]
+                        + "\" stands for several objectGUIDs, the bytes 0x0F having been written with a single digit.");
+            }
+            System.arraycopy(bytes, 0, displayed, n, bytes.length);
+            n += bytes.length;
+        }
+        byte[] GUID = new byte[GUID_LENGTH];
+        for (int i = 0; i < GUID_LENGTH; i++) {
+            GUID[BYTE_ORDER[i]] = (byte) displayed[i];
+        }
+        return GUID;
+    }
+
+    /**
+     * Counts the decodings of a legacy group from the given position, stopping at two : each byte is either two
+     * hexadecimal digits other than {@code 0F}, or a single {@code F} standing for 0x0F
+     * @param result receives the first decoding found
+     * @param current the bytes decoded so far
+     * @return 0, 1 or 2 (several decodings)
+     */
+    private static int decodeLegacyGroup(String group, int position, int[] result, int index, int[] current) {
+        if (index == current.length) {
+            if (position != group.length()) {
+                return 0;
+            }
+            System.arraycopy(current, 0, result, 0, current.length);
+            return 1;
+        }
+        int remaining = group.length() - position;
+        int bytesLeft = current.length - index;
+        if (remaining < bytesLeft || remaining > 2 * bytesLeft) {
+            return 0;
+        }
+        int decodings = 0;
+        if (remaining >= 2 && hexValue(group.charAt(position)) >= 0 && hexValue(group.charAt(position + 1)) >= 0) {
+            int b = hexValue(group.charAt(position)) << 4 | hexValue(group.charAt(position + 1));
+            if (b != 0x0F) {
+                current[index] = b;
+                decodings += decodeLegacyGroup(group, position + 2, result, index + 1, current);
+            }
+        }
+        if (decodings < 2 && (group.charAt(position) == 'F' || group.charAt(position) == 'f')) {
+            current[index] = 0x0F;
+            int[] other = decodings == 0 ? result : new int[result.length];
+            decodings += decodeLegacyGroup(group, position + 1, other, index + 1, current);
+        }
+        return Math.min(decodings, 2);
+    }
+
+    private static int hexValue(char c) {
+        return c < 128 ? HEX_VALUES[c] : -1;
+    }
+
+    private static IllegalArgumentException invalid(String objectGUID) {
+        return new IllegalArgumentException("Invalid objectGUID \"" + objectGUID
+                + "\": A valid objectGUID has the format {XXXXXXXX-XXXX-XXXX-XXXX-XXXXXXXXXXXX}.");
+    }
+
+    private static void checkLength(byte[] GUID) {
+        if (GUID.length != GUID_LENGTH) {
+            throw new IllegalArgumentException("Binary objectGUID representation must have 16 bytes but passed byte array has "
+                    + GUID.length + " bytes.");
+        }
+    }
 }
@@ -23,8 +23,15 @@ import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.name.Rdn;
 
+import java.util.Locale;
+
 public class PathHelpers {
 
+    /**
+     * The dn of the organizational unit the paths of the organizational units are relative to
+     */
+    public static final String PATH_ROOT_DN = "OU=Structure Amande, DC=lab, DC=Cerema, DC=fr";
+
     public static String getUoPath(String dn) throws ActiveDirectoryClientException {
         String uoPATH = "";
         try {
@@ -41,8 +48,50 @@ public class PathHelpers {
         return uoPATH;
     }
 
+    /**
+     * Returns the dn of the domain holding the given dn (ie. its trailing DC components)
+     * @param dn the dn of an object of the domain
+     * @return the dn of the domain, for instance DC=lab,DC=Cerema,DC=fr
+     * @throws ActiveDirectoryClientException if the given dn is not valid
+     */
+    public static String getDomainDn(String dn) throws ActiveDirectoryClientException {
+        StringBuilder domainDn = new StringBuilder();
+        try {
+            Dn name = new Dn(dn);
+            for (Rdn rdn : name.getRdns()) {
+                if ("DC".equalsIgnoreCase(rdn.getType())) {
+                    if (domainDn.length() > 0) {
+                        domainDn.append(',');
+                    }
+                    domainDn.append(rdn.getName());
+                } else {
+                    domainDn.setLength(0);
+                }
+            }
+        } catch (LdapInvalidDnException e) {
+            throw new ActiveDirectoryClientInvalidDnException(dn + " is not a valid distinguishedName", e);
+        }
+        return domainDn.toString();
+    }
+
+    /**
+     * Returns a key identifying a dn whatever the case and the spaces between its components
+     * @param dn the dn
+     * @return the key, for instance ou=dir,ou=structure amande,dc=lab,dc=cerema,dc=fr
+     */
+    public static String getDnKey(Dn dn) {
+        StringBuilder key = new StringBuilder();
+        for (Rdn rdn : dn.getRdns()) {
+            if (key.length() > 0) {
+                key.append(',');
+            }
+            key.append(rdn.getType().trim()).append('=').append(rdn.getValue().trim());
+        }
+        return key.toString().toLowerCase(Locale.ROOT);
+    }
+
     public static String createDnFromPath(String path) throws ActiveDirectoryClientException {
-        String dn = "OU=Structure Amande, DC=lab, DC=Cerema, DC=fr";
+        String dn = PATH_ROOT_DN;
         String[] ous = path.split("/");
         for (String ou : ous) {
             dn = "OU=" + ou + ", " + dn;
@@ -16,13 +16,12 @@
 
 package fr.cerema.dsi.ldap.activedirectory.client.utils;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-
 /**
  * Active directory stores the objectSid of any object as an array of bytes.
  * This class allows to convert it into the Sid human readable representation.
  * Il allows also to convert the human readable String representation into the array of byte representation.
+ * <p>
+ * The conversions read and write the bytes and characters directly, without buffers nor intermediate arrays.
  */
 public class SidConverter {
 
@@ -30,12 +29,27 @@ public class SidConverter {
     private final static long MASK_32_BIT = 0xffffffffL;
     private final static long MASK_48_BIT = 0xffffffffffffL;
 
+    private final static char[] LOWER_HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     /**
      * Converts the objectSid's array of bytes into the Sid String representation
      * @param bytes the array og  bytes
      * @return the sid string representation
      */
     public static String bytesToString(byte[] bytes) {
+        // S-255-281474976710655 and up to 255 sub-authorities of at most 10 digits
+        StringBuilder sb = new StringBuilder(24 + ((bytes.length - 8) / 4) * 11);
+        return appendString(bytes, sb).toString();
+    }
+
+    /**
+     * Appends the Sid String representation of the objectSid's array of bytes to the given builder,
+     * which can be reused between calls
+     * @param bytes the array of bytes
+     * @param sb the builder
+     * @return the builder
+     */
+    public static StringBuilder appendString(byte[] bytes, StringBuilder sb) {
         if (bytes.length < 8) {
             throw new IllegalArgumentException(
                     "Binary SID representation must have at least 8 bytes but passed byte array has only "
@@ -55,24 +69,60 @@ public class SidConverter {
         }
         // The authority is a 48-bit unsigned integer stored in big-endian
         // format.
-        ByteBuffer bb = ByteBuffer.wrap(bytes);
-        long authority = bb.getLong() & MASK_48_BIT;
+        long authority = 0;
+        for (int i = 2; i < 8; i++) {
+            authority = (authority << 8) | (bytes[i] & MASK_8_BIT);
+        }
+        sb.append("S-").append(revision).append('-').append(authority);
         // The sub-authority consists of up to 255 32-bit unsigned integers in
-        // little-endian format. The number of integers is specified by
-        // numberOfSubAuthorityParts.
-        int[] subAuthority = new int[numberOfSubAuthorityParts];
-        bb.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(subAuthority);
-        StringBuilder sb = new StringBuilder();
-        sb.append("S-");
-        sb.append(revision);
-        sb.append("-");
-        sb.append(authority);
+        // little-endian format.
+        for (int offset = 8; offset < bytes.length; offset += 4) {
+            long subAuthorityPart = (bytes[offset] & MASK_8_BIT)
+                    | (bytes[offset + 1] & MASK_8_BIT) << 8
+                    | (bytes[offset + 2] & MASK_8_BIT) << 16
+                    | (long) (bytes[offset + 3] & MASK_8_BIT) << 24;
+            sb.append('-').append(subAuthorityPart);
+        }
+        return sb;
+    }
+
+    /**
+     * Converts the objectSid's string representation into the escaped binary form used in ldap search filters
+     * (for instance \01\05\00\00...)
+     * @param sid the String representation of the objectSid
+     * @return the escaped value to use in an (objectSid=...) filter
+     */
+    public static String stringToFilterValue(String sid) {
+        return bytesToFilterValue(stringToBytes(sid));
+    }
 
-        for (int subAuthorityPart : subAuthority) {
-            sb.append("-");
-            sb.append(subAuthorityPart & MASK_32_BIT);
+    /**
+     * Converts an array of bytes into the escaped binary form used in ldap search filters
+     * @param bytes the array of bytes
+     * @return the escaped value, each byte being written as a backslash followed by two hexadecimal digits
+     */
+    public static String bytesToFilterValue(byte[] bytes) {
+        char[] chars = new char[bytes.length * 3];
+        int position = 0;
+        for (byte b : bytes) {
+            chars[position++] = '\\';
+            chars[position++] = LOWER_HEX_DIGITS[(b >> 4) & 0xF];
+            chars[position++] = LOWER_HEX_DIGITS[b & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Appends the escaped binary form of an array of bytes to the given builder, which can be reused between calls
+     * @param bytes the array of bytes
+     * @param sb the builder
+     * @return the builder
+     */
+    public static StringBuilder appendFilterValue(byte[] bytes, StringBuilder sb) {
+        for (byte b : bytes) {
+            sb.append('\\').append(LOWER_HEX_DIGITS[(b >> 4) & 0xF]).append(LOWER_HEX_DIGITS[b & 0xF]);
         }
-        return sb.toString();
+        return sb;
     }
 
     /**
@@ -85,74 +135,88 @@ public class SidConverter {
             throw new IllegalArgumentException("Invalid SID \"" + sid
                     + "\": A valid SID must start with \"S-\".");
         }
-        String[] parts = sid.split("-");
-        if (parts.length < 3) {
+        int dashes = 0;
+        for (int i = 0; i < sid.length(); i++) {
+            if (sid.charAt(i) == '-') {
+                dashes++;
+            }
+        }
+        if (dashes < 2) {
             throw new IllegalArgumentException("Invalid SID \"" + sid
                     + "\": A valid SID must have at least two dashes.");
         }
-        if (parts.length > MASK_8_BIT + 3) {
+        if (dashes > MASK_8_BIT + 2) {
             throw new IllegalArgumentException("Invalid SID \"" + sid
                     + "\": A valid SID must not have more than 257 dashes.");
         }
-        int revision;
-        try {
-            revision = Integer.parseInt(parts[1]);
-        } catch (NumberFormatException e) {
-            throw new IllegalArgumentException(
-                    "Invalid revision part in SID \""
-                            + sid
-                            + "\": The revision must be an integer number between 0 and 255.");
-        }
+        int start = 2;
+        int end = nextDash(sid, start);
+        long revision = parseUnsigned(sid, start, end);
         if (revision < 0 || revision > MASK_8_BIT) {
             throw new IllegalArgumentException(
                     "Invalid revision part in SID \""
                             + sid
                             + "\": The revision must be an integer number between 0 and 255.");
         }
-        int numberOfSubAuthorityParts = parts.length - 3;
-        long authority;
-        try {
-            authority = Long.parseLong(parts[2]);
-        } catch (NumberFormatException e) {
-            throw new IllegalArgumentException(
-                    "Invalid authority part in SID \""
-                            + sid
-                            + "\": The authority must be an integer number between 0 and 281474976710655.");
-        }
+        start = end + 1;
+        end = nextDash(sid, start);
+        long authority = parseUnsigned(sid, start, end);
         if (authority < 0 || authority > MASK_48_BIT) {
             throw new IllegalArgumentException(
                     "Invalid authority part in SID \""
                             + sid
                             + "\": The authority must be an integer number between 0 and 281474976710655.");
         }
-        int[] subAuthority = new int[numberOfSubAuthorityParts];
-        for (int i = 0; i < numberOfSubAuthorityParts; i++) {
-            long subAuthorityPart;
-            try {
-                subAuthorityPart = Long.parseLong(parts[3 + i]);
-            } catch (NumberFormatException e) {
-                throw new IllegalArgumentException(
-                        "Invalid sub-authority part in SID \""
-                                + sid
-                                + "\": The sub-authority parts must be integer numbers between 0 and 4294967295.");
-            }
+        int numberOfSubAuthorityParts = dashes - 2;
+        byte[] bytes = new byte[8 + numberOfSubAuthorityParts * 4];
+        bytes[0] = (byte) revision;
+        bytes[1] = (byte) numberOfSubAuthorityParts;
+        // The authority is written in big-endian format
+        for (int i = 7; i >= 2; i--) {
+            bytes[i] = (byte) authority;
+            authority >>>= 8;
+        }
+        // and the sub-authorities in little-endian format
+        for (int offset = 8; offset < bytes.length; offset += 4) {
+            start = end + 1;
+            end = nextDash(sid, start);
+            long subAuthorityPart = parseUnsigned(sid, start, end);
             if (subAuthorityPart < 0 || subAuthorityPart > MASK_32_BIT) {
                 throw new IllegalArgumentException(
                         "Invalid sub-authority part in SID \""
                                 + sid
                                 + "\": The sub-authority parts must be integer numbers between 0 and 4294967295.");
             }
-            subAuthority[i] = (int) subAuthorityPart;
+            bytes[offset] = (byte) subAuthorityPart;
+            bytes[offset + 1] = (byte) (subAuthorityPart >>> 8);
+            bytes[offset + 2] = (byte) (subAuthorityPart >>> 16);
+            bytes[offset + 3] = (byte) (subAuthorityPart >>> 24);
         }
-        byte[] bytes = new byte[8 + numberOfSubAuthorityParts * 4];
-        // We have to write the authority first, otherwise it would overwrite
-        // the revision and length bytes.
-        ByteBuffer.wrap(bytes).putLong(authority);
-        bytes[0] = (byte) revision;
-        bytes[1] = (byte) numberOfSubAuthorityParts;
-        ByteBuffer.wrap(bytes, 8, bytes.length - 8)
-                .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(subAuthority);
         return bytes;
     }
 
+    private static int nextDash(String sid, int from) {
+        int dash = sid.indexOf('-', from);
+        return dash < 0 ? sid.length() : dash;
+    }
+
+    /**
+     * Parses the decimal digits between from and to
+     * @return the value, or -1 if the part is empty, too long or holds other characters than digits
+     */
+    private static long parseUnsigned(String sid, int from, int to) {
+        if (from >= to || to - from > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            char c = sid.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
 }